@@ -0,0 +1,119 @@
+/*
+ * Copyright 2021, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.container.concurrent;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * A global read/write barrier, use convenience methods {@link #withReadBarrier} and {@link #withWriteBarrier}.
+ * <p>
+ * Any number of threads can hold the read side concurrently (e.g. asset processing lanes), the write side is
+ * exclusive and waits for all readers to complete (e.g. protocol or ruleset deployment changes). The write side
+ * must always be acquired before the {@link GlobalLock} and never while holding the read side, otherwise the
+ * caller will block until {@link #getBarrierTimeoutMillis()} expires.
+ */
+public class GlobalBarrier {
+
+    private static final Logger LOG = Logger.getLogger(GlobalBarrier.class.getName());
+
+    static protected final ReentrantReadWriteLock barrier = new ReentrantReadWriteLock(true);
+
+    protected GlobalBarrier() {
+    }
+
+    /**
+     * @return Defaults to 30 seconds.
+     */
+    static public int getBarrierTimeoutMillis() {
+        return GlobalLock.getLockTimeoutMillis();
+    }
+
+    /**
+     * Obtain the shared side of the barrier within {@link #getBarrierTimeoutMillis()} or throw {@link
+     * IllegalStateException}, also when interrupted while waiting.
+     *
+     * @param info     An informal text that is printed in log messages.
+     * @param runnable The guarded code to execute while holding the barrier.
+     */
+    static public void withReadBarrier(String info, Runnable runnable) {
+        withBarrier(barrier.readLock(), "read", info, () -> {
+            runnable.run();
+            return null;
+        });
+    }
+
+    /**
+     * Obtain the exclusive side of the barrier within {@link #getBarrierTimeoutMillis()} or throw {@link
+     * IllegalStateException}, also when interrupted while waiting.
+     *
+     * @param info     An informal text that is printed in log messages.
+     * @param runnable The guarded code to execute while holding the barrier.
+     */
+    static public void withWriteBarrier(String info, Runnable runnable) {
+        withWriteBarrierReturning(info, () -> {
+            runnable.run();
+            return null;
+        });
+    }
+
+    /**
+     * Obtain the exclusive side of the barrier within {@link #getBarrierTimeoutMillis()} or throw {@link
+     * IllegalStateException}, also when interrupted while waiting.
+     *
+     * @param info     An informal text that is printed in log messages.
+     * @param supplier The guarded code to execute while holding the barrier.
+     */
+    static public <R> R withWriteBarrierReturning(String info, Supplier<R> supplier) {
+        return withBarrier(barrier.writeLock(), "write", info, supplier);
+    }
+
+    static protected <R> R withBarrier(Lock lock, String side, String info, Supplier<R> supplier) {
+        if (barrier.getReadHoldCount() > 0 && lock == barrier.writeLock()) {
+            throw new IllegalStateException(
+                "Cannot acquire " + side + " barrier whilst holding the read barrier: " + Thread.currentThread().getName() + " executing " + info
+            );
+        }
+        try {
+            if (lock.tryLock(getBarrierTimeoutMillis(), TimeUnit.MILLISECONDS)) {
+                LOG.finest("+ Acquired " + side + " barrier: " + info);
+                try {
+                    return supplier.get();
+                } finally {
+                    LOG.finest("- Releasing " + side + " barrier: " + info);
+                    lock.unlock();
+                }
+            } else {
+                throw new IllegalStateException(
+                    "Could not acquire " + side + " barrier after waiting " + getBarrierTimeoutMillis() + "ms: " + Thread.currentThread().getName() + " executing " + info
+                );
+            }
+        } catch (InterruptedException ex) {
+            // The guarded code didn't run, callers must not continue as if it did
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(
+                "Interrupted while waiting for " + side + " barrier: " + Thread.currentThread().getName() + " executing " + info, ex
+            );
+        }
+    }
+}
@@ -150,12 +150,15 @@ public class WebServiceExceptions {
         logException(throwable, origin, request.getMethod() + " " + uriInfo.getRequestUri());
 
         int statusCode = 500;
+        MultivaluedMap<String, Object> headers = null;
         if (throwable instanceof WebApplicationException) {
             Response response = ((WebApplicationException) throwable).getResponse();
             switch (response.getStatusInfo().getFamily()) {
                 case CLIENT_ERROR:
                 case SERVER_ERROR:
                     statusCode = response.getStatus();
+                    // Keep headers such as Retry-After, only the entity is replaced with the error
+                    headers = response.getHeaders();
                     break;
                 default:
                     // If it's not a client or server error, it's not really an "exception" to
@@ -164,10 +167,18 @@ public class WebServiceExceptions {
             }
         }
         try {
+            Response.ResponseBuilder builder = Response.status(statusCode);
+            if (headers != null) {
+                headers.forEach((name, values) -> {
+                    if (!HttpHeaders.CONTENT_TYPE.equalsIgnoreCase(name) && !HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(name)) {
+                        values.forEach(value -> builder.header(name, value));
+                    }
+                });
+            }
             if (devMode) {
-                return Response.status(statusCode).entity(renderDevModeError(statusCode, throwable)).type(TEXT_PLAIN_TYPE).build();
+                return builder.entity(renderDevModeError(statusCode, throwable)).type(TEXT_PLAIN_TYPE).build();
             } else {
-                return Response.status(statusCode).entity(renderProductionError(statusCode, throwable)).type(TEXT_PLAIN_TYPE).build();
+                return builder.entity(renderProductionError(statusCode, throwable)).type(TEXT_PLAIN_TYPE).build();
             }
         } catch (Exception ex) {
             LOG.log(Level.SEVERE, "Couldn't render server error trace response", ex);
@@ -66,6 +66,7 @@ import java.util.stream.Stream;
 
 import static java.util.stream.Collectors.mapping;
 import static java.util.stream.Collectors.toList;
+import static org.openremote.container.concurrent.GlobalBarrier.withWriteBarrier;
 import static org.openremote.container.concurrent.GlobalLock.withLock;
 import static org.openremote.container.concurrent.GlobalLock.withLockReturning;
 import static org.openremote.container.persistence.PersistenceEvent.PERSISTENCE_TOPIC;
@@ -145,13 +146,13 @@ public class AgentService extends RouteBuilder implements ContainerService, Asse
         Collection<Agent<?, ?, ?>> agents = getAgents().values();
         LOG.fine("Found agent count = " + agents.size());
 
-        agents.stream().forEach(this::doAgentInit);
+        withWriteBarrier(getClass().getSimpleName() + "::start", () -> agents.forEach(this::doAgentInit));
     }
 
     @Override
     public void stop(Container container) throws Exception {
         List<Agent<?,?,?>> agents = new ArrayList<>(agentMap.values());
-        agents.forEach(agent -> this.stopAgent(agent.getId()));
+        withWriteBarrier(getClass().getSimpleName() + "::stop", () -> agents.forEach(agent -> this.stopAgent(agent.getId())));
         agentMap.clear();
         protocolInstanceMap.clear();
     }
@@ -166,10 +167,14 @@ public class AgentService extends RouteBuilder implements ContainerService, Asse
             .process(exchange -> {
                 PersistenceEvent<Asset<?>> persistenceEvent = (PersistenceEvent<Asset<?>>)exchange.getIn().getBody(PersistenceEvent.class);
 
+                // Protocol deployment changes must not overlap with asset processing
                 if (isPersistenceEventForEntityType(Agent.class).matches(exchange)) {
                     PersistenceEvent<Agent<?, ?, ?>> agentEvent = (PersistenceEvent<Agent<?,?,?>>)(PersistenceEvent<?>)persistenceEvent;
-                    processAgentChange(agentEvent);
+                    withWriteBarrier(getClass().getSimpleName() + "::processAgentChange", () -> processAgentChange(agentEvent));
+                } else if (isAgentLinkChange(persistenceEvent)) {
+                    withWriteBarrier(getClass().getSimpleName() + "::processAssetChange", () -> processAssetChange(persistenceEvent));
                 } else {
+                    // Nothing is linked or unlinked, don't stop the asset queue lanes
                     processAssetChange(persistenceEvent);
                 }
             });
@@ -290,6 +295,36 @@ public class AgentService extends RouteBuilder implements ContainerService, Asse
         return agent;
     }
 
+    /**
+     * @return <code>true</code> if the change of the asset will link or unlink any AGENT_LINK attributes with the
+     * protocol, only then must processing of the change exclude the asset queue lanes.
+     */
+    protected boolean isAgentLinkChange(PersistenceEvent<Asset<?>> persistenceEvent) {
+        switch (persistenceEvent.getCause()) {
+            case CREATE:
+            case DELETE:
+                return persistenceEvent.getEntity().getAttributes().stream().anyMatch(attr -> attr.hasMeta(AGENT_LINK));
+            case UPDATE:
+                if (!Arrays.asList(persistenceEvent.getPropertyNames()).contains("attributes")) {
+                    return false;
+                }
+
+                List<Attribute<?>> oldLinkedAttributes = ((AttributeMap)persistenceEvent.getPreviousState("attributes"))
+                    .stream()
+                    .filter(attr -> attr.hasMeta(AGENT_LINK))
+                    .collect(toList());
+
+                List<Attribute<?>> newLinkedAttributes = ((AttributeMap) persistenceEvent.getCurrentState("attributes"))
+                    .stream()
+                    .filter(attr -> attr.hasMeta(AGENT_LINK))
+                    .collect(toList());
+
+                return getAddedOrModifiedAttributes(newLinkedAttributes, oldLinkedAttributes).findAny().isPresent()
+                    || newLinkedAttributes.stream().anyMatch(attr -> !oldLinkedAttributes.contains(attr));
+        }
+        return false;
+    }
+
     /**
      * Looks for new, modified and obsolete AGENT_LINK attributes and links / unlinks them
      * with the protocol
@@ -545,7 +580,10 @@ public class AgentService extends RouteBuilder implements ContainerService, Asse
 
                 if (source == CLIENT && agent.isConfigurationAttribute(attribute.getName())) {
                     LOG.finer("Agent attribute event occurred from a client for an agent config attribute so updating: agent=" + agent.getId() + ", event=" + attributeEvent);
-                    onAgentUpdated(agent);
+                    // Restarting the protocol needs the write barrier which can't be taken from an asset queue lane
+                    executorService.execute(() ->
+                        withWriteBarrier(getClass().getSimpleName() + "::onAgentUpdated", () -> onAgentUpdated(agent))
+                    );
                 }
             }
 
@@ -553,21 +591,19 @@ public class AgentService extends RouteBuilder implements ContainerService, Asse
             return false;
         }
 
-        Boolean result = withLockReturning(getClass().getSimpleName() + "::processAssetUpdate", () ->
-            attribute.getMetaValue(AGENT_LINK)
-                .map(agentLink -> {
-                    LOG.finer("Attribute write for agent linked attribute: agent=" + agentLink.getId() + ", asset=" + asset.getId() + ", attribute=" + attribute.getName());
+        // Protocol instances are only modified whilst holding the write barrier so no lock is needed here
+        return attribute.getMetaValue(AGENT_LINK)
+            .map(agentLink -> {
+                LOG.finer("Attribute write for agent linked attribute: agent=" + agentLink.getId() + ", asset=" + asset.getId() + ", attribute=" + attribute.getName());
 
-                    messageBrokerService.getProducerTemplate().sendBodyAndHeader(
-                        ACTUATOR_TOPIC,
-                        attributeEvent,
-                        Protocol.ACTUATOR_TOPIC_TARGET_PROTOCOL,
-                        getProtocolInstance(agentLink.getId())
-                    );
-                    return true; // Processing complete, skip other processors
-                }).orElse(false) // This is a regular attribute so allow the processing to continue
-        );
-        return result != null ? result : false;
+                messageBrokerService.getProducerTemplate().sendBodyAndHeader(
+                    ACTUATOR_TOPIC,
+                    attributeEvent,
+                    Protocol.ACTUATOR_TOPIC_TARGET_PROTOCOL,
+                    getProtocolInstance(agentLink.getId())
+                );
+                return true; // Processing complete, skip other processors
+            }).orElse(false); // This is a regular attribute so allow the processing to continue
     }
 
     /**
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2021, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.asset;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.openremote.model.asset.Asset;
+import org.openremote.model.attribute.Attribute;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of complete {@link Asset}s, cached instances are immutable snapshots that are never handed out or
+ * modified. Callers get a structural copy (see {@link Asset#copy}) that shares the attributes with the snapshot, so
+ * attributes must be replaced rather than modified in place. Entries are replaced when attribute values are written
+ * through and are removed when the asset is modified by any other means.
+ * <p>
+ * A copy loaded from the database is only cached if no asset was invalidated while it was being loaded, obtain
+ * {@link #getInvalidations} before the query and pass it to {@link #put}.
+ */
+public class AssetCache {
+
+    final protected Cache<String, Asset<?>> assets;
+    final protected AtomicLong invalidations = new AtomicLong();
+    final protected boolean enabled;
+
+    public AssetCache(int maximumSize) {
+        this.enabled = maximumSize > 0;
+        this.assets = CacheBuilder.newBuilder()
+            .maximumSize(Math.max(0, maximumSize))
+            .build();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public long getInvalidations() {
+        return invalidations.get();
+    }
+
+    /**
+     * @return A copy of the cached asset or <code>null</code> if the asset is not cached.
+     */
+    public Asset<?> get(String assetId) {
+        if (!enabled) {
+            return null;
+        }
+        Asset<?> asset = assets.getIfPresent(assetId);
+        return asset != null ? asset.copy() : null;
+    }
+
+    /**
+     * Caches a structural copy of the asset if no asset has been invalidated since the given invalidation count was obtained.
+     */
+    public void put(Asset<?> asset, long loadedAtInvalidations) {
+        if (!enabled || invalidations.get() != loadedAtInvalidations) {
+            return;
+        }
+        assets.put(asset.getId(), asset.copy());
+
+        // An invalidation may have happened concurrently, the cached copy could already be stale
+        if (invalidations.get() != loadedAtInvalidations) {
+            assets.invalidate(asset.getId());
+        }
+    }
+
+    /**
+     * Replaces the attributes of the cached asset after their values have been committed, does nothing if the asset
+     * is not cached.
+     */
+    public void putAttributes(String assetId, Collection<Attribute<?>> attributes) {
+        if (!enabled) {
+            return;
+        }
+        assets.asMap().computeIfPresent(assetId, (id, asset) -> {
+            // Only the changed attributes are copied, the new snapshot shares all other attributes
+            Asset<?> updatedAsset = asset.copy();
+            attributes.forEach(attribute -> updatedAsset.getAttributes().addOrReplace(attribute.copy()));
+            return updatedAsset;
+        });
+    }
+
+    public void invalidate(String assetId) {
+        if (!enabled) {
+            return;
+        }
+        invalidations.incrementAndGet();
+        assets.invalidate(assetId);
+    }
+
+    public void invalidateAll() {
+        invalidations.incrementAndGet();
+        assets.invalidateAll();
+    }
+
+    public long size() {
+        return assets.size();
+    }
+}
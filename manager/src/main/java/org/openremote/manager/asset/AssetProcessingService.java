@@ -19,9 +19,11 @@
  */
 package org.openremote.manager.asset;
 
-import org.apache.camel.Exchange;
-import org.apache.camel.Processor;
+import org.apache.camel.ExchangeTimedOutException;
 import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.util.ExchangeHelper;
+import org.openremote.container.concurrent.ContainerExecutor;
+import org.openremote.container.concurrent.GlobalBarrier;
 import org.openremote.container.message.MessageBrokerService;
 import org.openremote.container.persistence.PersistenceService;
 import org.openremote.container.security.AuthContext;
@@ -41,20 +43,22 @@ import org.openremote.model.asset.AssetResource;
 import org.openremote.model.asset.agent.Protocol;
 import org.openremote.model.attribute.*;
 import org.openremote.model.attribute.AttributeEvent.Source;
+import org.openremote.model.event.shared.SharedEvent;
 import org.openremote.model.security.ClientRole;
+import org.openremote.model.util.Pair;
 import org.openremote.model.util.ValueUtil;
 import org.openremote.model.value.MetaItemType;
 import org.openremote.model.value.ValueType;
 
 import javax.persistence.EntityManager;
-import java.util.ArrayList;
-import java.util.Date;
-import java.util.List;
-import java.util.Optional;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import static org.openremote.container.concurrent.GlobalLock.withLock;
+import static org.openremote.container.concurrent.GlobalBarrier.withReadBarrier;
+import static org.openremote.container.util.MapAccess.getInteger;
 import static org.openremote.model.attribute.AttributeWriteFailure.*;
 import static org.openremote.manager.event.ClientEventService.CLIENT_EVENT_TOPIC;
 import static org.openremote.model.attribute.AttributeEvent.HEADER_SOURCE;
@@ -80,6 +84,13 @@ import static org.openremote.model.value.MetaItemType.AGENT_LINK;
  * at any point then an {@link AssetProcessingException} will be logged as a warning with an
  * {@link AttributeWriteFailure}.
  * <p>
+ * Events are hashed by asset ID onto {@link #ASSET_QUEUE_PARTITIONS} ordered lanes, so events for the same asset are
+ * always processed in the order they were queued whilst events for unrelated assets can be processed in parallel.
+ * Lanes hold the read side of the {@link GlobalBarrier}, protocol and ruleset deployment changes hold the write side.
+ * A lane processes up to {@link #ASSET_QUEUE_BATCH_SIZE} queued events in one database transaction and stores their
+ * values with a single batched update, clients are notified once the batch has been committed. The assets are read
+ * from the {@link AssetCache} and the committed values are written through to it.
+ * <p>
  * Once successfully validated a chain of {@link AssetUpdateProcessor}s is handling the update message:
  * <ul>
  * <li>{@link AgentService}</li>
@@ -122,10 +133,58 @@ import static org.openremote.model.value.MetaItemType.AGENT_LINK;
 @SuppressWarnings("unchecked")
 public class AssetProcessingService extends RouteBuilder implements ContainerService {
 
+    /**
+     * An {@link AttributeEvent} waiting in an asset queue lane, the outcome is available to the producer once
+     * the event has been processed.
+     */
+    protected static class QueuedAttributeEvent {
+        final protected AttributeEvent event;
+        final protected Source source;
+        final protected AuthContext authContext;
+        final protected String protocolName;
+        final protected CountDownLatch processed = new CountDownLatch(1);
+        protected volatile AssetProcessingException failure;
+
+        public QueuedAttributeEvent(AttributeEvent event, Source source, AuthContext authContext, String protocolName) {
+            this.event = event;
+            this.source = source;
+            this.authContext = authContext;
+            this.protocolName = protocolName;
+        }
+
+        protected void release() {
+            processed.countDown();
+        }
+    }
+
+    /**
+     * Rolls back the transaction of a batch when the values of some of its assets could not be stored.
+     */
+    protected static class StorageFailedException extends RuntimeException {
+        final protected Set<String> failedAssetIds;
+
+        public StorageFailedException(Set<String> failedAssetIds) {
+            super("Failed to store attribute values of assets: " + failedAssetIds);
+            this.failedAssetIds = failedAssetIds;
+        }
+    }
+
     public static final int PRIORITY = AssetStorageService.PRIORITY + 1000;
+    // Number of ordered lanes that attribute events are hashed onto by asset ID, events for the same asset are always
+    // processed in order but events for different assets can be processed in parallel when this is greater than 1
+    public static final String ASSET_QUEUE_PARTITIONS = "ASSET_QUEUE_PARTITIONS";
+    public static final int ASSET_QUEUE_PARTITIONS_DEFAULT = 1;
+    // Maximum number of attribute events a lane processes and stores in one database transaction
+    public static final String ASSET_QUEUE_BATCH_SIZE = "ASSET_QUEUE_BATCH_SIZE";
+    public static final int ASSET_QUEUE_BATCH_SIZE_DEFAULT = 1;
+    // Maximum time a lane waits for more attribute events to fill a batch, 0 only batches events that are already queued
+    public static final String ASSET_QUEUE_BATCH_MILLIS = "ASSET_QUEUE_BATCH_MILLIS";
+    public static final int ASSET_QUEUE_BATCH_MILLIS_DEFAULT = 0;
+    // Message topic for communicating individual asset attribute changes, dispatches on the caller thread to a lane
+    public static final String ASSET_QUEUE = "direct://AssetQueue";
     // TODO: Some of these options should be configurable depending on expected load etc.
-    // Message topic for communicating individual asset attribute changes
-    public static final String ASSET_QUEUE = "seda://AssetQueue?waitForTaskToComplete=IfReplyExpected&timeout=10000&purgeWhenStopping=true&discardIfNoConsumers=false&size=25000";
+    protected static final int ASSET_QUEUE_LANE_CAPACITY = 25000;
+    protected static final int ASSET_QUEUE_REPLY_TIMEOUT_MILLIS = 10000;
     private static final Logger LOG = Logger.getLogger(AssetProcessingService.class.getName());
     final protected List<AssetUpdateProcessor> processors = new ArrayList<>();
     protected TimerService timerService;
@@ -139,40 +198,34 @@ public class AssetProcessingService extends RouteBuilder implements ContainerSer
     protected AttributeLinkingService assetAttributeLinkingService;
     protected MessageBrokerService messageBrokerService;
     protected ClientEventService clientEventService;
+    protected int assetQueuePartitions;
+    protected int assetQueueBatchSize;
+    protected int assetQueueBatchMillis;
+    protected List<BlockingQueue<QueuedAttributeEvent>> assetQueueLanes;
+    protected long assetQueueReplyTimeoutMillis = ASSET_QUEUE_REPLY_TIMEOUT_MILLIS;
+    protected ExecutorService assetQueueExecutor;
     // Used in testing to detect if initial/startup processing has completed
-    protected long lastProcessedEventTimestamp = System.currentTimeMillis();
+    protected volatile long lastProcessedEventTimestamp = System.currentTimeMillis();
 
-    protected static Processor handleAssetProcessingException(Logger logger) {
-        return exchange -> {
-            AttributeEvent event = exchange.getIn().getBody(AttributeEvent.class);
-            Exception exception = (Exception) exchange.getProperty(Exchange.EXCEPTION_CAUGHT);
+    protected static void logAssetProcessingException(Logger logger, QueuedAttributeEvent queuedEvent) {
+        AssetProcessingException exception = queuedEvent.failure;
 
-            StringBuilder error = new StringBuilder();
+        StringBuilder error = new StringBuilder();
 
-            Source source = exchange.getIn().getHeader(HEADER_SOURCE, "unknown source", Source.class);
-            if (source != null) {
-                error.append("Error processing from ").append(source);
-            }
+        error.append("Error processing from ").append(queuedEvent.source != null ? queuedEvent.source : "unknown source");
 
-            String protocolName = exchange.getIn().getHeader(Protocol.SENSOR_QUEUE_SOURCE_PROTOCOL, String.class);
-            if (protocolName != null) {
-                error.append(" (protocol: ").append(protocolName).append(")");
-            }
-
-            // TODO Better exception handling - dead letter queue?
-            if (exception instanceof AssetProcessingException) {
-                AssetProcessingException processingException = (AssetProcessingException) exception;
-                error.append(" - ").append(processingException.getMessage());
-                error.append(": ").append(event.toString());
-                logger.warning(error.toString());
-            } else {
-                error.append(": ").append(event.toString());
-                logger.log(Level.WARNING, error.toString(), exception);
-            }
+        if (queuedEvent.protocolName != null) {
+            error.append(" (protocol: ").append(queuedEvent.protocolName).append(")");
+        }
 
-            // Make the exception available if MEP is InOut
-            exchange.getOut().setBody(exception);
-        };
+        // TODO Better exception handling - dead letter queue?
+        error.append(" - ").append(exception.getMessage());
+        error.append(": ").append(queuedEvent.event.toString());
+        if (exception.getCause() != null) {
+            logger.log(Level.WARNING, error.toString(), exception.getCause());
+        } else {
+            logger.warning(error.toString());
+        }
     }
 
     @Override
@@ -193,6 +246,9 @@ public class AssetProcessingService extends RouteBuilder implements ContainerSer
         assetAttributeLinkingService = container.getService(AttributeLinkingService.class);
         messageBrokerService = container.getService(MessageBrokerService.class);
         clientEventService = container.getService(ClientEventService.class);
+        assetQueuePartitions = Math.max(1, getInteger(container.getConfig(), ASSET_QUEUE_PARTITIONS, ASSET_QUEUE_PARTITIONS_DEFAULT));
+        assetQueueBatchSize = Math.max(1, getInteger(container.getConfig(), ASSET_QUEUE_BATCH_SIZE, ASSET_QUEUE_BATCH_SIZE_DEFAULT));
+        assetQueueBatchMillis = Math.max(0, getInteger(container.getConfig(), ASSET_QUEUE_BATCH_MILLIS, ASSET_QUEUE_BATCH_MILLIS_DEFAULT));
         EventSubscriptionAuthorizer assetEventAuthorizer = AssetStorageService.assetInfoAuthorizer(identityService, assetStorageService);
 
         clientEventService.addSubscriptionAuthorizer((auth, subscription) -> {
@@ -208,17 +264,32 @@ public class AssetProcessingService extends RouteBuilder implements ContainerSer
         processors.add(assetDatapointService);
         processors.add(assetAttributeLinkingService);
 
+        // Events can be queued before this service is started, they are processed once the lanes are running
+        assetQueueLanes = new ArrayList<>(assetQueuePartitions);
+        for (int lane = 0; lane < assetQueuePartitions; lane++) {
+            assetQueueLanes.add(new ArrayBlockingQueue<>(ASSET_QUEUE_LANE_CAPACITY));
+        }
+
+        if (assetQueuePartitions > 1 || assetQueueBatchSize > 1) {
+            LOG.info("Asset queue is partitioned by asset ID: lanes=" + assetQueuePartitions
+                + ", batch size=" + assetQueueBatchSize + ", batch millis=" + assetQueueBatchMillis);
+        }
+
         container.getService(MessageBrokerService.class).getContext().addRoutes(this);
     }
 
     @Override
     public void start(Container container) throws Exception {
-
+        assetQueueExecutor = new ContainerExecutor("AssetQueue", assetQueuePartitions, assetQueuePartitions, 60, -1);
+        assetQueueLanes.forEach(lane -> assetQueueExecutor.execute(() -> processAssetQueueLane(lane)));
     }
 
     @Override
     public void stop(Container container) throws Exception {
-
+        if (assetQueueExecutor != null) {
+            assetQueueExecutor.shutdownNow();
+            assetQueueExecutor = null;
+        }
     }
 
     @Override
@@ -231,6 +302,24 @@ public class AssetProcessingService extends RouteBuilder implements ContainerSer
             .setHeader(HEADER_SOURCE, () -> CLIENT)
             .to(ASSET_QUEUE);
 
+        // A client wants to write a batch of attribute states through event bus, queue them all at once
+        from(CLIENT_EVENT_TOPIC)
+            .routeId("FromClientBatchUpdates")
+            .filter(body().isInstanceOf(SharedEvent[].class))
+            .process(exchange -> {
+                AuthContext authContext = exchange.getIn().getHeader(Constants.AUTH_CONTEXT, AuthContext.class);
+                for (SharedEvent event : exchange.getIn().getBody(SharedEvent[].class)) {
+                    if (!(event instanceof AttributeEvent)) {
+                        continue;
+                    }
+                    try {
+                        queueAttributeEvent(new QueuedAttributeEvent((AttributeEvent) event, CLIENT, authContext, null));
+                    } catch (IllegalStateException ex) {
+                        LOG.warning("Dropping client attribute event, " + ex.getMessage() + ": " + event);
+                    }
+                }
+            });
+
         // Process attribute events
         /* TODO This message consumer should be transactionally consistent with the database, this is currently not the case
 
@@ -247,187 +336,439 @@ public class AssetProcessingService extends RouteBuilder implements ContainerSer
          - See pseudocode here: http://activemq.apache.org/should-i-use-xa.html
          - Do we want JMS/AMQP/WSS or SOME_API/MQTT/WSS? ActiveMQ or Moquette?
         */
+        // Hash events onto their lane by asset ID so events for the same asset keep their order
         from(ASSET_QUEUE)
-            .routeId("AssetQueueProcessor")
+            .routeId("AssetQueueDispatcher")
             .filter(body().isInstanceOf(AttributeEvent.class))
-            .doTry()
-            // Lock the global context, we can only process attribute events when the
-            // context isn't locked. Agent- and RulesService lock the context while protocols
-            // or rulesets are modified.
-            .process(exchange -> withLock(getClass().getSimpleName() + "::processFromAssetQueue", () -> {
-
-                AttributeEvent event = exchange.getIn().getBody(AttributeEvent.class);
-                LOG.finest("Processing: " + event);
-                if (event.getAssetId() == null || event.getAssetId().isEmpty())
-                    return;
-                if (event.getAttributeName() == null || event.getAttributeName().isEmpty())
-                    return;
-                Source source = exchange.getIn().getHeader(HEADER_SOURCE, () -> null, Source.class);
-                if (source == null) {
-                    throw new AssetProcessingException(MISSING_SOURCE);
+            .process(exchange -> {
+                QueuedAttributeEvent queuedEvent = new QueuedAttributeEvent(
+                    exchange.getIn().getBody(AttributeEvent.class),
+                    exchange.getIn().getHeader(HEADER_SOURCE, () -> null, Source.class),
+                    exchange.getIn().getHeader(Constants.AUTH_CONTEXT, AuthContext.class),
+                    exchange.getIn().getHeader(Protocol.SENSOR_QUEUE_SOURCE_PROTOCOL, String.class)
+                );
+
+                queueAttributeEvent(queuedEvent);
+
+                // Wait for the outcome and make the exception available if MEP is InOut
+                if (ExchangeHelper.isOutCapable(exchange)) {
+                    if (!queuedEvent.processed.await(assetQueueReplyTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                        throw new ExchangeTimedOutException(exchange, assetQueueReplyTimeoutMillis);
+                    }
+                    if (queuedEvent.failure != null) {
+                        exchange.getOut().setBody(queuedEvent.failure);
+                    }
                 }
+            });
+    }
+
+    /**
+     * Queues the event onto its lane, throws {@link IllegalStateException} if the lane is full.
+     */
+    protected void queueAttributeEvent(QueuedAttributeEvent queuedEvent) {
+        BlockingQueue<QueuedAttributeEvent> lane = assetQueueLanes.get(getAssetQueueLane(queuedEvent.event.getAssetId()));
+        if (!lane.offer(queuedEvent)) {
+            throw new IllegalStateException("Asset queue lane is full, capacity: " + ASSET_QUEUE_LANE_CAPACITY);
+        }
+    }
 
-                // Process the asset update in a database transaction, this ensures that processors
-                // will see consistent database state and we only commit if no processor failed. This
+    /**
+     * Queues all events onto their lanes before waiting for any outcome, so events of different assets are processed
+     * in parallel and the events on a lane are processed in as few batches as {@link #ASSET_QUEUE_BATCH_SIZE} allows.
+     * All outcomes are awaited within one reply timeout.
+     *
+     * @return The write result of each event in the given order, an event that couldn't be queued or wasn't processed
+     * within the reply timeout fails with {@link AttributeWriteFailure#UNKNOWN}.
+     */
+    public List<AttributeWriteResult> writeAttributeEvents(List<AttributeEvent> events, Source source, AuthContext authContext) {
+        List<QueuedAttributeEvent> queuedEvents = new ArrayList<>(events.size());
+
+        for (AttributeEvent event : events) {
+            QueuedAttributeEvent queuedEvent = new QueuedAttributeEvent(event, source, authContext, null);
+            try {
+                queueAttributeEvent(queuedEvent);
+            } catch (IllegalStateException ex) {
+                queuedEvent.failure = new AssetProcessingException(UNKNOWN, ex.getMessage());
+                queuedEvent.release();
+            }
+            queuedEvents.add(queuedEvent);
+        }
+
+        long deadline = System.currentTimeMillis() + assetQueueReplyTimeoutMillis;
+        boolean interrupted = false;
+        List<AttributeWriteResult> results = new ArrayList<>(queuedEvents.size());
+
+        for (QueuedAttributeEvent queuedEvent : queuedEvents) {
+            boolean processed = false;
+            if (!interrupted) {
+                try {
+                    processed = queuedEvent.processed.await(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                    Thread.currentThread().interrupt();
+                }
+            } else {
+                processed = queuedEvent.processed.getCount() == 0;
+            }
+
+            AttributeWriteFailure failure = null;
+            if (!processed) {
+                failure = UNKNOWN;
+            } else if (queuedEvent.failure != null) {
+                failure = queuedEvent.failure.getReason();
+            }
+            results.add(new AttributeWriteResult(queuedEvent.event.getAttributeRef(), failure));
+        }
+
+        return results;
+    }
+
+    /**
+     * @return The lane that events of the given asset are processed on, always the same lane for the same asset.
+     */
+    public int getAssetQueueLane(String assetId) {
+        return assetId == null ? 0 : Math.floorMod(assetId.hashCode(), assetQueuePartitions);
+    }
+
+    /**
+     * Takes events from the lane until interrupted, each batch holds up to {@link #assetQueueBatchSize} events that
+     * were queued within {@link #assetQueueBatchMillis} of the first event.
+     */
+    protected void processAssetQueueLane(BlockingQueue<QueuedAttributeEvent> lane) {
+        List<QueuedAttributeEvent> batch = new ArrayList<>(assetQueueBatchSize);
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                batch.add(lane.take());
+                long batchDeadline = System.currentTimeMillis() + assetQueueBatchMillis;
+                while (batch.size() < assetQueueBatchSize) {
+                    QueuedAttributeEvent queuedEvent = lane.poll(Math.max(0, batchDeadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                    if (queuedEvent == null) {
+                        break;
+                    }
+                    batch.add(queuedEvent);
+                }
+                processAttributeEvents(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException ex) {
+            LOG.finest("Asset queue lane interrupted");
+        } finally {
+            // Don't keep producers waiting for events that will never be processed
+            lane.drainTo(batch);
+            batch.forEach(queuedEvent -> {
+                queuedEvent.failure = new AssetProcessingException(UNKNOWN, "asset queue stopped");
+                queuedEvent.release();
+            });
+        }
+    }
+
+    /**
+     * Processes a batch of events from the same lane in one database transaction. Each event is validated and pushed
+     * through the processors in queue order, the new values of all events that weren't consumed completely are then
+     * stored with one batched update and client events are only published once the transaction has been committed.
+     * If the values of some assets can't be stored the transaction is rolled back, the events of those assets fail and
+     * the values of the other assets are stored again in a new transaction.
+     */
+    protected void processAttributeEvents(List<QueuedAttributeEvent> batch) {
+        Map<QueuedAttributeEvent, Pair<Asset<?>, Attribute<?>>> storedEvents = new LinkedHashMap<>();
+        Map<String, Collection<Attribute<?>>> attributeValues = new HashMap<>();
+
+        try {
+            // Enter the global barrier, we can only process attribute events when the barrier
+            // isn't held exclusively. Agent- and RulesService hold the barrier exclusively while
+            // protocols or rulesets are modified; lanes only exclude each other through the
+            // processors that need to lock shared state.
+            withReadBarrier(getClass().getSimpleName() + "::processFromAssetQueue", () ->
+
+                // Process the asset updates in a database transaction, this ensures that processors
+                // will see consistent database state and we only commit if the batch could be stored. This
                 // still won't make this procedure consistent with the message queue from which we consume!
                 persistenceService.doTransaction(em -> {
-                    Asset<?> asset = assetStorageService.find(em, event.getAssetId(), true);
-
-                    if (asset == null) {
-                        if (source == SENSOR) {
-                            // Fail silently as a protocol may have queued updates before the asset was deleted
-                            return;
+                    Map<String, Asset<?>> assets = findAssets(em, batch);
+                    Map<String, Map<String, Attribute<?>>> assetAttributes = new LinkedHashMap<>();
+
+                    for (QueuedAttributeEvent queuedEvent : batch) {
+                        try {
+                            Asset<?> asset = assets.get(queuedEvent.event.getAssetId());
+                            Attribute<?> updatedAttribute = processAttributeEvent(em, asset, queuedEvent);
+
+                            if (updatedAttribute != null) {
+                                // Later events of this batch must see the new state, the latest value of an attribute is stored
+                                asset.addOrReplaceAttributes(updatedAttribute);
+                                assetAttributes.computeIfAbsent(asset.getId(), id -> new LinkedHashMap<>())
+                                    .put(updatedAttribute.getName(), updatedAttribute);
+                                storedEvents.put(queuedEvent, new Pair<>(asset, updatedAttribute));
+                            }
+                        } catch (AssetProcessingException ex) {
+                            queuedEvent.failure = ex;
                         }
+                    }
 
-                        throw new AssetProcessingException(ASSET_NOT_FOUND);
+                    assetAttributes.forEach((assetId, attributes) -> attributeValues.put(assetId, attributes.values()));
+                    Set<String> failedAssetIds = assetStorageService.updateAttributeValues(em, attributeValues);
+                    if (!failedAssetIds.isEmpty()) {
+                        // Roll back everything the batch wrote, nothing of the failed assets may be committed
+                        throw new StorageFailedException(failedAssetIds);
                     }
+                })
+            );
+        } catch (StorageFailedException ex) {
+            failStoredEvents(storedEvents, attributeValues, ex.failedAssetIds);
+            storeAttributeValues(storedEvents, attributeValues);
+        } catch (Exception ex) {
+            // Nothing of this batch has been stored
+            batch.forEach(queuedEvent -> {
+                if (queuedEvent.failure == null) {
+                    queuedEvent.failure = new AssetProcessingException(
+                        storedEvents.containsKey(queuedEvent) ? STATE_STORAGE_FAILED : UNKNOWN,
+                        "processing transaction failed",
+                        ex
+                    );
+                }
+            });
+            storedEvents.clear();
+            attributeValues.clear();
+        }
 
-                    Attribute<?> oldAttribute = asset.getAttribute(event.getAttributeName()).orElse(null);
-                    if (oldAttribute == null) {
-                        if (source == SENSOR) {
-                            // Fail silently as a protocol may have queued updates before the attribute was modified/deleted
-                            return;
-                        }
+        try {
+            // The cache now reflects the committed state, the database doesn't have to be read again for these assets
+            assetStorageService.cacheAttributeValues(attributeValues);
+
+            storedEvents.forEach((queuedEvent, assetAndAttribute) -> {
+                notifyAssetUpdateCommitted(assetAndAttribute.key, assetAndAttribute.value, queuedEvent.source);
+                // Publish a new event for clients if no processor consumed the update completely
+                publishClientEvent(assetAndAttribute.key, assetAndAttribute.value);
+            });
+        } finally {
+            batch.forEach(queuedEvent -> {
+                if (queuedEvent.failure != null) {
+                    logAssetProcessingException(LOG, queuedEvent);
+                }
+                queuedEvent.release();
+            });
+        }
+    }
 
-                        throw new AssetProcessingException(ATTRIBUTE_NOT_FOUND);
+    /**
+     * Stores the values of the other assets of a rolled back batch again in a new transaction. The events are not
+     * processed again, so processors don't repeat what they already did for them.
+     */
+    protected void storeAttributeValues(Map<QueuedAttributeEvent, Pair<Asset<?>, Attribute<?>>> storedEvents,
+                                        Map<String, Collection<Attribute<?>>> attributeValues) {
+        // Each attempt fails at least one more asset, or stores all remaining values
+        while (!attributeValues.isEmpty()) {
+            try {
+                persistenceService.doTransaction(em -> {
+                    Set<String> failedAssetIds = assetStorageService.updateAttributeValues(em, attributeValues);
+                    if (!failedAssetIds.isEmpty()) {
+                        throw new StorageFailedException(failedAssetIds);
                     }
+                });
+                return;
+            } catch (StorageFailedException ex) {
+                failStoredEvents(storedEvents, attributeValues, ex.failedAssetIds);
+            } catch (Exception ex) {
+                LOG.log(Level.WARNING, "Failed to store attribute values of rolled back batch", ex);
+                failStoredEvents(storedEvents, attributeValues, new HashSet<>(attributeValues.keySet()));
+            }
+        }
+    }
 
-                    switch (source) {
-                        case CLIENT:
-
-                            AuthContext authContext = exchange.getIn().getHeader(Constants.AUTH_CONTEXT, AuthContext.class);
-                            if (authContext == null) {
-                                // Check attribute has public write flag
-                                if (!oldAttribute.hasMeta(MetaItemType.ACCESS_PUBLIC_WRITE)) {
-                                    throw new AssetProcessingException(INSUFFICIENT_ACCESS);
-                                }
-                                // Check read-only
-                                if (oldAttribute.getMetaValue(MetaItemType.READ_ONLY).orElse(false)) {
-                                    throw new AssetProcessingException(INSUFFICIENT_ACCESS);
-                                }
-                            } else {
-                                // Check realm, must be accessible
-                                if (!identityService.getIdentityProvider().isTenantActiveAndAccessible(authContext,
-                                    asset.getRealm())) {
-                                    throw new AssetProcessingException(INSUFFICIENT_ACCESS);
-                                }
-
-                                // Check read-only
-                                if (oldAttribute.getMetaValue(MetaItemType.READ_ONLY).orElse(false) && !authContext.isSuperUser()) {
-                                    throw new AssetProcessingException(INSUFFICIENT_ACCESS);
-                                }
-
-                                // Regular user must have write attributes role
-                                if (!authContext.hasResourceRoleOrIsSuperUser(ClientRole.WRITE_ATTRIBUTES.getValue(),
-                                    authContext.getClientId())) {
-                                    throw new AssetProcessingException(INSUFFICIENT_ACCESS);
-                                }
-
-                                // Check restricted user
-                                if (identityService.getIdentityProvider().isRestrictedUser(authContext)) {
-                                    // Must be asset linked to user
-                                    if (!assetStorageService.isUserAsset(authContext.getUserId(),
-                                        event.getAssetId())) {
-                                        throw new AssetProcessingException(INSUFFICIENT_ACCESS);
-                                    }
-                                    // Must be writable by restricted client
-                                    if (!oldAttribute.getMetaValue(MetaItemType.ACCESS_RESTRICTED_WRITE).orElse(false)) {
-                                        throw new AssetProcessingException(INSUFFICIENT_ACCESS);
-                                    }
-                                }
-                            }
-                            break;
+    protected static void failStoredEvents(Map<QueuedAttributeEvent, Pair<Asset<?>, Attribute<?>>> storedEvents,
+                                           Map<String, Collection<Attribute<?>>> attributeValues,
+                                           Set<String> failedAssetIds) {
+        attributeValues.keySet().removeAll(failedAssetIds);
+        storedEvents.keySet().removeIf(queuedEvent -> {
+            if (failedAssetIds.contains(queuedEvent.event.getAssetId())) {
+                queuedEvent.failure = new AssetProcessingException(
+                    STATE_STORAGE_FAILED, "database update failed, no rows updated"
+                );
+                return true;
+            }
+            return false;
+        });
+    }
 
-                        case SENSOR:
-                            Optional<Protocol<?>> protocol = oldAttribute.getMetaValue(AGENT_LINK)
-                                .map(agentLink -> agentService.getProtocolInstance(agentLink.getId()));
+    /**
+     * Gets all assets of the batch from the asset cache, the assets that are not cached are loaded with one query.
+     * The assets are detached copies so processed values are only written through
+     * {@link AssetStorageService#updateAttributeValues}.
+     */
+    protected Map<String, Asset<?>> findAssets(EntityManager em, List<QueuedAttributeEvent> batch) {
+        Set<String> assetIds = batch.stream()
+            .map(queuedEvent -> queuedEvent.event.getAssetId())
+            .filter(assetId -> assetId != null && !assetId.isEmpty())
+            .collect(Collectors.toSet());
 
-                            // Sensor event must be for an attribute linked to an agent
-                            if (!protocol.isPresent()) {
-                                throw new AssetProcessingException(INVALID_AGENT_LINK);
-                            }
-                            break;
-                    }
+        return assetIds.isEmpty() ? new HashMap<>() : assetStorageService.findCached(em, assetIds);
+    }
 
-                    // For executable attributes, non-sensor sources can set a writable attribute execute status
-                    if (oldAttribute.getType() == ValueType.EXECUTION_STATUS && source != SENSOR) {
-                        Optional<AttributeExecuteStatus> status = event.getValue()
-                            .flatMap(ValueUtil::getString)
-                            .flatMap(AttributeExecuteStatus::fromString);
+    /**
+     * Validates the event and pushes its new attribute value through the processors.
+     *
+     * @return The updated attribute if it has to be stored, <code>null</code> if the event was ignored or consumed
+     * completely by a processor.
+     */
+    protected Attribute<?> processAttributeEvent(EntityManager em, Asset<?> asset, QueuedAttributeEvent queuedEvent) throws AssetProcessingException {
+
+        AttributeEvent event = queuedEvent.event;
+        LOG.finest("Processing: " + event);
+        if (event.getAssetId() == null || event.getAssetId().isEmpty())
+            return null;
+        if (event.getAttributeName() == null || event.getAttributeName().isEmpty())
+            return null;
+        Source source = queuedEvent.source;
+        if (source == null) {
+            throw new AssetProcessingException(MISSING_SOURCE);
+        }
 
-                        if (status.isPresent() && !status.get().isWrite()) {
-                            throw new AssetProcessingException(INVALID_ATTRIBUTE_EXECUTE_STATUS);
-                        }
+        if (asset == null) {
+            if (source == SENSOR) {
+                // Fail silently as a protocol may have queued updates before the asset was deleted
+                return null;
+            }
+
+            throw new AssetProcessingException(ASSET_NOT_FOUND);
+        }
+
+        Attribute<?> oldAttribute = asset.getAttribute(event.getAttributeName()).orElse(null);
+        if (oldAttribute == null) {
+            if (source == SENSOR) {
+                // Fail silently as a protocol may have queued updates before the attribute was modified/deleted
+                return null;
+            }
+
+            throw new AssetProcessingException(ATTRIBUTE_NOT_FOUND);
+        }
+
+        switch (source) {
+            case CLIENT:
+
+                AuthContext authContext = queuedEvent.authContext;
+                if (authContext == null) {
+                    // Check attribute has public write flag
+                    if (!oldAttribute.hasMeta(MetaItemType.ACCESS_PUBLIC_WRITE)) {
+                        throw new AssetProcessingException(INSUFFICIENT_ACCESS);
+                    }
+                    // Check read-only
+                    if (oldAttribute.getMetaValue(MetaItemType.READ_ONLY).orElse(false)) {
+                        throw new AssetProcessingException(INSUFFICIENT_ACCESS);
+                    }
+                } else {
+                    // Check realm, must be accessible
+                    if (!identityService.getIdentityProvider().isTenantActiveAndAccessible(authContext,
+                        asset.getRealm())) {
+                        throw new AssetProcessingException(INSUFFICIENT_ACCESS);
                     }
 
-                    // Type coercion
-                    Object value = event.getValue().map(eventValue -> {
-                        Class<?> attributeValueType = oldAttribute.getType().getType();
-                        return ValueUtil.getValueCoerced(eventValue, attributeValueType).orElseThrow(() -> {
-                            LOG.info("Failed to coerce attribute event value into the correct value type: event value type=" + eventValue.getClass() + ", attribute value type=" + attributeValueType);
-                            return new AssetProcessingException(INVALID_VALUE_FOR_WELL_KNOWN_ATTRIBUTE);
-                        });
-
-                    }).orElse(null);
-
-                    // TODO: Use schema validation
-                    // Check if attribute is well known and the value is valid
-//                    AssetModelUtil.getAssetDescriptor(asset.getType()).map(assetDescriptor -> assetDescriptor.get)
-//                    AssetModelUtil.getAttributeDescriptor(oldAttribute.name).ifPresent(wellKnownAttribute -> {
-//                        // Check if the value is valid
-//                        wellKnownAttribute.getValueDescriptor()
-//                            .getValidator().flatMap(v -> v.apply(event.getValue().orElse(null)))
-//                            .ifPresent(validationFailure -> {
-//                                throw new AssetProcessingException(
-//                                    INVALID_VALUE_FOR_WELL_KNOWN_ATTRIBUTE
-//                                );
-//                            });
-//                    });
-
-                    // Either use the timestamp of the event or set event time to processing time
-                    long processingTime = timerService.getCurrentTimeMillis();
-                    long eventTime = event.getTimestamp() > 0 ? event.getTimestamp() : processingTime;
-
-                    // Ensure timestamp of event is not in the future as that would essentially block access to
-                    // the attribute until after that time (maybe that is desirable behaviour)
-                    if (eventTime - processingTime > 0) {
-                        // TODO: Decide how to handle update events in the future - ignore or change timestamp
-                        throw new AssetProcessingException(
-                            EVENT_IN_FUTURE,
-                            "current time: " + new Date(processingTime) + "/" + processingTime
-                                + ", event time: " + new Date(eventTime) + "/" + eventTime
-                        );
+                    // Check read-only
+                    if (oldAttribute.getMetaValue(MetaItemType.READ_ONLY).orElse(false) && !authContext.isSuperUser()) {
+                        throw new AssetProcessingException(INSUFFICIENT_ACCESS);
                     }
 
-                    // Check the last update timestamp of the attribute, ignoring any event that is older than last update
-                    // TODO This means we drop out-of-sequence events but accept events with the same source timestamp
-                    // TODO Several attribute events can occur in the same millisecond, then order of application is undefined
-                    oldAttribute.getTimestamp().filter(t -> t >= 0 && eventTime < t).ifPresent(
-                        lastStateTime -> {
-                            throw new AssetProcessingException(
-                                EVENT_OUTDATED,
-                                "last asset state time: " + new Date(lastStateTime) + "/" + lastStateTime
-                                    + ", event time: " + new Date(eventTime) + "/" + eventTime);
+                    // Regular user must have write attributes role
+                    if (!authContext.hasResourceRoleOrIsSuperUser(ClientRole.WRITE_ATTRIBUTES.getValue(),
+                        authContext.getClientId())) {
+                        throw new AssetProcessingException(INSUFFICIENT_ACCESS);
+                    }
+
+                    // Check restricted user
+                    if (identityService.getIdentityProvider().isRestrictedUser(authContext)) {
+                        // Must be asset linked to user
+                        if (!assetStorageService.isUserAsset(authContext.getUserId(),
+                            event.getAssetId())) {
+                            throw new AssetProcessingException(INSUFFICIENT_ACCESS);
                         }
-                    );
+                        // Must be writable by restricted client
+                        if (!oldAttribute.getMetaValue(MetaItemType.ACCESS_RESTRICTED_WRITE).orElse(false)) {
+                            throw new AssetProcessingException(INSUFFICIENT_ACCESS);
+                        }
+                    }
+                }
+                break;
 
-                    // Create a copy of the attribute and set the new value and timestamp
-                    @SuppressWarnings("rawtypes")
-                    Attribute updatedAttribute = ValueUtil.clone(oldAttribute);
-                    updatedAttribute.setValue(value, eventTime);
+            case SENSOR:
+                Optional<Protocol<?>> protocol = oldAttribute.getMetaValue(AGENT_LINK)
+                    .map(agentLink -> agentService.getProtocolInstance(agentLink.getId()));
 
-                    // Push through all processors
-                    boolean consumedCompletely = processAssetUpdate(em, asset, updatedAttribute, source);
+                // Sensor event must be for an attribute linked to an agent
+                if (!protocol.isPresent()) {
+                    throw new AssetProcessingException(INVALID_AGENT_LINK);
+                }
+                break;
+        }
 
-                    // Publish a new event for clients if no processor consumed the update completely
-                    if (!consumedCompletely) {
-                        publishClientEvent(asset, updatedAttribute);
-                    }
-                });
-            }))
-            .endDoTry()
-            .doCatch(AssetProcessingException.class)
-            .process(handleAssetProcessingException(LOG));
+        // For executable attributes, non-sensor sources can set a writable attribute execute status
+        if (oldAttribute.getType() == ValueType.EXECUTION_STATUS && source != SENSOR) {
+            Optional<AttributeExecuteStatus> status = event.getValue()
+                .flatMap(ValueUtil::getString)
+                .flatMap(AttributeExecuteStatus::fromString);
+
+            if (status.isPresent() && !status.get().isWrite()) {
+                throw new AssetProcessingException(INVALID_ATTRIBUTE_EXECUTE_STATUS);
+            }
+        }
+
+        // Type coercion
+        Object value = event.getValue().map(eventValue -> {
+            Class<?> attributeValueType = oldAttribute.getType().getType();
+            return ValueUtil.getValueCoerced(eventValue, attributeValueType).orElseThrow(() -> {
+                LOG.info("Failed to coerce attribute event value into the correct value type: event value type=" + eventValue.getClass() + ", attribute value type=" + attributeValueType);
+                return new AssetProcessingException(INVALID_VALUE_FOR_WELL_KNOWN_ATTRIBUTE);
+            });
+
+        }).orElse(null);
+
+        // TODO: Use schema validation
+        // Check if attribute is well known and the value is valid
+//        AssetModelUtil.getAssetDescriptor(asset.getType()).map(assetDescriptor -> assetDescriptor.get)
+//        AssetModelUtil.getAttributeDescriptor(oldAttribute.name).ifPresent(wellKnownAttribute -> {
+//            // Check if the value is valid
+//            wellKnownAttribute.getValueDescriptor()
+//                .getValidator().flatMap(v -> v.apply(event.getValue().orElse(null)))
+//                .ifPresent(validationFailure -> {
+//                    throw new AssetProcessingException(
+//                        INVALID_VALUE_FOR_WELL_KNOWN_ATTRIBUTE
+//                    );
+//                });
+//        });
+
+        // Either use the timestamp of the event or set event time to processing time
+        long processingTime = timerService.getCurrentTimeMillis();
+        long eventTime = event.getTimestamp() > 0 ? event.getTimestamp() : processingTime;
+
+        // Ensure timestamp of event is not in the future as that would essentially block access to
+        // the attribute until after that time (maybe that is desirable behaviour)
+        if (eventTime - processingTime > 0) {
+            // TODO: Decide how to handle update events in the future - ignore or change timestamp
+            throw new AssetProcessingException(
+                EVENT_IN_FUTURE,
+                "current time: " + new Date(processingTime) + "/" + processingTime
+                    + ", event time: " + new Date(eventTime) + "/" + eventTime
+            );
+        }
+
+        // Check the last update timestamp of the attribute, ignoring any event that is older than last update
+        // TODO This means we drop out-of-sequence events but accept events with the same source timestamp
+        // TODO Several attribute events can occur in the same millisecond, then order of application is undefined
+        oldAttribute.getTimestamp().filter(t -> t >= 0 && eventTime < t).ifPresent(
+            lastStateTime -> {
+                throw new AssetProcessingException(
+                    EVENT_OUTDATED,
+                    "last asset state time: " + new Date(lastStateTime) + "/" + lastStateTime
+                        + ", event time: " + new Date(eventTime) + "/" + eventTime);
+            }
+        );
+
+        // Create a copy of the attribute and set the new value and timestamp, the meta items are shared
+        @SuppressWarnings("rawtypes")
+        Attribute updatedAttribute = oldAttribute.copy();
+        updatedAttribute.setValue(value, eventTime);
+
+        // Push through all processors
+        boolean consumedCompletely = processAssetUpdate(em, asset, updatedAttribute, source);
+
+        return consumedCompletely ? null : updatedAttribute;
     }
 
     /**
@@ -449,7 +790,7 @@ public class AssetProcessingService extends RouteBuilder implements ContainerSer
      * This deals with single {@link Attribute} updates and pushes them through the chain where each processor is given
      * the opportunity to completely consume the update or allow its progress to the next processor, see {@link
      * AssetUpdateProcessor#processAssetUpdate}. If no processor completely consumed the update, the attribute will be
-     * stored in the database.
+     * stored in the database with the other updates of the batch.
      */
     protected boolean processAssetUpdate(EntityManager em,
                                          Asset<?> asset,
@@ -488,19 +829,19 @@ public class AssetProcessingService extends RouteBuilder implements ContainerSer
 
         if (!complete) {
             LOG.fine("No processor consumed the update completely, storing: " + attributeStr);
-            storeAttributeValue(em, asset, attribute);
         }
 
         LOG.fine("<<< Processing complete: " + attributeStr);
         return complete;
     }
 
-    protected void storeAttributeValue(EntityManager em, Asset<?> asset, Attribute<?> attribute) throws AssetProcessingException {
-
-        if (!assetStorageService.updateAttributeValue(em, asset, attribute)) {
-            throw new AssetProcessingException(
-                STATE_STORAGE_FAILED, "database update failed, no rows updated"
-            );
+    protected void notifyAssetUpdateCommitted(Asset<?> asset, Attribute<?> attribute, Source source) {
+        for (AssetUpdateProcessor processor : processors) {
+            try {
+                processor.onAssetUpdateCommitted(asset, attribute, source);
+            } catch (Exception ex) {
+                LOG.log(Level.WARNING, "Processor '" + processor + "' failed after commit of: " + attribute, ex);
+            }
         }
     }
 
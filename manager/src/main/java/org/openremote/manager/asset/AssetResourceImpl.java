@@ -21,8 +21,10 @@ package org.openremote.manager.asset;
 
 import com.fasterxml.jackson.databind.node.NullNode;
 import org.openremote.container.message.MessageBrokerService;
+import org.openremote.container.security.AuthContext;
 import org.openremote.container.timer.TimerService;
 import org.openremote.manager.security.ManagerIdentityService;
+import org.openremote.manager.web.ConcurrencyLimiter;
 import org.openremote.manager.web.ManagerWebResource;
 import org.openremote.model.Constants;
 import org.openremote.model.asset.Asset;
@@ -43,6 +45,7 @@ import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import java.util.*;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 
 import static javax.ws.rs.core.Response.Status.*;
 import static org.openremote.model.attribute.AttributeEvent.Source.CLIENT;
@@ -57,15 +60,24 @@ public class AssetResourceImpl extends ManagerWebResource implements AssetResour
 
     protected final static Asset<?>[] EMPTY_ASSETS = new Asset<?>[0];
     protected final AssetStorageService assetStorageService;
+    protected final AssetProcessingService assetProcessingService;
     protected final MessageBrokerService messageBrokerService;
+    protected final ConcurrencyLimiter queryLimiter;
+    protected final ConcurrencyLimiter attributeWriteLimiter;
 
     public AssetResourceImpl(TimerService timerService,
                              ManagerIdentityService identityService,
                              AssetStorageService assetStorageService,
-                             MessageBrokerService messageBrokerService) {
+                             AssetProcessingService assetProcessingService,
+                             MessageBrokerService messageBrokerService,
+                             ConcurrencyLimiter queryLimiter,
+                             ConcurrencyLimiter attributeWriteLimiter) {
         super(timerService, identityService);
         this.assetStorageService = assetStorageService;
+        this.assetProcessingService = assetProcessingService;
         this.messageBrokerService = messageBrokerService;
+        this.queryLimiter = queryLimiter;
+        this.attributeWriteLimiter = attributeWriteLimiter;
     }
 
     @Override
@@ -358,7 +370,10 @@ public class AssetResourceImpl extends ManagerWebResource implements AssetResour
             headers.put(Constants.AUTH_CONTEXT, getAuthContext());
         }
 
-        AttributeWriteResult result = doAttributeWrite(new AttributeRef(assetId, attributeName), value, headers);
+        Object writeValue = value;
+        AttributeWriteResult result = attributeWriteLimiter.call(() ->
+            doAttributeWrite(new AttributeRef(assetId, attributeName), writeValue, headers)
+        );
 
         if (result.getFailure() != null) {
             switch (result.getFailure()) {
@@ -388,17 +403,18 @@ public class AssetResourceImpl extends ManagerWebResource implements AssetResour
     @Override
     public AttributeWriteResult[] writeAttributeValues(RequestParams requestParams, AttributeState[] attributeStates) {
 
-        // Process asynchronously but block for a little while waiting for the result
-        Map<String, Object> headers = new HashMap<>();
-        headers.put(AttributeEvent.HEADER_SOURCE, CLIENT);
+        long timestamp = timerService.getCurrentTimeMillis();
+        List<AttributeEvent> events = Arrays.stream(attributeStates)
+            .map(attributeState -> new AttributeEvent(attributeState.getRef(), attributeState.getValue().orElse(null), timestamp))
+            .collect(Collectors.toList());
 
-        if (isAuthenticated()) {
-            headers.put(Constants.AUTH_CONTEXT, getAuthContext());
-        }
+        LOG.info("Write attribute values request: count=" + events.size());
 
-        return Arrays.stream(attributeStates).map(attributeState ->
-             doAttributeWrite(attributeState.getRef(), attributeState.getValue().orElse(null), headers)
-        ).toArray(AttributeWriteResult[]::new);
+        // Queue all writes at once and block for a little while waiting for all results
+        AuthContext authContext = isAuthenticated() ? getAuthContext() : null;
+        return attributeWriteLimiter.call(() ->
+            assetProcessingService.writeAttributeEvents(events, CLIENT, authContext)
+        ).toArray(new AttributeWriteResult[0]);
     }
 
     @Override
@@ -529,12 +545,10 @@ public class AssetResourceImpl extends ManagerWebResource implements AssetResour
                 query.tenant(new TenantPredicate(realm));
             }
 
-            List<Asset<?>> result = assetStorageService.findAll(query);
-
             // Compress response (the request attribute enables the interceptor)
             request.setAttribute(HttpHeaders.CONTENT_ENCODING, "gzip");
 
-            return result.toArray(new Asset[0]);
+            return findAll(query);
 
         } catch (IllegalStateException ex) {
             throw new WebApplicationException(ex, BAD_REQUEST);
@@ -569,12 +583,10 @@ public class AssetResourceImpl extends ManagerWebResource implements AssetResour
         }
 
         try {
-            List<Asset<?>> result = assetStorageService.findAll(query);
-
             // Compress response (the request attribute enables the interceptor)
             request.setAttribute(HttpHeaders.CONTENT_ENCODING, "gzip");
 
-            return result.toArray(new Asset[0]);
+            return findAll(query);
         } catch (IllegalStateException ex) {
             throw new WebApplicationException(ex, BAD_REQUEST);
         }
@@ -585,12 +597,37 @@ public class AssetResourceImpl extends ManagerWebResource implements AssetResour
         AssetQuery assetQuery = TextUtil.isNullOrEmpty(q) ? null : ValueUtil.parse(q, AssetQuery.class)
             .orElseThrow(() -> new WebApplicationException("Error parsing query parameter 'q' as JSON object", BAD_REQUEST));
 
-        Asset<?>[] result = queryPublicAssets(requestParams, assetQuery);
+        return queryPublicAssets(requestParams, assetQuery);
+    }
 
-        // Compress response (the request attribute enables the interceptor)
-        request.setAttribute(HttpHeaders.CONTENT_ENCODING, "gzip");
+    /**
+     * At most {@link #queryLimiter} queries run concurrently. A query with a {@link AssetQuery#limit} is bounded and
+     * its assets are collected first, so the continuation token of a next page can be returned in the
+     * {@link Constants#RESPONSE_HEADER_CONTINUATION_TOKEN} response header. Any other query is streamed by the
+     * {@link AssetStreamWriter}: each asset is hydrated, detached and written to the response while the rows are
+     * fetched, the query runs when the response is written.
+     */
+    protected Asset<?>[] findAll(AssetQuery query) {
+        if (query.limit > 0) {
+            return queryLimiter.call(() -> {
+                List<Asset<?>> result = new ArrayList<>();
+                String continuationToken = assetStorageService.findAll(query, result::add);
+                if (continuationToken != null) {
+                    response.setHeader(Constants.RESPONSE_HEADER_CONTINUATION_TOKEN, continuationToken);
+                }
+                return result.toArray(new Asset<?>[0]);
+            });
+        }
 
-        return result;
+        AssetStreamWriter.StreamedAssets streamedAssets = consumer -> {
+            try {
+                queryLimiter.call(() -> assetStorageService.findAll(query, consumer));
+            } catch (IllegalStateException ex) {
+                throw new WebApplicationException(ex, BAD_REQUEST);
+            }
+        };
+        request.setAttribute(AssetStreamWriter.STREAMED_ASSETS, streamedAssets);
+        return EMPTY_ASSETS;
     }
 
     protected AttributeWriteResult doAttributeWrite(AttributeRef ref, Object value, Map<String, Object> headers) {
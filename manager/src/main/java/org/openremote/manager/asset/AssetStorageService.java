@@ -52,6 +52,7 @@ import org.openremote.model.query.AssetQuery;
 import org.openremote.model.query.LogicGroup;
 import org.openremote.model.query.filter.*;
 import org.openremote.model.security.ClientRole;
+import org.openremote.model.security.Tenant;
 import org.openremote.model.security.User;
 import org.openremote.model.util.Pair;
 import org.openremote.model.util.TextUtil;
@@ -68,6 +69,7 @@ import java.sql.*;
 import java.util.Date;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
@@ -80,6 +82,7 @@ import java.util.stream.Stream;
 import static java.util.stream.Collectors.groupingBy;
 import static org.apache.camel.builder.PredicateBuilder.or;
 import static org.openremote.container.persistence.PersistenceEvent.PERSISTENCE_TOPIC;
+import static org.openremote.container.util.MapAccess.getInteger;
 import static org.openremote.container.persistence.PersistenceEvent.isPersistenceEventForEntityType;
 import static org.openremote.manager.event.ClientEventService.CLIENT_EVENT_TOPIC;
 import static org.openremote.model.attribute.Attribute.getAddedOrModifiedAttributes;
@@ -110,6 +113,83 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
         }
     }
 
+    /**
+     * The position of an asset in an ordered query result, encoded as opaque continuation token so the next page of
+     * the query starts after this asset. Assets are ordered by the {@link OrderBy} property and then by ID.
+     */
+    protected static class Continuation {
+
+        final protected OrderBy.Property property;
+        final protected boolean descending;
+        final protected Object value;
+        final protected String id;
+
+        protected Continuation(OrderBy.Property property, boolean descending, Object value, String id) {
+            this.property = property;
+            this.descending = descending;
+            this.value = value;
+            this.id = id;
+        }
+
+        protected static Continuation of(OrderBy orderBy, Asset<?> asset) {
+            Object value;
+            switch (orderBy.property) {
+                case CREATED_ON:
+                    value = asset.getCreatedOn().getTime();
+                    break;
+                case ASSET_TYPE:
+                    value = asset.getType();
+                    break;
+                case NAME:
+                    value = asset.getName();
+                    break;
+                case PARENT_ID:
+                    value = asset.getParentId() != null ? asset.getParentId() : "";
+                    break;
+                default:
+                    value = asset.getRealm();
+            }
+            return new Continuation(orderBy.property, orderBy.descending, value, asset.getId());
+        }
+
+        protected static Continuation decode(String token) {
+            try {
+                Object[] values = ValueUtil.JSON.readValue(Base64.getUrlDecoder().decode(token), Object[].class);
+                if (values.length != 4 || !(values[2] instanceof Number || values[2] instanceof String)) {
+                    throw new IllegalArgumentException("Unexpected token values");
+                }
+                return new Continuation(
+                    OrderBy.Property.valueOf((String) values[0]),
+                    (Boolean) values[1],
+                    values[2],
+                    (String) values[3]
+                );
+            } catch (Exception e) {
+                throw new IllegalStateException("Invalid continuation token: " + token);
+            }
+        }
+
+        protected String encode() {
+            try {
+                return Base64.getUrlEncoder().withoutPadding().encodeToString(
+                    ValueUtil.JSON.writeValueAsBytes(new Object[]{property.name(), descending, value, id})
+                );
+            } catch (Exception e) {
+                throw new IllegalStateException("Failed to encode continuation token", e);
+            }
+        }
+
+        protected Object getBindValue() {
+            if (property == OrderBy.Property.CREATED_ON) {
+                if (!(value instanceof Number)) {
+                    throw new IllegalStateException("Invalid continuation token creation time: " + value);
+                }
+                return new Timestamp(((Number) value).longValue());
+            }
+            return value.toString();
+        }
+    }
+
     public interface ParameterBinder extends BiConsumer<EntityManager, org.hibernate.query.Query<Object[]>> {
 
         @Override
@@ -126,6 +206,14 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
 
     private static final Logger LOG = Logger.getLogger(AssetStorageService.class.getName());
     public static final int PRIORITY = MED_PRIORITY;
+    // Maximum number of complete assets kept in memory for the asset processing chain, 0 disables the cache
+    public static final String ASSET_CACHE_MAX_SIZE = "ASSET_CACHE_MAX_SIZE";
+    public static final int ASSET_CACHE_MAX_SIZE_DEFAULT = 10000;
+    // Maximum number of concurrent asset query requests, 0 is only limited by ManagerWebService.REQUEST_CONCURRENCY_MAX
+    public static final String ASSET_QUERY_CONCURRENCY_MAX = "ASSET_QUERY_CONCURRENCY_MAX";
+    // Maximum number of concurrent attribute write requests, 0 is only limited by ManagerWebService.REQUEST_CONCURRENCY_MAX
+    public static final String ATTRIBUTE_WRITE_CONCURRENCY_MAX = "ATTRIBUTE_WRITE_CONCURRENCY_MAX";
+    public static final int QUERY_FETCH_SIZE = 500;
     protected static final Field assetParentNameField;
     protected static final Field assetParentTypeField;
 
@@ -215,6 +303,8 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
     protected ManagerIdentityService identityService;
     protected ClientEventService clientEventService;
     protected GatewayService gatewayService;
+    protected AssetCache assetCache;
+    protected final UserAssetLinks userAssetLinks = new UserAssetLinks();
 
     /**
      * Will evaluate each {@link CalendarEventPredicate} and apply it depending on the {@link LogicGroup} type
@@ -300,6 +390,7 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
         identityService = container.getService(ManagerIdentityService.class);
         clientEventService = container.getService(ClientEventService.class);
         gatewayService = container.getService(GatewayService.class);
+        assetCache = new AssetCache(getInteger(container.getConfig(), ASSET_CACHE_MAX_SIZE, ASSET_CACHE_MAX_SIZE_DEFAULT));
         EventSubscriptionAuthorizer assetEventAuthorizer = AssetStorageService.assetInfoAuthorizer(identityService, this);
 
         clientEventService.addSubscriptionAuthorizer((auth, subscription) -> {
@@ -310,14 +401,19 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
             return assetEventAuthorizer.apply(auth, subscription);
         });
 
-        container.getService(ManagerWebService.class).getApiSingletons().add(
+        ManagerWebService managerWebService = container.getService(ManagerWebService.class);
+        managerWebService.getApiSingletons().add(
             new AssetResourceImpl(
                 container.getService(TimerService.class),
                 identityService,
                 this,
-                container.getService(MessageBrokerService.class)
+                container.getService(AssetProcessingService.class),
+                container.getService(MessageBrokerService.class),
+                managerWebService.createConcurrencyLimiter(container.getConfig(), "assetQuery", ASSET_QUERY_CONCURRENCY_MAX),
+                managerWebService.createConcurrencyLimiter(container.getConfig(), "attributeWrite", ATTRIBUTE_WRITE_CONCURRENCY_MAX)
             )
         );
+        managerWebService.getApiSingletons().add(new AssetStreamWriter());
 
         container.getService(ManagerWebService.class).getApiSingletons().add(
             new ConsoleResourceImpl(container.getService(TimerService.class),
@@ -331,22 +427,56 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
 
     @Override
     public void start(Container container) throws Exception {
-
+        reloadUserAssetLinks();
     }
 
     @Override
     public void stop(Container container) throws Exception {
-
+        assetCache.invalidateAll();
     }
 
     @SuppressWarnings("unchecked")
     @Override
     public void configure() throws Exception {
-        // If any asset was modified in the database, publish events
+        // If any asset was modified in the database, drop its cached state and publish events
         from(PERSISTENCE_TOPIC)
             .routeId("AssetPersistenceChanges")
             .filter(isPersistenceEventForEntityType(Asset.class))
-            .process(exchange -> publishModificationEvents(exchange.getIn().getBody(PersistenceEvent.class)));
+            .process(exchange -> {
+                PersistenceEvent<Asset<?>> persistenceEvent = exchange.getIn().getBody(PersistenceEvent.class);
+                assetCache.invalidate(persistenceEvent.getEntity().getId());
+                if (persistenceEvent.getCause() == PersistenceEvent.Cause.DELETE) {
+                    userAssetLinks.unlinkAsset(persistenceEvent.getEntity().getId());
+                }
+                publishModificationEvents(persistenceEvent);
+            });
+
+        // Keep the user asset links current, the event only tells which link changed so check the database
+        from(PERSISTENCE_TOPIC)
+            .routeId("UserAssetPersistenceChanges")
+            .filter(isPersistenceEventForEntityType(UserAsset.class))
+            .process(exchange -> {
+                PersistenceEvent<UserAsset> persistenceEvent = exchange.getIn().getBody(PersistenceEvent.class);
+                UserAsset.Id id = persistenceEvent.getEntity().getId();
+                refreshUserAssetLink(id.getRealm(), id.getUserId(), id.getAssetId());
+            });
+
+        // Links of a deleted user are removed by the database
+        from(PERSISTENCE_TOPIC)
+            .routeId("UserAssetUserChanges")
+            .filter(isPersistenceEventForEntityType(User.class))
+            .filter(exchange -> exchange.getIn().getBody(PersistenceEvent.class).getCause() == PersistenceEvent.Cause.DELETE)
+            .process(exchange -> {
+                PersistenceEvent<User> persistenceEvent = exchange.getIn().getBody(PersistenceEvent.class);
+                userAssetLinks.unlinkUser(persistenceEvent.getEntity().getId());
+            });
+
+        // Links of a deleted tenant are removed by the database
+        from(PERSISTENCE_TOPIC)
+            .routeId("UserAssetTenantChanges")
+            .filter(isPersistenceEventForEntityType(Tenant.class))
+            .filter(exchange -> exchange.getIn().getBody(PersistenceEvent.class).getCause() == PersistenceEvent.Cause.DELETE)
+            .process(exchange -> reloadUserAssetLinks());
 
         // React if a client wants to read assets and attributes
         from(CLIENT_EVENT_TOPIC)
@@ -522,6 +652,82 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
         return persistenceService.doReturningTransaction(em -> findAll(em, query));
     }
 
+    /**
+     * Passes each asset of the query to the consumer while the result rows are fetched with a cursor, in chunks of
+     * {@value #QUERY_FETCH_SIZE}. Assets are detached before they are passed on, so only the assets retained by the
+     * consumer stay in memory. The consumer is called within the query transaction.
+     *
+     * @return The {@link AssetQuery#continuationToken} of the next page if the query is ordered and the result was
+     * cut off at the {@link AssetQuery#limit}, otherwise <code>null</code>.
+     */
+    public String findAll(AssetQuery query, Consumer<Asset<?>> consumer) {
+        return persistenceService.doReturningTransaction(em -> {
+            AtomicInteger fetchedCount = new AtomicInteger();
+            AtomicReference<Asset<?>> lastFetched = new AtomicReference<>();
+
+            try (Stream<Asset<?>> assets = findAllStream(em, query, asset -> {
+                fetchedCount.incrementAndGet();
+                lastFetched.set(asset);
+            })) {
+                assets.forEach(asset -> {
+                    em.detach(asset);
+                    consumer.accept(asset);
+                });
+            }
+
+            // The last fetched row and not the last returned asset, a post query filter may have dropped some rows
+            if (query.limit > 0 && fetchedCount.get() >= query.limit && isOrdered(query)) {
+                return Continuation.of(query.orderBy, lastFetched.get()).encode();
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Get the complete assets from the {@link AssetCache}, assets that are not cached are loaded with one query in
+     * the given em and then cached. The returned assets are detached copies that can be modified by the caller.
+     *
+     * @return The found assets by asset ID, missing assets are not in the map.
+     */
+    public Map<String, Asset<?>> findCached(EntityManager em, Collection<String> assetIds) {
+        Map<String, Asset<?>> assets = new HashMap<>(assetIds.size());
+        List<String> missingAssetIds = new ArrayList<>();
+
+        for (String assetId : assetIds) {
+            Asset<?> asset = assetCache.get(assetId);
+            if (asset != null) {
+                assets.put(assetId, asset);
+            } else {
+                missingAssetIds.add(assetId);
+            }
+        }
+
+        if (!missingAssetIds.isEmpty()) {
+            long invalidations = assetCache.getInvalidations();
+            findAll(em, new AssetQuery().ids(missingAssetIds.toArray(new String[0]))).forEach(asset -> {
+                em.detach(asset);
+                assetCache.put(asset, invalidations);
+                assets.put(asset.getId(), asset);
+            });
+        }
+
+        return assets;
+    }
+
+    /**
+     * @see #findCached(EntityManager, Collection)
+     */
+    public Asset<?> findCached(EntityManager em, String assetId) {
+        return findCached(em, Collections.singletonList(assetId)).get(assetId);
+    }
+
+    /**
+     * Write the committed attribute values through to the {@link AssetCache}.
+     */
+    protected void cacheAttributeValues(Map<String, Collection<Attribute<?>>> assetAttributes) {
+        assetAttributes.forEach(assetCache::putAttributes);
+    }
+
     public List<String> findNames(String... ids) {
         if (ids == null || ids.length == 0)
             return new ArrayList<>();
@@ -585,7 +791,8 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
      */
     @SuppressWarnings("unchecked")
     public <T extends Asset<?>> T merge(T asset, boolean overrideVersion, boolean skipGatewayCheck, String userName) throws IllegalStateException, ConstraintViolationException {
-        return persistenceService.doReturningTransaction(em -> {
+        AtomicReference<String> linkedUserId = new AtomicReference<>();
+        T mergedAsset = persistenceService.doReturningTransaction(em -> {
 
             T existingAsset = TextUtil.isNullOrEmpty(asset.getId()) ? null : (T)em.find(Asset.class, asset.getId());
 
@@ -767,10 +974,21 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
 
             if (user != null) {
                 storeUserAsset(em, new UserAsset(user.getRealm(), user.getId(), updatedAsset.getId()));
+                linkedUserId.set(user.getId());
             }
 
             return updatedAsset;
         });
+
+        if (mergedAsset != null && linkedUserId.get() != null) {
+            userAssetLinks.link(linkedUserId.get(), mergedAsset.getId());
+        }
+
+        // Don't wait for the persistence event, the next attribute event of this asset must see the merged state
+        if (mergedAsset != null) {
+            assetCache.invalidate(mergedAsset.getId());
+        }
+        return mergedAsset;
     }
 
     /**
@@ -873,6 +1091,9 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
             return false;
         }
 
+        ids.forEach(assetCache::invalidate);
+        ids.forEach(userAssetLinks::unlinkAsset);
+
         return true;
     }
 
@@ -884,61 +1105,21 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
         if (TextUtil.isNullOrEmpty(userId) || TextUtil.isNullOrEmpty(assetId)) {
             return false;
         }
-        return persistenceService.doReturningTransaction(entityManager -> {
-            try {
-                String queryStr = TextUtil.isNullOrEmpty(userId) ?
-                    "select count(ua) from UserAsset ua where ua.id.assetId = :assetId" :
-                    "select count(ua) from UserAsset ua where ua.id.userId = :userId and ua.id.assetId = :assetId";
-
-                TypedQuery<Long> query = entityManager.createQuery(
-                    queryStr,
-                    Long.class).setParameter("assetId", assetId);
-
-                if (!TextUtil.isNullOrEmpty(userId)) {
-                    query.setParameter("userId", userId);
-                }
-
-                return query.getSingleResult() > 0;
-            } catch (NoResultException ex) {
-                return false;
-            }
-        });
+        return userAssetLinks.isLinked(userId, assetId);
     }
 
     public boolean isUserAsset(List<String> userIds, String assetId) {
         if (userIds == null || userIds.isEmpty() || TextUtil.isNullOrEmpty(assetId)) {
             return false;
         }
-        return persistenceService.doReturningTransaction(entityManager -> {
-            try {
-                return entityManager.createQuery(
-                    "select count(ua) from UserAsset ua where ua.id.userId in :userIds and ua.id.assetId = :assetId",
-                    Long.class)
-                    .setParameter("userIds", userIds)
-                    .setParameter("assetId", assetId)
-                    .getSingleResult() > 0;
-            } catch (NoResultException ex) {
-                return false;
-            }
-        });
+        return userAssetLinks.isLinkedToAny(userIds, assetId);
     }
 
     public boolean isUserAssets(String userId, List<String> assetIds) {
         if (TextUtil.isNullOrEmpty(userId) || assetIds == null || assetIds.isEmpty()) {
             return false;
         }
-        return persistenceService.doReturningTransaction(entityManager -> {
-            try {
-                return entityManager.createQuery(
-                    "select count(ua) from UserAsset ua where ua.id.userId = :userId and ua.id.assetId in :assetIds",
-                    Long.class)
-                    .setParameter("userId", userId)
-                    .setParameter("assetIds", assetIds)
-                    .getSingleResult() == assetIds.size();
-            } catch (NoResultException ex) {
-                return false;
-            }
-        });
+        return userAssetLinks.isLinkedToAll(userId, assetIds);
     }
 
     /**
@@ -1025,6 +1206,7 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
      */
     public void storeUserAsset(UserAsset userAsset) {
         persistenceService.doTransaction(entityManager -> storeUserAsset(entityManager, userAsset));
+        userAssetLinks.link(userAsset.getId().getUserId(), userAsset.getId().getAssetId());
     }
 
     /**
@@ -1037,6 +1219,29 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
             if (userAsset != null)
                 entityManager.remove(userAsset);
         });
+        userAssetLinks.unlink(userId, assetId);
+    }
+
+    /**
+     * Loads all user asset links from the database into {@link #userAssetLinks}.
+     */
+    protected void reloadUserAssetLinks() {
+        persistenceService.doTransaction(entityManager -> userAssetLinks.reload(link ->
+            entityManager.createQuery("select ua.id.userId, ua.id.assetId from UserAsset ua", Object[].class)
+                .getResultList()
+                .forEach(row -> link.accept((String) row[0], (String) row[1]))
+        ));
+        LOG.fine("Loaded user asset links: " + userAssetLinks.size());
+    }
+
+    protected void refreshUserAssetLink(String realm, String userId, String assetId) {
+        boolean exists = persistenceService.doReturningTransaction(entityManager ->
+            entityManager.find(UserAsset.class, new UserAsset.Id(realm, userId, assetId)) != null);
+        if (exists) {
+            userAssetLinks.link(userId, assetId);
+        } else {
+            userAssetLinks.unlink(userId, assetId);
+        }
     }
 
     protected void storeUserAsset(EntityManager entityManager, UserAsset userAsset) {
@@ -1058,8 +1263,24 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
         );
     }
 
-    @SuppressWarnings("unchecked")
     protected List<Asset<?>> findAll(EntityManager em, AssetQuery query) {
+        try (Stream<Asset<?>> assets = findAllStream(em, query)) {
+            return assets.collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * The returned stream must be closed to release the cursor and can only be consumed within the em transaction.
+     */
+    protected Stream<Asset<?>> findAllStream(EntityManager em, AssetQuery query) {
+        return findAllStream(em, query, null);
+    }
+
+    /**
+     * @param fetchedConsumer Optional consumer of every fetched row, before any post query filter is applied.
+     */
+    @SuppressWarnings("unchecked")
+    protected Stream<Asset<?>> findAllStream(EntityManager em, AssetQuery query, Consumer<Asset<?>> fetchedConsumer) {
 
         if (query.access == null)
             query.access = PRIVATE;
@@ -1081,10 +1302,9 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
         // Using hibernate query object rather than JPA as postgres array parameter support doesn't work in JPQL without specifying the data type
         org.hibernate.query.Query<Object[]> jpql = em.createNativeQuery(querySql.querySql, "AssetMapping").unwrap(org.hibernate.query.Query.class);
         querySql.apply(em, jpql);
+        jpql.setFetchSize(QUERY_FETCH_SIZE);
 
-        List<Object[]> results = jpql.getResultList();
-
-        Stream<Asset<?>> assetStream = results.stream().map(objArr -> {
+        Stream<Asset<?>> assetStream = jpql.stream().map(objArr -> {
             Asset<?> asset = (Asset<?>)objArr[0];
 
             if (objArr.length == 3) {
@@ -1101,72 +1321,131 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
             return asset;
         });
 
+        if (fetchedConsumer != null) {
+            assetStream = assetStream.peek(fetchedConsumer);
+        }
+
         if (containsCalendarPredicate) {
             assetStream = assetStream.filter(asset -> calendarEventPredicateMatches(timerService::getCurrentTimeMillis, query, asset));
         }
 
-        return assetStream.collect(Collectors.toList());
+        return assetStream;
     }
 
     protected boolean updateAttributeValue(EntityManager em, Asset<?> asset, Attribute<?> attribute) {
+        // Detach the asset from the em so we can manually update the attribute
+        em.detach(asset);
+        return updateAttributeValues(em, Collections.singletonMap(asset.getId(), Collections.singletonList(attribute))).isEmpty();
+    }
 
-        try {
+    /**
+     * Stores the value and timestamp of each attribute, all attributes of an asset are written with one chained
+     * <code>jsonb_set</code> update and the updates of all assets are executed as one JDBC batch per attribute count.
+     * The assets must not be managed by the em.
+     *
+     * @return The IDs of the assets that were not updated.
+     */
+    protected Set<String> updateAttributeValues(EntityManager em, Map<String, Collection<Attribute<?>>> assetAttributes) {
 
-            // Detach the asset from the em so we can manually update the attribute
-            em.detach(asset);
-            String attributeName = attribute.getName();
-            Object value = attribute.getValue();
-            long timestamp = attribute.getTimestamp().orElseGet(timerService::getCurrentTimeMillis);
+        if (assetAttributes.isEmpty()) {
+            return Collections.emptySet();
+        }
+
+        try {
+            // The number of attributes determines the shape of the statement
+            Map<Integer, List<Map.Entry<String, Collection<Attribute<?>>>>> updatesByAttributeCount = assetAttributes.entrySet().stream()
+                .collect(groupingBy(assetIdAndAttributes -> assetIdAndAttributes.getValue().size()));
 
             return em.unwrap(Session.class).doReturningWork(connection -> {
-                String jpql = "update Asset" +
-                    " set attributes = jsonb_set(jsonb_set(attributes, ?, ?, true), ?, ?, true)" +
-                    " where id = ? and attributes -> ? is not null";
-
-                try (PreparedStatement statement = connection.prepareStatement(jpql)) {
-                    Array attributeValuePath = connection.createArrayOf(
-                        "text",
-                        new String[]{attributeName, "value"}
-                    );
-                    statement.setArray(1, attributeValuePath);
-
-                    PGobject pgJsonValue = new PGobject();
-                    pgJsonValue.setType("jsonb");
-                    // Careful, do not set Java null here! It will erase your whole SQL column!
-                    pgJsonValue.setValue(ValueUtil.asJSON(value).orElse(ValueUtil.NULL_LITERAL));
-                    statement.setObject(2, pgJsonValue);
-
-                    // Bind the value timestamp
-                    Array attributeValueTimestampPath = connection.createArrayOf(
-                        "text",
-                        new String[]{attributeName, "timestamp"}
-                    );
-                    statement.setArray(3, attributeValueTimestampPath);
-                    PGobject pgJsonValueTimestamp = new PGobject();
-                    pgJsonValueTimestamp.setType("jsonb");
-                    pgJsonValueTimestamp.setValue(Long.toString(timestamp));
-                    statement.setObject(4, pgJsonValueTimestamp);
-
-                    // Bind asset ID and attribute name
-                    statement.setString(5, asset.getId());
-                    statement.setString(6, attributeName);
-
-                    int updatedRows = statement.executeUpdate();
-                    if (LOG.isLoggable(Level.FINEST)) {
-                        LOG.finest("Stored asset '" + asset.getId()
-                            + "' attribute '" + attributeName
-                            + "' (affected rows: " + updatedRows + ") value: "
-                            + (value != null ? ValueUtil.asJSON(value).orElse("null") : "null"));
+                Set<String> failedAssetIds = new HashSet<>();
+
+                for (Map.Entry<Integer, List<Map.Entry<String, Collection<Attribute<?>>>>> updates : updatesByAttributeCount.entrySet()) {
+                    try (PreparedStatement statement = connection.prepareStatement(buildUpdateAttributeValuesString(updates.getKey()))) {
+
+                        for (Map.Entry<String, Collection<Attribute<?>>> assetIdAndAttributes : updates.getValue()) {
+                            int index = 1;
+                            for (Attribute<?> attribute : assetIdAndAttributes.getValue()) {
+                                index = bindAttributeValue(connection, statement, index, attribute);
+                            }
+                            // Bind asset ID and attribute names
+                            statement.setString(index++, assetIdAndAttributes.getKey());
+                            for (Attribute<?> attribute : assetIdAndAttributes.getValue()) {
+                                statement.setString(index++, attribute.getName());
+                            }
+                            statement.addBatch();
+                        }
+
+                        int[] updatedRows = statement.executeBatch();
+
+                        for (int i = 0; i < updatedRows.length; i++) {
+                            String assetId = updates.getValue().get(i).getKey();
+                            if (updatedRows[i] == 0 || updatedRows[i] == Statement.EXECUTE_FAILED) {
+                                failedAssetIds.add(assetId);
+                            }
+                            if (LOG.isLoggable(Level.FINEST)) {
+                                LOG.finest("Stored asset '" + assetId
+                                    + "' attributes " + updates.getValue().get(i).getValue().stream().map(Attribute::getName).collect(Collectors.toList())
+                                    + " (affected rows: " + updatedRows[i] + ")");
+                            }
+                        }
                     }
-                    return updatedRows == 1;
                 }
+
+                return failedAssetIds;
             });
         } catch (Exception e) {
-            LOG.log(Level.WARNING, "Failed to store attribute value", e);
-            return false;
+            LOG.log(Level.WARNING, "Failed to store attribute values", e);
+            return new HashSet<>(assetAttributes.keySet());
         }
     }
 
+    protected static String buildUpdateAttributeValuesString(int attributeCount) {
+        StringBuilder sb = new StringBuilder("update Asset set attributes = ");
+        for (int i = 0; i < attributeCount * 2; i++) {
+            sb.append("jsonb_set(");
+        }
+        sb.append("attributes");
+        for (int i = 0; i < attributeCount; i++) {
+            sb.append(", ?, ?, true), ?, ?, true)");
+        }
+        sb.append(" where id = ?");
+        for (int i = 0; i < attributeCount; i++) {
+            sb.append(" and attributes -> ? is not null");
+        }
+        return sb.toString();
+    }
+
+    protected int bindAttributeValue(Connection connection, PreparedStatement statement, int index, Attribute<?> attribute) throws SQLException {
+        String attributeName = attribute.getName();
+        Object value = attribute.getValue();
+        long timestamp = attribute.getTimestamp().orElseGet(timerService::getCurrentTimeMillis);
+
+        Array attributeValuePath = connection.createArrayOf(
+            "text",
+            new String[]{attributeName, "value"}
+        );
+        statement.setArray(index++, attributeValuePath);
+
+        PGobject pgJsonValue = new PGobject();
+        pgJsonValue.setType("jsonb");
+        // Careful, do not set Java null here! It will erase your whole SQL column!
+        pgJsonValue.setValue(ValueUtil.asJSON(value).orElse(ValueUtil.NULL_LITERAL));
+        statement.setObject(index++, pgJsonValue);
+
+        // Bind the value timestamp
+        Array attributeValueTimestampPath = connection.createArrayOf(
+            "text",
+            new String[]{attributeName, "timestamp"}
+        );
+        statement.setArray(index++, attributeValueTimestampPath);
+        PGobject pgJsonValueTimestamp = new PGobject();
+        pgJsonValueTimestamp.setType("jsonb");
+        pgJsonValueTimestamp.setValue(Long.toString(timestamp));
+        statement.setObject(index++, pgJsonValueTimestamp);
+
+        return index;
+    }
+
     protected void publishModificationEvents(PersistenceEvent<Asset<?>> persistenceEvent) {
         Asset<?> asset = persistenceEvent.getEntity();
         switch (persistenceEvent.getCause()) {
@@ -1295,7 +1574,7 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
         }
 
         sb.append(buildOrderByString(query));
-        sb.append(buildLimitString(query));
+        sb.append(buildLimitString(query, binders));
         return new Pair<>(new PreparedAssetQuery(sb.toString(), binders), containsCalendarPredicate);
     }
 
@@ -1401,42 +1680,75 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
         return sb.toString();
     }
 
+    /**
+     * @return <code>true</code> if the query result is ordered by {@link #buildOrderByString}.
+     */
+    protected static boolean isOrdered(AssetQuery query) {
+        return (query.ids == null || query.recursive) && query.orderBy != null && query.orderBy.property != null;
+    }
+
+    /**
+     * The ordered expression of the property, creation time is compared with the millisecond precision of the asset
+     * and a missing parent sorts as empty string so a {@link Continuation} can compare with any row.
+     */
+    protected static String getOrderByExpression(OrderBy.Property property) {
+        switch (property) {
+            case CREATED_ON:
+                return "date_trunc('milliseconds', A.CREATED_ON)";
+            case ASSET_TYPE:
+                return "A.TYPE";
+            case NAME:
+                return "A.NAME";
+            case PARENT_ID:
+                return "coalesce(A.PARENT_ID, '')";
+            default:
+                return "A.REALM";
+        }
+    }
+
     protected static String buildOrderByString(AssetQuery query) {
         StringBuilder sb = new StringBuilder();
 
-        if (query.ids != null && !query.recursive) {
+        if (!isOrdered(query)) {
             return sb.toString();
         }
 
-        if (query.orderBy != null && query.orderBy.property != null) {
-            sb.append(" order by ");
+        // Order by ID last so the order is total and pages can continue after any asset
+        String direction = query.orderBy.descending ? " desc" : " asc";
+        sb.append(" order by ")
+            .append(getOrderByExpression(query.orderBy.property)).append(direction)
+            .append(", A.ID").append(direction)
+            .append(" ");
 
-            switch (query.orderBy.property) {
-                case CREATED_ON:
-                    sb.append(" A.CREATED_ON ");
-                    break;
-                case ASSET_TYPE:
-                    sb.append(" A.TYPE ");
-                    break;
-                case NAME:
-                    sb.append(" A.NAME ");
-                    break;
-                case PARENT_ID:
-                    sb.append(" A.PARENT_ID ");
-                    break;
-                case REALM:
-                    sb.append(" A.REALM ");
-                    break;
-            }
-            sb.append(query.orderBy.descending ? "desc " : "asc ");
+        return sb.toString();
+    }
+
+    protected static String buildContinuationFilter(AssetQuery query, List<ParameterBinder> binders) {
+        if (!isOrdered(query)) {
+            throw new IllegalStateException("A continuation token requires an ordered query");
         }
 
-        return sb.toString();
+        Continuation continuation = Continuation.decode(query.continuationToken);
+
+        if (continuation.property != query.orderBy.property || continuation.descending != query.orderBy.descending) {
+            throw new IllegalStateException("Continuation token doesn't match the order of the query");
+        }
+
+        final int valuePos = binders.size() + 1;
+        final int idPos = valuePos + 1;
+        binders.add((em, st) -> st.setParameter(valuePos, continuation.getBindValue()));
+        binders.add((em, st) -> st.setParameter(idPos, continuation.id));
+
+        return " and (" + getOrderByExpression(continuation.property) + ", A.ID) "
+            + (continuation.descending ? "<" : ">")
+            + " (?" + valuePos + ", ?" + idPos + ")";
     }
 
-    protected static String buildLimitString(AssetQuery query) {
+    protected static String buildLimitString(AssetQuery query, List<ParameterBinder> binders) {
         if (query.limit > 0) {
-            return " LIMIT " + query.limit;
+            final int pos = binders.size() + 1;
+            binders.add((em, st) -> st.setParameter(pos, query.limit));
+            return " LIMIT ?" + pos;
         }
         return "";
     }
@@ -1563,6 +1875,10 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
                 sb.append(" and A.ACCESS_PUBLIC_READ is true");
             }
 
+            if (!isNullOrEmpty(query.continuationToken)) {
+                sb.append(buildContinuationFilter(query, binders));
+            }
+
             if (query.types != null && query.types.length > 0) {
                 String[] resolvedTypes = getResolvedAssetTypes(query.types);
                 final int pos = binders.size() + 1;
@@ -1777,10 +2093,12 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
             } else if (nameValuePredicate.value instanceof BooleanPredicate) {
                 BooleanPredicate booleanPredicate = (BooleanPredicate) nameValuePredicate.value;
                 valuePathInserter.accept(attributeBuilder, binders);
+                final int pos = binders.size() + 1;
                 attributeBuilder
-                    .append(" = to_jsonb(")
-                    .append(booleanPredicate.value)
-                    .append(")");
+                    .append(" = to_jsonb(?")
+                    .append(pos)
+                    .append("\\:\\:boolean)");
+                binders.add((em, st) -> st.setParameter(pos, booleanPredicate.value));
             } else if (nameValuePredicate.value instanceof DateTimePredicate) {
                 DateTimePredicate dateTimePredicate = (DateTimePredicate) nameValuePredicate.value;
                 attributeBuilder.append("(");
@@ -1820,9 +2138,12 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
                     valuePathInserter.accept(attributeBuilder, binders);
 
                     if (arrayPredicate.index != null) {
+                        final int pos = binders.size() + 1;
                         attributeBuilder
-                            .append(" -> ")
-                            .append(arrayPredicate.index);
+                            .append(" -> ?")
+                            .append(pos)
+                            .append("\\:\\:integer");
+                        binders.add((em, st) -> st.setParameter(pos, arrayPredicate.index));
                     }
                     final int pos = binders.size() + 1;
                     attributeBuilder.append(" @> ?").append(pos).append(" \\:\\:jsonb");
@@ -1834,23 +2155,29 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
                 if (arrayPredicate.lengthEquals != null) {
                     attributeBuilder.append(" and jsonb_array_length(");
                     valuePathInserter.accept(attributeBuilder, binders);
+                    final int pos = binders.size() + 1;
                     attributeBuilder
-                        .append(") = ")
-                        .append(arrayPredicate.lengthEquals);
+                        .append(") = ?")
+                        .append(pos);
+                    binders.add((em, st) -> st.setParameter(pos, arrayPredicate.lengthEquals));
                 }
                 if (arrayPredicate.lengthGreaterThan != null) {
                     attributeBuilder.append(" and jsonb_array_length(");
                     valuePathInserter.accept(attributeBuilder, binders);
+                    final int pos = binders.size() + 1;
                     attributeBuilder
-                        .append(") > ")
-                        .append(arrayPredicate.lengthGreaterThan);
+                        .append(") > ?")
+                        .append(pos);
+                    binders.add((em, st) -> st.setParameter(pos, arrayPredicate.lengthGreaterThan));
                 }
                 if (arrayPredicate.lengthLessThan != null) {
                     attributeBuilder.append(" and jsonb_array_length(");
                     valuePathInserter.accept(attributeBuilder, binders);
+                    final int pos = binders.size() + 1;
                     attributeBuilder
-                        .append(") < ")
-                        .append(arrayPredicate.lengthLessThan);
+                        .append(") < ?")
+                        .append(pos);
+                    binders.add((em, st) -> st.setParameter(pos, arrayPredicate.lengthLessThan));
                 }
                 if (arrayPredicate.negated) {
                     attributeBuilder.append(")");
@@ -1866,12 +2193,13 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
                     valuePathInserter.accept(attributeBuilder, binders);
                     attributeBuilder
                         .append(" #>> '{coordinates,1}')\\:\\:numeric")
-                        .append("), ST_MakePoint(")
-                        .append(location.lng)
-                        .append(",")
-                        .append(location.lat)
-                        .append(location.negated ? ")) > " : ")) <= ")
-                        .append(location.radius);
+                        .append("), ");
+                    appendGeofenceParameters(attributeBuilder, binders, "ST_MakePoint", location.lng, location.lat);
+                    final int pos = binders.size() + 1;
+                    attributeBuilder
+                        .append(location.negated ? ") > ?" : ") <= ?")
+                        .append(pos);
+                    binders.add((em, st) -> st.setParameter(pos, location.radius));
                 } else if (nameValuePredicate.value instanceof RectangularGeofencePredicate) {
                     RectangularGeofencePredicate location = (RectangularGeofencePredicate) nameValuePredicate.value;
                     if (location.negated) {
@@ -1885,16 +2213,9 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
                     valuePathInserter.accept(attributeBuilder, binders);
                     attributeBuilder
                         .append(" #>> '{coordinates,1}')\\:\\:numeric")
-                        .append(")")
-                        .append(", ST_MakeEnvelope(")
-                        .append(location.lngMin)
-                        .append(",")
-                        .append(location.latMin)
-                        .append(",")
-                        .append(location.lngMax)
-                        .append(",")
-                        .append(location.latMax)
-                        .append("))");
+                        .append("), ");
+                    appendGeofenceParameters(attributeBuilder, binders, "ST_MakeEnvelope", location.lngMin, location.latMin, location.lngMax, location.latMax);
+                    attributeBuilder.append(")");
                 }
             } else if (nameValuePredicate.value instanceof ValueNotEmptyPredicate) {
                 valuePathInserter.accept(attributeBuilder, binders);
@@ -1943,6 +2264,21 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
         return attributeBuilder.toString();
     }
 
+    /**
+     * Appends the function call with the coordinates as parameters, literal values would make the SQL text differ
+     * for every location so the statement could never be reused.
+     */
+    protected static void appendGeofenceParameters(StringBuilder sb, List<ParameterBinder> binders, String function, double... coordinates) {
+        sb.append(function).append("(");
+        for (int i = 0; i < coordinates.length; i++) {
+            final int pos = binders.size() + 1;
+            final double coordinate = coordinates[i];
+            sb.append(i > 0 ? ", ?" : "?").append(pos).append("\\:\\:float8");
+            binders.add((em, st) -> st.setParameter(pos, coordinate));
+        }
+        sb.append(")");
+    }
+
     protected static String buildOperatorFilter(AssetQuery.Operator operator, boolean negate, int pos) {
         switch (operator) {
             case EQUALS:
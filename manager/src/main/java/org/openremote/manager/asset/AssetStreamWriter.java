@@ -0,0 +1,128 @@
+/*
+ * Copyright 2021, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.asset;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import io.undertow.servlet.handlers.ServletRequestContext;
+import org.openremote.model.asset.Asset;
+import org.openremote.model.util.ValueUtil;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Writes the assets of a query to the response while the query runs, instead of the returned {@link Asset} array.
+ * A resource method stores the {@link StreamedAssets} in the {@link #STREAMED_ASSETS} request attribute and returns
+ * an empty array, so the signature of the method and its clients don't change. Without the request attribute the
+ * array is written by the default JSON provider.
+ * <p>
+ * An error before the response is committed is handled like any other error of the request. The status of a
+ * committed response can't be changed anymore, so the connection is closed without finishing the body: the client
+ * then fails with an incomplete response instead of reading a truncated array with a successful status.
+ */
+@Provider
+@Produces(MediaType.APPLICATION_JSON)
+public class AssetStreamWriter implements MessageBodyWriter<Asset<?>[]> {
+
+    /**
+     * Runs the query and passes each asset to the consumer as its row is fetched.
+     */
+    @FunctionalInterface
+    public interface StreamedAssets {
+        void forEach(Consumer<Asset<?>> consumer);
+    }
+
+    private static final Logger LOG = Logger.getLogger(AssetStreamWriter.class.getName());
+
+    public static final String STREAMED_ASSETS = AssetStreamWriter.class.getName() + ".STREAMED_ASSETS";
+
+    @Context
+    protected HttpServletRequest request;
+
+    @Context
+    protected HttpServletResponse response;
+
+    @Override
+    public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return Asset[].class.isAssignableFrom(type) && request.getAttribute(STREAMED_ASSETS) != null;
+    }
+
+    @Override
+    public void writeTo(Asset<?>[] assets, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType, MultivaluedMap<String, Object> httpHeaders, OutputStream outputStream) throws IOException {
+        StreamedAssets streamedAssets = (StreamedAssets) request.getAttribute(STREAMED_ASSETS);
+        request.removeAttribute(STREAMED_ASSETS);
+
+        ObjectWriter writer = ValueUtil.JSON.writerFor(Asset.class);
+
+        // The output stream is closed by the container, possibly after an interceptor finished it, and the array
+        // must not be closed when the query fails
+        try (JsonGenerator generator = ValueUtil.JSON.getFactory().createGenerator(outputStream)
+            .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+            .disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT)) {
+            generator.writeStartArray();
+            streamedAssets.forEach(asset -> {
+                try {
+                    writer.writeValue(generator, asset);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            });
+            generator.writeEndArray();
+        } catch (RuntimeException | IOException ex) {
+            if (response.isCommitted()) {
+                abort(ex);
+            }
+            if (ex instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) ex).getCause();
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Closes the connection of a committed response so its body is never completed.
+     */
+    protected void abort(Exception ex) {
+        LOG.log(Level.INFO, "Streaming assets failed after the response was committed, closing connection: " + request.getRequestURI(), ex);
+        ServletRequestContext requestContext = ServletRequestContext.current();
+        if (requestContext != null) {
+            try {
+                requestContext.getExchange().getConnection().close();
+            } catch (IOException closeEx) {
+                LOG.log(Level.FINE, "Closing connection failed", closeEx);
+            }
+        }
+    }
+}
@@ -46,6 +46,18 @@ public interface AssetUpdateProcessor {
      */
     boolean processAssetUpdate(EntityManager em, Asset<?> asset, Attribute<?> attribute, Source source) throws AssetProcessingException;
 
+    /**
+     * Called once the transaction that stored the attribute value has been committed, for updates that no processor
+     * consumed completely. Processors that write outside of the transaction should do so here, so nothing is written
+     * for updates that are rolled back or fail.
+     *
+     * @param asset     The asset state with the new value.
+     * @param attribute The stored attribute with its new value and value timestamp.
+     * @param source    The source of the update.
+     */
+    default void onAssetUpdateCommitted(Asset<?> asset, Attribute<?> attribute, Source source) {
+    }
+
     /* TODO Processors should be transactional, so an exception in one processor can roll back the update in others */
     // void commit();
     // void rollback();
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2021, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.asset;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * In-memory index of the links between users and assets (the <code>USER_ASSET</code> table) for access checks of
+ * restricted users. Reads don't lock, modifications are serialized.
+ */
+public class UserAssetLinks {
+
+    protected volatile Map<String, Set<String>> userAssetIds = new ConcurrentHashMap<>();
+    protected volatile Map<String, Set<String>> assetUserIds = new ConcurrentHashMap<>();
+
+    public boolean isLinked(String userId, String assetId) {
+        return userAssetIds.getOrDefault(userId, Collections.emptySet()).contains(assetId);
+    }
+
+    public boolean isLinkedToAny(Collection<String> userIds, String assetId) {
+        Set<String> linkedUserIds = assetUserIds.getOrDefault(assetId, Collections.emptySet());
+        return userIds.stream().anyMatch(linkedUserIds::contains);
+    }
+
+    public boolean isLinkedToAll(String userId, Collection<String> assetIds) {
+        return userAssetIds.getOrDefault(userId, Collections.emptySet()).containsAll(assetIds);
+    }
+
+    public int size() {
+        return userAssetIds.values().stream().mapToInt(Set::size).sum();
+    }
+
+    synchronized public void link(String userId, String assetId) {
+        link(userAssetIds, assetUserIds, userId, assetId);
+    }
+
+    synchronized public void unlink(String userId, String assetId) {
+        remove(userAssetIds, userId, assetId);
+        remove(assetUserIds, assetId, userId);
+    }
+
+    synchronized public void unlinkAsset(String assetId) {
+        Set<String> userIds = assetUserIds.remove(assetId);
+        if (userIds != null) {
+            userIds.forEach(userId -> remove(userAssetIds, userId, assetId));
+        }
+    }
+
+    synchronized public void unlinkUser(String userId) {
+        Set<String> assetIds = userAssetIds.remove(userId);
+        if (assetIds != null) {
+            assetIds.forEach(assetId -> remove(assetUserIds, assetId, userId));
+        }
+    }
+
+    /**
+     * Replaces all links with the links the loader passes to its callback, readers see the old links until the new
+     * links are complete.
+     */
+    synchronized public void reload(Consumer<BiConsumer<String, String>> loader) {
+        Map<String, Set<String>> newUserAssetIds = new ConcurrentHashMap<>();
+        Map<String, Set<String>> newAssetUserIds = new ConcurrentHashMap<>();
+        loader.accept((userId, assetId) -> link(newUserAssetIds, newAssetUserIds, userId, assetId));
+        userAssetIds = newUserAssetIds;
+        assetUserIds = newAssetUserIds;
+    }
+
+    protected static void link(Map<String, Set<String>> userAssetIds, Map<String, Set<String>> assetUserIds, String userId, String assetId) {
+        userAssetIds.computeIfAbsent(userId, id -> ConcurrentHashMap.newKeySet()).add(assetId);
+        assetUserIds.computeIfAbsent(assetId, id -> ConcurrentHashMap.newKeySet()).add(userId);
+    }
+
+    protected static void remove(Map<String, Set<String>> index, String key, String value) {
+        index.computeIfPresent(key, (k, values) -> {
+            values.remove(value);
+            return values.isEmpty() ? null : values;
+        });
+    }
+}
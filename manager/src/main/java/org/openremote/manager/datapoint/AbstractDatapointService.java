@@ -12,6 +12,7 @@ import org.openremote.model.asset.Asset;
 import org.openremote.model.attribute.Attribute;
 import org.openremote.model.attribute.AttributeRef;
 import org.openremote.model.datapoint.Datapoint;
+import org.openremote.model.datapoint.DatapointDecimation;
 import org.openremote.model.datapoint.DatapointInterval;
 import org.openremote.model.datapoint.DatapointPeriod;
 import org.openremote.model.datapoint.ValueDatapoint;
@@ -25,13 +26,19 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Types;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -39,15 +46,30 @@ import static java.time.temporal.ChronoUnit.DAYS;
 
 /**
  * Base class for all classes that store and retrieve {@link org.openremote.model.datapoint.Datapoint}.
+ * <p>
+ * The datapoint tables are range partitioned by month, the partitions of the current and the next
+ * {@value #PARTITION_MONTHS_AHEAD} months are created daily and data points of any other month are stored in the
+ * default partition. Data points stored before the tables were partitioned stay in one partition of all earlier
+ * months. Purging should drop whole partitions with {@link #dropPartitions} before deleting rows.
+ * <p>
+ * If {@link #isRollupEnabled} then numeric and boolean data points are rolled up into minute, hour and day tables in
+ * the background and downsampled queries read the coarsest rollup table that matches the requested interval. Written
+ * and deleted data points mark their buckets for the next roll up, queries never write but aggregate the data points
+ * of marked buckets instead of their stale rollups, so they include data points that haven't been rolled up yet.
  */
 public abstract class AbstractDatapointService<T extends Datapoint> implements ContainerService {
 
     public static final int PRIORITY = AssetStorageService.PRIORITY + 100;
+    public static final int PARTITION_MONTHS_AHEAD = 2;
+    public static final int ROLLUP_INTERVAL_MILLIS = 10000;
+    public static final int ROLLUP_BATCH_SIZE = 10000;
     protected PersistenceService persistenceService;
     protected AssetStorageService assetStorageService;
     protected TimerService timerService;
     protected ScheduledExecutorService executorService;
     protected ScheduledFuture<?> dataPointsPurgeScheduledFuture;
+    protected ScheduledFuture<?> dataPointsPartitionScheduledFuture;
+    protected ScheduledFuture<?> dataPointsRollupScheduledFuture;
 
     @Override
     public int getPriority() {
@@ -62,11 +84,169 @@ public abstract class AbstractDatapointService<T extends Datapoint> implements C
         executorService = container.getExecutorService();
     }
 
+    @Override
+    public void start(Container container) throws Exception {
+        dataPointsPartitionScheduledFuture = executorService.scheduleAtFixedRate(
+                this::createPartitions,
+                0,
+                Duration.ofDays(1).toMillis(), TimeUnit.MILLISECONDS
+        );
+
+        if (isRollupEnabled()) {
+            dataPointsRollupScheduledFuture = executorService.scheduleWithFixedDelay(
+                    this::rollupDatapoints,
+                    ROLLUP_INTERVAL_MILLIS,
+                    ROLLUP_INTERVAL_MILLIS, TimeUnit.MILLISECONDS
+            );
+        }
+    }
+
     @Override
     public void stop(Container container) throws Exception {
         if (dataPointsPurgeScheduledFuture != null) {
             dataPointsPurgeScheduledFuture.cancel(true);
         }
+        if (dataPointsPartitionScheduledFuture != null) {
+            dataPointsPartitionScheduledFuture.cancel(true);
+        }
+        if (dataPointsRollupScheduledFuture != null) {
+            dataPointsRollupScheduledFuture.cancel(true);
+        }
+    }
+
+    /**
+     * Creates the monthly partitions of the current and the next {@value #PARTITION_MONTHS_AHEAD} months if they
+     * don't exist.
+     */
+    protected void createPartitions() {
+        LocalDateTime now = LocalDateTime.ofInstant(timerService.getNow(), ZoneId.systemDefault());
+
+        try {
+            persistenceService.doTransaction(em ->
+                    em.unwrap(Session.class).doWork(connection -> {
+                        try (PreparedStatement st = connection.prepareStatement("select CREATE_DATAPOINT_PARTITION(?, ?)")) {
+                            for (int i = 0; i <= PARTITION_MONTHS_AHEAD; i++) {
+                                st.setString(1, getDatapointTableName());
+                                st.setObject(2, now.plusMonths(i));
+                                try (ResultSet rs = st.executeQuery()) {
+                                    if (rs.next() && rs.getString(1) != null) {
+                                        getLogger().info("Created data point partition: " + rs.getString(1));
+                                    }
+                                }
+                            }
+                        }
+                    }));
+        } catch (Exception e) {
+            getLogger().log(Level.WARNING, "Failed to create data point partitions", e);
+        }
+    }
+
+    /**
+     * Drops the monthly partitions that only contain data points older than the given time.
+     *
+     * @return The number of dropped partitions.
+     */
+    protected int dropPartitions(LocalDateTime olderThan) {
+        return persistenceService.doReturningTransaction(em ->
+                em.unwrap(Session.class).doReturningWork(connection -> {
+                    try (PreparedStatement st = connection.prepareStatement("select DROP_DATAPOINT_PARTITIONS(?, ?)")) {
+                        st.setString(1, getDatapointTableName());
+                        st.setObject(2, olderThan);
+                        try (ResultSet rs = st.executeQuery()) {
+                            int dropped = rs.next() ? rs.getInt(1) : 0;
+                            if (dropped > 0) {
+                                getLogger().info("Dropped data point partitions older than " + olderThan + ": " + dropped);
+                            }
+                            return dropped;
+                        }
+                    }
+                }));
+    }
+
+    /**
+     * Rolls up all dirty buckets in batches of {@value #ROLLUP_BATCH_SIZE}.
+     */
+    protected void rollupDatapoints() {
+        try {
+            int rolledUp;
+            do {
+                rolledUp = persistenceService.doReturningTransaction(em ->
+                        em.unwrap(Session.class).doReturningWork(connection -> rollupDatapoints(connection, null, null, ROLLUP_BATCH_SIZE)));
+                getLogger().finest("Rolled up data point buckets: " + rolledUp);
+            } while (rolledUp >= ROLLUP_BATCH_SIZE);
+        } catch (Exception e) {
+            getLogger().log(Level.WARNING, "Failed to roll up data points", e);
+        }
+    }
+
+    /**
+     * @return The number of rolled up minute buckets.
+     */
+    protected int rollupDatapoints(Connection connection, String assetId, String attributeName, Integer maxBuckets) throws SQLException {
+        try (PreparedStatement st = connection.prepareStatement("select ROLLUP_DATAPOINTS(?, ?, ?, ?)")) {
+            st.setString(1, getDatapointTableName());
+            st.setString(2, assetId);
+            st.setString(3, attributeName);
+            st.setObject(4, maxBuckets, Types.INTEGER);
+            try (ResultSet rs = st.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        }
+    }
+
+    /**
+     * Deletes the rolled up buckets that start before the given time.
+     */
+    protected void purgeRollups(LocalDateTime olderThan) {
+        persistenceService.doTransaction(em ->
+                em.unwrap(Session.class).doWork(connection -> {
+                    for (String tableName : new String[] {"_minute", "_hour", "_day", "_rollup_dirty"}) {
+                        try (PreparedStatement st = connection.prepareStatement("delete from " + getDatapointTableName() + tableName + " where TIMESTAMP < ?")) {
+                            st.setObject(1, olderThan);
+                            st.executeUpdate();
+                        }
+                    }
+                }));
+    }
+
+    /**
+     * @return The rollup table with the coarsest buckets that fit the requested downsampling or <code>null</code> if
+     * the raw data points have to be queried.
+     */
+    protected String getRollupTableName(DatapointInterval datapointInterval, int step) {
+        if (!isRollupEnabled()) {
+            return null;
+        }
+
+        switch (datapointInterval) {
+            case MINUTE:
+                return getDatapointTableName() + (step % 1440 == 0 ? "_day" : step % 60 == 0 ? "_hour" : "_minute");
+            case HOUR:
+                return getDatapointTableName() + (step % 24 == 0 ? "_day" : "_hour");
+            default:
+                return getDatapointTableName() + "_day";
+        }
+    }
+
+    /**
+     * @return A derived table of the rollup buckets that are up to date and of the data points of buckets that are
+     * marked for the next roll up, both with <code>SUM_VALUE</code> and <code>VALUE_COUNT</code> columns.
+     */
+    protected String getRollupQuerySource(String rollupTableName) {
+        String bucket = rollupTableName.substring(rollupTableName.lastIndexOf('_') + 1);
+        String bucketInterval = "interval '1 " + bucket + "'";
+        String dirtyTableName = getDatapointTableName() + "_rollup_dirty";
+        String numericValue = "case jsonb_typeof(DP.VALUE) when 'number' then DP.VALUE::text::numeric when 'boolean' then case when DP.VALUE::text::boolean then 1 else 0 end end";
+
+        return "(select R.ENTITY_ID, R.ATTRIBUTE_NAME, R.TIMESTAMP, R.SUM_VALUE, R.VALUE_COUNT from " + rollupTableName + " R " +
+                "where not exists (select 1 from " + dirtyTableName + " D where D.ENTITY_ID = R.ENTITY_ID and D.ATTRIBUTE_NAME = R.ATTRIBUTE_NAME " +
+                "and D.TIMESTAMP >= R.TIMESTAMP and D.TIMESTAMP < R.TIMESTAMP + " + bucketInterval + ") " +
+                "union all " +
+                "select DP.ENTITY_ID, DP.ATTRIBUTE_NAME, DP.TIMESTAMP, " + numericValue + ", 1 from " +
+                "(select distinct ENTITY_ID, ATTRIBUTE_NAME, date_trunc('" + bucket + "', TIMESTAMP) as BUCKET from " + dirtyTableName + ") S " +
+                "join " + getDatapointTableName() + " DP on DP.ENTITY_ID = S.ENTITY_ID and DP.ATTRIBUTE_NAME = S.ATTRIBUTE_NAME " +
+                "and DP.TIMESTAMP >= S.BUCKET and DP.TIMESTAMP < S.BUCKET + " + bucketInterval + " " +
+                "where jsonb_typeof(DP.VALUE) in ('number', 'boolean')) ROLLED_UP";
     }
 
     public void upsertValue(String assetId, String attributeName, Object value, LocalDateTime timestamp) throws IllegalStateException {
@@ -109,6 +289,42 @@ public abstract class AbstractDatapointService<T extends Datapoint> implements C
                 }));
     }
 
+    /**
+     * Stores all datapoints with one multi-row upsert, if the same datapoint occurs more than once the last value is
+     * stored.
+     */
+    public void upsertDatapoints(List<T> datapoints) throws IllegalStateException {
+        Map<String, T> uniqueDatapoints = new LinkedHashMap<>(datapoints.size());
+        for (T datapoint : datapoints) {
+            uniqueDatapoints.put(datapoint.getAssetId() + ":" + datapoint.getAttributeName() + ":" + datapoint.getTimestamp(), datapoint);
+        }
+
+        persistenceService.doTransaction(em ->
+                em.unwrap(Session.class).doWork(connection -> {
+
+                    getLogger().finest("Storing datapoints: count=" + uniqueDatapoints.size());
+
+                    try (PreparedStatement st = getUpsertPreparedStatement(connection, uniqueDatapoints.size())) {
+                        int index = 0;
+                        for (T datapoint : uniqueDatapoints.values()) {
+                            setUpsertValues(
+                                st,
+                                index++ * 4,
+                                datapoint.getAssetId(),
+                                datapoint.getAttributeName(),
+                                datapoint.getValue(),
+                                LocalDateTime.ofInstant(Instant.ofEpochMilli(datapoint.getTimestamp()), ZoneId.systemDefault())
+                            );
+                        }
+                        st.executeUpdate();
+                    } catch (Exception e) {
+                        String msg = "Failed to insert/update data points: count=" + uniqueDatapoints.size();
+                        getLogger().log(Level.WARNING, msg, e);
+                        throw new IllegalStateException(msg, e);
+                    }
+                }));
+    }
+
     public List<T> getDatapoints(AttributeRef attributeRef) {
         return persistenceService.doReturningTransaction(entityManager ->
                 entityManager.createQuery(
@@ -191,6 +407,7 @@ public abstract class AbstractDatapointService<T extends Datapoint> implements C
                         String part = null;
                         String interval = null;
                         String stepStr = null;
+                        String rollupTableName = null;
                         String partQuery = "date_part(?, ?)::int";
                         String partQuery2 = "date_part(?, TIMESTAMP)::int";
                         int step = 1;
@@ -242,19 +459,23 @@ public abstract class AbstractDatapointService<T extends Datapoint> implements C
                                     throw new UnsupportedOperationException("Can't handle interval: " + datapointInterval);
                             }
                             stepStr = step + " " + interval;
+                            rollupTableName = getRollupTableName(datapointInterval, step);
 
                             // TODO: Change this to use something like this max min decimation algorithm https://knowledge.ni.com/KnowledgeArticleDetails?id=kA00Z0000019YLKSA2&l=en-GB)
                             query.append("select PERIOD as X, AVG_VALUE as Y " +
                                     "from generate_series(date_trunc(?, ?) + " + partQuery + " / ? * ?, date_trunc(?, ?) + " + partQuery + " / ? * ?, ?) PERIOD left join ( " +
                                     "select (date_trunc(?, TIMESTAMP) + " + partQuery2 + " / ? * ?)::timestamp as TS, ");
 
-                            if (isNumber) {
+                            if (rollupTableName != null) {
+                                // Booleans are rolled up as 0 and 1
+                                query.append(" SUM(SUM_VALUE) / SUM(VALUE_COUNT) as AVG_VALUE ");
+                            } else if (isNumber) {
                                 query.append(" AVG(VALUE::text::numeric) as AVG_VALUE ");
                             } else {
                                 query.append(" AVG(case when VALUE::text::boolean is true then 1 else 0 end) as AVG_VALUE ");
                             }
 
-                            query.append("from " + getDatapointTableName() +
+                            query.append("from " + (rollupTableName != null ? getRollupQuerySource(rollupTableName) : getDatapointTableName()) +
                                     " where TIMESTAMP >= date_trunc(?, ?) and TIMESTAMP < (date_trunc(?, ?) + ?) and ENTITY_ID = ? and ATTRIBUTE_NAME = ? group by TS) DP on DP.TS = PERIOD order by PERIOD asc");
 
                         } else {
@@ -336,6 +557,92 @@ public abstract class AbstractDatapointService<T extends Datapoint> implements C
         );
     }
 
+    /**
+     * Returns at most the given number of numeric or boolean datapoints of the attribute, reduced with the given
+     * decimation. {@link DatapointDecimation#M4} is computed in the database, {@link DatapointDecimation#LTTB} is
+     * computed while streaming the datapoints from the database.
+     */
+    public ValueDatapoint<?>[] getDecimatedDatapoints(String assetId,
+                                                      Attribute<?> attribute,
+                                                      DatapointDecimation decimation,
+                                                      int maxPoints,
+                                                      LocalDateTime fromTimestamp,
+                                                      LocalDateTime toTimestamp) {
+
+        Class<?> attributeType = attribute.getType().getType();
+        if (!Number.class.isAssignableFrom(attributeType) && !Boolean.class.isAssignableFrom(attributeType)) {
+            throw new IllegalStateException("Decimation requires a numeric or boolean attribute: " + attribute.getName());
+        }
+        if (maxPoints < 4) {
+            throw new IllegalStateException("Decimation requires at least 4 points");
+        }
+
+        getLogger().finer("Getting decimated datapoints for: " + new AttributeRef(assetId, attribute.getName()));
+
+        String numericValue = "case jsonb_typeof(VALUE) when 'number' then VALUE::text::numeric when 'boolean' then case when VALUE::text::boolean then 1 else 0 end end";
+        String rowsQuery = "select TIMESTAMP, " + numericValue + " as NUM from " + getDatapointTableName() +
+                " where ENTITY_ID = ? and ATTRIBUTE_NAME = ? and TIMESTAMP >= ? and TIMESTAMP <= ?";
+
+        return persistenceService.doReturningTransaction(entityManager ->
+                entityManager.unwrap(Session.class).doReturningWork(connection -> {
+
+                    if (decimation == DatapointDecimation.M4) {
+                        int buckets = maxPoints / 4;
+                        double bucketSeconds = Math.max(0.001d, Duration.between(fromTimestamp, toTimestamp).toMillis() / 1000d / buckets);
+                        String query = "select TIMESTAMP, NUM from (" +
+                                "select TIMESTAMP, NUM, " +
+                                "row_number() over (partition by B order by TIMESTAMP) as FIRST_RANK, " +
+                                "row_number() over (partition by B order by TIMESTAMP desc) as LAST_RANK, " +
+                                "row_number() over (partition by B order by NUM, TIMESTAMP) as MIN_RANK, " +
+                                "row_number() over (partition by B order by NUM desc, TIMESTAMP) as MAX_RANK " +
+                                "from (select TIMESTAMP, NUM, floor(extract(epoch from (TIMESTAMP - ?)) / ?) as B from (" + rowsQuery + ") DP where NUM is not null) BUCKETED" +
+                                ") RANKED where FIRST_RANK = 1 or LAST_RANK = 1 or MIN_RANK = 1 or MAX_RANK = 1 order by TIMESTAMP asc";
+
+                        try (PreparedStatement st = connection.prepareStatement(query)) {
+                            st.setObject(1, fromTimestamp);
+                            st.setDouble(2, bucketSeconds);
+                            st.setString(3, assetId);
+                            st.setString(4, attribute.getName());
+                            st.setObject(5, fromTimestamp);
+                            st.setObject(6, toTimestamp);
+
+                            try (ResultSet rs = st.executeQuery()) {
+                                List<ValueDatapoint<?>> result = new ArrayList<>();
+                                while (rs.next()) {
+                                    result.add(new ValueDatapoint<>(rs.getTimestamp(1).getTime(), rs.getDouble(2)));
+                                }
+                                return result.toArray(new ValueDatapoint<?>[0]);
+                            }
+                        }
+                    }
+
+                    LttbDecimator decimator = new LttbDecimator(
+                            fromTimestamp.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli(),
+                            toTimestamp.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli(),
+                            maxPoints);
+
+                    try (PreparedStatement st = connection.prepareStatement(rowsQuery + " order by TIMESTAMP asc")) {
+                        // Stream the rows with a cursor instead of materialising them all
+                        st.setFetchSize(1000);
+                        st.setString(1, assetId);
+                        st.setString(2, attribute.getName());
+                        st.setObject(3, fromTimestamp);
+                        st.setObject(4, toTimestamp);
+
+                        try (ResultSet rs = st.executeQuery()) {
+                            while (rs.next()) {
+                                double value = rs.getDouble(2);
+                                if (!rs.wasNull()) {
+                                    decimator.add(rs.getTimestamp(1).getTime(), value);
+                                }
+                            }
+                        }
+                    }
+                    return decimator.finish().toArray(new ValueDatapoint<?>[0]);
+                })
+        );
+    }
+
     public DatapointPeriod getDatapointPeriod(String assetId, String attributeName) {
         return persistenceService.doReturningTransaction(em ->
                 em.unwrap(Session.class).doReturningWork(new AbstractReturningWork<DatapointPeriod>() {
@@ -366,24 +673,41 @@ public abstract class AbstractDatapointService<T extends Datapoint> implements C
     }
 
     protected PreparedStatement getUpsertPreparedStatement(Connection connection) throws SQLException {
-        return connection.prepareStatement("INSERT INTO " + getDatapointTableName() + " (entity_id, attribute_name, value, timestamp) " +
-                "VALUES (?, ?, ?, ?) " +
-                "ON CONFLICT (entity_id, attribute_name, timestamp) DO UPDATE " +
-                "SET value = excluded.value");
+        return getUpsertPreparedStatement(connection, 1);
+    }
+
+    protected PreparedStatement getUpsertPreparedStatement(Connection connection, int rows) throws SQLException {
+        StringBuilder sb = new StringBuilder("INSERT INTO " + getDatapointTableName() + " (entity_id, attribute_name, value, timestamp) VALUES ");
+        for (int i = 0; i < rows; i++) {
+            sb.append(i > 0 ? ", (?, ?, ?, ?)" : "(?, ?, ?, ?)");
+        }
+        sb.append(" ON CONFLICT (entity_id, attribute_name, timestamp) DO UPDATE SET value = excluded.value");
+        return connection.prepareStatement(sb.toString());
     }
 
     protected void setUpsertValues(PreparedStatement st, String assetId, String attributeName, Object value, LocalDateTime timestamp) throws Exception {
+        setUpsertValues(st, 0, assetId, attributeName, value, timestamp);
+    }
+
+    protected void setUpsertValues(PreparedStatement st, int offset, String assetId, String attributeName, Object value, LocalDateTime timestamp) throws Exception {
         PGobject pgJsonValue = new PGobject();
         pgJsonValue.setType("jsonb");
         pgJsonValue.setValue(ValueUtil.asJSON(value).orElse("null"));
-        st.setString(1, assetId);
-        st.setString(2, attributeName);
-        st.setObject(3, pgJsonValue);
-        st.setObject(4, timestamp);
+        st.setString(offset + 1, assetId);
+        st.setString(offset + 2, attributeName);
+        st.setObject(offset + 3, pgJsonValue);
+        st.setObject(offset + 4, timestamp);
     }
 
     protected abstract Class<T> getDatapointClass();
 
+    /**
+     * Rollup tables must exist for {@link #getDatapointTableName} and be maintained by a trigger.
+     */
+    protected boolean isRollupEnabled() {
+        return false;
+    }
+
     protected abstract String getDatapointTableName();
 
     protected abstract Logger getLogger();
@@ -65,6 +65,7 @@ public class AssetDatapointHealthStatusProvider implements HealthStatusProvider,
     public Object getHealthStatus() {
         ObjectNode value = ValueUtil.JSON.createObjectNode();
         value.put("totalDatapoints", assetDatapointService.getDatapointsCount());
+        assetDatapointService.getWriteBuffer().ifPresent(writeBuffer -> value.set("writeBuffer", writeBuffer.getStatus()));
         return value;
     }
 }
@@ -24,11 +24,13 @@ import org.apache.commons.io.IOUtils;
 import org.openremote.container.timer.TimerService;
 import org.openremote.manager.asset.AssetStorageService;
 import org.openremote.manager.security.ManagerIdentityService;
+import org.openremote.manager.web.ConcurrencyLimiter;
 import org.openremote.manager.web.ManagerWebResource;
 import org.openremote.model.asset.Asset;
 import org.openremote.model.attribute.Attribute;
 import org.openremote.model.attribute.AttributeRef;
 import org.openremote.model.datapoint.AssetDatapointResource;
+import org.openremote.model.datapoint.DatapointDecimation;
 import org.openremote.model.datapoint.DatapointInterval;
 import org.openremote.model.datapoint.DatapointPeriod;
 import org.openremote.model.datapoint.ValueDatapoint;
@@ -58,19 +60,23 @@ import static org.openremote.model.util.ValueUtil.JSON;
 
 public class AssetDatapointResourceImpl extends ManagerWebResource implements AssetDatapointResource {
 
+    public static final int DECIMATION_POINTS_DEFAULT = 1000;
     private static final Logger LOG = Logger.getLogger(AssetDatapointResourceImpl.class.getName());
     private static final Logger DATA_EXPORT_LOG = SyslogCategory.getLogger(DATA, AssetDatapointResourceImpl.class);
 
     protected final AssetStorageService assetStorageService;
     protected final AssetDatapointService assetDatapointService;
+    protected final ConcurrencyLimiter queryLimiter;
 
     public AssetDatapointResourceImpl(TimerService timerService,
                                       ManagerIdentityService identityService,
                                       AssetStorageService assetStorageService,
-                                      AssetDatapointService assetDatapointService) {
+                                      AssetDatapointService assetDatapointService,
+                                      ConcurrencyLimiter queryLimiter) {
         super(timerService, identityService);
         this.assetStorageService = assetStorageService;
         this.assetDatapointService = assetDatapointService;
+        this.queryLimiter = queryLimiter;
     }
 
     @Override
@@ -80,7 +86,9 @@ public class AssetDatapointResourceImpl extends ManagerWebResource implements As
                                              DatapointInterval interval,
                                              Integer stepSize,
                                              long fromTimestamp,
-                                             long toTimestamp) {
+                                             long toTimestamp,
+                                             DatapointDecimation decimation,
+                                             Integer points) {
         try {
 
             if (isRestrictedUser() && !assetStorageService.isUserAsset(getUserId(), assetId)) {
@@ -102,12 +110,23 @@ public class AssetDatapointResourceImpl extends ManagerWebResource implements As
                     new WebApplicationException(Response.Status.NOT_FOUND)
             );
 
-            return assetDatapointService.getValueDatapoints(assetId,
-                    attribute,
-                    interval,
-                    stepSize,
-                    LocalDateTime.ofInstant(Instant.ofEpochMilli(fromTimestamp), ZoneId.systemDefault()),
-                    LocalDateTime.ofInstant(Instant.ofEpochMilli(toTimestamp), ZoneId.systemDefault()));
+            return queryLimiter.call(() -> {
+                if (decimation != null) {
+                    return assetDatapointService.getDecimatedDatapoints(assetId,
+                            attribute,
+                            decimation,
+                            points != null ? points : DECIMATION_POINTS_DEFAULT,
+                            LocalDateTime.ofInstant(Instant.ofEpochMilli(fromTimestamp), ZoneId.systemDefault()),
+                            LocalDateTime.ofInstant(Instant.ofEpochMilli(toTimestamp), ZoneId.systemDefault()));
+                }
+
+                return assetDatapointService.getValueDatapoints(assetId,
+                        attribute,
+                        interval,
+                        stepSize,
+                        LocalDateTime.ofInstant(Instant.ofEpochMilli(fromTimestamp), ZoneId.systemDefault()),
+                        LocalDateTime.ofInstant(Instant.ofEpochMilli(toTimestamp), ZoneId.systemDefault()));
+            });
         } catch (IllegalStateException ex) {
             throw new BadRequestException(ex);
         } catch (UnsupportedOperationException ex) {
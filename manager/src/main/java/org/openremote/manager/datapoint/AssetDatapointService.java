@@ -31,7 +31,9 @@ import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Optional;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
@@ -50,27 +52,49 @@ import static org.openremote.model.value.MetaItemType.STORE_DATA_POINTS;
  * {@link MetaItemType#DATA_POINTS_MAX_AGE_DAYS} {@link org.openremote.model.attribute.MetaItem}
  * and {@link #DATA_POINTS_MAX_AGE_DAYS} setting; storage duration defaults to {@value #DATA_POINTS_MAX_AGE_DAYS_DEFAULT}
  * days.
+ * <p>
+ * Datapoints are written in the asset processing chain by default ({@link WriteMode#SYNC}), in {@link WriteMode#ASYNC}
+ * mode they are written through a {@link DatapointWriteBuffer} instead and datapoints that were not yet flushed are
+ * lost if the process dies.
  */
 public class AssetDatapointService extends AbstractDatapointService<AssetDatapoint> implements AssetUpdateProcessor {
 
+    public enum WriteMode {
+        SYNC,
+        ASYNC
+    }
+
     public static final String DATA_POINTS_MAX_AGE_DAYS = "DATA_POINTS_MAX_AGE_DAYS";
     public static final int DATA_POINTS_MAX_AGE_DAYS_DEFAULT = 31;
     public static final String DATA_POINTS_EXPORT_DIR = "DATA_POINTS_EXPORT_DIR";
     public static final String DATA_POINTS_EXPORT_DIR_DEFAULT = "/tmp";
+    public static final String DATA_POINTS_WRITE_MODE = "DATA_POINTS_WRITE_MODE";
+    public static final String DATA_POINTS_WRITE_MODE_DEFAULT = WriteMode.SYNC.name();
+    public static final String DATA_POINTS_WRITE_BUFFER_SIZE = "DATA_POINTS_WRITE_BUFFER_SIZE";
+    public static final int DATA_POINTS_WRITE_BUFFER_SIZE_DEFAULT = 10000;
+    public static final String DATA_POINTS_WRITE_BATCH_SIZE = "DATA_POINTS_WRITE_BATCH_SIZE";
+    public static final int DATA_POINTS_WRITE_BATCH_SIZE_DEFAULT = 500;
+    public static final String DATA_POINTS_WRITE_FLUSH_MILLIS = "DATA_POINTS_WRITE_FLUSH_MILLIS";
+    public static final int DATA_POINTS_WRITE_FLUSH_MILLIS_DEFAULT = 1000;
+    // Maximum number of concurrent datapoint query requests, 0 is only limited by ManagerWebService.REQUEST_CONCURRENCY_MAX
+    public static final String DATA_POINTS_QUERY_CONCURRENCY_MAX = "DATA_POINTS_QUERY_CONCURRENCY_MAX";
     private static final Logger LOG = Logger.getLogger(AssetDatapointService.class.getName());
     protected int maxDatapointAgeDays;
     protected Path exportPath;
+    protected DatapointWriteBuffer<AssetDatapoint> writeBuffer;
 
     @Override
     public void init(Container container) throws Exception {
         super.init(container);
 
-        container.getService(ManagerWebService.class).getApiSingletons().add(
+        ManagerWebService managerWebService = container.getService(ManagerWebService.class);
+        managerWebService.getApiSingletons().add(
             new AssetDatapointResourceImpl(
                 container.getService(TimerService.class),
                 container.getService(ManagerIdentityService.class),
                 container.getService(AssetStorageService.class),
-                this
+                this,
+                managerWebService.createConcurrencyLimiter(container.getConfig(), "datapointQuery", DATA_POINTS_QUERY_CONCURRENCY_MAX)
             )
         );
 
@@ -81,10 +105,28 @@ public class AssetDatapointService extends AbstractDatapointService<AssetDatapoi
         }
 
         exportPath = Paths.get(getString(container.getConfig(), DATA_POINTS_EXPORT_DIR, DATA_POINTS_EXPORT_DIR_DEFAULT));
+
+        WriteMode writeMode = WriteMode.valueOf(getString(container.getConfig(), DATA_POINTS_WRITE_MODE, DATA_POINTS_WRITE_MODE_DEFAULT).toUpperCase(Locale.ROOT));
+
+        if (writeMode == WriteMode.ASYNC) {
+            writeBuffer = new DatapointWriteBuffer<>(
+                this,
+                Math.max(1, getInteger(container.getConfig(), DATA_POINTS_WRITE_BUFFER_SIZE, DATA_POINTS_WRITE_BUFFER_SIZE_DEFAULT)),
+                Math.max(1, getInteger(container.getConfig(), DATA_POINTS_WRITE_BATCH_SIZE, DATA_POINTS_WRITE_BATCH_SIZE_DEFAULT)),
+                Math.max(0, getInteger(container.getConfig(), DATA_POINTS_WRITE_FLUSH_MILLIS, DATA_POINTS_WRITE_FLUSH_MILLIS_DEFAULT))
+            );
+            LOG.info("Data points are written asynchronously, unflushed data points are lost if the process dies");
+        }
     }
 
     @Override
     public void start(Container container) throws Exception {
+        super.start(container);
+
+        if (writeBuffer != null) {
+            writeBuffer.start();
+        }
+
         if (maxDatapointAgeDays > 0) {
             dataPointsPurgeScheduledFuture = executorService.scheduleAtFixedRate(
                 this::purgeDataPoints,
@@ -106,6 +148,10 @@ public class AssetDatapointService extends AbstractDatapointService<AssetDatapoi
 
         if (attributeIsStoreDatapoint(attribute) && attribute.getValue().isPresent()) { // Don't store datapoints with null value
             try {
+                if (writeBuffer != null) {
+                    // Buffered once the update has been committed, see onAssetUpdateCommitted
+                    return false;
+                }
                 upsertValue(asset.getId(), attribute.getName(), attribute.getValue().orElse(null), LocalDateTime.ofInstant(Instant.ofEpochMilli(attribute.getTimestamp().orElseGet(timerService::getCurrentTimeMillis)), ZoneId.systemDefault()));
             } catch (Exception e) {
                 throw new AssetProcessingException(AttributeWriteFailure.STATE_STORAGE_FAILED, "Failed to insert or update asset data point for attribute: " + attribute, e);
@@ -114,6 +160,29 @@ public class AssetDatapointService extends AbstractDatapointService<AssetDatapoi
         return false;
     }
 
+    @Override
+    public void onAssetUpdateCommitted(Asset<?> asset, Attribute<?> attribute, Source source) {
+        if (writeBuffer != null && attributeIsStoreDatapoint(attribute) && attribute.getValue().isPresent()) {
+            writeBuffer.add(new AssetDatapoint(asset.getId(), attribute.getName(), attribute.getValue().orElse(null), attribute.getTimestamp().orElseGet(timerService::getCurrentTimeMillis)));
+        }
+    }
+
+    @Override
+    public void stop(Container container) throws Exception {
+        super.stop(container);
+
+        if (writeBuffer != null) {
+            writeBuffer.stop();
+        }
+    }
+
+    /**
+     * @return The write buffer if data points are written asynchronously.
+     */
+    public Optional<DatapointWriteBuffer<AssetDatapoint>> getWriteBuffer() {
+        return Optional.ofNullable(writeBuffer);
+    }
+
     @Override
     protected Class<AssetDatapoint> getDatapointClass() {
         return AssetDatapoint.class;
@@ -124,6 +193,11 @@ public class AssetDatapointService extends AbstractDatapointService<AssetDatapoi
         return AssetDatapoint.TABLE_NAME;
     }
 
+    @Override
+    protected boolean isRollupEnabled() {
+        return true;
+    }
+
     @Override
     protected Logger getLogger() {
         return LOG;
@@ -151,6 +225,19 @@ public class AssetDatapointService extends AbstractDatapointService<AssetDatapoi
                 .flatMap(List::stream)
                 .collect(toList());
 
+            // Drop the partitions that only contain data points older than any max age
+            int maxAgeDays = attributes.stream()
+                .map(attributeRef -> attributeRef.value.getMetaValue(MetaItemType.DATA_POINTS_MAX_AGE_DAYS).orElse(maxDatapointAgeDays))
+                .reduce(maxDatapointAgeDays, Math::max);
+
+            try {
+                LocalDateTime olderThan = LocalDateTime.ofInstant(timerService.getNow().truncatedTo(DAYS).minus(maxAgeDays, DAYS), ZoneId.systemDefault());
+                dropPartitions(olderThan);
+                purgeRollups(olderThan.truncatedTo(DAYS));
+            } catch (Exception e) {
+                LOG.log(Level.WARNING, "Failed to drop data point partitions and rollups", e);
+            }
+
             // Purge data points not in the above list using default duration
             LOG.fine("Purging data points of attributes that use default max age days of " + maxDatapointAgeDays);
 
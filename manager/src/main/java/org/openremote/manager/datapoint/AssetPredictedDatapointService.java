@@ -66,6 +66,8 @@ public class AssetPredictedDatapointService extends AbstractDatapointService<Ass
 
     @Override
     public void start(Container container) throws Exception {
+        super.start(container);
+
         dataPointsPurgeScheduledFuture = executorService.scheduleAtFixedRate(
             this::purgeDataPoints,
             getFirstPurgeMillis(timerService.getNow()),
@@ -107,9 +109,10 @@ public class AssetPredictedDatapointService extends AbstractDatapointService<Ass
 
     protected void purgeDataPoints() {
         try {
-            // Purge data points not in the above list using default duration
             LOG.finer("Purging predicted data points older than now");
-            doPurge("where dp.timestamp < :dt", LocalDateTime.ofInstant(timerService.getNow().truncatedTo(HOURS), ZoneId.systemDefault()));
+            LocalDateTime olderThan = LocalDateTime.ofInstant(timerService.getNow().truncatedTo(HOURS), ZoneId.systemDefault());
+            dropPartitions(olderThan);
+            doPurge("where dp.timestamp < :dt", olderThan);
         } catch (Exception e) {
             LOG.log(Level.WARNING, "Failed to run data points purge", e);
         }
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2021, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.datapoint;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.openremote.container.concurrent.ContainerExecutor;
+import org.openremote.model.datapoint.Datapoint;
+import org.openremote.model.util.ValueUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+/**
+ * Bounded buffer of {@link Datapoint}s that are written asynchronously by a single writer thread. The buffer is
+ * flushed with one multi-row upsert when it holds a batch of datapoints or when the oldest buffered datapoint has
+ * waited for the flush interval. Producers block while the buffer is full, up to {@link #OFFER_TIMEOUT_MILLIS}.
+ * <p>
+ * Buffered datapoints are lost if the process dies before they are flushed and a failed flush is logged but not
+ * retried, a clean stop flushes the remaining datapoints.
+ */
+public class DatapointWriteBuffer<T extends Datapoint> {
+
+    public static final int OFFER_TIMEOUT_MILLIS = 10000;
+    final protected AbstractDatapointService<T> datapointService;
+    final protected BlockingQueue<T> buffer;
+    final protected int batchSize;
+    final protected int flushMillis;
+    final protected AtomicLong flushCount = new AtomicLong();
+    final protected AtomicLong writtenCount = new AtomicLong();
+    final protected AtomicLong failedCount = new AtomicLong();
+    protected volatile long lastFlushMillis;
+    protected volatile long maxFlushMillis;
+    protected ExecutorService executor;
+
+    public DatapointWriteBuffer(AbstractDatapointService<T> datapointService, int capacity, int batchSize, int flushMillis) {
+        this.datapointService = datapointService;
+        this.buffer = new ArrayBlockingQueue<>(capacity);
+        this.batchSize = Math.min(batchSize, capacity);
+        this.flushMillis = flushMillis;
+    }
+
+    public void start() {
+        executor = new ContainerExecutor(datapointService.getClass().getSimpleName() + "Writer", 1, 1, 60, -1);
+        executor.execute(this::write);
+    }
+
+    /**
+     * Stops the writer thread and flushes all remaining datapoints on the calling thread.
+     */
+    public void stop() throws InterruptedException {
+        if (executor == null) {
+            return;
+        }
+        executor.shutdownNow();
+        executor.awaitTermination(OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        executor = null;
+
+        List<T> batch = new ArrayList<>(batchSize);
+        while (buffer.drainTo(batch, batchSize) > 0) {
+            flush(batch);
+            batch.clear();
+        }
+    }
+
+    /**
+     * @throws IllegalStateException If the buffer is still full after {@link #OFFER_TIMEOUT_MILLIS}.
+     */
+    public void add(T datapoint) throws IllegalStateException {
+        try {
+            if (!buffer.offer(datapoint, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                throw new IllegalStateException("Datapoint write buffer is full, capacity: " + (buffer.size() + buffer.remainingCapacity()));
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for datapoint write buffer", ex);
+        }
+    }
+
+    protected void write() {
+        List<T> batch = new ArrayList<>(batchSize);
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                batch.add(buffer.take());
+                long flushDeadline = System.currentTimeMillis() + flushMillis;
+                while (batch.size() < batchSize) {
+                    if (buffer.drainTo(batch, batchSize - batch.size()) == 0) {
+                        T datapoint = buffer.poll(Math.max(0, flushDeadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                        if (datapoint == null) {
+                            break;
+                        }
+                        batch.add(datapoint);
+                    }
+                }
+                flush(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException ex) {
+            datapointService.getLogger().finest("Datapoint writer interrupted");
+        } finally {
+            // Leave the rest for stop()
+            if (!batch.isEmpty()) {
+                flush(batch);
+            }
+        }
+    }
+
+    protected void flush(List<T> batch) {
+        long start = System.currentTimeMillis();
+        try {
+            datapointService.upsertDatapoints(batch);
+            writtenCount.addAndGet(batch.size());
+        } catch (Exception ex) {
+            failedCount.addAndGet(batch.size());
+            datapointService.getLogger().log(Level.WARNING, "Failed to write buffered datapoints, lost datapoints: " + batch.size(), ex);
+        } finally {
+            lastFlushMillis = System.currentTimeMillis() - start;
+            maxFlushMillis = Math.max(maxFlushMillis, lastFlushMillis);
+            flushCount.incrementAndGet();
+        }
+    }
+
+    public int getDepth() {
+        return buffer.size();
+    }
+
+    public ObjectNode getStatus() {
+        ObjectNode status = ValueUtil.JSON.createObjectNode();
+        status.put("depth", buffer.size());
+        status.put("capacity", buffer.size() + buffer.remainingCapacity());
+        status.put("flushes", flushCount.get());
+        status.put("written", writtenCount.get());
+        status.put("failed", failedCount.get());
+        status.put("lastFlushMillis", lastFlushMillis);
+        status.put("maxFlushMillis", maxFlushMillis);
+        return status;
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2021, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.datapoint;
+
+import org.openremote.model.datapoint.ValueDatapoint;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming Largest-Triangle-Three-Buckets decimation of datapoints ordered by timestamp. The time range is split
+ * into buckets of equal duration, only the datapoints of the current and the next bucket are held in memory. The
+ * first and last datapoint are always selected and empty buckets don't select a datapoint.
+ */
+public class LttbDecimator {
+
+    final protected long fromTimestamp;
+    final protected double bucketMillis;
+    final protected long lastBucketIndex;
+    final protected List<ValueDatapoint<Double>> result = new ArrayList<>();
+    protected List<ValueDatapoint<Double>> currentBucket = new ArrayList<>();
+    protected List<ValueDatapoint<Double>> nextBucket = new ArrayList<>();
+    protected long nextBucketIndex = -1;
+    protected ValueDatapoint<Double> selected;
+
+    /**
+     * @param maxPoints The maximum number of datapoints to select, at least 3.
+     */
+    public LttbDecimator(long fromTimestamp, long toTimestamp, int maxPoints) {
+        this.fromTimestamp = fromTimestamp;
+        this.bucketMillis = Math.max(1d, (double) (toTimestamp - fromTimestamp) / Math.max(1, maxPoints - 2));
+        this.lastBucketIndex = Math.max(1, maxPoints - 2) - 1;
+    }
+
+    public void add(long timestamp, double value) {
+        ValueDatapoint<Double> datapoint = new ValueDatapoint<>(timestamp, value);
+
+        if (selected == null) {
+            selected = datapoint;
+            result.add(datapoint);
+            return;
+        }
+
+        // The range is inclusive, datapoints at toTimestamp belong to the last bucket and not to an extra one
+        long bucketIndex = Math.max(0, Math.min(lastBucketIndex, (long) ((timestamp - fromTimestamp) / bucketMillis)));
+        if (bucketIndex != nextBucketIndex) {
+            if (!nextBucket.isEmpty()) {
+                selectFromCurrentBucket(average(nextBucket));
+                List<ValueDatapoint<Double>> bucket = currentBucket;
+                currentBucket = nextBucket;
+                nextBucket = bucket;
+                nextBucket.clear();
+            }
+            nextBucketIndex = bucketIndex;
+        }
+        nextBucket.add(datapoint);
+    }
+
+    /**
+     * @return The selected datapoints ordered by timestamp.
+     */
+    public List<ValueDatapoint<Double>> finish() {
+        List<ValueDatapoint<Double>> lastBucket = !nextBucket.isEmpty() ? nextBucket : currentBucket;
+        if (lastBucket.isEmpty()) {
+            return result;
+        }
+        ValueDatapoint<Double> last = lastBucket.remove(lastBucket.size() - 1);
+
+        if (!nextBucket.isEmpty()) {
+            selectFromCurrentBucket(average(nextBucket));
+            currentBucket = nextBucket;
+        }
+        selectFromCurrentBucket(new double[] {last.getTimestamp(), last.getValue()});
+        result.add(last);
+        return result;
+    }
+
+    protected void selectFromCurrentBucket(double[] nextAverage) {
+        if (currentBucket.isEmpty()) {
+            return;
+        }
+
+        ValueDatapoint<Double> largest = null;
+        double largestArea = -1;
+        for (ValueDatapoint<Double> datapoint : currentBucket) {
+            // Twice the triangle area is enough for comparison
+            double area = Math.abs(
+                (selected.getTimestamp() - nextAverage[0]) * (datapoint.getValue() - selected.getValue())
+                    - (selected.getTimestamp() - datapoint.getTimestamp()) * (nextAverage[1] - selected.getValue())
+            );
+            if (area > largestArea) {
+                largestArea = area;
+                largest = datapoint;
+            }
+        }
+        selected = largest;
+        result.add(largest);
+        currentBucket.clear();
+    }
+
+    protected static double[] average(List<ValueDatapoint<Double>> bucket) {
+        double timestamp = 0;
+        double value = 0;
+        for (ValueDatapoint<Double> datapoint : bucket) {
+            timestamp += datapoint.getTimestamp();
+            value += datapoint.getValue();
+        }
+        return new double[] {timestamp / bucket.size(), value / bucket.size()};
+    }
+}
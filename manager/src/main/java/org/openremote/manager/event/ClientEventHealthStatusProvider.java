@@ -0,0 +1,89 @@
+/*
+ * Copyright 2021, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.event;
+
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.openremote.model.Container;
+import org.openremote.model.ContainerService;
+import org.openremote.model.system.HealthStatusProvider;
+import org.openremote.model.util.ValueUtil;
+
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Reports the send queues of connected client sessions, only the sessions with queued messages are listed (most
+ * lagging first).
+ */
+public class ClientEventHealthStatusProvider implements HealthStatusProvider, ContainerService {
+
+    public static final String NAME = "clientEvents";
+    public static final String VERSION = "1.0";
+    public static final int MAX_REPORTED_SESSIONS = 50;
+    protected ClientEventService clientEventService;
+
+    @Override
+    public int getPriority() {
+        return ContainerService.DEFAULT_PRIORITY;
+    }
+
+    @Override
+    public void init(Container container) throws Exception {
+        clientEventService = container.getService(ClientEventService.class);
+    }
+
+    @Override
+    public void start(Container container) throws Exception {
+
+    }
+
+    @Override
+    public void stop(Container container) throws Exception {
+
+    }
+
+    @Override
+    public String getHealthStatusName() {
+        return NAME;
+    }
+
+    @Override
+    public String getHealthStatusVersion() {
+        return VERSION;
+    }
+
+    @Override
+    public Object getHealthStatus() {
+        List<SessionSendQueue> sendQueues = clientEventService.getSessionSendQueues();
+        ObjectNode value = ValueUtil.JSON.createObjectNode();
+        value.put("sessions", sendQueues.size());
+        value.put("queuedMessages", sendQueues.stream().mapToLong(SessionSendQueue::getDepth).sum());
+        value.put("maxLagMillis", sendQueues.stream().mapToLong(SessionSendQueue::getLagMillis).max().orElse(0));
+
+        ArrayNode sessions = value.putArray("queuedSessions");
+        sendQueues.stream()
+            .filter(sendQueue -> sendQueue.getDepth() > 0)
+            .sorted(Comparator.comparingLong(SessionSendQueue::getLagMillis).reversed())
+            .limit(MAX_REPORTED_SESSIONS)
+            .forEach(sendQueue -> sessions.add(sendQueue.getStatus()));
+        return value;
+    }
+}
@@ -32,19 +32,30 @@ import org.openremote.manager.web.ManagerWebService;
 import org.openremote.model.Constants;
 import org.openremote.model.Container;
 import org.openremote.model.ContainerService;
+import org.openremote.model.attribute.AttributeEvent;
+import org.openremote.model.event.TriggeredEventSubscription;
 import org.openremote.model.event.shared.*;
 import org.openremote.model.syslog.SyslogEvent;
 
 import javax.websocket.CloseReason;
+import javax.websocket.SendHandler;
 import javax.websocket.Session;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 
 import static org.apache.camel.builder.Builder.header;
+import static org.apache.camel.builder.PredicateBuilder.and;
 import static org.apache.camel.builder.PredicateBuilder.or;
+import static org.openremote.container.util.MapAccess.getInteger;
+import static org.openremote.container.util.MapAccess.getString;
 import static org.openremote.container.web.ConnectionConstants.SESSION;
 
 /**
@@ -71,6 +82,11 @@ import static org.openremote.container.web.ConnectionConstants.SESSION;
  * The payload is a serialized representation of a subtype of {@link SharedEvent}. If the server
  * does not recognize the event, it is silently ignored.
  * </p></dd>
+ * <dt><code>EVENT:[...]</code></dt>
+ * <dd><p>
+ * The payload is an array of {@link SharedEvent}s, published together as one batch. The
+ * {@link org.openremote.model.attribute.AttributeEvent}s of the batch are queued for processing at once.
+ * </p></dd>
  * </dl>
  * <p>
  * The following messages can be published/returned by the server:
@@ -94,6 +110,7 @@ public class ClientEventService implements ContainerService {
     protected static class SessionInfo {
         String connectionType;
         Runnable closeRunnable;
+        SessionSendQueue sendQueue;
 
         public SessionInfo(String connectionType, Runnable closeRunnable) {
             this.connectionType = connectionType;
@@ -110,6 +127,17 @@ public class ClientEventService implements ContainerService {
     private static final Logger LOG = Logger.getLogger(ClientEventService.class.getName());
     public static final String WEBSOCKET_EVENTS = "events";
     protected static final String INTERNAL_SESSION_KEY = "ClientEventServiceInternal";
+    public static final String CLIENT_EVENT_BUFFER_SIZE = "CLIENT_EVENT_BUFFER_SIZE";
+    public static final int CLIENT_EVENT_BUFFER_SIZE_DEFAULT = 1000;
+    // Maximum number of queued outbound messages per session, 0 is unbounded
+    public static final String CLIENT_EVENT_SESSION_QUEUE_SIZE = "CLIENT_EVENT_SESSION_QUEUE_SIZE";
+    public static final int CLIENT_EVENT_SESSION_QUEUE_SIZE_DEFAULT = 1000;
+    public static final String CLIENT_EVENT_SESSION_OVERFLOW_POLICY = "CLIENT_EVENT_SESSION_OVERFLOW_POLICY";
+    public static final String CLIENT_EVENT_SESSION_OVERFLOW_POLICY_DEFAULT = SessionSendQueue.OverflowPolicy.DROP.name();
+    // Sessions whose oldest queued message is older than this are disconnected, 0 disables
+    public static final String CLIENT_EVENT_SESSION_MAX_LAG_MILLIS = "CLIENT_EVENT_SESSION_MAX_LAG_MILLIS";
+    public static final int CLIENT_EVENT_SESSION_MAX_LAG_MILLIS_DEFAULT = 30000;
+    protected static final int MQTT_WRITABLE_CHECK_MILLIS = 50;
 
     // TODO: Some of these options should be configurable depending on expected load etc.
     public static final String CLIENT_EVENT_TOPIC = "seda://ClientEventTopic?multipleConsumers=true&concurrentConsumers=1&waitForTaskToComplete=NEVER&purgeWhenStopping=true&discardIfNoConsumers=true&limitConcurrentConsumers=false&size=1000";
@@ -118,9 +146,14 @@ public class ClientEventService implements ContainerService {
 
     final protected Collection<EventSubscriptionAuthorizer> eventSubscriptionAuthorizers = new CopyOnWriteArraySet<>();
     final protected Collection<Consumer<Exchange>> exchangeInterceptors = new CopyOnWriteArraySet<>();
-    protected Map<String, SessionInfo> sessionKeyInfoMap = new HashMap<>();
+    protected Map<String, SessionInfo> sessionKeyInfoMap = new ConcurrentHashMap<>();
     protected TimerService timerService;
     protected MessageBrokerService messageBrokerService;
+    protected MqttBrokerService mqttBrokerService;
+    protected ScheduledExecutorService executorService;
+    protected int sessionQueueSize;
+    protected SessionSendQueue.OverflowPolicy sessionOverflowPolicy;
+    protected long sessionMaxLagMillis;
     protected ManagerIdentityService identityService;
     protected EventSubscriptions eventSubscriptions;
     protected GatewayService gatewayService;
@@ -161,9 +194,17 @@ public class ClientEventService implements ContainerService {
         messageBrokerService = container.getService(MessageBrokerService.class);
         identityService = container.getService(ManagerIdentityService.class);
         gatewayService = container.getService(GatewayService.class);
+        mqttBrokerService = container.hasService(MqttBrokerService.class) ? container.getService(MqttBrokerService.class) : null;
+        executorService = container.getExecutorService();
+        sessionQueueSize = Math.max(0, getInteger(container.getConfig(), CLIENT_EVENT_SESSION_QUEUE_SIZE, CLIENT_EVENT_SESSION_QUEUE_SIZE_DEFAULT));
+        sessionOverflowPolicy = SessionSendQueue.OverflowPolicy.valueOf(getString(container.getConfig(), CLIENT_EVENT_SESSION_OVERFLOW_POLICY, CLIENT_EVENT_SESSION_OVERFLOW_POLICY_DEFAULT).toUpperCase(Locale.ROOT));
+        sessionMaxLagMillis = Math.max(0, getInteger(container.getConfig(), CLIENT_EVENT_SESSION_MAX_LAG_MILLIS, CLIENT_EVENT_SESSION_MAX_LAG_MILLIS_DEFAULT));
 
         eventSubscriptions = new EventSubscriptions(
-            container.getService(TimerService.class)
+            container.getService(TimerService.class),
+            container.getExecutorService(),
+            this::sendToSession,
+            getInteger(container.getConfig(), CLIENT_EVENT_BUFFER_SIZE, CLIENT_EVENT_BUFFER_SIZE_DEFAULT)
         );
 
         messageBrokerService.getContext().getTypeConverterRegistry().addTypeConverters(
@@ -197,7 +238,10 @@ public class ClientEventService implements ContainerService {
                     ))
                         .process(exchange -> {
                             String sessionKey = getSessionKey(exchange);
-                            sessionKeyInfoMap.remove(sessionKey);
+                            SessionInfo sessionInfo = sessionKeyInfoMap.remove(sessionKey);
+                            if (sessionInfo != null) {
+                                sessionInfo.sendQueue.close();
+                            }
                             eventSubscriptions.cancelAll(sessionKey);
                             passToInterceptors(exchange);
                         })
@@ -224,17 +268,25 @@ public class ClientEventService implements ContainerService {
                                 exchange.getIn().setBody(exchange.getIn().getBody(EventSubscription.class));
                             } else if (bodyStr.startsWith(CancelEventSubscription.MESSAGE_PREFIX)) {
                                 exchange.getIn().setBody(exchange.getIn().getBody(CancelEventSubscription.class));
+                            } else if (bodyStr.startsWith(SharedEvent.MESSAGE_PREFIX + "[")) {
+                                exchange.getIn().setBody(exchange.getIn().getBody(SharedEvent[].class));
                             } else if (bodyStr.startsWith(SharedEvent.MESSAGE_PREFIX)) {
                                 exchange.getIn().setBody(exchange.getIn().getBody(SharedEvent.class));
                             }
                         }
 
+                        // If there is no timestamp in event, set to system time
                         if (exchange.getIn().getBody() instanceof SharedEvent) {
                             SharedEvent event = exchange.getIn().getBody(SharedEvent.class);
-                            // If there is no timestamp in event, set to system time
                             if (event.getTimestamp() <= 0) {
                                 event.setTimestamp(timerService.getCurrentTimeMillis());
                             }
+                        } else if (exchange.getIn().getBody() instanceof SharedEvent[]) {
+                            for (SharedEvent event : exchange.getIn().getBody(SharedEvent[].class)) {
+                                if (event.getTimestamp() <= 0) {
+                                    event.setTimestamp(timerService.getCurrentTimeMillis());
+                                }
+                            }
                         }
                     })
                     .process(exchange -> passToInterceptors(exchange))
@@ -277,6 +329,9 @@ public class ClientEventService implements ContainerService {
                                 })
                                 .stop()
                         .endChoice()
+                    .when(and(body().isInstanceOf(SharedEvent[].class), header(HEADER_CONNECTION_TYPE).isNotNull())) // Inbound batch from clients
+                        .to(ClientEventService.CLIENT_EVENT_TOPIC)
+                        .stop()
                     .otherwise()
                         .process(exchange -> LOG.info("Unsupported message body: " + exchange.getIn().getBody()))
                     .end();
@@ -366,30 +421,118 @@ public class ClientEventService implements ContainerService {
         }
     }
 
+    /**
+     * Queues the data on the send queue of the session, the data is written to the client on the executor.
+     */
     public void sendToSession(String sessionKey, Object data) {
-        if (messageBrokerService != null && messageBrokerService.getProducerTemplate() != null) {
-            LOG.finer("Sending to session '" + sessionKey + "': " + data);
-            SessionInfo sessionInfo = sessionKeyInfoMap.get(sessionKey);
-            if (sessionInfo == null) {
-                LOG.info("Cannot send to requested session it doesn't exist or is disconnected");
-                return;
+        LOG.finer("Sending to session '" + sessionKey + "': " + data);
+        SessionInfo sessionInfo = sessionKeyInfoMap.get(sessionKey);
+        if (sessionInfo == null) {
+            LOG.info("Cannot send to requested session it doesn't exist or is disconnected");
+            return;
+        }
+        sessionInfo.sendQueue.offer(data);
+    }
+
+    /**
+     * @return The send queues of all connected sessions.
+     */
+    public List<SessionSendQueue> getSessionSendQueues() {
+        return sessionKeyInfoMap.values().stream().map(sessionInfo -> sessionInfo.sendQueue).collect(Collectors.toList());
+    }
+
+    protected void writeToWebsocket(Session session, Object data, Consumer<Boolean> onComplete) throws Exception {
+        if (!session.isOpen()) {
+            onComplete.accept(false);
+            return;
+        }
+        SendHandler sendHandler = result -> {
+            if (!result.isOK()) {
+                LOG.log(Level.FINE, "Failed to send message to websocket session: " + session.getId(), result.getException());
             }
-            if (sessionInfo.connectionType.equals(HEADER_CONNECTION_TYPE_WEBSOCKET)) {
-                messageBrokerService.getProducerTemplate().sendBodyAndHeader(
-                        "websocket://" + WEBSOCKET_EVENTS,
-                        data,
-                        ConnectionConstants.SESSION_KEY, sessionKey
-                );
-            } else if (sessionInfo.connectionType.equals(HEADER_CONNECTION_TYPE_MQTT)) {
+            onComplete.accept(result.isOK());
+        };
+        if (data instanceof EncodedTriggeredEventSubscription && ((EncodedTriggeredEventSubscription<?>) data).isBinary()) {
+            session.getAsyncRemote().sendBinary(ByteBuffer.wrap(((EncodedTriggeredEventSubscription<?>) data).toBinaryMessage()), sendHandler);
+            return;
+        }
+        String text = data instanceof String
+            ? (String) data
+            : messageBrokerService.getContext().getTypeConverter().mandatoryConvertTo(String.class, data);
+        session.getAsyncRemote().sendText(text, sendHandler);
+    }
+
+    /**
+     * The broker publishes without waiting for the client, so a published message only completes once the connection
+     * of the client can take more messages. A client that doesn't keep up holds up its own send queue instead of
+     * buffering in the broker, and the maximum lag of the queue applies.
+     */
+    protected void writeToMqtt(String sessionKey, Object data, Consumer<Boolean> onComplete) {
+        if (data instanceof MqttBrokerService.QueuedMessage && mqttBrokerService != null) {
+            if (mqttBrokerService.publishMessage((MqttBrokerService.QueuedMessage) data)) {
+                completeWhenWritable(sessionKey, onComplete, sessionMaxLagMillis > 0 ? System.currentTimeMillis() + sessionMaxLagMillis : Long.MAX_VALUE);
+            } else {
+                onComplete.accept(false);
+            }
+            return;
+        }
+
+        boolean sent = false;
+        try {
+            if (messageBrokerService != null && messageBrokerService.getProducerTemplate() != null) {
                 messageBrokerService.getProducerTemplate().sendBodyAndHeader(
                         MqttBrokerService.MQTT_CLIENT_QUEUE,
                         data,
                         ConnectionConstants.SESSION_KEY, sessionKey
                 );
+                sent = true;
             }
+        } finally {
+            onComplete.accept(sent);
         }
     }
 
+    /**
+     * Completes once the connection of the client can take more messages or the client has disconnected. A client that
+     * can't take more messages until the deadline lags more than the maximum lag and is disconnected.
+     */
+    protected void completeWhenWritable(String sessionKey, Consumer<Boolean> onComplete, long deadlineMillis) {
+        if (mqttBrokerService.isWritable(sessionKey)) {
+            onComplete.accept(true);
+            return;
+        }
+        if (System.currentTimeMillis() >= deadlineMillis) {
+            LOG.info("Session '" + sessionKey + "' is lagging more than " + sessionMaxLagMillis + "ms, disconnecting");
+            closeSession(sessionKey);
+            onComplete.accept(false);
+            return;
+        }
+        executorService.schedule(() -> completeWhenWritable(sessionKey, onComplete, deadlineMillis), MQTT_WRITABLE_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Events can be dropped from a full send queue, replies to subscriptions and requests are never dropped.
+     */
+    protected static boolean isDroppable(Object data) {
+        return data instanceof TriggeredEventSubscription || data instanceof MqttBrokerService.QueuedMessage;
+    }
+
+    /**
+     * Successive attribute events of the same subscription and messages to the same MQTT topic can be coalesced.
+     */
+    protected static Object getCoalesceKey(Object data) {
+        if (data instanceof TriggeredEventSubscription) {
+            TriggeredEventSubscription<?> triggeredEventSubscription = (TriggeredEventSubscription<?>) data;
+            List<?> events = triggeredEventSubscription.getEvents();
+            if (events != null && events.size() == 1 && events.get(0) instanceof AttributeEvent) {
+                return Arrays.asList(triggeredEventSubscription.getSubscriptionId(), ((AttributeEvent) events.get(0)).getAttributeRef());
+            }
+        } else if (data instanceof MqttBrokerService.QueuedMessage) {
+            return ((MqttBrokerService.QueuedMessage) data).getTopic();
+        }
+        return null;
+    }
+
     public void closeSession(String sessionKey) {
         SessionInfo sessionInfo = sessionKeyInfoMap.get(sessionKey);
 
@@ -419,10 +562,11 @@ public class ClientEventService implements ContainerService {
             '}';
     }
 
-    protected static SessionInfo createSessionInfo(String sessionKey, Exchange exchange) {
+    protected SessionInfo createSessionInfo(String sessionKey, Exchange exchange) {
 
         String connectionType = (String) exchange.getIn().getHeader(HEADER_CONNECTION_TYPE);
         Runnable closeRunnable = null;
+        SessionSendQueue.Writer writer = null;
 
         if (HEADER_CONNECTION_TYPE_WEBSOCKET.equals(connectionType)) {
             Session session = exchange.getIn().getHeader(SESSION, Session.class);
@@ -433,10 +577,26 @@ public class ClientEventService implements ContainerService {
                     LOG.log(Level.INFO, "Failed to close client session: " + sessionKey);
                 }
             };
+            writer = (data, onComplete) -> writeToWebsocket(session, data, onComplete);
         } else if (HEADER_CONNECTION_TYPE_MQTT.equals(connectionType)) {
             closeRunnable = exchange.getIn().getHeader(SESSION, Runnable.class);
+            writer = (data, onComplete) -> writeToMqtt(sessionKey, data, onComplete);
         }
 
-        return new SessionInfo(connectionType, closeRunnable);
+        SessionInfo sessionInfo = new SessionInfo(connectionType, closeRunnable);
+        Runnable disconnect = closeRunnable != null ? closeRunnable : () -> {};
+        sessionInfo.sendQueue = new SessionSendQueue(
+            sessionKey,
+            sessionQueueSize,
+            sessionOverflowPolicy,
+            sessionMaxLagMillis,
+            executorService,
+            System::currentTimeMillis,
+            writer != null ? writer : (data, onComplete) -> onComplete.accept(false),
+            ClientEventService::getCoalesceKey,
+            ClientEventService::isDroppable,
+            disconnect
+        );
+        return sessionInfo;
     }
 }
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2021, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.event;
+
+import org.openremote.model.event.shared.SharedEvent;
+
+import java.util.Collections;
+import java.util.function.Consumer;
+
+/**
+ * An internal subscription consumer that also gets the {@link EncodedTriggeredEventSubscription.EncodedEvents}
+ * shared by all subscribers of the event, so data of the event can be encoded once instead of once per subscriber.
+ */
+@FunctionalInterface
+public interface EncodedEventConsumer<T extends SharedEvent> extends Consumer<T> {
+
+    void accept(T event, EncodedTriggeredEventSubscription.EncodedEvents<T> encodedEvents);
+
+    @Override
+    default void accept(T event) {
+        accept(event, new EncodedTriggeredEventSubscription.EncodedEvents<>(Collections.singletonList(event)));
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2021, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.event;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import org.openremote.model.event.TriggeredEventSubscription;
+import org.openremote.model.event.shared.EventEncoding;
+import org.openremote.model.event.shared.SharedEvent;
+import org.openremote.model.util.ValueUtil;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * A {@link TriggeredEventSubscription} that shares the encoded events with all other sessions the same events are
+ * sent to, the events are encoded once on first use and only the subscription ID differs per session. Encodes to the
+ * same message as {@link TriggeredEventSubscription}, as JSON text or as CBOR when the subscription asked for
+ * {@link EventEncoding#CBOR}.
+ */
+public class EncodedTriggeredEventSubscription<T extends SharedEvent> extends TriggeredEventSubscription<T> {
+
+    /**
+     * The lazily encoded array of the events, shared by all sessions.
+     */
+    public static class EncodedEvents<T extends SharedEvent> {
+
+        // A raw list would be written without the type IDs of the events, like the events field of the message
+        protected static final TypeReference<List<SharedEvent>> EVENTS_TYPE = new TypeReference<List<SharedEvent>>() {};
+
+        protected final List<T> events;
+        protected final Map<Object, byte[]> payloads = new IdentityHashMap<>(2);
+        protected volatile String json;
+        protected volatile byte[] cbor;
+
+        public EncodedEvents(List<T> events) {
+            this.events = events;
+        }
+
+        public List<T> getEvents() {
+            return events;
+        }
+
+        public String getJson() throws JsonProcessingException {
+            String result = json;
+            if (result == null) {
+                synchronized (this) {
+                    result = json;
+                    if (result == null) {
+                        json = result = ValueUtil.JSON.writerFor(EVENTS_TYPE).writeValueAsString(events);
+                    }
+                }
+            }
+            return result;
+        }
+
+        /**
+         * @param data An event of {@link #getEvents} or an object of such an event, e.g. its value.
+         * @return The encoded data, the encoder is only called by the first subscriber that asks for the data.
+         */
+        public synchronized byte[] getPayload(Object data, Function<Object, byte[]> encoder) {
+            return payloads.computeIfAbsent(data, encoder);
+        }
+
+        public byte[] getCbor() throws JsonProcessingException {
+            byte[] result = cbor;
+            if (result == null) {
+                synchronized (this) {
+                    result = cbor;
+                    if (result == null) {
+                        cbor = result = EventTypeConverters.CBOR.writerFor(EVENTS_TYPE).writeValueAsBytes(events);
+                    }
+                }
+            }
+            return result;
+        }
+    }
+
+    // CBOR map headers with one and two entries and the text strings of the field names
+    protected static final int CBOR_MAP_1 = 0xA1;
+    protected static final int CBOR_MAP_2 = 0xA2;
+    protected static final byte[] CBOR_EVENTS_FIELD = cborText("events");
+    protected static final byte[] CBOR_SUBSCRIPTION_ID_FIELD = cborText("subscriptionId");
+
+    @JsonIgnore
+    protected final EncodedEvents<T> encodedEvents;
+    @JsonIgnore
+    protected final EventEncoding encoding;
+
+    public EncodedTriggeredEventSubscription(EncodedEvents<T> encodedEvents, String subscriptionId) {
+        this(encodedEvents, subscriptionId, null);
+    }
+
+    public EncodedTriggeredEventSubscription(EncodedEvents<T> encodedEvents, String subscriptionId, EventEncoding encoding) {
+        super(encodedEvents.getEvents(), subscriptionId);
+        this.encodedEvents = encodedEvents;
+        this.encoding = encoding;
+    }
+
+    @JsonIgnore
+    public boolean isBinary() {
+        return encoding == EventEncoding.CBOR;
+    }
+
+    /**
+     * Writes the message with the shared events JSON, field order and null handling match the default serialization.
+     */
+    @JsonIgnore
+    public String toMessage() throws JsonProcessingException {
+        String eventsJson = encodedEvents.getJson();
+        StringBuilder sb = new StringBuilder(MESSAGE_PREFIX.length() + eventsJson.length() + 64)
+            .append(MESSAGE_PREFIX)
+            .append("{\"events\":").append(eventsJson);
+        if (subscriptionId != null) {
+            sb.append(",\"subscriptionId\":").append(ValueUtil.JSON.writeValueAsString(subscriptionId));
+        }
+        return sb.append('}').toString();
+    }
+
+    /**
+     * Writes the CBOR map of the message with the shared events CBOR, there is no message prefix.
+     */
+    @JsonIgnore
+    public byte[] toBinaryMessage() throws JsonProcessingException {
+        byte[] eventsCbor = encodedEvents.getCbor();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(eventsCbor.length + 64);
+        out.write(subscriptionId != null ? CBOR_MAP_2 : CBOR_MAP_1);
+        out.write(CBOR_EVENTS_FIELD, 0, CBOR_EVENTS_FIELD.length);
+        out.write(eventsCbor, 0, eventsCbor.length);
+        if (subscriptionId != null) {
+            byte[] id = EventTypeConverters.CBOR.writeValueAsBytes(subscriptionId);
+            out.write(CBOR_SUBSCRIPTION_ID_FIELD, 0, CBOR_SUBSCRIPTION_ID_FIELD.length);
+            out.write(id, 0, id.length);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Encodes a short (less than 24 bytes) text string.
+     */
+    protected static byte[] cborText(String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        byte[] result = new byte[bytes.length + 1];
+        result[0] = (byte) (0x60 | bytes.length);
+        System.arraycopy(bytes, 0, result, 1, bytes.length);
+        return result;
+    }
+}
@@ -24,26 +24,50 @@ import org.apache.camel.Message;
 import org.apache.camel.impl.DefaultMessage;
 import org.openremote.container.timer.TimerService;
 import org.openremote.container.web.ConnectionConstants;
+import org.openremote.model.asset.AssetFilter;
+import org.openremote.model.attribute.AttributeEvent;
 import org.openremote.model.event.TriggeredEventSubscription;
-import org.openremote.model.event.shared.CancelEventSubscription;
-import org.openremote.model.event.shared.EventSubscription;
-import org.openremote.model.event.shared.SharedEvent;
+import org.openremote.model.event.shared.*;
 import org.openremote.model.util.TextUtil;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 import java.util.logging.Logger;
 
 /**
  * Manages subscriptions to events for WebSocket sessions.
+ * <p>
+ * Subscriptions are indexed by event type and then by the asset IDs or realm of their filter, so an event is only
+ * checked against the subscriptions that can match it. The index and the session map are only modified while holding
+ * the lock on {@link #sessionSubscriptionIdMap} and can be read without locking.
+ * <p>
+ * Events for subscriptions with a {@link EventSubscription#getBatchInterval} are buffered per subscription and sent
+ * together when the interval has passed since the first buffered event. The buffer holds at most
+ * {@link #maxBufferedEvents}, the oldest events are dropped when a client can't keep up.
  */
 public class EventSubscriptions {
 
     private static final Logger LOG = Logger.getLogger(EventSubscriptions.class.getName());
 
     final protected TimerService timerService;
-    final protected Map<String, SessionSubscriptions> sessionSubscriptionIdMap = new HashMap<>();
+    final protected ScheduledExecutorService executorService;
+    final protected BiConsumer<String, Object> sender;
+    final protected int maxBufferedEvents;
+    final protected Map<String, SessionSubscriptions> sessionSubscriptionIdMap = new ConcurrentHashMap<>();
+    final protected Map<String, EventTypeSubscriptions> eventTypeSubscriptionsMap = new ConcurrentHashMap<>();
 
     class SessionSubscriptions extends HashSet<SessionSubscription> {
+
+        final String sessionKey;
+
+        public SessionSubscriptions(String sessionKey) {
+            this.sessionKey = sessionKey;
+        }
+
         public void createOrUpdate(boolean restrictedUser, EventSubscription<?> eventSubscription) {
 
             if (TextUtil.isNullOrEmpty(eventSubscription.getSubscriptionId())) {
@@ -52,7 +76,9 @@ public class EventSubscriptions {
                 cancelById(eventSubscription.getSubscriptionId());
             }
 
-            add(new SessionSubscription(restrictedUser, timerService.getCurrentTimeMillis(), eventSubscription));
+            SessionSubscription sessionSubscription = new SessionSubscription(sessionKey, restrictedUser, timerService.getCurrentTimeMillis(), eventSubscription);
+            add(sessionSubscription);
+            index(sessionSubscription);
         }
 
         public void update(boolean resstrictedUser, String[] subscriptionIds) {
@@ -66,25 +92,49 @@ public class EventSubscriptions {
         }
 
         public void cancelByType(String eventType) {
-            removeIf(sessionSubscription -> sessionSubscription.subscriptionId == null && sessionSubscription.subscription.getEventType().equals(eventType));
+            removeIf(sessionSubscription -> sessionSubscription.subscriptionId == null && sessionSubscription.subscription.getEventType().equals(eventType) && unindex(sessionSubscription));
         }
 
         public void cancelById(String subscriptionId) {
-            removeIf(sessionSubscription -> sessionSubscription.subscription.getSubscriptionId().equals(subscriptionId));
+            removeIf(sessionSubscription -> sessionSubscription.subscription.getSubscriptionId().equals(subscriptionId) && unindex(sessionSubscription));
+        }
+
+        public void cancelAll() {
+            forEach(EventSubscriptions.this::unindex);
+            clear();
         }
     }
 
     class SessionSubscription {
-        boolean restrictedUser;
-        long timestamp;
+        final String sessionKey;
+        volatile boolean restrictedUser;
+        volatile long timestamp;
         final EventSubscription subscription;
         final String subscriptionId;
+        // The index keys are fixed on creation, the filter could be modified later
+        final String[] assetIdKeys;
+        final String realmKey;
+        final EventBuffer buffer;
 
-        public SessionSubscription(boolean restrictedUser, long timestamp, EventSubscription subscription) {
+        public SessionSubscription(String sessionKey, boolean restrictedUser, long timestamp, EventSubscription subscription) {
+            this.sessionKey = sessionKey;
             this.restrictedUser = restrictedUser;
             this.timestamp = timestamp;
             this.subscription = subscription;
             this.subscriptionId = subscription.getSubscriptionId();
+
+            EventFilter<?> filter = subscription.getFilter();
+            String[] assetIds = filter instanceof AssetFilter ? ((AssetFilter<?>) filter).getAssetIds() : null;
+            String realm = filter instanceof AssetFilter
+                ? ((AssetFilter<?>) filter).getRealm()
+                : filter instanceof TenantFilter ? ((TenantFilter<?>) filter).getRealm() : null;
+            this.assetIdKeys = assetIds != null && assetIds.length > 0 ? Arrays.stream(assetIds).filter(Objects::nonNull).distinct().toArray(String[]::new) : null;
+            this.realmKey = TextUtil.isNullOrEmpty(realm) ? null : realm;
+
+            Integer batchInterval = subscription.getBatchInterval();
+            this.buffer = batchInterval != null && batchInterval > 0 && subscription.getInternalConsumer() == null
+                ? new EventBuffer(this, batchInterval, subscription.isCoalesce())
+                : null;
         }
 
         public boolean matches(boolean accessibleForRestrictedUsers, SharedEvent event) {
@@ -92,9 +142,86 @@ public class EventSubscriptions {
         }
     }
 
-    public EventSubscriptions(TimerService timerService) {
+    /**
+     * Buffered events of a batching subscription, in the order they were first buffered. When coalescing, an attribute
+     * event replaces the buffered event of the same attribute.
+     */
+    class EventBuffer {
+        final SessionSubscription sessionSubscription;
+        final int interval;
+        final boolean coalesce;
+        final LinkedHashMap<Object, SharedEvent> events = new LinkedHashMap<>();
+        long sequence;
+        boolean scheduled;
+        boolean cancelled;
+
+        EventBuffer(SessionSubscription sessionSubscription, int interval, boolean coalesce) {
+            this.sessionSubscription = sessionSubscription;
+            this.interval = interval;
+            this.coalesce = coalesce;
+        }
+
+        synchronized void add(SharedEvent event) {
+            if (cancelled) {
+                return;
+            }
+            Object key = coalesce && event instanceof AttributeEvent ? ((AttributeEvent) event).getAttributeRef() : sequence++;
+            if (!events.containsKey(key) && events.size() >= maxBufferedEvents) {
+                Iterator<Object> it = events.keySet().iterator();
+                it.next();
+                it.remove();
+                LOG.fine("Event buffer full, dropped oldest event for session '" + sessionSubscription.sessionKey + "'");
+            }
+            events.put(key, event);
+            if (!scheduled) {
+                scheduled = true;
+                executorService.schedule(this::flush, interval, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        void flush() {
+            List<SharedEvent> batch;
+            synchronized (this) {
+                scheduled = false;
+                if (cancelled || events.isEmpty()) {
+                    return;
+                }
+                batch = new ArrayList<>(events.values());
+                events.clear();
+            }
+            LOG.finer("Sending " + batch.size() + " buffered event(s) to session '" + sessionSubscription.sessionKey + "'");
+            sender.accept(sessionSubscription.sessionKey, new EncodedTriggeredEventSubscription<>(
+                new EncodedTriggeredEventSubscription.EncodedEvents<>(batch),
+                sessionSubscription.subscriptionId,
+                sessionSubscription.subscription.getEncoding()));
+        }
+
+        synchronized void cancel() {
+            cancelled = true;
+            events.clear();
+        }
+    }
+
+    /**
+     * The subscriptions of one event type, a subscription is in exactly one of the sets: by asset ID if its filter
+     * has asset IDs, by realm if its filter only has a realm, otherwise in the unfiltered set.
+     */
+    static class EventTypeSubscriptions {
+        final Map<String, Set<SessionSubscription>> byAssetId = new ConcurrentHashMap<>();
+        final Map<String, Set<SessionSubscription>> byRealm = new ConcurrentHashMap<>();
+        final Set<SessionSubscription> unindexed = ConcurrentHashMap.newKeySet();
+
+        boolean isEmpty() {
+            return byAssetId.isEmpty() && byRealm.isEmpty() && unindexed.isEmpty();
+        }
+    }
+
+    public EventSubscriptions(TimerService timerService, ScheduledExecutorService executorService, BiConsumer<String, Object> sender, int maxBufferedEvents) {
         LOG.info("Starting background task checking for expired event subscriptions from clients");
         this.timerService = timerService;
+        this.executorService = executorService;
+        this.sender = sender;
+        this.maxBufferedEvents = Math.max(1, maxBufferedEvents);
     }
 
     public void createOrUpdate(String sessionKey, boolean restrictedUser, EventSubscription<?> subscription) {
@@ -102,7 +229,7 @@ public class EventSubscriptions {
             // TODO Check if the user can actually subscribe to the events it wants, how do we do that?
             LOG.finer("For session '" + sessionKey + "', creating/updating: " + subscription);
             SessionSubscriptions sessionSubscriptions =
-                this.sessionSubscriptionIdMap.computeIfAbsent(sessionKey, k -> new SessionSubscriptions());
+                this.sessionSubscriptionIdMap.computeIfAbsent(sessionKey, SessionSubscriptions::new);
             sessionSubscriptions.createOrUpdate(restrictedUser, subscription);
         }
     }
@@ -140,9 +267,10 @@ public class EventSubscriptions {
 
     public void cancelAll(String sessionKey) {
         synchronized (this.sessionSubscriptionIdMap) {
-            if (this.sessionSubscriptionIdMap.containsKey(sessionKey)) {
+            SessionSubscriptions sessionSubscriptions = this.sessionSubscriptionIdMap.remove(sessionKey);
+            if (sessionSubscriptions != null) {
                 LOG.finer("Cancelling all subscriptions for session: " + sessionKey);
-                this.sessionSubscriptionIdMap.remove(sessionKey);
+                sessionSubscriptions.cancelAll();
             }
         }
     }
@@ -154,43 +282,118 @@ public class EventSubscriptions {
         if (event == null)
             return messageList;
 
+        EventTypeSubscriptions eventTypeSubscriptions = eventTypeSubscriptionsMap.get(event.getEventType());
+        if (eventTypeSubscriptions == null)
+            return messageList;
+
         boolean accessibleForRestrictedUsers = exchange.getIn().getHeader(ClientEventService.HEADER_ACCESS_RESTRICTED, false, Boolean.class);
 
-        Set<Map.Entry<String, SessionSubscriptions>> sessionSubscriptionsSet;
-        synchronized (this.sessionSubscriptionIdMap) {
-            sessionSubscriptionsSet = new HashSet<>(sessionSubscriptionIdMap.entrySet());
+        String assetId = event instanceof AssetInfo ? ((AssetInfo) event).getAssetId() : null;
+        String realm = event instanceof AssetInfo
+            ? ((AssetInfo) event).getRealm()
+            : event instanceof TenantScopedEvent ? ((TenantScopedEvent) event).getRealm() : null;
+
+        List<Iterable<SessionSubscription>> candidates = new ArrayList<>(3);
+        candidates.add(eventTypeSubscriptions.unindexed);
+        if (assetId != null) {
+            Optional.ofNullable(eventTypeSubscriptions.byAssetId.get(assetId)).ifPresent(candidates::add);
+        }
+        if (realm != null) {
+            Optional.ofNullable(eventTypeSubscriptions.byRealm.get(realm)).ifPresent(candidates::add);
         }
 
-        for (Map.Entry<String, SessionSubscriptions> entry : sessionSubscriptionsSet) {
-            String sessionKey = entry.getKey();
-            SessionSubscriptions subscriptions = entry.getValue();
+        // Serialized at most once and shared by all sessions
+        EncodedTriggeredEventSubscription.EncodedEvents<SharedEvent> encodedEvents =
+            new EncodedTriggeredEventSubscription.EncodedEvents<>(Collections.singletonList(event));
 
-            for (SessionSubscription sessionSubscription : subscriptions) {
+        for (Iterable<SessionSubscription> sessionSubscriptions : candidates) {
+            for (SessionSubscription sessionSubscription : sessionSubscriptions) {
 
                 if (!sessionSubscription.matches(accessibleForRestrictedUsers, event))
                     continue;
 
                 if (sessionSubscription.subscription.getFilter() == null
                     || sessionSubscription.subscription.getFilter().apply(event)) {
+                    String sessionKey = sessionSubscription.sessionKey;
                     LOG.finer("Creating message for subscribed session '" + sessionKey + "': " + event);
-                    List<SharedEvent> events = Collections.singletonList(event);
-                    TriggeredEventSubscription<?> triggeredEventSubscription = new TriggeredEventSubscription<>(events, sessionSubscription.subscriptionId);
+                    if (sessionSubscription.buffer != null) {
+                        sessionSubscription.buffer.add(event);
+                        continue;
+                    }
 
                     if (sessionSubscription.subscription.getInternalConsumer() == null) {
+                        TriggeredEventSubscription<?> triggeredEventSubscription = new EncodedTriggeredEventSubscription<>(encodedEvents, sessionSubscription.subscriptionId, sessionSubscription.subscription.getEncoding());
                         Message msg = new DefaultMessage();
                         msg.setBody(triggeredEventSubscription); // Don't copy the event, use same reference
                         msg.setHeaders(new HashMap<>(exchange.getIn().getHeaders())); // Copy headers
                         msg.setHeader(ConnectionConstants.SESSION_KEY, sessionKey);
                         messageList.add(msg);
                     } else {
-                        if (triggeredEventSubscription.getEvents() != null) {
-                            triggeredEventSubscription.getEvents().forEach(ev ->
-                                sessionSubscription.subscription.getInternalConsumer().accept(ev));
-                        }
+                        acceptInternal(sessionSubscription.subscription.getInternalConsumer(), event, encodedEvents);
                     }
                 }
             }
         }
         return messageList;
     }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    protected static void acceptInternal(Consumer internalConsumer, SharedEvent event, EncodedTriggeredEventSubscription.EncodedEvents<SharedEvent> encodedEvents) {
+        if (internalConsumer instanceof EncodedEventConsumer) {
+            ((EncodedEventConsumer) internalConsumer).accept(event, encodedEvents);
+        } else {
+            internalConsumer.accept(event);
+        }
+    }
+
+    protected void index(SessionSubscription sessionSubscription) {
+        EventTypeSubscriptions eventTypeSubscriptions = eventTypeSubscriptionsMap.computeIfAbsent(
+            sessionSubscription.subscription.getEventType(), eventType -> new EventTypeSubscriptions());
+
+        if (sessionSubscription.assetIdKeys != null && sessionSubscription.assetIdKeys.length > 0) {
+            for (String assetId : sessionSubscription.assetIdKeys) {
+                eventTypeSubscriptions.byAssetId.computeIfAbsent(assetId, k -> ConcurrentHashMap.newKeySet()).add(sessionSubscription);
+            }
+        } else if (sessionSubscription.realmKey != null) {
+            eventTypeSubscriptions.byRealm.computeIfAbsent(sessionSubscription.realmKey, k -> ConcurrentHashMap.newKeySet()).add(sessionSubscription);
+        } else {
+            eventTypeSubscriptions.unindexed.add(sessionSubscription);
+        }
+    }
+
+    /**
+     * @return Always <code>true</code> so it can be used in a remove predicate.
+     */
+    protected boolean unindex(SessionSubscription sessionSubscription) {
+        if (sessionSubscription.buffer != null) {
+            sessionSubscription.buffer.cancel();
+        }
+        String eventType = sessionSubscription.subscription.getEventType();
+        EventTypeSubscriptions eventTypeSubscriptions = eventTypeSubscriptionsMap.get(eventType);
+        if (eventTypeSubscriptions == null) {
+            return true;
+        }
+
+        if (sessionSubscription.assetIdKeys != null && sessionSubscription.assetIdKeys.length > 0) {
+            for (String assetId : sessionSubscription.assetIdKeys) {
+                removeFromIndex(eventTypeSubscriptions.byAssetId, assetId, sessionSubscription);
+            }
+        } else if (sessionSubscription.realmKey != null) {
+            removeFromIndex(eventTypeSubscriptions.byRealm, sessionSubscription.realmKey, sessionSubscription);
+        } else {
+            eventTypeSubscriptions.unindexed.remove(sessionSubscription);
+        }
+
+        if (eventTypeSubscriptions.isEmpty()) {
+            eventTypeSubscriptionsMap.remove(eventType);
+        }
+        return true;
+    }
+
+    protected static void removeFromIndex(Map<String, Set<SessionSubscription>> index, String key, SessionSubscription sessionSubscription) {
+        index.computeIfPresent(key, (k, subscriptions) -> {
+            subscriptions.remove(sessionSubscription);
+            return subscriptions.isEmpty() ? null : subscriptions;
+        });
+    }
 }
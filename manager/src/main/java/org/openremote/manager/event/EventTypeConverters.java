@@ -39,6 +39,8 @@
 
 package org.openremote.manager.event;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
 import org.apache.camel.Converter;
 import org.apache.camel.Exchange;
 import org.apache.camel.TypeConverters;
@@ -55,6 +57,12 @@ public class EventTypeConverters implements TypeConverters {
 
     private static final Logger LOG = Logger.getLogger(EventTypeConverters.class.getName());
 
+    /**
+     * Writes the same model as {@link ValueUtil#JSON} for clients that subscribed with
+     * {@link org.openremote.model.event.shared.EventEncoding#CBOR}.
+     */
+    public static final ObjectMapper CBOR = ValueUtil.configureObjectMapper(new ObjectMapper(new CBORFactory()));
+
     @Converter
     public String writeEvent(SharedEvent event, Exchange exchange) throws Exception {
         return SharedEvent.MESSAGE_PREFIX + ValueUtil.JSON.writeValueAsString(event);
@@ -67,6 +75,9 @@ public class EventTypeConverters implements TypeConverters {
 
     @Converter
     public String writeTriggeredEventSubscription(TriggeredEventSubscription triggeredEventSubscription, Exchange exchange) throws Exception {
+        if (triggeredEventSubscription instanceof EncodedTriggeredEventSubscription) {
+            return ((EncodedTriggeredEventSubscription<?>) triggeredEventSubscription).toMessage();
+        }
         return TriggeredEventSubscription.MESSAGE_PREFIX + ValueUtil.JSON.writeValueAsString(triggeredEventSubscription);
     }
 
@@ -78,6 +89,14 @@ public class EventTypeConverters implements TypeConverters {
         return ValueUtil.JSON.readValue(string, SharedEvent.class);
     }
 
+    @Converter
+    public SharedEvent[] readEventArray(String string, Exchange exchange) throws Exception {
+        if (!string.startsWith(SharedEvent.MESSAGE_PREFIX))
+            return null;
+        string = string.substring(SharedEvent.MESSAGE_PREFIX.length());
+        return ValueUtil.JSON.readValue(string, SharedEvent[].class);
+    }
+
     @Converter
     public String writeEventSubscription(EventSubscription eventSubscription, Exchange exchange) throws Exception {
         return (eventSubscription.isSubscribed() ? SUBSCRIBED_MESSAGE_PREFIX : SUBSCRIBE_MESSAGE_PREFIX) + ValueUtil.JSON.writeValueAsString(eventSubscription);
@@ -0,0 +1,304 @@
+/*
+ * Copyright 2021, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.event;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.openremote.model.util.ValueUtil;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Queue of outbound messages of one client session, written one at a time by a {@link Writer} on the given executor
+ * so a slow client only delays its own messages. A write completes when the writer calls back, a writer that sends
+ * asynchronously doesn't hold a thread while the client is slow.
+ * <p>
+ * The queue is unbounded unless a capacity is set. When a bounded queue is full the {@link OverflowPolicy} decides
+ * what happens, only messages accepted by the droppable predicate (e.g. events) are ever dropped, other messages
+ * such as replies to subscriptions and requests are always queued. The session is disconnected when the oldest queued
+ * message is older than the maximum lag (if set).
+ */
+public class SessionSendQueue {
+
+    public enum OverflowPolicy {
+        /**
+         * Drop the oldest queued droppable message.
+         */
+        DROP,
+        /**
+         * Replace a queued message with the same coalesce key, otherwise drop the oldest queued droppable message.
+         */
+        COALESCE,
+        /**
+         * Disconnect the session.
+         */
+        DISCONNECT
+    }
+
+    @FunctionalInterface
+    public interface Writer {
+        /**
+         * Writes the message and calls <code>onComplete</code> when done with whether the message was sent, also when
+         * the write failed.
+         */
+        void write(Object message, Consumer<Boolean> onComplete) throws Exception;
+    }
+
+    protected static class Entry {
+        Object message;
+        final Object coalesceKey;
+        final long queuedMillis;
+
+        Entry(Object message, Object coalesceKey, long queuedMillis) {
+            this.message = message;
+            this.coalesceKey = coalesceKey;
+            this.queuedMillis = queuedMillis;
+        }
+    }
+
+    protected static class Write {
+        boolean completed;
+        boolean async;
+    }
+
+    private static final Logger LOG = Logger.getLogger(SessionSendQueue.class.getName());
+
+    protected final String sessionKey;
+    protected final int capacity;
+    protected final OverflowPolicy overflowPolicy;
+    protected final long maxLagMillis;
+    protected final Executor executor;
+    protected final LongSupplier clock;
+    protected final Writer writer;
+    protected final Function<Object, Object> coalesceKeyFunction;
+    protected final Predicate<Object> droppable;
+    protected final Runnable disconnect;
+    protected final ArrayDeque<Entry> queue = new ArrayDeque<>();
+    protected final Map<Object, Entry> coalesceIndex = new HashMap<>();
+    protected boolean writing;
+    protected boolean closed;
+    protected long sentCount;
+    protected long failedCount;
+    protected long droppedCount;
+    protected long coalescedCount;
+
+    /**
+     * @param capacity Maximum number of queued messages, 0 or less is unbounded.
+     */
+    public SessionSendQueue(String sessionKey,
+                            int capacity,
+                            OverflowPolicy overflowPolicy,
+                            long maxLagMillis,
+                            Executor executor,
+                            LongSupplier clock,
+                            Writer writer,
+                            Function<Object, Object> coalesceKeyFunction,
+                            Predicate<Object> droppable,
+                            Runnable disconnect) {
+        this.sessionKey = sessionKey;
+        this.capacity = Math.max(0, capacity);
+        this.overflowPolicy = overflowPolicy;
+        this.maxLagMillis = maxLagMillis;
+        this.executor = executor;
+        this.clock = clock;
+        this.writer = writer;
+        this.coalesceKeyFunction = coalesceKeyFunction;
+        this.droppable = droppable;
+        this.disconnect = disconnect;
+    }
+
+    public void offer(Object message) {
+        String disconnectReason = null;
+
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+
+            Object coalesceKey = overflowPolicy == OverflowPolicy.COALESCE && coalesceKeyFunction != null
+                ? coalesceKeyFunction.apply(message)
+                : null;
+
+            Entry queued = coalesceKey != null ? coalesceIndex.get(coalesceKey) : null;
+            if (queued != null) {
+                queued.message = message;
+                coalescedCount++;
+                return;
+            }
+
+            if (capacity > 0 && queue.size() >= capacity) {
+                if (overflowPolicy == OverflowPolicy.DISCONNECT) {
+                    disconnectReason = "send queue is full";
+                } else if (!dropOldest() && droppable.test(message)) {
+                    droppedCount++;
+                    return;
+                }
+            }
+
+            // A write that doesn't complete doesn't drain the queue, so the lag is also checked here
+            if (disconnectReason == null && isLagging(queue.peek())) {
+                disconnectReason = "lagging more than " + maxLagMillis + "ms";
+            }
+
+            if (disconnectReason == null) {
+                Entry entry = new Entry(message, coalesceKey, clock.getAsLong());
+                queue.add(entry);
+                if (coalesceKey != null) {
+                    coalesceIndex.put(coalesceKey, entry);
+                }
+                if (!writing) {
+                    writing = true;
+                    executor.execute(this::drain);
+                }
+            }
+        }
+
+        if (disconnectReason != null) {
+            LOG.info("Session '" + sessionKey + "' " + disconnectReason + ", disconnecting");
+            close();
+            disconnect.run();
+        }
+    }
+
+    public synchronized void close() {
+        closed = true;
+        queue.clear();
+        coalesceIndex.clear();
+    }
+
+    public synchronized int getDepth() {
+        return queue.size();
+    }
+
+    /**
+     * @return Age in milliseconds of the oldest queued message.
+     */
+    public synchronized long getLagMillis() {
+        Entry oldest = queue.peek();
+        return oldest != null ? Math.max(0, clock.getAsLong() - oldest.queuedMillis) : 0;
+    }
+
+    public synchronized ObjectNode getStatus() {
+        ObjectNode status = ValueUtil.JSON.createObjectNode();
+        status.put("sessionKey", sessionKey);
+        status.put("depth", queue.size());
+        status.put("capacity", capacity);
+        status.put("lagMillis", getLagMillis());
+        status.put("sent", sentCount);
+        status.put("failed", failedCount);
+        status.put("dropped", droppedCount);
+        status.put("coalesced", coalescedCount);
+        return status;
+    }
+
+    protected void drain() {
+        while (true) {
+            Entry entry;
+            boolean lagging;
+
+            synchronized (this) {
+                entry = queue.poll();
+                if (entry == null || closed) {
+                    writing = false;
+                    return;
+                }
+                removeIndexed(entry);
+                lagging = isLagging(entry);
+            }
+
+            if (lagging) {
+                LOG.info("Session '" + sessionKey + "' is lagging more than " + maxLagMillis + "ms, disconnecting");
+                close();
+                disconnect.run();
+                return;
+            }
+
+            Write write = new Write();
+            try {
+                writer.write(entry.message, sent -> onWritten(write, sent));
+            } catch (Exception e) {
+                LOG.log(Level.INFO, "Failed to send message to session '" + sessionKey + "'", e);
+                onWritten(write, false);
+            }
+
+            synchronized (this) {
+                if (!write.completed) {
+                    // Continues when the asynchronous write completes
+                    write.async = true;
+                    return;
+                }
+            }
+        }
+    }
+
+    protected void onWritten(Write write, boolean sent) {
+        synchronized (this) {
+            if (write.completed) {
+                return;
+            }
+            write.completed = true;
+            if (sent) {
+                sentCount++;
+            } else {
+                failedCount++;
+            }
+            if (!write.async) {
+                return;
+            }
+        }
+        executor.execute(this::drain);
+    }
+
+    protected boolean isLagging(Entry entry) {
+        return entry != null && maxLagMillis > 0 && clock.getAsLong() - entry.queuedMillis > maxLagMillis;
+    }
+
+    /**
+     * @return <code>false</code> if no queued message can be dropped.
+     */
+    protected boolean dropOldest() {
+        Iterator<Entry> it = queue.iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            if (droppable.test(entry.message)) {
+                it.remove();
+                removeIndexed(entry);
+                droppedCount++;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    protected void removeIndexed(Entry entry) {
+        if (entry != null && entry.coalesceKey != null) {
+            coalesceIndex.remove(entry.coalesceKey);
+        }
+    }
+}
@@ -284,6 +284,15 @@ public class GatewayService extends RouteBuilder implements ContainerService, As
             String gatewayId = getGatewayIdFromClientId(clientId);
             onGatewayClientEventReceived(gatewayId, exchange.getIn().getHeader(ClientEventService.HEADER_REQUEST_RESPONSE_MESSAGE_ID, String.class), exchange.getIn().getBody(SharedEvent.class));
         }
+
+        // Inbound batch of shared events
+        if (and(ClientEventService::isInbound, body().isInstanceOf(SharedEvent[].class)).matches(exchange)) {
+            ClientEventService.stopMessage(exchange);
+            String gatewayId = getGatewayIdFromClientId(clientId);
+            for (SharedEvent event : exchange.getIn().getBody(SharedEvent[].class)) {
+                onGatewayClientEventReceived(gatewayId, null, event);
+            }
+        }
     }
 
     @Override
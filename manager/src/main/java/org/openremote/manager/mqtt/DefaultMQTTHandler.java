@@ -28,6 +28,7 @@ import org.openremote.container.security.AuthContext;
 import org.openremote.container.web.ConnectionConstants;
 import org.openremote.manager.asset.AssetStorageService;
 import org.openremote.manager.event.ClientEventService;
+import org.openremote.manager.event.EncodedEventConsumer;
 import org.openremote.manager.security.ManagerIdentityService;
 import org.openremote.manager.security.ManagerKeycloakIdentityProvider;
 import org.openremote.model.Constants;
@@ -485,20 +486,22 @@ public class DefaultMQTTHandler extends MQTTHandler {
         }
 
 
-        return ev -> {
+        // The payload is encoded once and shared by all connections subscribed to the event
+        return (EncodedEventConsumer<SharedEvent>) (ev, encodedEvents) -> {
 
             if (isAssetTopic) {
                 if (ev instanceof AssetEvent) {
-                    mqttBrokerService.publishMessage(topicExpander.apply(ev), ev, mqttQoS);
+                    mqttBrokerService.queueMessage(connection.getClientId(), topicExpander.apply(ev), encodedEvents.getPayload(ev, MqttBrokerService::encodePayload), mqttQoS);
                 }
             } else {
                 if (ev instanceof AttributeEvent) {
                     AttributeEvent attributeEvent = (AttributeEvent) ev;
 
                     if (isValueSubscription) {
-                        mqttBrokerService.publishMessage(topicExpander.apply(ev), attributeEvent.getValue().orElse(null), mqttQoS);
+                        Object value = attributeEvent.getValue().orElse(null);
+                        mqttBrokerService.queueMessage(connection.getClientId(), topicExpander.apply(ev), encodedEvents.getPayload(value, MqttBrokerService::encodePayload), mqttQoS);
                     } else {
-                        mqttBrokerService.publishMessage(topicExpander.apply(ev), ev, mqttQoS);
+                        mqttBrokerService.queueMessage(connection.getClientId(), topicExpander.apply(ev), encodedEvents.getPayload(ev, MqttBrokerService::encodePayload), mqttQoS);
                     }
                 }
             }
@@ -27,6 +27,7 @@ import io.moquette.broker.security.IAuthenticator;
 import io.moquette.interception.InterceptHandler;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
 import io.netty.handler.codec.mqtt.MqttMessageBuilders;
 import io.netty.handler.codec.mqtt.MqttPublishMessage;
 import io.netty.handler.codec.mqtt.MqttQoS;
@@ -69,6 +70,33 @@ public class MqttBrokerService implements ContainerService, IAuthenticator {
     public static final String MQTT_SERVER_LISTEN_HOST = "MQTT_SERVER_LISTEN_HOST";
     public static final String MQTT_SERVER_LISTEN_PORT = "MQTT_SERVER_LISTEN_PORT";
 
+    /**
+     * An encoded message waiting in the send queue of a connection.
+     */
+    public static class QueuedMessage {
+        protected final String topic;
+        protected final byte[] payload;
+        protected final MqttQoS qoS;
+
+        protected QueuedMessage(String topic, byte[] payload, MqttQoS qoS) {
+            this.topic = topic;
+            this.payload = payload;
+            this.qoS = qoS;
+        }
+
+        public String getTopic() {
+            return topic;
+        }
+
+        @Override
+        public String toString() {
+            return getClass().getSimpleName() + "{" +
+                "topic='" + topic + '\'' +
+                ", qoS=" + qoS +
+                '}';
+        }
+    }
+
     protected ManagerKeycloakIdentityProvider identityProvider;
     protected ClientEventService clientEventService;
     protected MessageBrokerService messageBrokerService;
@@ -81,6 +109,8 @@ public class MqttBrokerService implements ContainerService, IAuthenticator {
     protected int port;
     protected Server mqttBroker;
     protected SessionRegistry sessionRegistry;
+    // Only the first failure to check a client channel is logged as a warning
+    protected volatile boolean channelReflectionFailed;
 
     @Override
     public int getPriority() {
@@ -292,17 +322,95 @@ public class MqttBrokerService implements ContainerService, IAuthenticator {
 
     public void publishMessage(String topic, Object data, MqttQoS qoS) {
         try {
-            ByteBuf payload = Unpooled.copiedBuffer(ValueUtil.asJSON(data).orElseThrow(() -> new IllegalStateException("Failed to convert payload to JSON string: " + data)), Charset.defaultCharset());
+            doPublishMessage(topic, encodePayload(data), qoS);
+        } catch (Exception e) {
+            LOG.log(Level.WARNING, "Couldn't send AttributeEvent to MQTT client", e);
+        }
+    }
 
-            MqttPublishMessage publishMessage = MqttMessageBuilders.publish()
-                .qos(qoS)
-                .topicName(topic)
-                .payload(payload)
-                .build();
+    /**
+     * Encodes the data on the calling thread and queues the message on the send queue of the connection, so a slow
+     * client doesn't delay the caller.
+     */
+    public void queueMessage(String clientId, String topic, Object data, MqttQoS qoS) {
+        try {
+            clientEventService.sendToSession(clientId, new QueuedMessage(topic, encodePayload(data), qoS));
+        } catch (Exception e) {
+            LOG.log(Level.WARNING, "Couldn't queue message for MQTT client: " + clientId, e);
+        }
+    }
 
-            mqttBroker.internalPublish(publishMessage, INTERNAL_CLIENT_ID);
+    /**
+     * Queues the already encoded payload on the send queue of the connection, e.g. a payload shared by all
+     * subscribers of an event.
+     */
+    public void queueMessage(String clientId, String topic, byte[] payload, MqttQoS qoS) {
+        try {
+            clientEventService.sendToSession(clientId, new QueuedMessage(topic, payload, qoS));
+        } catch (Exception e) {
+            LOG.log(Level.WARNING, "Couldn't queue message for MQTT client: " + clientId, e);
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the message was handed to the broker.
+     */
+    public boolean publishMessage(QueuedMessage queuedMessage) {
+        try {
+            doPublishMessage(queuedMessage.topic, queuedMessage.payload, queuedMessage.qoS);
+            return true;
         } catch (Exception e) {
             LOG.log(Level.WARNING, "Couldn't send AttributeEvent to MQTT client", e);
+            return false;
         }
     }
+
+    /**
+     * @return <code>false</code> if the network channel of the client is open and can't take more messages without
+     * exceeding its outbound buffer, otherwise <code>true</code>, also when the channel can't be determined.
+     */
+    public boolean isWritable(String clientId) {
+        Object session = getSession(clientId);
+        if (session == null) {
+            return true;
+        }
+
+        try {
+            Field connectionField = session.getClass().getDeclaredField("mqttConnection");
+            connectionField.setAccessible(true);
+            Object connection = connectionField.get(session);
+            if (connection == null) {
+                return true;
+            }
+            Field channelField = connection.getClass().getDeclaredField("channel");
+            channelField.setAccessible(true);
+            Channel channel = (Channel) channelField.get(connection);
+            return channel == null || !channel.isActive() || channel.isWritable();
+        } catch (Exception e) {
+            // Without the channel slow clients are buffered in the broker and the max lag of their send queue doesn't apply
+            if (!channelReflectionFailed) {
+                channelReflectionFailed = true;
+                LOG.log(Level.WARNING, "Failed to get Moquette connection channel using reflection, can't check if clients keep up", e);
+            } else {
+                LOG.log(Level.FINEST, "Failed to get Moquette connection channel using reflection", e);
+            }
+            return true;
+        }
+    }
+
+    protected void doPublishMessage(String topic, byte[] data, MqttQoS qoS) {
+        ByteBuf payload = Unpooled.wrappedBuffer(data);
+
+        MqttPublishMessage publishMessage = MqttMessageBuilders.publish()
+            .qos(qoS)
+            .topicName(topic)
+            .payload(payload)
+            .build();
+
+        mqttBroker.internalPublish(publishMessage, INTERNAL_CLIENT_ID);
+    }
+
+    protected static byte[] encodePayload(Object data) {
+        return ValueUtil.asJSON(data).orElseThrow(() -> new IllegalStateException("Failed to convert payload to JSON string: " + data)).getBytes(Charset.defaultCharset());
+    }
 }
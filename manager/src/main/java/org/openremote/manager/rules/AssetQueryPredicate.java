@@ -22,6 +22,7 @@ package org.openremote.manager.rules;
 import com.fasterxml.jackson.databind.JsonNode;
 import org.openremote.container.timer.TimerService;
 import org.openremote.manager.asset.AssetStorageService;
+import org.openremote.model.asset.AssetDescriptor;
 import org.openremote.model.asset.impl.ThingAsset;
 import org.openremote.model.attribute.MetaMap;
 import org.openremote.model.query.AssetQuery;
@@ -32,10 +33,7 @@ import org.openremote.model.util.ValueUtil;
 import org.openremote.model.value.MetaHolder;
 import org.openremote.model.value.NameValueHolder;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collection;
-import java.util.List;
+import java.util.*;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Function;
 import java.util.function.Predicate;
@@ -44,83 +42,131 @@ import java.util.stream.Collectors;
 
 /**
  * Test an {@link AssetState} with a {@link AssetQuery}.
+ * <p>
+ * The query is compiled when the predicate is created: ID and type restrictions are resolved to hash sets and the
+ * name, parent, path, tenant and attribute predicates are built once, so an instance should be reused to test many
+ * asset states. Time based predicates still use the current time of each test. The query must not be modified after
+ * the predicate was created.
  */
 public class AssetQueryPredicate implements Predicate<AssetState<?>> {
 
     final protected AssetQuery query;
     final protected TimerService timerService;
     final protected AssetStorageService assetStorageService;
+    final protected Set<String> ids;
+    final protected List<Predicate<Object>> namePredicates;
+    final protected List<Predicate<AssetState<?>>> parentPredicates;
+    final protected Set<String> types;
+    final protected Set<String> excludedTypes;
+    final protected List<Predicate<String[]>> pathPredicates;
+    final protected Predicate<AssetState<?>> tenantPredicate;
+    final protected Predicate<AssetState<?>> attributesPredicate;
+    final protected List<String> userIds;
 
     public AssetQueryPredicate(TimerService timerService, AssetStorageService assetStorageService, AssetQuery query) {
         this.timerService = timerService;
         this.assetStorageService = assetStorageService;
         this.query = query;
+
+        ids = query.ids != null && query.ids.length > 0
+            ? new HashSet<>(Arrays.asList(query.ids))
+            : null;
+
+        namePredicates = query.names != null && query.names.length > 0
+            ? Arrays.stream(query.names)
+                .map(stringPredicate -> stringPredicate.asPredicate(timerService::getCurrentTimeMillis))
+                .collect(Collectors.toList())
+            : null;
+
+        parentPredicates = query.parents != null && query.parents.length > 0
+            ? Arrays.stream(query.parents).map(AssetQueryPredicate::asPredicate).collect(Collectors.toList())
+            : null;
+
+        if (query.types != null && query.types.length > 0) {
+            // Unknown asset types are treated as things, so if things match only the known types that don't match
+            // are excluded
+            boolean thingMatches = Arrays.stream(query.types).anyMatch(type -> type.isAssignableFrom(ThingAsset.class));
+            Map<Boolean, Set<String>> typeNames = Arrays.stream(ValueUtil.getAssetDescriptors(null))
+                .collect(Collectors.partitioningBy(
+                    descriptor -> Arrays.stream(query.types).anyMatch(type -> type.isAssignableFrom(descriptor.getType())),
+                    Collectors.mapping(AssetDescriptor::getName, Collectors.toSet())));
+            types = thingMatches ? null : typeNames.get(true);
+            excludedTypes = thingMatches ? typeNames.get(false) : null;
+        } else {
+            types = null;
+            excludedTypes = null;
+        }
+
+        pathPredicates = query.paths != null && query.paths.length > 0
+            ? Arrays.stream(query.paths).map(AssetQueryPredicate::asPredicate).collect(Collectors.toList())
+            : null;
+
+        tenantPredicate = query.tenant != null ? asPredicate(query.tenant) : null;
+
+        // TODO: LogicGroup AND doesn't make much sense when applying to a single asset state
+        attributesPredicate = query.attributes != null
+            ? asPredicate(timerService::getCurrentTimeMillis, query.attributes)
+            : null;
+
+        userIds = query.userIds != null && query.userIds.length > 0 ? Arrays.asList(query.userIds) : null;
+    }
+
+    public AssetQuery getQuery() {
+        return query;
     }
 
     @Override
     public boolean test(AssetState<?> assetState) {
 
-        if (query.ids != null && query.ids.length > 0) {
-            if (Arrays.stream(query.ids).noneMatch(id -> assetState.getId().equals(id))) {
-                return false;
-            }
+        if (ids != null && !ids.contains(assetState.getId())) {
+            return false;
         }
 
-        if (query.names != null && query.names.length > 0) {
-            if (Arrays.stream(query.names)
-                    .map(stringPredicate -> stringPredicate.asPredicate(timerService::getCurrentTimeMillis))
-                    .noneMatch(np -> np.test(assetState.getAssetName()))) {
-                return false;
-            }
+        if (namePredicates != null && !anyMatch(namePredicates, assetState.getAssetName())) {
+            return false;
         }
 
-        if (query.parents != null && query.parents.length > 0) {
-            if (Arrays.stream(query.parents)
-                    .map(AssetQueryPredicate::asPredicate)
-                    .noneMatch(np -> np.test(assetState))) {
-                return false;
-            }
+        if (parentPredicates != null && !anyMatch(parentPredicates, assetState)) {
+            return false;
         }
 
-        if (query.types != null && query.types.length > 0) {
-            if (Arrays.stream(query.types).noneMatch(type ->
-                        type.isAssignableFrom(
-                            ValueUtil.getAssetDescriptor(assetState.getAssetType())
-                                .orElse(ThingAsset.DESCRIPTOR).getType()))
-                    ) {
-                return false;
-            }
+        if (types != null && !types.contains(assetState.getAssetType())) {
+            return false;
         }
 
-        if (query.paths != null && query.paths.length > 0) {
-            if (Arrays.stream(query.paths)
-                    .map(AssetQueryPredicate::asPredicate)
-                    .noneMatch(np -> np.test(assetState.getPath()))) {
-                return false;
-            }
+        if (excludedTypes != null && excludedTypes.contains(assetState.getAssetType())) {
+            return false;
         }
 
-        if (query.tenant != null) {
-            if (!AssetQueryPredicate.asPredicate(query.tenant).test(assetState)) {
-                return false;
-            }
+        if (pathPredicates != null && !anyMatch(pathPredicates, assetState.getPath())) {
+            return false;
         }
 
-        if (query.attributes != null) {
-            // TODO: LogicGroup AND doesn't make much sense when applying to a single asset state
-            if (!asPredicate(timerService::getCurrentTimeMillis, query.attributes).test(assetState)) {
-                return false;
-            }
+        if (tenantPredicate != null && !tenantPredicate.test(assetState)) {
+            return false;
+        }
+
+        if (attributesPredicate != null && !attributesPredicate.test(assetState)) {
+            return false;
         }
 
         // Apply user ID predicate last as it is the most expensive
-        if (query.userIds != null && query.userIds.length > 0) {
-            return assetStorageService.isUserAsset(Arrays.asList(query.userIds), assetState.getId());
+        if (userIds != null) {
+            return assetStorageService.isUserAsset(userIds, assetState.getId());
         }
 
         return true;
     }
 
+    protected static <T> boolean anyMatch(List<Predicate<T>> predicates, T value) {
+        for (Predicate<T> predicate : predicates) {
+            if (predicate.test(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public static Predicate<AssetState<?>> asPredicate(ParentPredicate predicate) {
         return assetState ->
             (predicate.id == null || predicate.id.equals(assetState.getParentId()))
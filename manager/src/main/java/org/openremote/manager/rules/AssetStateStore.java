@@ -0,0 +1,315 @@
+/*
+ * Copyright 2021, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.rules;
+
+import org.openremote.model.attribute.AttributeRef;
+import org.openremote.model.query.AssetQuery;
+import org.openremote.model.query.LogicGroup;
+import org.openremote.model.query.filter.AttributePredicate;
+import org.openremote.model.query.filter.ParentPredicate;
+import org.openremote.model.query.filter.StringPredicate;
+import org.openremote.model.rules.AssetState;
+
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * The {@link AssetState} facts of a rules engine keyed by {@link AttributeRef}, with secondary indexes on asset ID,
+ * asset type, realm, parent ID and attribute name. Replacing or removing an asset state is a constant time operation.
+ * Asset states are kept in order of their last update, also within each index.
+ * <p>
+ * An {@link AssetQuery} is matched by looking up the candidates of each restriction that has an index and testing
+ * only the smallest candidate set with the complete query predicate. A query without any indexed restriction tests
+ * all asset states.
+ * <p>
+ * Not thread-safe, the facts of a rules engine are only accessed by one thread at a time.
+ */
+public class AssetStateStore {
+
+    protected static class Entry {
+        final AssetState<?> assetState;
+        final long sequence;
+
+        Entry(AssetState<?> assetState, long sequence) {
+            this.assetState = assetState;
+            this.sequence = sequence;
+        }
+    }
+
+    protected static class Index {
+        final Function<AssetState<?>, String> keyExtractor;
+        final Map<String, Map<AttributeRef, Entry>> entries = new HashMap<>();
+
+        Index(Function<AssetState<?>, String> keyExtractor) {
+            this.keyExtractor = keyExtractor;
+        }
+
+        void add(AttributeRef ref, Entry entry) {
+            entries.computeIfAbsent(keyOf(entry.assetState), key -> new LinkedHashMap<>()).put(ref, entry);
+        }
+
+        void remove(AttributeRef ref, Entry entry) {
+            String key = keyOf(entry.assetState);
+            Map<AttributeRef, Entry> keyEntries = entries.get(key);
+            if (keyEntries != null) {
+                keyEntries.remove(ref);
+                if (keyEntries.isEmpty()) {
+                    entries.remove(key);
+                }
+            }
+        }
+
+        String keyOf(AssetState<?> assetState) {
+            String key = keyExtractor.apply(assetState);
+            return key != null ? key : "";
+        }
+
+        /**
+         * @return The entries of all the keys, or <code>null</code> if there are more than the given maximum.
+         */
+        List<Collection<Entry>> lookup(Collection<String> keys, int max) {
+            List<Collection<Entry>> result = new ArrayList<>(keys.size());
+            int size = 0;
+            for (String key : keys) {
+                Map<AttributeRef, Entry> keyEntries = entries.get(key);
+                if (keyEntries != null) {
+                    size += keyEntries.size();
+                    if (size > max) {
+                        return null;
+                    }
+                    result.add(keyEntries.values());
+                }
+            }
+            return result;
+        }
+    }
+
+    protected final Map<AttributeRef, Entry> entries = new LinkedHashMap<>();
+    protected final Collection<AssetState<?>> assetStates = new AbstractCollection<AssetState<?>>() {
+        @Override
+        public Iterator<AssetState<?>> iterator() {
+            Iterator<Entry> iterator = entries.values().iterator();
+            return new Iterator<AssetState<?>>() {
+                @Override
+                public boolean hasNext() {
+                    return iterator.hasNext();
+                }
+
+                @Override
+                public AssetState<?> next() {
+                    return iterator.next().assetState;
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return entries.size();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return o instanceof AssetState && entries.containsKey(getRef((AssetState<?>) o));
+        }
+    };
+    protected final Index assetIdIndex = new Index(AssetState::getId);
+    protected final Index assetTypeIndex = new Index(AssetState::getAssetType);
+    protected final Index realmIndex = new Index(AssetState::getRealm);
+    protected final Index parentIdIndex = new Index(AssetState::getParentId);
+    protected final Index attributeNameIndex = new Index(AssetState::getName);
+    protected final List<Index> indexes = Arrays.asList(assetIdIndex, assetTypeIndex, realmIndex, parentIdIndex, attributeNameIndex);
+    protected long sequence;
+
+    protected static AttributeRef getRef(AssetState<?> assetState) {
+        return new AttributeRef(assetState.getId(), assetState.getName());
+    }
+
+    /**
+     * Adds or replaces the asset state of the same attribute, the asset state is then the most recently updated.
+     */
+    public void put(AssetState<?> assetState) {
+        AttributeRef ref = getRef(assetState);
+        remove(ref);
+        Entry entry = new Entry(assetState, sequence++);
+        entries.put(ref, entry);
+        for (Index index : indexes) {
+            index.add(ref, entry);
+        }
+    }
+
+    /**
+     * @return The removed asset state or <code>null</code> if there was no asset state of the attribute.
+     */
+    public AssetState<?> remove(AttributeRef ref) {
+        Entry entry = entries.remove(ref);
+        if (entry == null) {
+            return null;
+        }
+        for (Index index : indexes) {
+            index.remove(ref, entry);
+        }
+        return entry.assetState;
+    }
+
+    public AssetState<?> get(AttributeRef ref) {
+        Entry entry = entries.get(ref);
+        return entry != null ? entry.assetState : null;
+    }
+
+    /**
+     * @return An unmodifiable view of all asset states in order of their last update.
+     */
+    public Collection<AssetState<?>> getAssetStates() {
+        return assetStates;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return The asset states that match the query of the predicate.
+     */
+    public Stream<AssetState<?>> match(AssetQueryPredicate queryPredicate) {
+        AssetQuery query = queryPredicate.getQuery();
+        List<Collection<Entry>> candidates = null;
+        int max = entries.size();
+
+        candidates = narrow(candidates, assetIdIndex, queryPredicate.ids, max);
+        max = getSize(candidates, max);
+        candidates = narrow(candidates, parentIdIndex, getParentIds(query), max);
+        max = getSize(candidates, max);
+        candidates = narrow(candidates, attributeNameIndex, getAttributeNames(query.attributes), max);
+        max = getSize(candidates, max);
+        candidates = narrow(candidates, assetTypeIndex, queryPredicate.types, max);
+        max = getSize(candidates, max);
+        candidates = narrow(candidates, realmIndex, query.tenant != null && query.tenant.realm != null ? Collections.singletonList(query.tenant.realm) : null, max);
+
+        if (candidates == null) {
+            return getAssetStates().stream().parallel().filter(queryPredicate);
+        }
+
+        Stream<Entry> candidateEntries;
+        if (candidates.size() == 1) {
+            // Copied so rules can update asset states while consuming the stream
+            candidateEntries = new ArrayList<>(candidates.get(0)).stream();
+        } else {
+            // Entries of different keys are restored to their update order
+            candidateEntries = candidates.stream().flatMap(Collection::stream).sorted(Comparator.comparingLong(entry -> entry.sequence));
+        }
+        return candidateEntries.map(entry -> entry.assetState).filter(queryPredicate);
+    }
+
+    /**
+     * @return The candidates of the index if the keys are known and there are fewer candidates than the current ones,
+     * otherwise the current candidates.
+     */
+    protected static List<Collection<Entry>> narrow(List<Collection<Entry>> candidates, Index index, Collection<String> keys, int max) {
+        if (keys == null) {
+            return candidates;
+        }
+        List<Collection<Entry>> indexCandidates = index.lookup(keys, candidates == null ? max : max - 1);
+        return indexCandidates != null ? indexCandidates : candidates;
+    }
+
+    protected static int getSize(List<Collection<Entry>> candidates, int max) {
+        return candidates == null ? max : candidates.stream().mapToInt(Collection::size).sum();
+    }
+
+    protected static Collection<String> getParentIds(AssetQuery query) {
+        if (query.parents == null || query.parents.length == 0) {
+            return null;
+        }
+        List<String> parentIds = new ArrayList<>(query.parents.length);
+        for (ParentPredicate parentPredicate : query.parents) {
+            if (parentPredicate.id == null) {
+                return null;
+            }
+            parentIds.add(parentPredicate.id);
+        }
+        return parentIds;
+    }
+
+    /**
+     * An asset state is a single attribute, so it only matches an AND group with an exact attribute name if it has
+     * that name, and an OR group if it has one of the exact names of all alternatives.
+     *
+     * @return The attribute names an asset state must have to match, or <code>null</code> if unrestricted.
+     */
+    protected static Collection<String> getAttributeNames(LogicGroup<AttributePredicate> group) {
+        if (group == null) {
+            return null;
+        }
+
+        boolean or = group.operator == LogicGroup.Operator.OR;
+
+        if (!or) {
+            for (AttributePredicate attributePredicate : group.getItems()) {
+                String name = getExactName(attributePredicate.name);
+                if (name != null) {
+                    return Collections.singletonList(name);
+                }
+            }
+            if (group.groups != null) {
+                for (LogicGroup<AttributePredicate> subGroup : group.groups) {
+                    Collection<String> names = getAttributeNames(subGroup);
+                    if (names != null) {
+                        return names;
+                    }
+                }
+            }
+            return null;
+        }
+
+        if (group.getItems().isEmpty() && (group.groups == null || group.groups.isEmpty())) {
+            return null;
+        }
+
+        Set<String> names = new HashSet<>();
+        for (AttributePredicate attributePredicate : group.getItems()) {
+            String name = getExactName(attributePredicate.name);
+            if (name == null) {
+                return null;
+            }
+            names.add(name);
+        }
+        if (group.groups != null) {
+            for (LogicGroup<AttributePredicate> subGroup : group.groups) {
+                Collection<String> subGroupNames = getAttributeNames(subGroup);
+                if (subGroupNames == null) {
+                    return null;
+                }
+                names.addAll(subGroupNames);
+            }
+        }
+        return names;
+    }
+
+    protected static String getExactName(StringPredicate predicate) {
+        return predicate != null
+            && predicate.value != null
+            && predicate.match == AssetQuery.Match.EXACT
+            && predicate.caseSensitive
+            && !predicate.negate
+            ? predicate.value
+            : null;
+    }
+}
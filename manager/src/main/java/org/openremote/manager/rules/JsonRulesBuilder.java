@@ -43,6 +43,7 @@ import org.openremote.model.value.MetaItemType;
 import org.quartz.CronExpression;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BiConsumer;
@@ -81,9 +82,20 @@ public class JsonRulesBuilder extends RulesBuilder {
         int limit;
         LogicGroup<AttributePredicate> attributePredicates = null;
         Predicate<AssetState<?>> assetStatePredicate = null;
+        AssetQueryPredicate assetQueryPredicate;
         Set<AssetState<?>> unfilteredAssetStates = new HashSet<>();
-        Set<AssetState<?>> previouslyMatchedAssetStates = new HashSet<>();
+        // Previously matched asset states map to themselves so their timestamp can be looked up by asset ID and
+        // attribute name
+        Map<AssetState<?>, AssetState<?>> previouslyMatchedAssetStates = new HashMap<>();
         Set<AssetState<?>> previouslyUnmatchedAssetStates;
+        // Results of the attribute predicates, only asset states that changed since the last evaluation are tested
+        // again unless the predicates depend on the current time (matched asset states map to themselves so the
+        // current value can be looked up by asset ID and attribute name)
+        Map<AssetState<?>, AssetState<?>> matchedAssetStates = new HashMap<>();
+        Set<AssetState<?>> unmatchedAssetStates = new HashSet<>();
+        Set<AssetState<?>> changedAssetStates = new HashSet<>();
+        boolean evaluateAll = true;
+        boolean timeDependent;
         Predicate<Long> timePredicate;
         RuleConditionEvaluationResult lastEvaluationResult;
 
@@ -143,7 +155,11 @@ public class JsonRulesBuilder extends RulesBuilder {
                     // Only supports a single level or logic group for attributes (i.e. cannot nest groups in the UI so
                     // don't support it here either)
                     attributePredicates.groups = null;
-                    assetStatePredicate = AssetQueryPredicate.asPredicate(timerService::getCurrentTimeMillis, attributePredicates);
+                    assetStatePredicate = AssetQueryPredicate.asPredicate(() -> {
+                        // A predicate that reads the time can change its result without the asset state changing
+                        timeDependent = true;
+                        return timerService.getCurrentTimeMillis();
+                    }, attributePredicates);
                 }
                 ruleCondition.assets.orderBy = null;
                 ruleCondition.assets.limit = 0;
@@ -162,7 +178,12 @@ public class JsonRulesBuilder extends RulesBuilder {
 
                 if (event == null || event.cause == PersistenceEvent.Cause.CREATE) {
                     // Do a complete refresh of unfiltered asset states based on the asset query (without attribute predicates)
-                    unfilteredAssetStates = facts.matchAssetState(ruleCondition.assets).collect(Collectors.toSet());
+                    if (assetQueryPredicate == null) {
+                        assetQueryPredicate = facts.compileAssetQuery(ruleCondition.assets);
+                    }
+                    unfilteredAssetStates = facts.matchAssetState(assetQueryPredicate).collect(Collectors.toSet());
+                    evaluateAll = true;
+                    changedAssetStates.clear();
                 } else {
                     // Replace or remove asset state as required
                     switch (event.cause) {
@@ -170,10 +191,13 @@ public class JsonRulesBuilder extends RulesBuilder {
                             // Only insert if fact was already in there (i.e. it matches the asset type constraints)
                             if (unfilteredAssetStates.remove(event.assetState)) {
                                 unfilteredAssetStates.add(event.assetState);
+                                markChanged(event.assetState);
                             }
                             break;
                         case DELETE:
-                            unfilteredAssetStates.remove(event.assetState);
+                            if (unfilteredAssetStates.remove(event.assetState)) {
+                                markChanged(event.assetState);
+                            }
                             break;
                     }
                 }
@@ -209,51 +233,30 @@ public class JsonRulesBuilder extends RulesBuilder {
                 if (trackUnmatched) {
                     previouslyUnmatchedAssetStates.clear();
                 }
+                matchedAssetStates.clear();
+                unmatchedAssetStates.clear();
+                changedAssetStates.clear();
+                evaluateAll = false;
                 log(Level.FINEST, "Rule trigger has no unfiltered asset states so no match");
                 lastEvaluationResult = new RuleConditionEvaluationResult(false, Collections.emptyList(), Collections.emptyList(), Collections.emptyList(), Collections.emptyList());
                 return;
             }
 
-            List<AssetState<?>> matchedAssetStates;
+            // Asset states of which the previous match state may have to be reset
+            Collection<AssetState<?>> checkAssetStates = evaluate();
+
+            List<AssetState<?>> matchedAssetStates = new ArrayList<>(this.matchedAssetStates.values());
             List<AssetState<?>> unmatchedAssetStates = Collections.emptyList();
             Collection<String> unmatchedAssetIds = Collections.emptyList();
 
-            if (attributePredicates == null) {
-                matchedAssetStates = new ArrayList<>(unfilteredAssetStates);
-            } else {
-
-                Map<Boolean, List<AssetState<?>>> results;
-                boolean isAndGroup = attributePredicates.operator == null || attributePredicates.operator == LogicGroup.Operator.AND;
-
-                if (isAndGroup) {
-
-                    // ANDs need to be applied in the context of an entire asset as don't make any sense otherwise
-                    results = new HashMap<>();
-                    ArrayList<AssetState<?>> matched = new ArrayList<>();
-                    ArrayList<AssetState<?>> unmatched = new ArrayList<>();
-                    results.put(true, matched);
-                    results.put(false, unmatched);
-
-                    unfilteredAssetStates.stream().collect(Collectors.groupingBy(AssetState::getId)).forEach((id, states) -> {
+            if (attributePredicates != null) {
 
-                        Map<Boolean, List<AssetState<?>>> assetResults = states.stream().collect(Collectors.groupingBy(assetStatePredicate::test));
-                        matched.addAll(assetResults.getOrDefault(true, Collections.emptyList()));
-                        unmatched.addAll(assetResults.getOrDefault(false, Collections.emptyList()));
-                    });
-
-                } else {
-
-                    results = unfilteredAssetStates.stream().collect(Collectors.groupingBy(assetStatePredicate::test));
-
-                }
-
-                matchedAssetStates = results.getOrDefault(true, Collections.emptyList());
-                unmatchedAssetStates = results.getOrDefault(false, Collections.emptyList());
+                unmatchedAssetStates = new ArrayList<>(this.unmatchedAssetStates);
 
                 if (trackUnmatched) {
 
                     // Clear out previous unmatched that now match
-                    previouslyUnmatchedAssetStates.removeIf(matchedAssetStates::contains);
+                    previouslyUnmatchedAssetStates.removeIf(this.matchedAssetStates::containsKey);
 
                     // Filter out previous un-matches to avoid re-triggering
                     unmatchedAssetStates.removeIf(previouslyUnmatchedAssetStates::contains);
@@ -262,35 +265,35 @@ public class JsonRulesBuilder extends RulesBuilder {
             }
 
             // Remove previous matches where the asset state no longer matches
-            previouslyMatchedAssetStates.removeIf(previousAssetState -> {
+            for (AssetState<?> checkAssetState : checkAssetStates) {
 
-                Optional<AssetState<?>> matched = matchedAssetStates.stream()
-                    .filter(matchedAssetState -> Objects.equals(previousAssetState, matchedAssetState))
-                    .findFirst();
+                AssetState<?> previousAssetState = previouslyMatchedAssetStates.get(checkAssetState);
+
+                if (previousAssetState == null) {
+                    continue;
+                }
 
-                boolean noLongerMatches = !matched.isPresent();
+                AssetState<?> matchedAssetState = this.matchedAssetStates.get(previousAssetState);
+                boolean noLongerMatches = matchedAssetState == null;
 
                 if (!noLongerMatches) {
-                    noLongerMatches = matched.map(matchedAssetState -> {
-                        // If reset immediate meta item is set then remove previous state if timestamp is greater
-                        boolean resetImmediately = matchedAssetState.getMeta().getValue(MetaItemType.RULE_RESET_IMMEDIATE).orElse(false);
-                        return resetImmediately && matchedAssetState.getTimestamp() > previousAssetState.getTimestamp();
-                    }).orElse(false);
+                    // If reset immediate meta item is set then remove previous state if timestamp is greater
+                    boolean resetImmediately = matchedAssetState.getMeta().getValue(MetaItemType.RULE_RESET_IMMEDIATE).orElse(false);
+                    noLongerMatches = resetImmediately && matchedAssetState.getTimestamp() > previousAssetState.getTimestamp();
                 }
 
                 if (noLongerMatches) {
                     log(Level.FINER, "Rule trigger previously matched asset state no longer matches so resetting: " + previousAssetState);
+                    previouslyMatchedAssetStates.remove(previousAssetState);
                 }
-
-                return noLongerMatches;
-            });
+            }
 
             // Remove matches that have an active recurrence timer
             matchedAssetStates.removeIf(matchedAssetState -> nextRecurAssetIdMap.containsKey(matchedAssetState.getId())
                 && nextRecurAssetIdMap.get(matchedAssetState.getId()) > timerService.getCurrentTimeMillis());
 
             // Filter out previous matches to avoid re-triggering
-            matchedAssetStates.removeIf(previouslyMatchedAssetStates::contains);
+            matchedAssetStates.removeIf(previouslyMatchedAssetStates::containsKey);
 
             // Select unique asset states based on asset id
             Stream<AssetState<?>> matchedAssetStateStream = matchedAssetStates.stream().filter(distinctByKey(AssetState::getId));
@@ -308,10 +311,11 @@ public class JsonRulesBuilder extends RulesBuilder {
             if (trackUnmatched) {
                 // Select unique asset states based on asset id
                 Stream<AssetState<?>> unmatchedAssetStateStream = unmatchedAssetStates.stream().filter(distinctByKey(AssetState::getId));
+                Set<String> matchedAssetIdSet = new HashSet<>(matchedAssetIds);
 
                 // Filter out unmatched asset ids that are in the matched list
                 unmatchedAssetIds = unmatchedAssetStateStream
-                        .filter(assetState -> !matchedAssetIds.contains(assetState.getId()))
+                        .filter(assetState -> !matchedAssetIdSet.contains(assetState.getId()))
                         .map(AssetState::getId)
                         .collect(Collectors.toList());
             }
@@ -320,6 +324,51 @@ public class JsonRulesBuilder extends RulesBuilder {
             log(Level.FINEST, "Rule evaluation result: " + lastEvaluationResult);
         }
 
+        void markChanged(AssetState<?> assetState) {
+            // Keep the latest asset state object
+            changedAssetStates.remove(assetState);
+            changedAssetStates.add(assetState);
+        }
+
+        /**
+         * Tests the changed asset states with the attribute predicates, or all asset states after a refresh or when
+         * the predicates depend on the current time.
+         *
+         * @return The asset states of which the previous match may no longer be valid.
+         */
+        Collection<AssetState<?>> evaluate() {
+
+            Collection<AssetState<?>> assetStates;
+
+            if (evaluateAll || timeDependent) {
+                matchedAssetStates.clear();
+                unmatchedAssetStates.clear();
+                assetStates = new ArrayList<>(previouslyMatchedAssetStates.keySet());
+                unfilteredAssetStates.forEach(this::test);
+            } else {
+                assetStates = new ArrayList<>(changedAssetStates);
+                changedAssetStates.forEach(assetState -> {
+                    matchedAssetStates.remove(assetState);
+                    unmatchedAssetStates.remove(assetState);
+                    if (unfilteredAssetStates.contains(assetState)) {
+                        test(assetState);
+                    }
+                });
+            }
+
+            evaluateAll = false;
+            changedAssetStates.clear();
+            return assetStates;
+        }
+
+        void test(AssetState<?> assetState) {
+            if (assetStatePredicate == null || assetStatePredicate.test(assetState)) {
+                matchedAssetStates.put(assetState, assetState);
+            } else {
+                unmatchedAssetStates.add(assetState);
+            }
+        }
+
         Collection<String> getMatchedAssetIds() {
 
             if (lastEvaluationResult == null) {
@@ -379,11 +428,19 @@ public class JsonRulesBuilder extends RulesBuilder {
         protected long nextRecur;
         protected boolean matched;
         protected Map<String, Long> nextRecurAssetIdMap = new HashMap<>();
+        protected Map<AssetQuery, AssetQueryPredicate> assetQueryPredicates = new ConcurrentHashMap<>();
 
         public RuleState(JsonRule rule) {
             this.rule = rule;
         }
 
+        /**
+         * Asset queries of the rule don't change so they are only compiled once.
+         */
+        public AssetQueryPredicate getAssetQueryPredicate(RulesFacts facts, AssetQuery assetQuery) {
+            return assetQueryPredicates.computeIfAbsent(assetQuery, facts::compileAssetQuery);
+        }
+
         public void update(Supplier<Long> currentMillisSupplier) {
 
             matched = false;
@@ -661,8 +718,10 @@ public class JsonRulesBuilder extends RulesBuilder {
                         // Replace any stale matched asset states (values may have changed equality is by asset ID and attribute name)
                         // only need up to date values in the previously matched asset states previously unmatched asset states is only
                         // used to compare asset ID and attribute name.
-                        ruleConditionState.previouslyMatchedAssetStates.removeAll(ruleConditionState.lastEvaluationResult.matchedAssetStates);
-                        ruleConditionState.previouslyMatchedAssetStates.addAll(ruleConditionState.lastEvaluationResult.matchedAssetStates);
+                        ruleConditionState.lastEvaluationResult.matchedAssetStates.forEach(assetState -> {
+                            ruleConditionState.previouslyMatchedAssetStates.remove(assetState);
+                            ruleConditionState.previouslyMatchedAssetStates.put(assetState, assetState);
+                        });
 
                         if (ruleConditionState.trackUnmatched) {
                             ruleConditionState.previouslyUnmatchedAssetStates.addAll(ruleConditionState.lastEvaluationResult.unmatchedAssetStates);
@@ -859,7 +918,7 @@ public class JsonRulesBuilder extends RulesBuilder {
                 matchingAssetIds = new ArrayList<>(getRuleActionTargetIds(ruleAction.target, useUnmatched, ruleState, assetsFacade, usersFacade, facts));
             } else {
                 matchingAssetIds = facts
-                    .matchAssetState(ruleAction.target.assets)
+                    .matchAssetState(ruleState.getAssetQueryPredicate(facts, ruleAction.target.assets))
                     .map(AssetState::getId)
                     .distinct()
                     .collect(Collectors.toList());
@@ -874,10 +933,8 @@ public class JsonRulesBuilder extends RulesBuilder {
             List<AssetState<?>> matchingAssetStates = matchingAssetIds
                 .stream()
                 .map(assetId ->
-                        facts.getAssetStates()
-                                .stream()
-                                .filter(state -> state.getId().equals(assetId) && state.getName().equals(attributeUpdateAction.attributeName))
-                                .findFirst().orElseGet(() -> {
+                        facts.getAssetState(new AttributeRef(assetId, attributeUpdateAction.attributeName))
+                                .orElseGet(() -> {
                                     log(Level.WARNING, "Failed to find attribute in rule states for attribute update: " + new AttributeRef(assetId, attributeUpdateAction.attributeName));
                                     return null;
                         }))
@@ -1034,7 +1091,7 @@ public class JsonRulesBuilder extends RulesBuilder {
                         useUnmatched ? triggerState.getUnmatchedAssetIds().stream() : triggerState.getMatchedAssetIds().stream())
                     .collect(Collectors.toList());
 
-                return facts.matchAssetState(target.matchedAssets)
+                return facts.matchAssetState(ruleState.getAssetQueryPredicate(facts, target.matchedAssets))
                     .map(AssetState::getId)
                     .distinct()
                     .filter(compareAssetIds::contains)
@@ -39,10 +39,14 @@ import org.openremote.model.syslog.SyslogCategory;
 import org.openremote.model.util.TextUtil;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.BiConsumer;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
@@ -114,6 +118,8 @@ public class RulesEngine<T extends Ruleset> {
     final protected AssetLocationPredicateProcessor assetLocationPredicatesConsumer;
 
     final protected Map<Long, RulesetDeployment> deployments = new LinkedHashMap<>();
+    // Copy of the deployments for status readers that must not wait for the engine lock
+    protected volatile List<RulesetDeployment> deploymentsSnapshot = Collections.emptyList();
     final protected RulesFacts facts;
     final protected InferenceRulesEngine engine;
 
@@ -121,12 +127,31 @@ public class RulesEngine<T extends Ruleset> {
     protected long lastFireTimestamp;
     protected boolean trackLocationPredicates;
     protected ScheduledFuture<?> fireTimer;
+    protected long fireTimerTimestamp;
+    protected long fireTimerGeneration;
+    protected long firstChangeTimestamp = -1;
+    protected long lastChangeTimestamp;
+    protected long fireDebounceMillis = -1;
+    protected long fireMaxLatencyMillis = -1;
+    protected long fireMinIntervalMillis;
+    protected ScheduledFuture<?> expirationTimer;
+    protected long expirationTimerGeneration;
+    protected boolean expirationPending;
     protected ScheduledFuture<?> statsTimer;
     protected Map<Long, ScheduledFuture<?>> pauseTimers = new HashMap<>();
     protected Map<Long, ScheduledFuture<?>> unpauseTimers = new HashMap<>();
 
+    // The execution context of this engine, the lock guards the facts and deployments and the mailbox holds the
+    // messages that are waiting for the engine to become idle
+    final protected ReentrantLock lock = new ReentrantLock();
+    final protected Queue<Runnable> mailbox = new ConcurrentLinkedQueue<>();
+    final protected AtomicBoolean draining = new AtomicBoolean();
+    // Location rules are passed on when the lock is released, as the consumer needs the global lock
+    protected volatile boolean locationRulesChanged;
+    protected List<AssetStateLocationPredicates> changedLocationRules;
+
     // Only used to optimize toString(), contains the details of this engine
-    protected String deploymentInfo;
+    protected volatile String deploymentInfo;
 
     // Only used in tests to prevent scheduled firing of engine
     protected boolean disableTemporaryFactExpiration = false;
@@ -171,14 +196,14 @@ public class RulesEngine<T extends Ruleset> {
      * @return a shallow copy of the asset state facts.
      */
     public Set<AssetState<?>> getAssetStates() {
-        return new HashSet<>(facts.getAssetStates());
+        return withEngineLockReturning(() -> new HashSet<>(facts.getAssetStates()));
     }
 
     /**
      * @return a shallow copy of the asset event facts.
      */
     public List<TemporaryFact<AssetState<?>>> getAssetEvents() {
-        return new ArrayList<>(facts.getAssetEvents());
+        return withEngineLockReturning(() -> new ArrayList<>(facts.getAssetEvents()));
     }
 
     public boolean isRunning() {
@@ -186,7 +211,7 @@ public class RulesEngine<T extends Ruleset> {
     }
 
     public boolean isError() {
-        for (RulesetDeployment deployment : deployments.values()) {
+        for (RulesetDeployment deployment : deploymentsSnapshot) {
             if (deployment.isError() || deployment.getError() instanceof RulesLoopException) {
                 return true;
             }
@@ -195,11 +220,11 @@ public class RulesEngine<T extends Ruleset> {
     }
 
     public int getExecutionErrorDeploymentCount() {
-        return (int) deployments.values().stream().filter(deployment -> deployment.getStatus() == EXECUTION_ERROR || deployment.getStatus() == LOOP_ERROR).count();
+        return (int) deploymentsSnapshot.stream().filter(deployment -> deployment.getStatus() == EXECUTION_ERROR || deployment.getStatus() == LOOP_ERROR).count();
     }
 
     public int getCompilationErrorDeploymentCount() {
-        return (int) deployments.values().stream().filter(deployment -> deployment.getStatus() == COMPILATION_ERROR).count();
+        return (int) deploymentsSnapshot.stream().filter(deployment -> deployment.getStatus() == COMPILATION_ERROR).count();
     }
 
     public RuntimeException getError() {
@@ -225,118 +250,125 @@ public class RulesEngine<T extends Ruleset> {
     }
 
     public void addRuleset(T ruleset) {
+        withEngineLock(() -> {
+            // Check for previous version of this ruleset
+            RulesetDeployment deployment = deployments.get(ruleset.getId());
+            boolean wasRunning = this.running;
 
-        // Check for previous version of this ruleset
-        RulesetDeployment deployment = deployments.get(ruleset.getId());
-        boolean wasRunning = this.running;
-
-        stop();
+            stop();
 
-        if (deployment != null) {
-            removeRuleset(deployment.ruleset);
-        }
+            if (deployment != null) {
+                removeRuleset(deployment.ruleset);
+            }
 
-        deployment = new RulesetDeployment(ruleset, timerService, assetStorageService, executorService, assetsFacade, usersFacade, notificationFacade, historicFacade, predictedFacade);
-        boolean compiled;
+            deployment = new RulesetDeployment(ruleset, timerService, assetStorageService, executorService, this::execute, assetsFacade, usersFacade, notificationFacade, historicFacade, predictedFacade);
+            boolean compiled;
 
-        if (TextUtil.isNullOrEmpty(ruleset.getRules())) {
-            LOG.finest("Ruleset is empty so no rules to deploy: " + ruleset.getName());
-            deployment.setStatus(EMPTY);
-            publishRulesetStatus(deployment);
-        } else if (!ruleset.isEnabled()) {
-            LOG.finest("Ruleset is disabled: " + ruleset.getName());
-            deployment.setStatus(DISABLED);
-            publishRulesetStatus(deployment);
-        } else {
-            deployment.updateValidity();
-            if (deployment.hasExpired()) {
-                LOG.fine("Ruleset validity period has expired: " + ruleset.getName());
-                deployment.setStatus(EXPIRED);
+            if (TextUtil.isNullOrEmpty(ruleset.getRules())) {
+                LOG.finest("Ruleset is empty so no rules to deploy: " + ruleset.getName());
+                deployment.setStatus(EMPTY);
+                publishRulesetStatus(deployment);
+            } else if (!ruleset.isEnabled()) {
+                LOG.finest("Ruleset is disabled: " + ruleset.getName());
+                deployment.setStatus(DISABLED);
                 publishRulesetStatus(deployment);
-                compiled = true;
             } else {
-                compiled = deployment.compile();
-            }
+                deployment.updateValidity();
+                if (deployment.hasExpired()) {
+                    LOG.fine("Ruleset validity period has expired: " + ruleset.getName());
+                    deployment.setStatus(EXPIRED);
+                    publishRulesetStatus(deployment);
+                    compiled = true;
+                } else {
+                    compiled = deployment.compile();
+                }
 
-            if (!compiled) {
-                LOG.log(Level.SEVERE, "Ruleset compilation error: " + ruleset.getName(), deployment.getError());
-                deployment.setStatus(COMPILATION_ERROR);
-                publishRulesetStatus(deployment);
-            } else if (running) {
-                startRuleset(deployment);
+                if (!compiled) {
+                    LOG.log(Level.SEVERE, "Ruleset compilation error: " + ruleset.getName(), deployment.getError());
+                    deployment.setStatus(COMPILATION_ERROR);
+                    publishRulesetStatus(deployment);
+                } else if (running) {
+                    startRuleset(deployment);
+                }
             }
-        }
 
-        deployments.put(ruleset.getId(), deployment);
-        updateDeploymentInfo();
+            deployments.put(ruleset.getId(), deployment);
+            updateDeploymentInfo();
+            updateFirePolicy();
 
-        if (wasRunning) {
-            start();
-        }
+            if (wasRunning) {
+                start();
+            }
+        });
     }
 
     /**
      * @return <code>true</code> if this rules engine has no deployments.
      */
     public boolean removeRuleset(Ruleset ruleset) {
-        RulesetDeployment deployment = deployments.get(ruleset.getId());
+        return withEngineLockReturning(() -> {
+            RulesetDeployment deployment = deployments.get(ruleset.getId());
 
-        if (deployment == null) {
-            LOG.finer("Ruleset cannot be retracted as it was never deployed: " + ruleset);
-            return deployments.size() == 0;
-        }
+            if (deployment == null) {
+                LOG.finer("Ruleset cannot be retracted as it was never deployed: " + ruleset);
+                return deployments.size() == 0;
+            }
 
-        stopRuleset(deployment);
+            stopRuleset(deployment);
 
-        deployment.setStatus(REMOVED);
-        publishRulesetStatus(deployment);
-        deployments.remove(ruleset.getId());
+            deployment.setStatus(REMOVED);
+            publishRulesetStatus(deployment);
+            deployments.remove(ruleset.getId());
 
-        ScheduledFuture<?> timer = pauseTimers.remove(ruleset.getId());
-        if (timer != null) timer.cancel(true);
-        timer = unpauseTimers.remove(ruleset.getId());
-        if (timer != null) timer.cancel(true);
+            ScheduledFuture<?> timer = pauseTimers.remove(ruleset.getId());
+            if (timer != null) timer.cancel(true);
+            timer = unpauseTimers.remove(ruleset.getId());
+            if (timer != null) timer.cancel(true);
 
-        updateDeploymentInfo();
-        start();
+            updateDeploymentInfo();
+            updateFirePolicy();
+            start();
 
-        return deployments.size() == 0;
+            return deployments.size() == 0;
+        });
     }
 
     public void start() {
-        if (running) {
-            return;
-        }
+        withEngineLock(() -> {
+            if (running) {
+                return;
+            }
 
-        if (deployments.size() == 0) {
-            LOG.finest("No rulesets so nothing to start");
-            return;
-        }
+            if (deployments.size() == 0) {
+                LOG.finest("No rulesets so nothing to start");
+                return;
+            }
 
-        if (!canStart()) {
-            LOG.fine("Cannot start rules engine one or more rulesets in an error state");
-            return;
-        }
+            if (!canStart()) {
+                LOG.fine("Cannot start rules engine one or more rulesets in an error state");
+                return;
+            }
 
-        LOG.info("Starting: " + this);
-        running = true;
-        trackLocationPredicates(true);
+            LOG.info("Starting: " + this);
+            running = true;
+            trackLocationPredicates(true);
 
-        deployments.values().forEach(this::startRuleset);
+            deployments.values().forEach(this::startRuleset);
 
-        updateDeploymentInfo();
-        publishRulesEngineStatus();
-        scheduleFire();
+            updateDeploymentInfo();
+            publishRulesEngineStatus();
+            scheduleFire();
 
-        // Start a background stats printer if INFO level logging is enabled
-        if (STATS_LOG.isLoggable(Level.INFO) || STATS_LOG.isLoggable(Level.FINEST)) {
-            if (STATS_LOG.isLoggable(Level.FINEST)) {
-                LOG.info("On " + this + ", enabling periodic statistics output at INFO level every 30 seconds on category: " + STATS_LOG.getName());
-            } else {
-                LOG.info("On " + this + ", enabling periodic full memory dump at FINEST level every 30 seconds on category: " + STATS_LOG.getName());
+            // Start a background stats printer if INFO level logging is enabled
+            if (STATS_LOG.isLoggable(Level.INFO) || STATS_LOG.isLoggable(Level.FINEST)) {
+                if (STATS_LOG.isLoggable(Level.FINEST)) {
+                    LOG.info("On " + this + ", enabling periodic statistics output at INFO level every 30 seconds on category: " + STATS_LOG.getName());
+                } else {
+                    LOG.info("On " + this + ", enabling periodic full memory dump at FINEST level every 30 seconds on category: " + STATS_LOG.getName());
+                }
+                statsTimer = executorService.scheduleAtFixedRate(this::printSessionStats, 3, 30, TimeUnit.SECONDS);
             }
-            statsTimer = executorService.scheduleAtFixedRate(this::printSessionStats, 3, 30, TimeUnit.SECONDS);
-        }
+        });
     }
 
     protected void trackLocationPredicates(boolean track) {
@@ -359,32 +391,38 @@ public class RulesEngine<T extends Ruleset> {
     }
 
     public void stop(boolean systemShutdownInProgress) {
-        if (!running) {
-            return;
-        }
-        LOG.info("Stopping: " + this);
-        if (fireTimer != null) {
-            fireTimer.cancel(true);
-            fireTimer = null;
-        }
-        if (statsTimer != null) {
-            statsTimer.cancel(true);
-            statsTimer = null;
-        }
-        pauseTimers.values().forEach(pauseTimer -> pauseTimer.cancel(true));
-        pauseTimers.clear();
-        unpauseTimers.values().forEach(unpauseTimer -> unpauseTimer.cancel(true));
-        unpauseTimers.clear();
+        withEngineLock(() -> {
+            if (!running) {
+                return;
+            }
+            LOG.info("Stopping: " + this);
+            if (fireTimer != null) {
+                fireTimer.cancel(true);
+                fireTimer = null;
+            }
+            fireTimerGeneration++;
+            firstChangeTimestamp = -1;
+            expirationPending = false;
+            armExpirationTimer(Long.MAX_VALUE);
+            if (statsTimer != null) {
+                statsTimer.cancel(true);
+                statsTimer = null;
+            }
+            pauseTimers.values().forEach(pauseTimer -> pauseTimer.cancel(true));
+            pauseTimers.clear();
+            unpauseTimers.values().forEach(unpauseTimer -> unpauseTimer.cancel(true));
+            unpauseTimers.clear();
 
-        deployments.values().forEach(this::stopRuleset);
-        running = false;
+            deployments.values().forEach(this::stopRuleset);
+            running = false;
 
-        if (!systemShutdownInProgress && assetLocationPredicatesConsumer != null) {
-            assetLocationPredicatesConsumer.accept(this, null);
-        }
+            if (!systemShutdownInProgress && assetLocationPredicatesConsumer != null) {
+                processLocationRules(null);
+            }
 
-        updateDeploymentInfo();
-        publishRulesEngineStatus();
+            updateDeploymentInfo();
+            publishRulesEngineStatus();
+        });
     }
 
     protected void startRuleset(RulesetDeployment deployment) {
@@ -430,43 +468,257 @@ public class RulesEngine<T extends Ruleset> {
         }
     }
 
+    /**
+     * Schedules a firing after facts have changed. The firing waits until facts have not changed for the debounce
+     * period, but never longer than the maximum latency after the first unprocessed change. Firings are at least the
+     * minimum interval apart. See {@link #updateFirePolicy} for how the policy of the rulesets is combined.
+     */
     public void scheduleFire() {
-        withLock(toString() + "::scheduleFire", () -> {
-            // Schedule a firing within the guaranteed expiration time (so not immediately), and
-            // only if the last firing is done. This effectively limits how often the rules engine
-            // will fire, only once within the guaranteed minimum expiration time.
-            if (fireTimer == null || fireTimer.isDone()) {
-                LOG.fine("Scheduling rules firing on: " + this);
-                fireTimer = executorService.schedule(
-                    () -> withLock(RulesEngine.this.toString() + "::fire", () -> {
-
-                        fireTimer = null;
-
-                        // Are temporary facts present before rules are fired?
-                        boolean hadTemporaryFactsBefore = facts.hasTemporaryFacts();
-
-                        // Process rules for all deployments
-                        fireAllDeployments();
-
-                        // If there are temporary facts, or if there were some before and
-                        // now they are gone, schedule a new firing to guarantee processing
-                        // of expired and removed temporary facts
-                        if ((facts.hasTemporaryFacts() || (hadTemporaryFactsBefore && !facts.hasTemporaryFacts()))
-                            && !disableTemporaryFactExpiration) {
-                            LOG.fine("Temporary facts require firing rules on: " + this);
-                            executorService.submit(this::scheduleFire);
-                        } else if (!disableTemporaryFactExpiration) {
-                            LOG.fine("No temporary facts present/changed when firing rules on: " + this);
-                        }
-
-                    }),
-                    TemporaryFact.GUARANTEED_MIN_EXPIRATION_MILLIS,
-                    TimeUnit.MILLISECONDS
-                );
+        withEngineLock(() -> {
+            long now = getFireClockMillis();
+            lastChangeTimestamp = now;
+            if (firstChangeTimestamp < 0) {
+                firstChangeTimestamp = now;
+            }
+            armFireTimer();
+        });
+    }
+
+    /**
+     * The engine fires as soon as any of its rulesets needs it to, so the smallest debounce and maximum latency of the
+     * rulesets that set them apply, and the firing rate is limited by the largest minimum interval. If no ruleset sets
+     * a debounce or maximum latency, {@link TemporaryFact#GUARANTEED_MIN_EXPIRATION_MILLIS} is used, the engine then
+     * fires that long after the first change.
+     */
+    protected void updateFirePolicy() {
+        fireDebounceMillis = -1;
+        fireMaxLatencyMillis = -1;
+        fireMinIntervalMillis = 0;
+        for (RulesetDeployment deployment : deployments.values()) {
+            fireDebounceMillis = minPolicyValue(fireDebounceMillis, deployment.ruleset.getFireDebounceMillis());
+            fireMaxLatencyMillis = minPolicyValue(fireMaxLatencyMillis, deployment.ruleset.getFireMaxLatencyMillis());
+            Integer minInterval = deployment.ruleset.getFireMinIntervalMillis();
+            if (minInterval != null) {
+                fireMinIntervalMillis = Math.max(fireMinIntervalMillis, minInterval);
+            }
+        }
+    }
+
+    protected static long minPolicyValue(long current, Integer value) {
+        if (value == null) {
+            return current;
+        }
+        long millis = Math.max(0, value);
+        return current < 0 ? millis : Math.min(current, millis);
+    }
+
+    /**
+     * Firings are scheduled with the executor, so they are timed with the system clock and not the (possibly pseudo)
+     * clock of the timer service.
+     */
+    protected long getFireClockMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * @return When the next firing is due, or {@link Long#MAX_VALUE} if no firing is pending.
+     */
+    protected long getFireTimestamp(long now) {
+        long fireTimestamp = Long.MAX_VALUE;
+        if (firstChangeTimestamp >= 0) {
+            long debounce = fireDebounceMillis >= 0 ? fireDebounceMillis : TemporaryFact.GUARANTEED_MIN_EXPIRATION_MILLIS;
+            long maxLatency = fireMaxLatencyMillis >= 0 ? fireMaxLatencyMillis : TemporaryFact.GUARANTEED_MIN_EXPIRATION_MILLIS;
+            fireTimestamp = Math.min(lastChangeTimestamp + debounce, firstChangeTimestamp + maxLatency);
+        }
+        if (expirationPending) {
+            fireTimestamp = now;
+        }
+        if (fireTimestamp == Long.MAX_VALUE) {
+            return fireTimestamp;
+        }
+        return Math.max(fireTimestamp, lastFireTimestamp + fireMinIntervalMillis);
+    }
+
+    /**
+     * Schedules the fire timer when the next firing is due. A timer that is already scheduled earlier is kept, it
+     * checks again when it expires, so changes of facts don't reschedule the timer while they are debounced.
+     */
+    protected void armFireTimer() {
+        if (!running) {
+            return;
+        }
+        long now = getFireClockMillis();
+        long fireTimestamp = getFireTimestamp(now);
+        if (fireTimestamp == Long.MAX_VALUE || (fireTimer != null && fireTimerTimestamp <= fireTimestamp)) {
+            return;
+        }
+        if (fireTimer != null) {
+            fireTimer.cancel(false);
+        }
+        // A timer that already expired might still be waiting in the mailbox, it is ignored when executed
+        long generation = ++fireTimerGeneration;
+        LOG.fine("Scheduling rules firing on: " + this);
+        fireTimerTimestamp = fireTimestamp;
+        fireTimer = executorService.schedule(
+            () -> execute(() -> onFireTimer(generation)),
+            Math.max(0, fireTimestamp - now),
+            TimeUnit.MILLISECONDS
+        );
+    }
+
+    protected void onFireTimer(long generation) {
+        if (generation != fireTimerGeneration) {
+            return;
+        }
+        fireTimer = null;
+
+        long now = getFireClockMillis();
+        if (getFireTimestamp(now) > now) {
+            // Facts changed again within the debounce period
+            armFireTimer();
+            return;
+        }
+
+        firstChangeTimestamp = -1;
+        expirationPending = false;
+        lastFireTimestamp = now;
+
+        // Are temporary facts present before rules are fired?
+        boolean hadTemporaryFactsBefore = facts.hasTemporaryFacts();
+
+        // Process rules for all deployments
+        fireAllDeployments();
+
+        if (disableTemporaryFactExpiration) {
+            return;
+        }
+
+        long nextExpirationTimestamp = facts.getNextExpirationTimestamp();
+        if (hadTemporaryFactsBefore && nextExpirationTimestamp == Long.MAX_VALUE) {
+            // Temporary facts have been removed, fire again so rules can react
+            LOG.fine("Temporary facts removed when firing rules on: " + this);
+            scheduleFire();
+        }
+        armExpirationTimer(nextExpirationTimestamp);
+    }
+
+    /**
+     * Wakes up the engine when the next temporary fact expires, instead of firing periodically while there are
+     * temporary facts.
+     */
+    protected void armExpirationTimer(long nextExpirationTimestamp) {
+        if (expirationTimer != null) {
+            expirationTimer.cancel(false);
+            expirationTimer = null;
+        }
+        long generation = ++expirationTimerGeneration;
+        if (!running || nextExpirationTimestamp == Long.MAX_VALUE) {
+            return;
+        }
+
+        // Expired after the expiration timestamp, see TemporaryFact.isExpired()
+        long delay = Math.max(0, nextExpirationTimestamp + 1 - timerService.getCurrentTimeMillis());
+        if (timerService.getClock() != TimerService.Clock.REAL) {
+            // A pseudo clock can be advanced without the timer noticing
+            delay = Math.min(delay, TemporaryFact.GUARANTEED_MIN_EXPIRATION_MILLIS);
+        }
+        LOG.fine("Next temporary fact expires in " + delay + "ms on: " + this);
+        expirationTimer = executorService.schedule(
+            () -> execute(() -> {
+                if (generation != expirationTimerGeneration) {
+                    return;
+                }
+                expirationTimer = null;
+                long expirationTimestamp = facts.getNextExpirationTimestamp();
+                if (expirationTimestamp < timerService.getCurrentTimeMillis()) {
+                    expirationPending = true;
+                    armFireTimer();
+                } else {
+                    armExpirationTimer(expirationTimestamp);
+                }
+            }),
+            delay,
+            TimeUnit.MILLISECONDS
+        );
+    }
+
+    /**
+     * Executes the message in the execution context of this engine, so it never runs concurrently with a firing or
+     * another message of this engine. If the engine is idle the message is executed immediately by the calling thread,
+     * otherwise it is queued and executed in order after the earlier messages without blocking the caller. Engines
+     * execute their messages independently of each other.
+     */
+    public void execute(Runnable message) {
+        if (mailbox.isEmpty() && lock.tryLock()) {
+            boolean executed = false;
+            try {
+                // Queued messages go first
+                if (mailbox.isEmpty()) {
+                    message.run();
+                    executed = true;
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (executed) {
+                passOnLocationRules();
+                return;
             }
+        }
+        mailbox.add(message);
+        scheduleDrain();
+    }
+
+    protected void scheduleDrain() {
+        if (draining.compareAndSet(false, true)) {
+            executorService.execute(this::drain);
+        }
+    }
+
+    protected void drain() {
+        do {
+            boolean drained = false;
+            lock.lock();
+            try {
+                Runnable message;
+                while ((message = mailbox.poll()) != null) {
+                    try {
+                        message.run();
+                    } catch (Exception ex) {
+                        LOG.log(Level.SEVERE, "On " + this + ", error executing message", ex);
+                    }
+                }
+                drained = true;
+            } finally {
+                // Also cleared when an error escapes a message, otherwise the mailbox would never be drained again
+                draining.set(false);
+                lock.unlock();
+                if (!drained && !mailbox.isEmpty()) {
+                    scheduleDrain();
+                }
+            }
+            passOnLocationRules();
+            // Continue if a message was queued after the mailbox was found empty but before draining was cleared
+        } while (!mailbox.isEmpty() && draining.compareAndSet(false, true));
+    }
+
+    protected void withEngineLock(Runnable runnable) {
+        withEngineLockReturning(() -> {
+            runnable.run();
+            return null;
         });
     }
 
+    protected <R> R withEngineLockReturning(Supplier<R> supplier) {
+        lock.lock();
+        try {
+            return supplier.get();
+        } finally {
+            lock.unlock();
+            passOnLocationRules();
+        }
+    }
+
     private void fireDeployments(Collection<RulesetDeployment> deploymentList) {
         if (!running) {
             return;
@@ -500,7 +752,6 @@ public class RulesEngine<T extends Ruleset> {
                     facts.reset();
 
                     long startTimestamp = System.currentTimeMillis();
-                    lastFireTimestamp = startTimestamp;
                     engine.fire(deployment.getRules(), facts);
                     RULES_FIRED_LOG.fine("Rules deployment '" + deployment.getName() + "' executed in: " + (System.currentTimeMillis() - startTimestamp) + "ms");
                 }
@@ -531,7 +782,9 @@ public class RulesEngine<T extends Ruleset> {
     }
 
     protected void fireAllDeploymentsWithPredictedData() {
-        fireDeployments(deployments.values().stream().filter(RulesetDeployment::isTriggerOnPredictedData).collect(Collectors.toList()));
+        execute(() ->
+            fireDeployments(deployments.values().stream().filter(RulesetDeployment::isTriggerOnPredictedData).collect(Collectors.toList()))
+        );
     }
 
     protected void notifyAssetStatesChanged(AssetStateChangeEvent event) {
@@ -543,33 +796,40 @@ public class RulesEngine<T extends Ruleset> {
     }
 
     public void updateOrInsertAssetState(AssetState<?> assetState, boolean insert) {
-        facts.putAssetState(assetState);
-        // Make sure location predicate tracking is activated before notifying the deployments otherwise they won't report location predicates
-        trackLocationPredicates(trackLocationPredicates || (insert && assetState.getName().equals(Asset.LOCATION.getName())));
-        notifyAssetStatesChanged(new AssetStateChangeEvent(insert ? PersistenceEvent.Cause.CREATE : PersistenceEvent.Cause.UPDATE, assetState));
-        if (running) {
-            scheduleFire();
-        }
+        execute(() -> {
+            facts.putAssetState(assetState);
+            // Make sure location predicate tracking is activated before notifying the deployments otherwise they won't report location predicates
+            trackLocationPredicates(trackLocationPredicates || (insert && assetState.getName().equals(Asset.LOCATION.getName())));
+            notifyAssetStatesChanged(new AssetStateChangeEvent(insert ? PersistenceEvent.Cause.CREATE : PersistenceEvent.Cause.UPDATE, assetState));
+            if (running) {
+                scheduleFire();
+            }
+        });
     }
 
     public void removeAssetState(AssetState<?> assetState) {
-        facts.removeAssetState(assetState);
-        // Make sure location predicate tracking is activated before notifying the deployments otherwise they won't report location predicates
-        trackLocationPredicates(trackLocationPredicates || assetState.getName().equals(Asset.LOCATION.getName()));
-        notifyAssetStatesChanged(new AssetStateChangeEvent(PersistenceEvent.Cause.DELETE, assetState));
-        if (running) {
-            scheduleFire();
-        }
+        execute(() -> {
+            facts.removeAssetState(assetState);
+            // Make sure location predicate tracking is activated before notifying the deployments otherwise they won't report location predicates
+            trackLocationPredicates(trackLocationPredicates || assetState.getName().equals(Asset.LOCATION.getName()));
+            notifyAssetStatesChanged(new AssetStateChangeEvent(PersistenceEvent.Cause.DELETE, assetState));
+            if (running) {
+                scheduleFire();
+            }
+        });
     }
 
     public void insertAssetEvent(String expires, AssetState<?> assetState) {
-        facts.insertAssetEvent(expires, assetState);
-        if (running) {
-            scheduleFire();
-        }
+        execute(() -> {
+            facts.insertAssetEvent(expires, assetState);
+            if (running) {
+                scheduleFire();
+            }
+        });
     }
 
     protected void updateDeploymentInfo() {
+        deploymentsSnapshot = new ArrayList<>(deployments.values());
         deploymentInfo = Arrays.toString(
             deployments.values().stream()
                 .map(RulesetDeployment::toString)
@@ -578,7 +838,7 @@ public class RulesEngine<T extends Ruleset> {
     }
 
     protected void printSessionStats() {
-        withLock(toString() + "::printSessionStats", () -> {
+        withEngineLock(() -> {
             Collection<AssetState<?>> assetStateFacts = facts.getAssetStates();
             Collection<TemporaryFact<AssetState<?>>> assetEventFacts = facts.getAssetEvents();
             Map<String, Object> namedFacts = facts.getNamedFacts();
@@ -604,62 +864,84 @@ public class RulesEngine<T extends Ruleset> {
      */
     protected void processLocationRules(List<AssetStateLocationPredicates> assetStateLocationPredicates) {
         if (assetLocationPredicatesConsumer != null) {
-            assetLocationPredicatesConsumer.accept(this, assetStateLocationPredicates);
+            // Each call has all location rules of this engine so only the last one has to be passed on
+            synchronized (mailbox) {
+                changedLocationRules = assetStateLocationPredicates;
+                locationRulesChanged = true;
+            }
         }
     }
 
+    /**
+     * Passes changed location rules on to the consumer once this thread no longer holds the engine lock, the consumer
+     * needs the global lock and that must never be acquired while holding the engine lock. The location rules are
+     * taken while holding the global lock so the consumer receives them in order.
+     */
+    protected void passOnLocationRules() {
+        if (!locationRulesChanged || lock.isHeldByCurrentThread()) {
+            return;
+        }
+
+        withLock(toString() + "::passOnLocationRules", () -> {
+            List<AssetStateLocationPredicates> assetStateLocationPredicates;
+            synchronized (mailbox) {
+                if (!locationRulesChanged) {
+                    return;
+                }
+                assetStateLocationPredicates = changedLocationRules;
+                changedLocationRules = null;
+                locationRulesChanged = false;
+            }
+            assetLocationPredicatesConsumer.accept(this, assetStateLocationPredicates);
+        });
+    }
+
     protected RulesEngineStatus getStatus() {
         if (isRunning()) {
             return RulesEngineStatus.RUNNING;
         }
 
-        return deployments.values().stream().anyMatch(RulesetDeployment::isError) ? RulesEngineStatus.ERROR : RulesEngineStatus.STOPPED;
+        return deploymentsSnapshot.stream().anyMatch(RulesetDeployment::isError) ? RulesEngineStatus.ERROR : RulesEngineStatus.STOPPED;
     }
 
     protected void publishRulesEngineStatus() {
-        withLock(getClass().getSimpleName() + "::publishRulesEngineStatus", () -> {
-
-            String engineId = id == null ? null : id.getRealm().orElse(id.getAssetId().orElse(null));
-            int compilationErrors = getCompilationErrorDeploymentCount();
-            int executionErrors = getExecutionErrorDeploymentCount();
-            RulesEngineInfo engineInfo = new RulesEngineInfo(
-                getStatus(),
-                compilationErrors,
-                executionErrors);
-
-            RulesEngineStatusEvent event = new RulesEngineStatusEvent(
-                timerService.getCurrentTimeMillis(),
-                engineId,
-                engineInfo
-            );
+        String engineId = id == null ? null : id.getRealm().orElse(id.getAssetId().orElse(null));
+        int compilationErrors = getCompilationErrorDeploymentCount();
+        int executionErrors = getExecutionErrorDeploymentCount();
+        RulesEngineInfo engineInfo = new RulesEngineInfo(
+            getStatus(),
+            compilationErrors,
+            executionErrors);
+
+        RulesEngineStatusEvent event = new RulesEngineStatusEvent(
+            timerService.getCurrentTimeMillis(),
+            engineId,
+            engineInfo
+        );
 
-            LOG.finer("Publishing rules engine status event: " + event);
+        LOG.finer("Publishing rules engine status event: " + event);
 
-            // Notify clients
-            clientEventService.publishEvent(event);
-        });
+        // Notify clients
+        clientEventService.publishEvent(event);
     }
 
     protected void publishRulesetStatus(RulesetDeployment deployment) {
-        withLock(getClass().getSimpleName() + "::publishRulesetStatus", () -> {
-
-            Ruleset ruleset = deployment.ruleset;
-            String engineId = id == null ? null : id.getRealm().orElse(id.getAssetId().orElse(null));
+        Ruleset ruleset = deployment.ruleset;
+        String engineId = id == null ? null : id.getRealm().orElse(id.getAssetId().orElse(null));
 
-            ruleset.setStatus(deployment.getStatus());
-            ruleset.setError(deployment.getErrorMessage());
+        ruleset.setStatus(deployment.getStatus());
+        ruleset.setError(deployment.getErrorMessage());
 
-            RulesetChangedEvent event = new RulesetChangedEvent(
-                timerService.getCurrentTimeMillis(),
-                engineId,
-                ruleset
-            );
+        RulesetChangedEvent event = new RulesetChangedEvent(
+            timerService.getCurrentTimeMillis(),
+            engineId,
+            ruleset
+        );
 
-            LOG.finer("Publishing ruleset status event: " + event);
+        LOG.finer("Publishing ruleset status event: " + event);
 
-            // Notify clients
-            clientEventService.publishEvent(event);
-        });
+        // Notify clients
+        clientEventService.publishEvent(event);
     }
 
     protected void schedulePause(RulesetDeployment deployment) {
@@ -675,7 +957,7 @@ public class RulesEngine<T extends Ruleset> {
             return;
         }
 
-        withLock(getClass().getSimpleName() + ":pauseRuleset", () -> {
+        withEngineLock(() -> {
             LOG.info("Pausing ruleset: " + deployment.getRuleset().getName());
             stopRuleset(deployment);
             deployment.updateValidity();
@@ -705,7 +987,7 @@ public class RulesEngine<T extends Ruleset> {
             return;
         }
 
-        withLock(getClass().getSimpleName() + "::unpauseRuleset", () -> {
+        withEngineLock(() -> {
             LOG.info("Un-pausing ruleset: " + deployment.getRuleset().getName());
             startRuleset(deployment);
         });
@@ -28,6 +28,7 @@ import org.openremote.manager.asset.AssetStorageService;
 import org.openremote.model.asset.Asset;
 import org.openremote.model.asset.AssetEvent;
 import org.openremote.model.attribute.AttributeEvent;
+import org.openremote.model.attribute.AttributeRef;
 import org.openremote.model.query.AssetQuery;
 import org.openremote.model.query.filter.GeofencePredicate;
 import org.openremote.model.rules.AssetState;
@@ -66,8 +67,7 @@ public class RulesFacts extends Facts implements RuleListener {
     final protected Assets assetsFacade;
     final protected Object loggingContext;
     final protected Logger LOG;
-    final protected Map<String, Collection<AssetState<?>>> assetIdIndex = new HashMap<>();
-    final protected Map<String, Collection<AssetState<?>>> assetTypeIndex = new HashMap<>();
+    final protected AssetStateStore assetStateStore = new AssetStateStore();
     public RulesClock clock;
     protected int triggerCount;
     protected boolean trackLocationRules;
@@ -80,7 +80,7 @@ public class RulesFacts extends Facts implements RuleListener {
         this.loggingContext = loggingContext;
         this.LOG = logger;
 
-        super.put(ASSET_STATES, new ArrayDeque<AssetState<?>>(INITIAL_CAPACITY));
+        super.put(ASSET_STATES, assetStateStore.getAssetStates());
         super.put(ASSET_EVENTS, new ArrayDeque<AssetEvent>(INITIAL_CAPACITY));
         super.put(EXECUTION_VARS, new HashMap<>());
         super.put(ANONYMOUS_FACTS, new ArrayDeque<>(INITIAL_CAPACITY));
@@ -112,9 +112,16 @@ public class RulesFacts extends Facts implements RuleListener {
         super.put(CLOCK, clock);
     }
 
-    @SuppressWarnings("unchecked")
+    /**
+     * @return An unmodifiable view of the asset states, use {@link #putAssetState} and {@link #removeAssetState} to
+     * change them.
+     */
     public Collection<AssetState<?>> getAssetStates() {
-        return get(ASSET_STATES);
+        return assetStateStore.getAssetStates();
+    }
+
+    public Optional<AssetState<?>> getAssetState(AttributeRef attributeRef) {
+        return Optional.ofNullable(assetStateStore.get(attributeRef));
     }
 
     @SuppressWarnings("unchecked")
@@ -210,19 +217,7 @@ public class RulesFacts extends Facts implements RuleListener {
         if (LOG.isLoggable(Level.FINEST)) {
             LOG.finest("Fact change (UPDATE): " + assetState + " - on: " + loggingContext);
         }
-        getAssetStates().remove(assetState);
-        getAssetStates().add(assetState);
-
-        // Maintain index of all asset states for this asset by ID
-        assetIdIndex.putIfAbsent(assetState.getId(), new ArrayDeque<>());
-        assetIdIndex.get(assetState.getId()).remove(assetState);
-        assetIdIndex.get(assetState.getId()).add(assetState);
-
-        // Maintain index of all asset states for this asset by type
-        assetTypeIndex.putIfAbsent(assetState.getAssetType(), new ArrayDeque<>());
-        assetTypeIndex.get(assetState.getAssetType()).remove(assetState);
-        assetTypeIndex.get(assetState.getAssetType()).add(assetState);
-
+        assetStateStore.put(assetState);
         return this;
     }
 
@@ -230,20 +225,7 @@ public class RulesFacts extends Facts implements RuleListener {
         if (LOG.isLoggable(Level.FINEST)) {
             LOG.finest("Fact change (DELETE): " + assetState + " - on: " + loggingContext);
         }
-        getAssetStates().remove(assetState);
-
-        // Maintain index of all asset states for this asset by ID
-        Collection<AssetState<?>> assetIdIndexCollection = assetIdIndex.get(assetState.getId());
-        if (assetIdIndexCollection != null) {
-            assetIdIndexCollection.remove(assetState);
-        }
-
-        // Maintain index of all asset states for this asset by type
-        Collection<AssetState<?>> assetTypeIndexCollection = assetTypeIndex.get(assetState.getAssetType());
-        if (assetTypeIndexCollection != null) {
-            assetTypeIndexCollection.remove(assetState);
-        }
-
+        assetStateStore.remove(new AttributeRef(assetState.getId(), assetState.getName()));
         return this;
     }
 
@@ -304,6 +286,19 @@ public class RulesFacts extends Facts implements RuleListener {
         ).parallel();
     }
 
+    /**
+     * @return The timestamp after which the first of the temporary facts has expired, or {@link Long#MAX_VALUE} if
+     * there are no temporary facts.
+     */
+    public long getNextExpirationTimestamp() {
+        return getTemporaryFacts()
+            .mapToLong(fact -> fact.getExpirationMilliseconds() < Long.MAX_VALUE - fact.getTimestamp()
+                ? fact.getTimestamp() + fact.getExpirationMilliseconds()
+                : Long.MAX_VALUE)
+            .min()
+            .orElse(Long.MAX_VALUE);
+    }
+
     @Override
     public void remove(String name) {
         super.remove(name);
@@ -426,14 +421,26 @@ public class RulesFacts extends Facts implements RuleListener {
         return matchAssetState(assetQuery).findFirst();
     }
 
+    /**
+     * Compiles the query into a predicate that can be reused to match asset states and events, rules that match the
+     * same query repeatedly should compile it once. The query must not be modified afterwards.
+     */
+    public AssetQueryPredicate compileAssetQuery(AssetQuery assetQuery) {
+        return new AssetQueryPredicate(timerService, assetStorageService, assetQuery);
+    }
+
     public Stream<AssetState<?>> matchAssetState(AssetQuery assetQuery) {
+        return matchAssetState(compileAssetQuery(assetQuery));
+    }
+
+    public Stream<AssetState<?>> matchAssetState(AssetQueryPredicate assetQueryPredicate) {
+        AssetQuery assetQuery = assetQueryPredicate.getQuery();
 
         if (trackLocationRules && assetQuery.attributes != null) {
             storeLocationPredicates(getLocationPredicates(assetQuery.attributes));
         }
 
-        Predicate<AssetState<?>> p = new AssetQueryPredicate(timerService, assetStorageService, assetQuery);
-        return matchAssetState(p);
+        return assetStateStore.match(assetQueryPredicate);
     }
 
     public Stream<AssetState<?>> matchAssetState(Predicate<AssetState<?>> p) {
@@ -450,9 +457,12 @@ public class RulesFacts extends Facts implements RuleListener {
         return matchAssetEvent(assetQuery).reduce((first, second) -> second);
     }
 
-    @SuppressWarnings("unchecked")
     public Stream<TemporaryFact<AssetState<?>>> matchAssetEvent(AssetQuery assetQuery) {
-        Predicate<AssetState<?>> p = new AssetQueryPredicate(timerService, assetStorageService, assetQuery);
+        return matchAssetEvent(compileAssetQuery(assetQuery));
+    }
+
+    @SuppressWarnings("unchecked")
+    public Stream<TemporaryFact<AssetState<?>>> matchAssetEvent(AssetQueryPredicate p) {
         return getAssetEvents().stream().parallel()
                 .filter(fact -> this.matchFact(fact, (Class<AssetState<?>>)(Class)AssetState.class, p).isPresent());
     }
@@ -599,26 +609,10 @@ public class RulesFacts extends Facts implements RuleListener {
 
     protected RulesFacts invalidateAssetStateAndDispatch(String assetId, String attributeName, Object value) {
         // Remove the asset state from the facts, it is invalid now
-        getAssetStates()
-                .removeIf(assetState -> {
-                    boolean invalid = assetState.getId().equals(assetId) && assetState.getName().equals(attributeName);
-                    if (invalid) {
-                        if (LOG.isLoggable(Level.FINEST)) {
-                            LOG.finest("Fact change (INTERNAL DELETE): " + assetState + " - on: " + loggingContext);
-                        }
-                        // Maintain index of all asset states for this asset by ID
-                        Collection<AssetState<?>> assetIdIndexCollection = assetIdIndex.get(assetState.getId());
-                        if (assetIdIndexCollection != null) {
-                            assetIdIndexCollection.remove(assetState);
-                        }
-                        // Maintain index of all asset states for this asset by type
-                        Collection<AssetState<?>> assetTypeIndexCollection = assetTypeIndex.get(assetState.getAssetType());
-                        if (assetTypeIndexCollection != null) {
-                            assetTypeIndexCollection.remove(assetState);
-                        }
-                    }
-                    return invalid;
-                });
+        AssetState<?> invalidAssetState = assetStateStore.remove(new AttributeRef(assetId, attributeName));
+        if (invalidAssetState != null && LOG.isLoggable(Level.FINEST)) {
+            LOG.finest("Fact change (INTERNAL DELETE): " + invalidAssetState + " - on: " + loggingContext);
+        }
 
         // Dispatch the update to the asset processing service
         AttributeEvent attributeEvent = new AttributeEvent(assetId, attributeName, value);
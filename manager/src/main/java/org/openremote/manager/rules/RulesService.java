@@ -52,12 +52,13 @@ import org.openremote.model.rules.geofence.GeofenceDefinition;
 import org.openremote.model.security.ClientRole;
 import org.openremote.model.security.Tenant;
 import org.openremote.model.util.Pair;
-import org.openremote.model.util.ValueUtil;
 import org.openremote.model.value.MetaItemType;
 
 import javax.persistence.EntityManager;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
@@ -66,6 +67,7 @@ import java.util.stream.Stream;
 import static java.util.logging.Level.FINEST;
 import static java.util.logging.Level.SEVERE;
 import static java.util.stream.Collectors.toList;
+import static org.openremote.container.concurrent.GlobalBarrier.withWriteBarrier;
 import static org.openremote.container.concurrent.GlobalLock.withLock;
 import static org.openremote.container.concurrent.GlobalLock.withLockReturning;
 import static org.openremote.container.persistence.PersistenceEvent.PERSISTENCE_TOPIC;
@@ -126,10 +128,11 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
     // The objects are already in memory inside the rule engines but keeping them
     // here means we can quickly insert facts into newly started engines
     protected Set<AssetState<?>> assetStates = new HashSet<>();
-    protected Set<AssetState<?>> preInitassetStates = new HashSet<>();
+    // Asset queue lanes may add concurrently before start is done
+    protected Set<AssetState<?>> preInitassetStates = ConcurrentHashMap.newKeySet();
     protected String configEventExpires;
     protected boolean initDone;
-    protected boolean startDone;
+    protected volatile boolean startDone;
 
     @Override
     public int getPriority() {
@@ -210,7 +213,8 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
             .filter(this.isNotForGW())
             .process(exchange -> {
                 PersistenceEvent<?> persistenceEvent = exchange.getIn().getBody(PersistenceEvent.class);
-                processRulesetChange((Ruleset) persistenceEvent.getEntity(), persistenceEvent.getCause());
+                withWriteBarrier(getClass().getSimpleName() + "::processRulesetChange", () ->
+                    processRulesetChange((Ruleset) persistenceEvent.getEntity(), persistenceEvent.getCause()));
             });
 
         // If any tenant was modified in the database then check its' status and undeploy, deploy or update any
@@ -222,7 +226,8 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
             .process(exchange -> {
                 PersistenceEvent<?> persistenceEvent = exchange.getIn().getBody(PersistenceEvent.class);
                 Tenant tenant = (Tenant) persistenceEvent.getEntity();
-                processTenantChange(tenant, persistenceEvent.getCause());
+                withWriteBarrier(getClass().getSimpleName() + "::processTenantChange", () ->
+                    processTenantChange(tenant, persistenceEvent.getCause()));
             });
 
         // If any asset was modified in the database, detect changed attributes
@@ -248,6 +253,11 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
             }
         }
 
+        // Asset processing must not overlap with the initial deployment of rulesets and asset states
+        withWriteBarrier(getClass().getSimpleName() + "::start", this::deployAll);
+    }
+
+    protected void deployAll() {
         LOG.info("Deploying global rulesets");
         rulesetStorageService.findAll(
             GlobalRuleset.class,
@@ -281,18 +291,12 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
             .count();//Needed in order to execute the stream. TODO: can this be done differently?
 
         LOG.info("Loading all assets with fact attributes to initialize state of rules engines");
-        Stream<Pair<Asset<?>, Stream<Attribute<?>>>> stateAttributes = findRuleStateAttributes();
-
         // Push each attribute as an asset update through the rule engine chain
         // that will ensure the insert only happens to the engines in scope
-        stateAttributes
-            .forEach(pair -> {
-                Asset<?> asset = pair.key;
-                pair.value.forEach(ruleAttribute -> {
-                    AssetState<?> assetState = new AssetState<>(asset, ruleAttribute, Source.INTERNAL);
-                    updateAssetState(assetState);
-                });
-            });
+        forEachRuleStateAttribute((asset, ruleAttribute) -> {
+            AssetState<?> assetState = new AssetState<>(asset, ruleAttribute, Source.INTERNAL);
+            updateAssetState(assetState);
+        });
 
         // Start the engines
         if (globalEngine != null) {
@@ -309,7 +313,7 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
 
     @Override
     public void stop(Container container) throws Exception {
-        withLock(getClass().getSimpleName() + "::stop", () -> {
+        withWriteBarrier(getClass().getSimpleName() + "::stop", () -> withLock(getClass().getSimpleName() + "::stop", () -> {
             for (GeofenceAssetAdapter geofenceAssetAdapter : geofenceAssetAdapters) {
                 try {
                     geofenceAssetAdapter.stop(container);
@@ -329,7 +333,7 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
             }
 
             assetStates.clear();
-        });
+        }));
 
         for (GeofenceAssetAdapter geofenceAssetAdapter : geofenceAssetAdapters) {
             geofenceAssetAdapter.stop(container);
@@ -474,7 +478,7 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
             // We must load the asset from database (only when required), as the
             // persistence event might not contain a completely loaded asset
             BiFunction<Asset<?>, Attribute<?>, AssetState<?>> buildAssetState = (loadedAsset, attribute) ->
-                new AssetState<>(loadedAsset, ValueUtil.clone(attribute), Source.INTERNAL);
+                new AssetState<>(loadedAsset, attribute.copy(), Source.INTERNAL);
 
             switch (persistenceEvent.getCause()) {
                 case CREATE: {
@@ -868,15 +872,13 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
         return rulesEngines;
     }
 
-    protected Stream<Pair<Asset<?>, Stream<Attribute<?>>>> findRuleStateAttributes() {
-        // Get all assets then filter out any attributes with RULE_STATE=false
-        List<Asset<?>> assets = assetStorageService.findAll(new AssetQuery());
-
-        return assets.stream()
-            .map(asset ->
-                new Pair<>(asset, asset.getAttributes().stream()
-                    .filter(RulesService::attributeIsRuleState))
-            );
+    protected void forEachRuleStateAttribute(BiConsumer<Asset<?>, Attribute<?>> consumer) {
+        // Stream all assets and filter out any attributes with RULE_STATE=false, assets are not retained
+        assetStorageService.findAll(new AssetQuery(), asset ->
+            asset.getAttributes().stream()
+                .filter(RulesService::attributeIsRuleState)
+                .forEach(ruleAttribute -> consumer.accept(asset, ruleAttribute))
+        );
     }
 
     /**
@@ -44,6 +44,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
@@ -51,7 +52,6 @@ import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import static org.openremote.container.concurrent.GlobalLock.withLock;
 
 public class RulesetDeployment {
 
@@ -125,14 +125,16 @@ public class RulesetDeployment {
     final protected AssetStorageService assetStorageService;
     final protected TimerService timerService;
     final protected ScheduledExecutorService executorService;
+    final protected Executor engineExecutor;
     final protected Assets assetsFacade;
     final protected Users usersFacade;
     final protected Notifications notificationsFacade;
     final protected HistoricDatapoints historicDatapointsFacade;
     final protected PredictedDatapoints predictedDatapointsFacade;
     final protected List<ScheduledFuture<?>> scheduledRuleActions = new ArrayList<>();
-    protected RulesetStatus status = RulesetStatus.READY;
-    protected Throwable error;
+    // Read by status readers without the engine lock
+    protected volatile RulesetStatus status = RulesetStatus.READY;
+    protected volatile Throwable error;
     protected JsonRulesBuilder jsonRulesBuilder;
     protected FlowRulesBuilder flowRulesBuilder;
     protected CalendarEvent validity;
@@ -140,12 +142,13 @@ public class RulesetDeployment {
 
     public RulesetDeployment(Ruleset ruleset, TimerService timerService,
                              AssetStorageService assetStorageService, ScheduledExecutorService executorService,
-                             Assets assetsFacade, Users usersFacade, Notifications notificationsFacade,
+                             Executor engineExecutor, Assets assetsFacade, Users usersFacade, Notifications notificationsFacade,
                              HistoricDatapoints historicDatapointsFacade, PredictedDatapoints predictedDatapointsFacade) {
         this.ruleset = ruleset;
         this.timerService = timerService;
         this.assetStorageService = assetStorageService;
         this.executorService = executorService;
+        this.engineExecutor = engineExecutor;
         this.assetsFacade = assetsFacade;
         this.usersFacade = usersFacade;
         this.notificationsFacade = notificationsFacade;
@@ -253,15 +256,17 @@ public class RulesetDeployment {
         }
     }
 
+    /**
+     * Called by rule actions while the engine is firing, the delayed action is executed by the engine so it doesn't
+     * run concurrently with a firing.
+     */
     protected void scheduleRuleAction(Runnable action, long delayMillis) {
-        withLock(toString() + "::scheduleRuleAction", () -> {
-            ScheduledFuture<?> future = executorService.schedule(() ->
-                    withLock(toString() + "::scheduledRuleActionFire", () -> {
-                        scheduledRuleActions.removeIf(Future::isDone);
-                        action.run();
-                    }), delayMillis, TimeUnit.MILLISECONDS);
-            scheduledRuleActions.add(future);
-        });
+        ScheduledFuture<?> future = executorService.schedule(() ->
+                engineExecutor.execute(() -> {
+                    scheduledRuleActions.removeIf(Future::isDone);
+                    action.run();
+                }), delayMillis, TimeUnit.MILLISECONDS);
+        scheduledRuleActions.add(future);
     }
 
     protected boolean compileRulesJson(Ruleset ruleset) {
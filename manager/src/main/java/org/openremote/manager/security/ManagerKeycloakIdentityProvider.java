@@ -19,6 +19,10 @@
  */
 package org.openremote.manager.security;
 
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 import io.undertow.util.Headers;
 import org.apache.camel.ExchangePattern;
 import org.apache.commons.io.IOUtils;
@@ -60,6 +64,8 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BiFunction;
 import java.util.function.Supplier;
 import java.util.logging.Level;
@@ -67,6 +73,7 @@ import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
 import static org.openremote.container.util.MapAccess.getBoolean;
+import static org.openremote.container.util.MapAccess.getInteger;
 import static org.openremote.container.util.MapAccess.getString;
 import static org.openremote.container.web.WebService.WEBSERVER_ALLOWED_ORIGINS;
 import static org.openremote.container.web.WebService.WEBSERVER_ALLOWED_ORIGINS_DEFAULT;
@@ -88,6 +95,8 @@ public class ManagerKeycloakIdentityProvider extends KeycloakIdentityProvider im
     public static final String KEYCLOAK_GRANT_FILE = "KEYCLOAK_GRANT_FILE";
     public static final String KEYCLOAK_GRANT_FILE_DEFAULT = "manager/build/keycloak.json";
     public static final String KEYCLOAK_DEFAULT_ROLES_PREFIX = "default-roles-";
+    public static final String IDENTITY_TENANT_CACHE_MILLIS = "IDENTITY_TENANT_CACHE_MILLIS";
+    public static final int IDENTITY_TENANT_CACHE_MILLIS_DEFAULT = 60000;
 
     protected PersistenceService persistenceService;
     protected TimerService timerService;
@@ -96,6 +105,10 @@ public class ManagerKeycloakIdentityProvider extends KeycloakIdentityProvider im
     protected ConsoleAppService consoleAppService;
     protected String keycloakAdminPassword;
     protected Container container;
+    // Tenants by realm, invalidated when a tenant is modified through this provider and expired after the TTL to pick
+    // up changes made directly in Keycloak
+    protected Cache<String, Tenant> tenantCache;
+    protected final AtomicLong tenantCacheInvalidations = new AtomicLong();
 
     @Override
     public void init(Container container) {
@@ -114,6 +127,14 @@ public class ManagerKeycloakIdentityProvider extends KeycloakIdentityProvider im
         this.messageBrokerService = container.getService(MessageBrokerService.class);
         this.clientEventService = container.getService(ClientEventService.class);
         this.consoleAppService = container.getService(ConsoleAppService.class);
+
+        int tenantCacheMillis = getInteger(container.getConfig(), IDENTITY_TENANT_CACHE_MILLIS, IDENTITY_TENANT_CACHE_MILLIS_DEFAULT);
+        if (tenantCacheMillis > 0) {
+            tenantCache = CacheBuilder.newBuilder()
+                .expireAfterWrite(tenantCacheMillis, TimeUnit.MILLISECONDS)
+                .recordStats()
+                .build();
+        }
     }
 
     @Override
@@ -398,6 +419,8 @@ public class ManagerKeycloakIdentityProvider extends KeycloakIdentityProvider im
             }
             return null;
         });
+
+        publishModification(PersistenceEvent.Cause.DELETE, user);
     }
 
     @Override
@@ -787,8 +810,65 @@ public class ManagerKeycloakIdentityProvider extends KeycloakIdentityProvider im
         return ManagerIdentityProvider.getTenantsFromDb(persistenceService);
     }
 
+    /**
+     * Returns a copy of the cached tenant, loads the tenant from Keycloak if it isn't cached or caching is disabled.
+     */
     @Override
     public Tenant getTenant(String realm) {
+        Tenant tenant = getCachedTenant(realm);
+        return tenantCache != null ? ValueUtil.clone(tenant) : tenant;
+    }
+
+    /**
+     * Returns the cached instance which must not be modified.
+     */
+    protected Tenant getCachedTenant(String realm) {
+        if (tenantCache == null || realm == null) {
+            return loadTenant(realm);
+        }
+
+        Tenant tenant = tenantCache.getIfPresent(realm);
+        if (tenant == null) {
+            long invalidations = tenantCacheInvalidations.get();
+            tenant = loadTenant(realm);
+            if (tenant == null) {
+                return null;
+            }
+            // Don't cache what was loaded while the tenant was modified
+            synchronized (tenantCacheInvalidations) {
+                if (invalidations == tenantCacheInvalidations.get()) {
+                    tenantCache.put(realm, tenant);
+                }
+            }
+        }
+        return tenant;
+    }
+
+    public void invalidateTenantCache() {
+        if (tenantCache != null) {
+            synchronized (tenantCacheInvalidations) {
+                tenantCacheInvalidations.incrementAndGet();
+                tenantCache.invalidateAll();
+            }
+        }
+    }
+
+    public Optional<ObjectNode> getTenantCacheStatus() {
+        if (tenantCache == null) {
+            return Optional.empty();
+        }
+        CacheStats stats = tenantCache.stats();
+        ObjectNode status = ValueUtil.JSON.createObjectNode();
+        status.put("size", tenantCache.size());
+        status.put("hits", stats.hitCount());
+        status.put("misses", stats.missCount());
+        status.put("hitRate", stats.hitRate());
+        status.put("evictions", stats.evictionCount());
+        status.put("invalidations", tenantCacheInvalidations.get());
+        return Optional.of(status);
+    }
+
+    protected Tenant loadTenant(String realm) {
         try {
             RealmRepresentation realmRepresentation = getRealms(realmsResource ->
                 realmsResource.realm(realm).toRepresentation());
@@ -1040,7 +1120,7 @@ public class ManagerKeycloakIdentityProvider extends KeycloakIdentityProvider im
      */
     @Override
     public boolean isTenantActiveAndAccessible(AuthContext authContext, String realm) {
-        return isTenantActiveAndAccessible(authContext, getTenant(realm));
+        return isTenantActiveAndAccessible(authContext, getCachedTenant(realm));
     }
 
     @Override
@@ -1171,8 +1251,17 @@ public class ManagerKeycloakIdentityProvider extends KeycloakIdentityProvider im
     }
 
     protected void publishModification(PersistenceEvent.Cause cause, Tenant tenant) {
-        // Fire persistence event although we don't use database for Tenant CUD but call Keycloak API
-        PersistenceEvent<?> persistenceEvent = new PersistenceEvent<>(cause, tenant, new String[0], null);
+        invalidateTenantCache();
+        publishPersistenceEvent(cause, tenant);
+    }
+
+    protected void publishModification(PersistenceEvent.Cause cause, User user) {
+        publishPersistenceEvent(cause, user);
+    }
+
+    protected void publishPersistenceEvent(PersistenceEvent.Cause cause, Object entity) {
+        // Fire persistence event although we don't use database for Tenant and User CUD but call Keycloak API
+        PersistenceEvent<?> persistenceEvent = new PersistenceEvent<>(cause, entity, new String[0], null);
 
         if (messageBrokerService.getProducerTemplate() != null) {
             messageBrokerService.getProducerTemplate().sendBodyAndHeader(
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2021, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.web;
+
+import javax.ws.rs.ServiceUnavailableException;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+import static org.openremote.container.util.MapAccess.getInteger;
+import static org.openremote.container.web.WebService.WEBSERVER_WORKER_THREADS_MAX;
+import static org.openremote.container.web.WebService.WEBSERVER_WORKER_THREADS_MAX_DEFAULT;
+
+/**
+ * Limits how many requests of one endpoint are handled concurrently, so a burst of expensive requests can only
+ * occupy some of the web server worker threads. A limiter can share a budget with the limiters of other endpoints, a
+ * request then also needs a permit of the budget, so together the endpoints never occupy more threads than the budget.
+ * A request waits a little while for its permits and is rejected with 503 Service Unavailable if none become
+ * available, clients should retry after the returned delay.
+ */
+public class ConcurrencyLimiter {
+
+    private static final Logger LOG = Logger.getLogger(ConcurrencyLimiter.class.getName());
+
+    public static final int WAIT_MILLIS = 1000;
+    public static final int RETRY_AFTER_SECONDS = 1;
+
+    protected final String name;
+    protected final int maxConcurrent;
+    protected final Semaphore permits;
+    protected final ConcurrencyLimiter budget;
+
+    /**
+     * @param maxConcurrent Maximum number of concurrently handled requests, 0 or less is unlimited.
+     */
+    public ConcurrencyLimiter(String name, int maxConcurrent) {
+        this(name, maxConcurrent, null);
+    }
+
+    /**
+     * @param maxConcurrent Maximum number of concurrently handled requests, 0 or less is only limited by the budget.
+     * @param budget        Limiter shared with other endpoints, requests also need one of its permits.
+     */
+    public ConcurrencyLimiter(String name, int maxConcurrent, ConcurrencyLimiter budget) {
+        this.name = name;
+        this.maxConcurrent = maxConcurrent;
+        this.permits = maxConcurrent > 0 ? new Semaphore(maxConcurrent, true) : null;
+        this.budget = budget;
+    }
+
+    /**
+     * @return Half of the web server worker threads, so limited endpoints never occupy all worker threads.
+     */
+    public static int getDefaultMaxConcurrent(Map<String, String> config) {
+        return Math.max(1, getInteger(config, WEBSERVER_WORKER_THREADS_MAX, WEBSERVER_WORKER_THREADS_MAX_DEFAULT) / 2);
+    }
+
+    public <T> T call(Supplier<T> request) {
+        if (!acquire(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(WAIT_MILLIS))) {
+            throw new ServiceUnavailableException((long) RETRY_AFTER_SECONDS);
+        }
+
+        try {
+            return request.get();
+        } finally {
+            release();
+        }
+    }
+
+    protected boolean acquire(long deadlineNanos) {
+        if (permits != null && !tryAcquire(permits, deadlineNanos)) {
+            LOG.info("Too many concurrent '" + name + "' requests, rejecting request: max=" + maxConcurrent);
+            return false;
+        }
+        if (budget != null && !budget.acquire(deadlineNanos)) {
+            if (permits != null) {
+                permits.release();
+            }
+            return false;
+        }
+        return true;
+    }
+
+    protected void release() {
+        if (budget != null) {
+            budget.release();
+        }
+        if (permits != null) {
+            permits.release();
+        }
+    }
+
+    protected static boolean tryAcquire(Semaphore permits, long deadlineNanos) {
+        try {
+            return permits.tryAcquire(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" +
+            "name='" + name + '\'' +
+            ", maxConcurrent=" + maxConcurrent +
+            ", budget=" + budget +
+            '}';
+    }
+}
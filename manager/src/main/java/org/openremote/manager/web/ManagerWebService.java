@@ -53,6 +53,7 @@ import java.nio.file.Paths;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -62,6 +63,7 @@ import java.util.stream.Stream;
 import static io.undertow.util.RedirectBuilder.redirect;
 import static javax.ws.rs.core.Response.Status.NOT_FOUND;
 import static javax.ws.rs.core.UriBuilder.fromUri;
+import static org.openremote.container.util.MapAccess.getInteger;
 import static org.openremote.container.util.MapAccess.getString;
 import static org.openremote.model.Constants.REQUEST_HEADER_REALM;
 import static org.openremote.model.util.ValueUtil.configureObjectMapper;
@@ -85,6 +87,9 @@ public class ManagerWebService extends WebService {
     public static final String SWAGGER_APP_PATH = "/swagger";
     public static final String CONSOLE_LOADER_APP_PATH = "/console_loader";
     public static final String SHARED_PATH = "/shared";
+    // Maximum number of concurrently handled requests of all endpoints with a concurrency limit together, defaults to
+    // half of the web server worker threads, 0 is unlimited
+    public static final String REQUEST_CONCURRENCY_MAX = "REQUEST_CONCURRENCY_MAX";
     private static final Logger LOG = Logger.getLogger(ManagerWebService.class.getName());
     protected static final Pattern PATTERN_REALM_SUB = Pattern.compile("/([a-zA-Z0-9\\-_]+)/(.*)");
 
@@ -92,6 +97,7 @@ public class ManagerWebService extends WebService {
     protected Path customAppDocRoot;
     protected Collection<Class<?>> apiClasses = new HashSet<>();
     protected Collection<Object> apiSingletons = new HashSet<>();
+    protected ConcurrencyLimiter requestConcurrencyBudget;
 
     /**
      * Start web service after other services.
@@ -260,6 +266,21 @@ public class ManagerWebService extends WebService {
         return apiSingletons;
     }
 
+    /**
+     * Creates a concurrency limiter for an endpoint that shares the {@link #REQUEST_CONCURRENCY_MAX} budget with all
+     * other limited endpoints. The endpoint's own maximum is read from the given config key, if it is not set or 0 the
+     * endpoint is only limited by the shared budget.
+     */
+    synchronized public ConcurrencyLimiter createConcurrencyLimiter(Map<String, String> config, String name, String maxConcurrentKey) {
+        if (requestConcurrencyBudget == null) {
+            requestConcurrencyBudget = new ConcurrencyLimiter(
+                "requestBudget",
+                getInteger(config, REQUEST_CONCURRENCY_MAX, ConcurrencyLimiter.getDefaultMaxConcurrent(config))
+            );
+        }
+        return new ConcurrencyLimiter(name, getInteger(config, maxConcurrentKey, 0), requestConcurrencyBudget);
+    }
+
     public Path getBuiltInAppDocRoot() {
         return builtInAppDocRoot;
     }
@@ -0,0 +1,143 @@
+/*
+  Range partition the data point tables by month on TIMESTAMP, so purging old data points can drop whole partitions
+  instead of deleting rows. Each table gets a default partition for rows that have no monthly partition (yet), monthly
+  partitions are named <table>_YYYYMM and are created ahead of time by the data point services. Existing rows are kept
+  in their table, which is attached as the partition <table>_before_YYYYMM of all months before YYYYMM.
+ */
+
+do $$
+begin
+  -- Default partitions and partitioned primary and foreign keys
+  if current_setting('server_version_num')::integer < 110000 then
+    raise exception 'Data point partitioning requires PostgreSQL 11 or newer, found %, update the postgresql image', current_setting('server_version');
+  end if;
+end;
+$$;
+
+/*
+  Returns the first month that isn't in the partition of rows from before partitioning of the given table, null if
+  there is no such partition.
+ */
+create or replace function DATAPOINT_PARTITIONS_BEFORE(PARENT_TABLE text) returns timestamp as $$
+  select max(to_timestamp(right(C.RELNAME, 6), 'YYYYMM')::timestamp)
+  from PG_INHERITS I
+    join PG_CLASS C on C.OID = I.INHRELID
+  where I.INHPARENT = to_regclass(PARENT_TABLE)
+    and C.RELNAME ~ ('^' || PARENT_TABLE || '_before_[0-9]{6}$');
+$$ language sql stable;
+
+/*
+  Creates the monthly partition of the given table that contains the given time, rows of that month in the default
+  partition are moved into the new partition. Returns the name of the created partition or null if it already exists
+  or the month is in the partition of rows from before partitioning.
+ */
+create or replace function CREATE_DATAPOINT_PARTITION(PARENT_TABLE text, PARTITION_TIME timestamp) returns text as $$
+declare
+  PARTITION_FROM  timestamp := date_trunc('month', PARTITION_TIME);
+  PARTITION_TO    timestamp := date_trunc('month', PARTITION_TIME) + interval '1 month';
+  PARTITION_TABLE text      := PARENT_TABLE || '_' || to_char(PARTITION_TIME, 'YYYYMM');
+begin
+  if to_regclass(PARTITION_TABLE) is not null or PARTITION_FROM < DATAPOINT_PARTITIONS_BEFORE(PARENT_TABLE) then
+    return null;
+  end if;
+
+  execute format('create table %I (like %I including defaults including constraints)', PARTITION_TABLE, PARENT_TABLE);
+  execute format(
+    'with MOVED as (delete from %I where TIMESTAMP >= %L and TIMESTAMP < %L returning *) insert into %I select * from MOVED',
+    PARENT_TABLE || '_default', PARTITION_FROM, PARTITION_TO, PARTITION_TABLE
+  );
+  execute format(
+    'alter table %I attach partition %I for values from (%L) to (%L)',
+    PARENT_TABLE, PARTITION_TABLE, PARTITION_FROM, PARTITION_TO
+  );
+  return PARTITION_TABLE;
+end;
+$$ language plpgsql;
+
+/*
+  Drops all monthly partitions of the given table that only contain rows older than the given time, including the
+  partition of rows from before partitioning, returns the number of dropped partitions.
+ */
+create or replace function DROP_DATAPOINT_PARTITIONS(PARENT_TABLE text, OLDER_THAN timestamp) returns integer as $$
+declare
+  PARTITION_TABLE text;
+  DROPPED         integer := 0;
+begin
+  for PARTITION_TABLE in
+    select C.RELNAME
+    from PG_INHERITS I
+      join PG_CLASS C on C.OID = I.INHRELID
+    where I.INHPARENT = to_regclass(PARENT_TABLE)
+      and C.RELNAME ~ ('^' || PARENT_TABLE || '_(before_)?[0-9]{6}$')
+    loop
+      if to_timestamp(right(PARTITION_TABLE, 6), 'YYYYMM')::timestamp
+        + case when PARTITION_TABLE ~ '_before_' then interval '0' else interval '1 month' end <= OLDER_THAN then
+        execute format('drop table %I', PARTITION_TABLE);
+        DROPPED := DROPPED + 1;
+      end if;
+    end loop;
+  return DROPPED;
+end;
+$$ language plpgsql;
+
+/*
+  Attaches the existing table as the partition of all months before the month after its newest row and the current
+  month, so its rows aren't copied. The check constraint is validated with one scan and lets the attach skip its own.
+  An empty table is dropped.
+ */
+create or replace function ATTACH_DATAPOINT_PARTITIONS_BEFORE(PARENT_TABLE text, EXISTING_TABLE text) returns text as $$
+declare
+  PARTITION_TO    timestamp;
+  PARTITION_TABLE text;
+begin
+  execute format('select date_trunc(''month'', max(TIMESTAMP)) + interval ''1 month'' from %I', EXISTING_TABLE) into PARTITION_TO;
+  if PARTITION_TO is null then
+    execute format('drop table %I', EXISTING_TABLE);
+    return null;
+  end if;
+
+  PARTITION_TO := greatest(PARTITION_TO, date_trunc('month', now()::timestamp) + interval '1 month');
+  PARTITION_TABLE := PARENT_TABLE || '_before_' || to_char(PARTITION_TO, 'YYYYMM');
+  execute format('alter table %I add constraint %I check (TIMESTAMP < %L)', EXISTING_TABLE, PARTITION_TABLE || '_check', PARTITION_TO);
+  execute format('alter table %I rename to %I', EXISTING_TABLE, PARTITION_TABLE);
+  execute format('alter table %I attach partition %I for values from (minvalue) to (%L)', PARENT_TABLE, PARTITION_TABLE, PARTITION_TO);
+  execute format('alter table %I drop constraint %I', PARTITION_TABLE, PARTITION_TABLE || '_check');
+  return PARTITION_TABLE;
+end;
+$$ language plpgsql;
+
+/*
+  Replace the tables, existing rows stay in their table which becomes a partition
+ */
+alter table ASSET_DATAPOINT rename to ASSET_DATAPOINT_UNPARTITIONED;
+alter table ASSET_DATAPOINT_UNPARTITIONED rename constraint ASSET_DATAPOINT_PKEY to ASSET_DATAPOINT_UNPARTITIONED_PKEY;
+
+create table ASSET_DATAPOINT (
+  TIMESTAMP      timestamp                  not null,
+  ENTITY_ID      varchar(22)                not null,
+  ATTRIBUTE_NAME varchar(255)               not null,
+  VALUE          jsonb                      not null,
+  primary key (TIMESTAMP, ENTITY_ID, ATTRIBUTE_NAME)
+) partition by range (TIMESTAMP);
+
+create table ASSET_DATAPOINT_DEFAULT partition of ASSET_DATAPOINT default;
+
+alter table ASSET_DATAPOINT
+  add foreign key (ENTITY_ID) references ASSET (ID) on delete cascade;
+
+select ATTACH_DATAPOINT_PARTITIONS_BEFORE('asset_datapoint', 'asset_datapoint_unpartitioned');
+
+alter table ASSET_PREDICTED_DATAPOINT rename to ASSET_PREDICTED_DATAPOINT_UNPARTITIONED;
+alter table ASSET_PREDICTED_DATAPOINT_UNPARTITIONED rename constraint ASSET_PREDICTED_DATAPOINT_PKEY to ASSET_PREDICTED_DATAPOINT_UNPARTITIONED_PKEY;
+
+create table ASSET_PREDICTED_DATAPOINT (
+  TIMESTAMP      timestamp                  not null,
+  ENTITY_ID      varchar(36)                not null,
+  ATTRIBUTE_NAME varchar(255)               not null,
+  VALUE          jsonb                      not null,
+  primary key (TIMESTAMP, ENTITY_ID, ATTRIBUTE_NAME)
+) partition by range (TIMESTAMP);
+
+create table ASSET_PREDICTED_DATAPOINT_DEFAULT partition of ASSET_PREDICTED_DATAPOINT default;
+
+select ATTACH_DATAPOINT_PARTITIONS_BEFORE('asset_predicted_datapoint', 'asset_predicted_datapoint_unpartitioned');
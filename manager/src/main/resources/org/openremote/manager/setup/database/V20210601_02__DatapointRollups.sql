@@ -0,0 +1,180 @@
+/*
+  Rollups of numeric and boolean data points in minute, hour and day buckets, so downsampled queries don't have to
+  aggregate raw rows. Writing a data point marks its minute bucket as dirty, dirty buckets are rolled up into the
+  minute table and from there into the hour and day tables. Boolean values are rolled up as 0 and 1, the average of a
+  bucket is SUM_VALUE / VALUE_COUNT.
+ */
+
+create table ASSET_DATAPOINT_ROLLUP_DIRTY (
+  ENTITY_ID      varchar(22)  not null,
+  ATTRIBUTE_NAME varchar(255) not null,
+  TIMESTAMP      timestamp    not null,
+  primary key (ENTITY_ID, ATTRIBUTE_NAME, TIMESTAMP)
+);
+
+create table ASSET_DATAPOINT_MINUTE (
+  ENTITY_ID      varchar(22)  not null,
+  ATTRIBUTE_NAME varchar(255) not null,
+  TIMESTAMP      timestamp    not null,
+  MIN_VALUE      numeric      not null,
+  MAX_VALUE      numeric      not null,
+  SUM_VALUE      numeric      not null,
+  VALUE_COUNT    bigint       not null,
+  primary key (ENTITY_ID, ATTRIBUTE_NAME, TIMESTAMP)
+);
+
+create table ASSET_DATAPOINT_HOUR (like ASSET_DATAPOINT_MINUTE including all);
+
+create table ASSET_DATAPOINT_DAY (like ASSET_DATAPOINT_MINUTE including all);
+
+alter table ASSET_DATAPOINT_ROLLUP_DIRTY
+  add foreign key (ENTITY_ID) references ASSET (ID) on delete cascade;
+
+alter table ASSET_DATAPOINT_MINUTE
+  add foreign key (ENTITY_ID) references ASSET (ID) on delete cascade;
+
+alter table ASSET_DATAPOINT_HOUR
+  add foreign key (ENTITY_ID) references ASSET (ID) on delete cascade;
+
+alter table ASSET_DATAPOINT_DAY
+  add foreign key (ENTITY_ID) references ASSET (ID) on delete cascade;
+
+/*
+  Marks the minute buckets of the data points written or deleted by a statement as dirty, once per statement and
+  bucket; a bucket that is already dirty is only looked up. The transition tables of the triggers need PostgreSQL 10,
+  the previous migration already requires 11.
+ */
+create or replace function MARK_ASSET_DATAPOINT_ROLLUP_DIRTY() returns trigger as $$
+begin
+  if TG_OP = 'DELETE' then
+    -- Data points deleted with their asset have no buckets left to roll up
+    insert into ASSET_DATAPOINT_ROLLUP_DIRTY (ENTITY_ID, ATTRIBUTE_NAME, TIMESTAMP)
+    select distinct C.ENTITY_ID, C.ATTRIBUTE_NAME, date_trunc('minute', C.TIMESTAMP) from CHANGED_DATAPOINTS C
+    where exists (select 1 from ASSET A where A.ID = C.ENTITY_ID)
+    on conflict do nothing;
+  else
+    insert into ASSET_DATAPOINT_ROLLUP_DIRTY (ENTITY_ID, ATTRIBUTE_NAME, TIMESTAMP)
+    select distinct ENTITY_ID, ATTRIBUTE_NAME, date_trunc('minute', TIMESTAMP) from CHANGED_DATAPOINTS
+    on conflict do nothing;
+  end if;
+  return null;
+end;
+$$ language plpgsql;
+
+create trigger ASSET_DATAPOINT_ROLLUP_DIRTY_INSERT
+  after insert on ASSET_DATAPOINT
+  referencing new table as CHANGED_DATAPOINTS
+  for each statement execute procedure MARK_ASSET_DATAPOINT_ROLLUP_DIRTY();
+
+create trigger ASSET_DATAPOINT_ROLLUP_DIRTY_UPDATE
+  after update on ASSET_DATAPOINT
+  referencing new table as CHANGED_DATAPOINTS
+  for each statement execute procedure MARK_ASSET_DATAPOINT_ROLLUP_DIRTY();
+
+-- Purged data points are rolled up again, which removes or shrinks their buckets
+create trigger ASSET_DATAPOINT_ROLLUP_DIRTY_DELETE
+  after delete on ASSET_DATAPOINT
+  referencing old table as CHANGED_DATAPOINTS
+  for each statement execute procedure MARK_ASSET_DATAPOINT_ROLLUP_DIRTY();
+
+/*
+  Recomputes the buckets of the target table that contain the buckets in ROLLUP_BUCKETS from the source rollup table.
+  Concurrent roll ups of different minute buckets can rebuild the same hour or day bucket, so each target bucket is
+  locked first (in a consistent order) and rebuilt by one transaction at a time; the rebuild statements run after
+  the locks are granted and therefore see what the previous holder committed.
+ */
+create or replace function ROLLUP_DATAPOINT_BUCKETS(SOURCE_TABLE text, TARGET_TABLE text, BUCKET text) returns void as $$
+begin
+  execute 'update ROLLUP_BUCKETS set TIMESTAMP = date_trunc($1, TIMESTAMP)' using BUCKET;
+  perform pg_advisory_xact_lock(hashtext(TARGET_TABLE), hashtext(ENTITY_ID || '/' || ATTRIBUTE_NAME || '/' || TIMESTAMP))
+  from (select distinct ENTITY_ID, ATTRIBUTE_NAME, TIMESTAMP from ROLLUP_BUCKETS order by ENTITY_ID, ATTRIBUTE_NAME, TIMESTAMP) B;
+  execute format(
+    'delete from %I R using ROLLUP_BUCKETS B where R.ENTITY_ID = B.ENTITY_ID and R.ATTRIBUTE_NAME = B.ATTRIBUTE_NAME and R.TIMESTAMP = B.TIMESTAMP',
+    TARGET_TABLE
+  );
+  execute format(
+    'insert into %I (ENTITY_ID, ATTRIBUTE_NAME, TIMESTAMP, MIN_VALUE, MAX_VALUE, SUM_VALUE, VALUE_COUNT) ' ||
+    'select B.ENTITY_ID, B.ATTRIBUTE_NAME, B.TIMESTAMP, min(S.MIN_VALUE), max(S.MAX_VALUE), sum(S.SUM_VALUE), sum(S.VALUE_COUNT) ' ||
+    'from (select distinct ENTITY_ID, ATTRIBUTE_NAME, TIMESTAMP from ROLLUP_BUCKETS) B ' ||
+    'join %I S on S.ENTITY_ID = B.ENTITY_ID and S.ATTRIBUTE_NAME = B.ATTRIBUTE_NAME and S.TIMESTAMP >= B.TIMESTAMP and S.TIMESTAMP < B.TIMESTAMP + $1 ' ||
+    'group by B.ENTITY_ID, B.ATTRIBUTE_NAME, B.TIMESTAMP',
+    TARGET_TABLE, SOURCE_TABLE
+  ) using ('1 ' || BUCKET)::interval;
+end;
+$$ language plpgsql;
+
+/*
+  Rolls up at most MAX_BUCKETS dirty minute buckets (all if null) of the given table, optionally only those of the given
+  attribute. Buckets locked by a concurrent roll up are skipped. Returns the number of rolled up minute buckets.
+ */
+create or replace function ROLLUP_DATAPOINTS(PARENT_TABLE text, ROLLUP_ENTITY_ID text, ROLLUP_ATTRIBUTE_NAME text, MAX_BUCKETS integer) returns integer as $$
+declare
+  BUCKETS integer;
+begin
+  create temp table if not exists ROLLUP_BUCKETS (
+    ENTITY_ID      varchar(36),
+    ATTRIBUTE_NAME varchar(255),
+    TIMESTAMP      timestamp
+  ) on commit delete rows;
+  delete from ROLLUP_BUCKETS;
+
+  execute format(
+    'with DIRTY as (' ||
+    'delete from %1$I where CTID in (select CTID from %1$I where ($1 is null or ENTITY_ID = $1) and ($2 is null or ATTRIBUTE_NAME = $2) limit $3 for update skip locked) ' ||
+    'returning ENTITY_ID, ATTRIBUTE_NAME, TIMESTAMP) ' ||
+    'insert into ROLLUP_BUCKETS select * from DIRTY',
+    PARENT_TABLE || '_rollup_dirty'
+  ) using ROLLUP_ENTITY_ID, ROLLUP_ATTRIBUTE_NAME, MAX_BUCKETS;
+  get diagnostics BUCKETS = row_count;
+
+  if BUCKETS = 0 then
+    return 0;
+  end if;
+
+  execute format(
+    'delete from %I R using ROLLUP_BUCKETS B where R.ENTITY_ID = B.ENTITY_ID and R.ATTRIBUTE_NAME = B.ATTRIBUTE_NAME and R.TIMESTAMP = B.TIMESTAMP',
+    PARENT_TABLE || '_minute'
+  );
+  execute format(
+    'insert into %I (ENTITY_ID, ATTRIBUTE_NAME, TIMESTAMP, MIN_VALUE, MAX_VALUE, SUM_VALUE, VALUE_COUNT) ' ||
+    'select B.ENTITY_ID, B.ATTRIBUTE_NAME, B.TIMESTAMP, min(V.VALUE), max(V.VALUE), sum(V.VALUE), count(V.VALUE) ' ||
+    'from ROLLUP_BUCKETS B cross join lateral (' ||
+    'select case jsonb_typeof(DP.VALUE) when ''number'' then DP.VALUE::text::numeric when ''boolean'' then case when DP.VALUE::text::boolean then 1 else 0 end end as VALUE ' ||
+    'from %I DP where DP.ENTITY_ID = B.ENTITY_ID and DP.ATTRIBUTE_NAME = B.ATTRIBUTE_NAME and DP.TIMESTAMP >= B.TIMESTAMP and DP.TIMESTAMP < B.TIMESTAMP + interval ''1 minute'') V ' ||
+    'group by B.ENTITY_ID, B.ATTRIBUTE_NAME, B.TIMESTAMP having count(V.VALUE) > 0',
+    PARENT_TABLE || '_minute', PARENT_TABLE
+  );
+
+  perform ROLLUP_DATAPOINT_BUCKETS(PARENT_TABLE || '_minute', PARENT_TABLE || '_hour', 'hour');
+  perform ROLLUP_DATAPOINT_BUCKETS(PARENT_TABLE || '_hour', PARENT_TABLE || '_day', 'day');
+
+  delete from ROLLUP_BUCKETS;
+  return BUCKETS;
+end;
+$$ language plpgsql;
+
+/*
+  Roll up the existing data points
+ */
+insert into ASSET_DATAPOINT_MINUTE (ENTITY_ID, ATTRIBUTE_NAME, TIMESTAMP, MIN_VALUE, MAX_VALUE, SUM_VALUE, VALUE_COUNT)
+select ENTITY_ID, ATTRIBUTE_NAME, date_trunc('minute', TIMESTAMP), min(VALUE), max(VALUE), sum(VALUE), count(VALUE)
+from (
+  select ENTITY_ID, ATTRIBUTE_NAME, TIMESTAMP,
+    case jsonb_typeof(VALUE)
+      when 'number' then VALUE::text::numeric
+      when 'boolean' then case when VALUE::text::boolean then 1 else 0 end
+    end as VALUE
+  from ASSET_DATAPOINT
+) DP
+where VALUE is not null
+group by ENTITY_ID, ATTRIBUTE_NAME, date_trunc('minute', TIMESTAMP);
+
+insert into ASSET_DATAPOINT_HOUR (ENTITY_ID, ATTRIBUTE_NAME, TIMESTAMP, MIN_VALUE, MAX_VALUE, SUM_VALUE, VALUE_COUNT)
+select ENTITY_ID, ATTRIBUTE_NAME, date_trunc('hour', TIMESTAMP), min(MIN_VALUE), max(MAX_VALUE), sum(SUM_VALUE), sum(VALUE_COUNT)
+from ASSET_DATAPOINT_MINUTE
+group by ENTITY_ID, ATTRIBUTE_NAME, date_trunc('hour', TIMESTAMP);
+
+insert into ASSET_DATAPOINT_DAY (ENTITY_ID, ATTRIBUTE_NAME, TIMESTAMP, MIN_VALUE, MAX_VALUE, SUM_VALUE, VALUE_COUNT)
+select ENTITY_ID, ATTRIBUTE_NAME, date_trunc('day', TIMESTAMP), min(MIN_VALUE), max(MAX_VALUE), sum(SUM_VALUE), sum(VALUE_COUNT)
+from ASSET_DATAPOINT_HOUR
+group by ENTITY_ID, ATTRIBUTE_NAME, date_trunc('day', TIMESTAMP);
@@ -43,6 +43,7 @@ import org.openremote.model.util.ValueUtil;
 import javax.persistence.*;
 import javax.validation.Valid;
 import javax.validation.constraints.*;
+import java.lang.reflect.Constructor;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -465,6 +466,36 @@ public abstract class Asset<T extends Asset<?>> implements IdentifiableEntity<T>
         return path != null && Arrays.asList(getPath()).contains(assetId);
     }
 
+    /**
+     * Creates a structural copy of this asset, the copy has its own {@link AttributeMap} but shares the attributes
+     * with this asset, see {@link Attribute#copy}. This is much cheaper than {@link ValueUtil#clone}; attributes must
+     * be replaced rather than modified in place to keep both assets independent.
+     */
+    @SuppressWarnings("unchecked")
+    public T copy() {
+        Asset<?> asset;
+        try {
+            Constructor<? extends Asset> constructor = getClass().getDeclaredConstructor();
+            constructor.setAccessible(true);
+            asset = constructor.newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Asset type must have a no-args constructor: " + getClass().getName(), e);
+        }
+        asset.id = id;
+        asset.version = version;
+        asset.createdOn = createdOn;
+        asset.name = name;
+        asset.accessPublicRead = accessPublicRead;
+        asset.parentId = parentId;
+        asset.realm = realm;
+        asset.parentName = parentName;
+        asset.parentType = parentType;
+        asset.type = type;
+        asset.path = path;
+        asset.attributes = attributes != null ? attributes.copy() : null;
+        return (T) asset;
+    }
+
     public AttributeMap getAttributes() {
         if (attributes == null) {
             attributes = new AttributeMap();
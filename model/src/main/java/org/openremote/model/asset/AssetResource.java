@@ -251,6 +251,11 @@ public interface AssetResource {
      * assets must be linked to the user. An empty result is returned if the user does not have access to the assets.
      * What is populated on the returned assets is determined by the
      * {@link AssetQuery#select} value.
+     * <p>
+     * Large results can be retrieved in pages with an ordered query and a {@link AssetQuery#limit}. If there are more
+     * assets the response has a {@link Constants#RESPONSE_HEADER_CONTINUATION_TOKEN} header, set it as the
+     * {@link AssetQuery#continuationToken} of the same query to retrieve the next page. Results of queries without a
+     * limit are streamed, the assets are written to the response while the query runs.
      */
     @POST
     @Path("query")
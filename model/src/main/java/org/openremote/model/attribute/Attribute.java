@@ -230,6 +230,22 @@ public class Attribute<T> extends AbstractNameValueHolder<T> implements MetaHold
         this.name = name;
     }
 
+    /**
+     * Creates a structural copy of this attribute, the copy shares the value and the meta items with this attribute
+     * but has its own {@link MetaMap}. This is much cheaper than {@link ValueUtil#clone} and intended for deriving a
+     * new state of the attribute with {@link #setValue(Object, long)}; meta items must be replaced rather than
+     * modified in place to keep both attributes independent.
+     */
+    public Attribute<T> copy() {
+        Attribute<T> attribute = new Attribute<>();
+        attribute.name = name;
+        attribute.type = type;
+        attribute.value = value;
+        attribute.timestamp = timestamp;
+        attribute.meta = meta != null ? meta.copy() : null;
+        return attribute;
+    }
+
     public MetaMap getMeta() {
         if (meta == null) {
             meta = new MetaMap();
@@ -39,6 +39,13 @@ public class AttributeMap extends NamedMap<Attribute<?>> {
         super(map);
     }
 
+    /**
+     * @return A copy of this map that shares the attributes, see {@link #copyInto}.
+     */
+    public AttributeMap copy() {
+        return copyInto(new AttributeMap());
+    }
+
     // This works around the crappy type system and avoids the need for a type witness
     public <S> Optional<Attribute<S>> get(AttributeDescriptor<S> attributeDescriptor) {
         return super.get(attributeDescriptor);
@@ -98,6 +98,13 @@ public class MetaMap extends NamedMap<MetaItem<?>> {
         super(map);
     }
 
+    /**
+     * @return A copy of this map that shares the meta items, see {@link #copyInto}.
+     */
+    public MetaMap copy() {
+        return copyInto(new MetaMap());
+    }
+
     // This works around the crappy type system and avoids the need for a type witness
     public <S> Optional<MetaItem<S>> get(MetaItemDescriptor<S> metaDescriptor) {
         return super.get(metaDescriptor);
@@ -114,7 +121,7 @@ public class MetaMap extends NamedMap<MetaItem<?>> {
     }
 
     public <T> void set(MetaItemDescriptor<T> descriptor, T value) {
-        MetaItem<T> metaItem = get(descriptor).orElse(new MetaItem<>(descriptor, null));
-        metaItem.setValue(value);
+        // Replace rather than modify the item, it might be shared with a copy of this map
+        get(descriptor).ifPresent(metaItem -> addOrReplace(new MetaItem<>(descriptor, value)));
     }
 }
@@ -57,6 +57,15 @@ public class NamedMap<T extends AbstractNameValueHolder<?>> extends ForwardingMa
         return delegate;
     }
 
+    /**
+     * Fills the given empty map with the items of this map without copying the items themselves; the maps can be
+     * modified independently but items must be replaced rather than changed in place to keep them independent.
+     */
+    protected <M extends NamedMap<T>> M copyInto(M map) {
+        map.delegate = new HashMap<>(delegate);
+        return map;
+    }
+
     public T put(T value) {
         return this.put(value.getName(), value);
     }
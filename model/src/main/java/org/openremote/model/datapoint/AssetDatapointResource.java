@@ -39,6 +39,9 @@ public interface AssetDatapointResource {
      * regular user tries to access an asset in a realm different than its authenticated realm, or if the user is
      * restricted and the asset is not linked to the user. A 400 status is returned if the asset attribute does
      * not have datapoint storage enabled.
+     * <p>
+     * If a decimation is given then the interval and step are ignored and at most <code>points</code> raw datapoints
+     * of a numeric or boolean attribute are returned, selected so spikes stay visible on a chart.
      */
     @GET
     @Path("{assetId}/attribute/{attributeName}")
@@ -50,7 +53,9 @@ public interface AssetDatapointResource {
                                    @QueryParam("interval") DatapointInterval datapointInterval,
                                    @QueryParam("step") Integer stepSize,
                                    @QueryParam("fromTimestamp") long fromTimestamp,
-                                   @QueryParam("toTimestamp") long toTimestamp);
+                                   @QueryParam("toTimestamp") long toTimestamp,
+                                   @QueryParam("decimation") DatapointDecimation decimation,
+                                   @QueryParam("points") Integer points);
 
     @GET
     @Path("periods")
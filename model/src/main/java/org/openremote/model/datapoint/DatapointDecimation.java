@@ -0,0 +1,38 @@
+/*
+ * Copyright 2021, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.model.datapoint;
+
+/**
+ * Reduces a series of numeric or boolean datapoints to a maximum number of points without averaging away spikes.
+ */
+public enum DatapointDecimation {
+
+    /**
+     * Largest-Triangle-Three-Buckets, selects the one datapoint of each bucket that forms the largest triangle with
+     * the datapoint selected in the previous bucket and the average of the next bucket.
+     */
+    LTTB,
+
+    /**
+     * Selects the first, last, minimum and maximum datapoint of each bucket, so a line chart of the result matches a
+     * line chart of all datapoints.
+     */
+    M4
+}
@@ -41,6 +41,20 @@ public class EventSubscription<E extends SharedEvent> {
     protected String eventType;
     protected EventFilter<E> filter;
     protected String subscriptionId;
+    /**
+     * Optional interval in milliseconds, when set the matching events are buffered and sent together in one
+     * {@link TriggeredEventSubscription} per interval.
+     */
+    protected Integer batchInterval;
+    /**
+     * When batching, only keep the latest {@link org.openremote.model.attribute.AttributeEvent} of each attribute in
+     * the buffer.
+     */
+    protected boolean coalesce;
+    /**
+     * Optional encoding of the triggered messages, defaults to {@link EventEncoding#JSON}.
+     */
+    protected EventEncoding encoding;
     @JsonIgnore
     protected boolean subscribed;
 
@@ -121,6 +135,30 @@ public class EventSubscription<E extends SharedEvent> {
         return subscriptionId;
     }
 
+    public Integer getBatchInterval() {
+        return batchInterval;
+    }
+
+    public void setBatchInterval(Integer batchInterval) {
+        this.batchInterval = batchInterval;
+    }
+
+    public boolean isCoalesce() {
+        return coalesce;
+    }
+
+    public void setCoalesce(boolean coalesce) {
+        this.coalesce = coalesce;
+    }
+
+    public EventEncoding getEncoding() {
+        return encoding;
+    }
+
+    public void setEncoding(EventEncoding encoding) {
+        this.encoding = encoding;
+    }
+
     public void setSubscribed(boolean subscribed) {
         this.subscribed = subscribed;
     }
@@ -135,6 +173,9 @@ public class EventSubscription<E extends SharedEvent> {
             "eventType='" + eventType + '\'' +
             ", filter=" + filter +
             ", subscriptionId='" + subscriptionId + '\'' +
+            ", batchInterval=" + batchInterval +
+            ", coalesce=" + coalesce +
+            ", encoding=" + encoding +
             '}';
     }
 }
@@ -227,6 +227,9 @@ public class AssetQuery {
     // Ordering
     public OrderBy orderBy;
     public int limit;
+    // Opaque token returned with the previous page of an ordered and limited query, the next page starts after the
+    // last asset of the previous page
+    public String continuationToken;
 
     public static class AssetClassToStringConverter extends StdConverter<Class<? extends Asset<?>>, String> {
 
@@ -433,6 +436,16 @@ public class AssetQuery {
         return this;
     }
 
+    public AssetQuery limit(int limit) {
+        this.limit = limit;
+        return this;
+    }
+
+    public AssetQuery continuationToken(String continuationToken) {
+        this.continuationToken = continuationToken;
+        return this;
+    }
+
     @Override
     public String toString() {
         return getClass().getSimpleName() + "{" +
@@ -446,6 +459,8 @@ public class AssetQuery {
                 ", type=" + Arrays.toString(types) +
                 ", attribute=" + (attributes != null ? attributes.toString() : "null") +
                 ", orderBy=" + orderBy +
+                ", limit=" + limit +
+                ", continuationToken='" + continuationToken + '\'' +
                 ", recursive=" + recursive +
                 '}';
     }
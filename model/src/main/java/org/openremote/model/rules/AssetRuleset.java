@@ -165,6 +165,24 @@ public class AssetRuleset extends Ruleset {
         return this;
     }
 
+    @Override
+    public AssetRuleset setFireDebounceMillis(int fireDebounceMillis) {
+        super.setFireDebounceMillis(fireDebounceMillis);
+        return this;
+    }
+
+    @Override
+    public AssetRuleset setFireMaxLatencyMillis(int fireMaxLatencyMillis) {
+        super.setFireMaxLatencyMillis(fireMaxLatencyMillis);
+        return this;
+    }
+
+    @Override
+    public AssetRuleset setFireMinIntervalMillis(int fireMinIntervalMillis) {
+        super.setFireMinIntervalMillis(fireMinIntervalMillis);
+        return this;
+    }
+
     @Override
     public String toString() {
         return getClass().getSimpleName() + "{" +
@@ -126,6 +126,24 @@ public class GlobalRuleset extends Ruleset {
         return this;
     }
 
+    @Override
+    public GlobalRuleset setFireDebounceMillis(int fireDebounceMillis) {
+        super.setFireDebounceMillis(fireDebounceMillis);
+        return this;
+    }
+
+    @Override
+    public GlobalRuleset setFireMaxLatencyMillis(int fireMaxLatencyMillis) {
+        super.setFireMaxLatencyMillis(fireMaxLatencyMillis);
+        return this;
+    }
+
+    @Override
+    public GlobalRuleset setFireMinIntervalMillis(int fireMinIntervalMillis) {
+        super.setFireMinIntervalMillis(fireMinIntervalMillis);
+        return this;
+    }
+
     @Override
     public String toString() {
         return getClass().getSimpleName() + "{" +
@@ -205,6 +205,20 @@ public abstract class Ruleset {
     public static final MetaItemDescriptor<Boolean> CONTINUE_ON_ERROR = new MetaItemDescriptor<>("continueOnError", ValueType.BOOLEAN);
     public static final MetaItemDescriptor<CalendarEvent> VALIDITY = new MetaItemDescriptor<>("validity", ValueType.CALENDAR_EVENT);
     public static final MetaItemDescriptor<Boolean> TRIGGER_ON_PREDICTED_DATA = new MetaItemDescriptor<>("triggerOnPredictedData", ValueType.BOOLEAN);
+    /**
+     * Quiet period after the last change of facts before the rules engine fires, 0 fires without waiting for more
+     * changes.
+     */
+    public static final MetaItemDescriptor<Integer> FIRE_DEBOUNCE_MILLIS = new MetaItemDescriptor<>("fireDebounceMillis", ValueType.NON_NEGATIVE_INTEGER);
+    /**
+     * Maximum delay between the first unprocessed change of facts and the firing of the rules engine, also while
+     * facts keep changing.
+     */
+    public static final MetaItemDescriptor<Integer> FIRE_MAX_LATENCY_MILLIS = new MetaItemDescriptor<>("fireMaxLatencyMillis", ValueType.NON_NEGATIVE_INTEGER);
+    /**
+     * Minimum time between two firings of the rules engine, which limits the firing rate.
+     */
+    public static final MetaItemDescriptor<Integer> FIRE_MIN_INTERVAL_MILLIS = new MetaItemDescriptor<>("fireMinIntervalMillis", ValueType.NON_NEGATIVE_INTEGER);
 
     protected Ruleset() {
     }
@@ -357,4 +371,37 @@ public abstract class Ruleset {
         getMeta().set(TRIGGER_ON_PREDICTED_DATA, triggerOnPredictedData);
         return this;
     }
+
+    @JsonIgnore
+    public Integer getFireDebounceMillis() {
+        return getMeta().get(FIRE_DEBOUNCE_MILLIS).flatMap(MetaItem::getValue).orElse(null);
+    }
+
+    @JsonIgnore
+    public Ruleset setFireDebounceMillis(int fireDebounceMillis) {
+        getMeta().set(FIRE_DEBOUNCE_MILLIS, fireDebounceMillis);
+        return this;
+    }
+
+    @JsonIgnore
+    public Integer getFireMaxLatencyMillis() {
+        return getMeta().get(FIRE_MAX_LATENCY_MILLIS).flatMap(MetaItem::getValue).orElse(null);
+    }
+
+    @JsonIgnore
+    public Ruleset setFireMaxLatencyMillis(int fireMaxLatencyMillis) {
+        getMeta().set(FIRE_MAX_LATENCY_MILLIS, fireMaxLatencyMillis);
+        return this;
+    }
+
+    @JsonIgnore
+    public Integer getFireMinIntervalMillis() {
+        return getMeta().get(FIRE_MIN_INTERVAL_MILLIS).flatMap(MetaItem::getValue).orElse(null);
+    }
+
+    @JsonIgnore
+    public Ruleset setFireMinIntervalMillis(int fireMinIntervalMillis) {
+        getMeta().set(FIRE_MIN_INTERVAL_MILLIS, fireMinIntervalMillis);
+        return this;
+    }
 }
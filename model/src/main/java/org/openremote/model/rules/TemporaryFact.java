@@ -34,11 +34,12 @@ import java.time.temporal.ChronoUnit;
 public class TemporaryFact<T> extends Event {
 
     /**
-     * This value defines the periodic firing of the rules engines, and therefore
-     * has an impact on system load. If a temporary fact has a shorter expiration
-     * time, it's not guaranteed to be removed within that time. Any time-based
-     * operation, such as matching temporary facts in a sliding time window, must
-     * be designed with this margin in mind.
+     * This value is the default debounce and maximum latency of rules engine firing
+     * (see {@link Ruleset#FIRE_DEBOUNCE_MILLIS} and {@link Ruleset#FIRE_MAX_LATENCY_MILLIS}),
+     * and therefore has an impact on system load. A rules engine wakes up when its next
+     * temporary fact expires, but the removal is only processed once any minimum firing
+     * interval has passed. Any time-based operation, such as matching temporary facts in
+     * a sliding time window, must be designed with this margin in mind.
      */
     // TODO This is not true, need to add GlobalLockTimeout
     public static int GUARANTEED_MIN_EXPIRATION_MILLIS = 3000;
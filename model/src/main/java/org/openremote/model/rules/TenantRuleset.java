@@ -152,6 +152,24 @@ public class TenantRuleset extends Ruleset {
         return this;
     }
 
+    @Override
+    public TenantRuleset setFireDebounceMillis(int fireDebounceMillis) {
+        super.setFireDebounceMillis(fireDebounceMillis);
+        return this;
+    }
+
+    @Override
+    public TenantRuleset setFireMaxLatencyMillis(int fireMaxLatencyMillis) {
+        super.setFireMaxLatencyMillis(fireMaxLatencyMillis);
+        return this;
+    }
+
+    @Override
+    public TenantRuleset setFireMinIntervalMillis(int fireMinIntervalMillis) {
+        super.setFireMinIntervalMillis(fireMinIntervalMillis);
+        return this;
+    }
+
     @Override
     public String toString() {
         return getClass().getSimpleName() + "{" +
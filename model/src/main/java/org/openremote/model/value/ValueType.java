@@ -90,6 +90,10 @@ public final class ValueType {
         new ValueConstraint.Min(0)
     );
 
+    public static final ValueDescriptor<Integer> NON_NEGATIVE_INTEGER = new ValueDescriptor<>("nonNegativeInteger", Integer.class,
+        new ValueConstraint.Min(0)
+    );
+
     public static final ValueDescriptor<Integer> NEGATIVE_INTEGER = new ValueDescriptor<>("negativeInteger", Integer.class,
         new ValueConstraint.Max(0)
     );
@@ -0,0 +1,227 @@
+package org.openremote.test.assets
+
+import org.openremote.container.Container
+import org.openremote.container.persistence.PersistenceService
+import org.openremote.manager.asset.AssetProcessingService
+import org.openremote.manager.asset.AssetStorageService
+import org.openremote.model.asset.Asset
+import org.openremote.model.asset.impl.ThingAsset
+import org.openremote.model.attribute.Attribute
+import org.openremote.model.attribute.AttributeEvent
+import org.openremote.model.value.ValueType
+import spock.lang.Specification
+
+import javax.persistence.EntityManager
+import java.util.function.Function
+
+import static org.openremote.model.attribute.AttributeEvent.Source.CLIENT
+import static org.openremote.model.attribute.AttributeWriteFailure.STATE_STORAGE_FAILED
+import static org.openremote.model.attribute.AttributeWriteFailure.UNKNOWN
+
+class AssetBatchRollbackTest extends Specification {
+
+    /**
+     * Keeps the values written in a transaction and only commits them if the transaction completes.
+     */
+    static class TestPersistenceService extends PersistenceService {
+        List<String> pending
+        List<String> committed = []
+        int transactions
+        RuntimeException failure
+
+        @Override
+        <R> R doReturningTransaction(Function<EntityManager, R> entityManagerFunction) {
+            transactions++
+            pending = []
+            if (failure != null) {
+                throw failure
+            }
+            R result = entityManagerFunction.apply(null)
+            committed.addAll(pending)
+            return result
+        }
+    }
+
+    /**
+     * Writes the values into the pending transaction, the values of failing assets are never written.
+     */
+    static class TestAssetStorageService extends AssetStorageService {
+        TestPersistenceService persistence
+        // Asset ID and the transactions in which storing its values fails
+        Map<String, List<Integer>> failingAssets = [:]
+        Map<String, Collection<Attribute<?>>> cached = [:]
+
+        @Override
+        protected Set<String> updateAttributeValues(EntityManager em, Map<String, Collection<Attribute<?>>> assetAttributes) {
+            Set<String> failedAssetIds = []
+            assetAttributes.each { assetId, attributes ->
+                if (failingAssets[assetId]?.contains(persistence.transactions)) {
+                    failedAssetIds.add(assetId)
+                } else {
+                    attributes.each { persistence.pending.add(assetId + ":" + it.name + "=" + it.value.orElse(null)) }
+                }
+            }
+            return failedAssetIds
+        }
+
+        @Override
+        protected void cacheAttributeValues(Map<String, Collection<Attribute<?>>> assetAttributes) {
+            cached.putAll(assetAttributes)
+        }
+    }
+
+    /**
+     * Stores the value of each event without processors and records the processed and committed events.
+     */
+    static class TestAssetProcessingService extends AssetProcessingService {
+        List<String> processed = []
+        List<String> committed = []
+        List<String> published = []
+
+        @Override
+        protected Map<String, Asset<?>> findAssets(EntityManager em, List<QueuedAttributeEvent> batch) {
+            batch.collectEntries { [(it.event.assetId): new ThingAsset(it.event.assetId).setId(it.event.assetId).setRealm("master")] }
+        }
+
+        @Override
+        protected Attribute<?> processAttributeEvent(EntityManager em, Asset<?> asset, QueuedAttributeEvent queuedEvent) {
+            processed.add(queuedEvent.event.assetId + ":" + queuedEvent.event.attributeName)
+            return new Attribute<>(queuedEvent.event.attributeName, ValueType.NUMBER, queuedEvent.event.value.orElse(null))
+        }
+
+        @Override
+        protected void notifyAssetUpdateCommitted(Asset<?> asset, Attribute<?> attribute, AttributeEvent.Source source) {
+            committed.add(asset.id + ":" + attribute.name)
+        }
+
+        @Override
+        protected void publishClientEvent(Asset<?> asset, Attribute<?> attribute) {
+            published.add(asset.id + ":" + attribute.name)
+        }
+    }
+
+    def persistenceService = new TestPersistenceService()
+    def assetStorageService = new TestAssetStorageService(persistence: persistenceService)
+    def service = new TestAssetProcessingService()
+
+    def setupSpec() {
+        // Init logging config
+        Container.LOG.info("Running test...")
+    }
+
+    def setup() {
+        service.persistenceService = persistenceService
+        service.assetStorageService = assetStorageService
+    }
+
+    static List<AssetProcessingService.QueuedAttributeEvent> batch() {
+        [
+            new AssetProcessingService.QueuedAttributeEvent(new AttributeEvent("asset1", "temperature", 1d), CLIENT, null, null),
+            new AssetProcessingService.QueuedAttributeEvent(new AttributeEvent("asset2", "temperature", 2d), CLIENT, null, null),
+            new AssetProcessingService.QueuedAttributeEvent(new AttributeEvent("asset3", "temperature", 3d), CLIENT, null, null),
+            new AssetProcessingService.QueuedAttributeEvent(new AttributeEvent("asset1", "humidity", 4d), CLIENT, null, null)
+        ]
+    }
+
+    static Map<String, Object> failures(List<AssetProcessingService.QueuedAttributeEvent> batch) {
+        batch.collectEntries { [(it.event.assetId + ":" + it.event.attributeName): it.failure?.reason] }
+    }
+
+    def "A batch is stored in one transaction"() {
+
+        given: "a batch of events"
+        def batch = batch()
+
+        when: "the batch is processed"
+        service.processAttributeEvents(batch)
+
+        then: "all values should have been committed in one transaction"
+        persistenceService.transactions == 1
+        persistenceService.committed as Set == ["asset1:temperature=1.0", "asset1:humidity=4.0", "asset2:temperature=2.0", "asset3:temperature=3.0"] as Set
+
+        and: "every event should have succeeded and been released"
+        failures(batch).values().every { it == null }
+        batch.every { it.processed.count == 0 }
+        service.committed.size() == 4
+        service.published.size() == 4
+        assetStorageService.cached.keySet() == ["asset1", "asset2", "asset3"] as Set
+    }
+
+    def "The values of the other assets are stored again when an asset of the batch fails"() {
+
+        given: "a batch where the values of one asset can't be stored"
+        def batch = batch()
+        assetStorageService.failingAssets["asset2"] = [1]
+
+        when: "the batch is processed"
+        service.processAttributeEvents(batch)
+
+        then: "the batch should have been rolled back and the values of the other assets stored in a new transaction"
+        persistenceService.transactions == 2
+        persistenceService.committed as Set == ["asset1:temperature=1.0", "asset1:humidity=4.0", "asset3:temperature=3.0"] as Set
+
+        and: "the events shouldn't have been processed again"
+        service.processed == ["asset1:temperature", "asset2:temperature", "asset3:temperature", "asset1:humidity"]
+
+        and: "only the events of the failed asset should have failed"
+        failures(batch) == [
+            "asset1:temperature": null,
+            "asset2:temperature": STATE_STORAGE_FAILED,
+            "asset3:temperature": null,
+            "asset1:humidity"   : null
+        ]
+        batch.every { it.processed.count == 0 }
+
+        and: "only the stored values should have been committed, published and cached"
+        service.committed as Set == ["asset1:temperature", "asset3:temperature", "asset1:humidity"] as Set
+        service.published as Set == ["asset1:temperature", "asset3:temperature", "asset1:humidity"] as Set
+        assetStorageService.cached.keySet() == ["asset1", "asset3"] as Set
+    }
+
+    def "Assets that fail when the values are stored again fail as well"() {
+
+        given: "a batch where one asset fails and another fails when the values are stored again"
+        def batch = batch()
+        assetStorageService.failingAssets["asset2"] = [1]
+        assetStorageService.failingAssets["asset3"] = [2]
+
+        when: "the batch is processed"
+        service.processAttributeEvents(batch)
+
+        then: "the values of the remaining asset should have been stored in a third transaction"
+        persistenceService.transactions == 3
+        persistenceService.committed as Set == ["asset1:temperature=1.0", "asset1:humidity=4.0"] as Set
+
+        and: "the events of both failed assets should have failed"
+        failures(batch) == [
+            "asset1:temperature": null,
+            "asset2:temperature": STATE_STORAGE_FAILED,
+            "asset3:temperature": STATE_STORAGE_FAILED,
+            "asset1:humidity"   : null
+        ]
+        service.published as Set == ["asset1:temperature", "asset1:humidity"] as Set
+        assetStorageService.cached.keySet() == ["asset1"] as Set
+    }
+
+    def "Nothing of a batch is published when its transaction fails"() {
+
+        given: "the transaction fails"
+        def batch = batch()
+        persistenceService.failure = new IllegalStateException("Connection lost")
+
+        when: "the batch is processed"
+        service.processAttributeEvents(batch)
+
+        then: "nothing should have been committed"
+        persistenceService.committed.isEmpty()
+
+        and: "every event should have failed and been released"
+        failures(batch).values().every { it == UNKNOWN }
+        batch.every { it.processed.count == 0 }
+
+        and: "nothing should have been published or cached"
+        service.committed.isEmpty()
+        service.published.isEmpty()
+        assetStorageService.cached.isEmpty()
+    }
+}
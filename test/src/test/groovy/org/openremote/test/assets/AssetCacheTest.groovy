@@ -0,0 +1,127 @@
+package org.openremote.test.assets
+
+import org.openremote.container.Container
+import org.openremote.manager.asset.AssetCache
+import org.openremote.model.asset.impl.ThingAsset
+import org.openremote.model.attribute.Attribute
+import org.openremote.model.value.ValueType
+import spock.lang.Specification
+
+class AssetCacheTest extends Specification {
+
+    def cache = new AssetCache(100)
+
+    def setupSpec() {
+        // Init logging config
+        Container.LOG.info("Running test...")
+    }
+
+    static ThingAsset asset(double temperature) {
+        new ThingAsset("Thing 1").setId("asset1").setRealm("master").addOrReplaceAttributes(
+            new Attribute<>("temperature", ValueType.NUMBER, temperature),
+            new Attribute<>("notes", ValueType.TEXT, "Some notes")
+        ) as ThingAsset
+    }
+
+    static Object value(asset, String attributeName) {
+        asset.getAttribute(attributeName).flatMap { it.value }.orElse(null)
+    }
+
+    def "Cached assets are snapshots that callers can't modify"() {
+
+        given: "a cached asset"
+        def loaded = asset(20d)
+        cache.put(loaded, cache.invalidations)
+
+        when: "the loaded asset is modified after it was cached"
+        loaded.setName("Modified")
+        loaded.addOrReplaceAttributes(new Attribute<>("temperature", ValueType.NUMBER, 25d))
+
+        then: "the cached asset should be unchanged"
+        cache.get("asset1").name == "Thing 1"
+        value(cache.get("asset1"), "temperature") == 20d
+
+        when: "a caller modifies its copy"
+        def copy1 = cache.get("asset1")
+        copy1.setName("Modified")
+        copy1.addOrReplaceAttributes(new Attribute<>("temperature", ValueType.NUMBER, 30d))
+        copy1.addOrReplaceAttributes(new Attribute<>("humidity", ValueType.NUMBER, 50d))
+        copy1.getAttributes().remove("notes")
+
+        then: "the cached asset and the copies of other callers should be unchanged"
+        def copy2 = cache.get("asset1")
+        !copy1.is(copy2)
+        copy2.name == "Thing 1"
+        value(copy2, "temperature") == 20d
+        !copy2.getAttribute("humidity").present
+        value(copy2, "notes") == "Some notes"
+    }
+
+    def "Written attribute values replace the snapshot without changing earlier copies"() {
+
+        given: "a cached asset and a copy of it"
+        cache.put(asset(20d), cache.invalidations)
+        def before = cache.get("asset1")
+
+        when: "a committed attribute value is written through"
+        def attribute = new Attribute<>("temperature", ValueType.NUMBER, 25d)
+        cache.putAttributes("asset1", [attribute])
+
+        then: "new copies should have the written value and the other attributes"
+        value(cache.get("asset1"), "temperature") == 25d
+        value(cache.get("asset1"), "notes") == "Some notes"
+
+        and: "the earlier copy should still have the old value"
+        value(before, "temperature") == 20d
+
+        when: "the written attribute is modified by the writer"
+        attribute.setValue(30d)
+
+        then: "the cached asset should be unchanged"
+        value(cache.get("asset1"), "temperature") == 25d
+    }
+
+    def "Attribute values of assets that aren't cached aren't written through"() {
+
+        when: "an attribute value of an asset that isn't cached is written through"
+        cache.putAttributes("asset1", [new Attribute<>("temperature", ValueType.NUMBER, 25d)])
+
+        then: "the asset shouldn't be cached"
+        cache.get("asset1") == null
+        cache.size() == 0
+    }
+
+    def "An asset loaded while an asset was invalidated isn't cached"() {
+
+        given: "the invalidation count before the asset is loaded"
+        def invalidations = cache.invalidations
+
+        when: "an asset is invalidated while it is loaded"
+        cache.invalidate("asset2")
+        cache.put(asset(20d), invalidations)
+
+        then: "the loaded asset shouldn't be cached"
+        cache.get("asset1") == null
+
+        when: "the asset is loaded again"
+        cache.put(asset(20d), cache.invalidations)
+
+        then: "it should be cached until it is invalidated"
+        cache.get("asset1") != null
+        cache.invalidate("asset1")
+        cache.get("asset1") == null
+    }
+
+    def "A disabled cache doesn't cache assets"() {
+
+        given: "a disabled cache"
+        def cache = new AssetCache(0)
+
+        when: "an asset is cached"
+        cache.put(asset(20d), cache.invalidations)
+
+        then: "it shouldn't be returned"
+        !cache.enabled
+        cache.get("asset1") == null
+    }
+}
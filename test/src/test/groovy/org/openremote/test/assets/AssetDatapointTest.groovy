@@ -5,9 +5,11 @@ import org.openremote.manager.agent.AgentService
 import org.openremote.manager.asset.AssetProcessingService
 import org.openremote.manager.asset.AssetStorageService
 import org.openremote.manager.datapoint.AssetDatapointService
+import org.openremote.manager.datapoint.LttbDecimator
 import org.openremote.manager.setup.SetupService
 import org.openremote.test.setup.ManagerTestSetup
 import org.openremote.model.attribute.AttributeRef
+import org.openremote.model.datapoint.DatapointDecimation
 import org.openremote.model.datapoint.DatapointInterval
 import org.openremote.model.util.ValueUtil
 import org.openremote.test.ManagerContainerTrait
@@ -134,25 +136,30 @@ class AssetDatapointTest extends Specification implements ManagerContainerTrait
             assert ValueUtil.getValue(datapoints.get(4).value, Double.class).orElse(null) == 13.3d
         }
 
-        and: "the aggregated datapoints should match"
+        and: "the aggregated datapoints should match before and after they have been rolled up"
         conditions.eventually {
-            def thing = assetStorageService.find(managerTestSetup.thingId, true)
-            def aggregatedDatapoints = assetDatapointService.getValueDatapoints(
-                thing.getId(),
-                thing.getAttribute("light1PowerConsumption").orElseThrow({ new RuntimeException("Missing attribute") }),
-                DatapointInterval.MINUTE,
-                null,
-                LocalDateTime.ofInstant(Instant.ofEpochMilli(getClockTimeOf(container)), ZoneId.systemDefault()).minus(1, ChronoUnit.HOURS),
-                LocalDateTime.ofInstant(Instant.ofEpochMilli(getClockTimeOf(container)), ZoneId.systemDefault())
-            )
-            assert aggregatedDatapoints.size() == 61
-            assert aggregatedDatapoints[54].value == 13.3
-            assert aggregatedDatapoints[55].value == null
-            assert aggregatedDatapoints[56].value == 13.3
-            assert aggregatedDatapoints[57].value == 13.5
-            assert aggregatedDatapoints[58].value == 14.4
-            assert aggregatedDatapoints[59].value == 15.5
-            assert aggregatedDatapoints[60].value == null
+            [false, true].each { rollup ->
+                if (rollup) {
+                    assetDatapointService.rollupDatapoints()
+                }
+                def thing = assetStorageService.find(managerTestSetup.thingId, true)
+                def aggregatedDatapoints = assetDatapointService.getValueDatapoints(
+                    thing.getId(),
+                    thing.getAttribute("light1PowerConsumption").orElseThrow({ new RuntimeException("Missing attribute") }),
+                    DatapointInterval.MINUTE,
+                    null,
+                    LocalDateTime.ofInstant(Instant.ofEpochMilli(getClockTimeOf(container)), ZoneId.systemDefault()).minus(1, ChronoUnit.HOURS),
+                    LocalDateTime.ofInstant(Instant.ofEpochMilli(getClockTimeOf(container)), ZoneId.systemDefault())
+                )
+                assert aggregatedDatapoints.size() == 61
+                assert aggregatedDatapoints[54].value == 13.3
+                assert aggregatedDatapoints[55].value == null
+                assert aggregatedDatapoints[56].value == 13.3
+                assert aggregatedDatapoints[57].value == 13.5
+                assert aggregatedDatapoints[58].value == 14.4
+                assert aggregatedDatapoints[59].value == 15.5
+                assert aggregatedDatapoints[60].value == null
+            }
         }
 
         and: "when the step size is set on the datapoint retrieval then the datapoints should match"
@@ -171,6 +178,25 @@ class AssetDatapointTest extends Specification implements ManagerContainerTrait
             assert aggregatedDatapoints[12].value == 14.95
         }
 
+        and: "when the datapoints are decimated then the first, last and extreme values should be retained"
+        conditions.eventually {
+            def thing = assetStorageService.find(managerTestSetup.thingId, true)
+            def attribute = thing.getAttribute("light1PowerConsumption").orElseThrow({ new RuntimeException("Missing attribute") })
+            def from = LocalDateTime.ofInstant(Instant.ofEpochMilli(getClockTimeOf(container)), ZoneId.systemDefault()).minus(1, ChronoUnit.HOURS)
+            def to = LocalDateTime.ofInstant(Instant.ofEpochMilli(getClockTimeOf(container)), ZoneId.systemDefault())
+
+            def m4Datapoints = assetDatapointService.getDecimatedDatapoints(thing.getId(), attribute, DatapointDecimation.M4, 4, from, to)
+            assert m4Datapoints.size() == 2
+            assert m4Datapoints[0].value == 13.3d
+            assert m4Datapoints[1].value == 15.5d
+            assert m4Datapoints[1].timestamp == datapoint3ExpectedTimestamp
+
+            def lttbDatapoints = assetDatapointService.getDecimatedDatapoints(thing.getId(), attribute, DatapointDecimation.LTTB, 4, from, to)
+            assert lttbDatapoints.size() <= 4
+            assert lttbDatapoints[0].value == 13.3d
+            assert lttbDatapoints[lttbDatapoints.size() - 1].value == 15.5d
+        }
+
 
         // ------------------------------------
         // Test boolean data point storage
@@ -224,21 +250,26 @@ class AssetDatapointTest extends Specification implements ManagerContainerTrait
             assert datapoints.get(2).timestamp == datapoint1ExpectedTimestamp
         }
 
-        and: "the aggregated datapoints should match"
+        and: "the aggregated datapoints should match before and after they have been rolled up"
         conditions.eventually {
-            def thing = assetStorageService.find(managerTestSetup.thingId, true)
-            def aggregatedDatapoints = assetDatapointService.getValueDatapoints(
-                thing.getId(),
-                thing.getAttribute(thingLightToggleAttributeName).orElseThrow({ new RuntimeException("Missing attribute") }),
-                DatapointInterval.MINUTE,
-                null,
-                LocalDateTime.ofInstant(Instant.ofEpochMilli(getClockTimeOf(container)), ZoneId.systemDefault()).minus(1, ChronoUnit.HOURS),
-                LocalDateTime.ofInstant(Instant.ofEpochMilli(getClockTimeOf(container)), ZoneId.systemDefault())
-            )
-            assert aggregatedDatapoints.size() == 61
-            assert aggregatedDatapoints[58].value == 0
-            assert aggregatedDatapoints[59].value == 1d
-            assert aggregatedDatapoints[60].value == 0
+            [false, true].each { rollup ->
+                if (rollup) {
+                    assetDatapointService.rollupDatapoints()
+                }
+                def thing = assetStorageService.find(managerTestSetup.thingId, true)
+                def aggregatedDatapoints = assetDatapointService.getValueDatapoints(
+                    thing.getId(),
+                    thing.getAttribute(thingLightToggleAttributeName).orElseThrow({ new RuntimeException("Missing attribute") }),
+                    DatapointInterval.MINUTE,
+                    null,
+                    LocalDateTime.ofInstant(Instant.ofEpochMilli(getClockTimeOf(container)), ZoneId.systemDefault()).minus(1, ChronoUnit.HOURS),
+                    LocalDateTime.ofInstant(Instant.ofEpochMilli(getClockTimeOf(container)), ZoneId.systemDefault())
+                )
+                assert aggregatedDatapoints.size() == 61
+                assert aggregatedDatapoints[58].value == 0
+                assert aggregatedDatapoints[59].value == 1d
+                assert aggregatedDatapoints[60].value == 0
+            }
         }
 
         // ------------------------------------
@@ -337,4 +368,22 @@ class AssetDatapointTest extends Specification implements ManagerContainerTrait
             assert datapoints.isEmpty()
         }
     }
+
+    def "Test LTTB decimation doesn't exceed the maximum number of points"() {
+
+        given: "a decimator for four points over one second"
+        def decimator = new LttbDecimator(0, 1000, 4)
+
+        when: "datapoints are added including several at the end of the range"
+        (0..19).each { decimator.add(it * 50, it % 2 == 0 ? 1d : 2d) }
+        decimator.add(1000, 3d)
+        decimator.add(1000, 4d)
+        def datapoints = decimator.finish()
+
+        then: "no more than the maximum number of points should be selected, including the first and last datapoint"
+        datapoints.size() == 4
+        datapoints[0].timestamp == 0
+        datapoints[3].timestamp == 1000
+        datapoints[3].value == 4d
+    }
 }
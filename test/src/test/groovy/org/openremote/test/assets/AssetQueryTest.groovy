@@ -763,6 +763,40 @@ class AssetQueryTest extends Specification implements ManagerContainerTrait {
         assert asset == null
     }
 
+    def "Paged queries"() {
+
+        when: "the first page of an ordered query is retrieved"
+        def query = new AssetQuery()
+            .select(selectExcludePathAndAttributes())
+            .parents(new ParentPredicate(managerTestSetup.smartBuildingId))
+            .tenant(new TenantPredicate(keycloakTestSetup.tenantBuilding.realm))
+            .orderBy(new OrderBy(NAME, true))
+            .limit(2)
+        def assets = []
+        def continuationToken = assetStorageService.findAll(query, { assets.add(it) })
+
+        then: "the first page should be returned with a continuation token"
+        assets.size() == 2
+        assets.get(0).id == managerTestSetup.apartment3Id
+        assets.get(1).id == managerTestSetup.apartment2Id
+        continuationToken != null
+
+        when: "the next page is retrieved"
+        assets = []
+        continuationToken = assetStorageService.findAll(query.continuationToken(continuationToken), { assets.add(it) })
+
+        then: "the remaining asset should be returned without a continuation token"
+        assets.size() == 1
+        assets.get(0).id == managerTestSetup.apartment1Id
+        continuationToken == null
+
+        when: "the continuation token is used with a different order"
+        assetStorageService.findAll(query.orderBy(new OrderBy(NAME)), { assets.add(it) })
+
+        then: "the query should be rejected"
+        thrown(IllegalStateException)
+    }
+
     def "Location queries"() {
 
         given: "polling conditions"
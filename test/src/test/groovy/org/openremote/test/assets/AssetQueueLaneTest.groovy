@@ -0,0 +1,220 @@
+package org.openremote.test.assets
+
+import org.openremote.container.Container
+import org.openremote.container.persistence.PersistenceEvent
+import org.openremote.manager.agent.AgentService
+import org.openremote.manager.asset.AssetProcessingException
+import org.openremote.manager.asset.AssetProcessingService
+import org.openremote.model.asset.agent.DefaultAgentLink
+import org.openremote.model.asset.impl.ThingAsset
+import org.openremote.model.attribute.Attribute
+import org.openremote.model.attribute.AttributeEvent
+import org.openremote.model.attribute.AttributeMap
+import org.openremote.model.attribute.MetaItem
+import org.openremote.model.value.ValueType
+import spock.lang.Specification
+
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+import static org.openremote.container.concurrent.GlobalBarrier.withReadBarrier
+import static org.openremote.container.concurrent.GlobalBarrier.withWriteBarrier
+import static org.openremote.container.persistence.PersistenceEvent.Cause.*
+import static org.openremote.model.attribute.AttributeEvent.Source.CLIENT
+import static org.openremote.model.attribute.AttributeWriteFailure.ATTRIBUTE_NOT_FOUND
+import static org.openremote.model.attribute.AttributeWriteFailure.UNKNOWN
+import static org.openremote.model.value.MetaItemType.AGENT_LINK
+
+class AssetQueueLaneTest extends Specification {
+
+    /**
+     * Records the events instead of processing them, an event waits for its gate to open before it is processed and
+     * then fails if a failure is set for it.
+     */
+    static class TestAssetProcessingService extends AssetProcessingService {
+        List<String> processed = new CopyOnWriteArrayList<>()
+        Map<String, CountDownLatch> started = [:].asSynchronized()
+        Map<String, CountDownLatch> gates = [:].asSynchronized()
+        Map<String, AssetProcessingException> failures = [:].asSynchronized()
+
+        @Override
+        protected void processAttributeEvents(List<QueuedAttributeEvent> batch) {
+            withReadBarrier("test", {
+                batch.each { queuedEvent ->
+                    def key = queuedEvent.event.assetId + ":" + queuedEvent.event.value.orElse(null)
+                    started[key]?.countDown()
+                    gates[key]?.await(10, TimeUnit.SECONDS)
+                    processed.add(key)
+                    queuedEvent.failure = failures[key]
+                }
+            })
+            batch.each { it.release() }
+        }
+    }
+
+    def service = new TestAssetProcessingService()
+    ExecutorService laneExecutor
+
+    def setupSpec() {
+        // Init logging config
+        Container.LOG.info("Running test...")
+    }
+
+    def setup() {
+        service.assetQueuePartitions = 2
+        service.assetQueueBatchSize = 1
+        service.assetQueueBatchMillis = 0
+        service.assetQueueLanes = (1..2).collect { new ArrayBlockingQueue<>(100) }
+        laneExecutor = Executors.newFixedThreadPool(2)
+        service.assetQueueLanes.each { lane -> laneExecutor.execute { service.processAssetQueueLane(lane) } }
+    }
+
+    def cleanup() {
+        laneExecutor.shutdownNow()
+    }
+
+    /**
+     * @return An asset ID that is hashed onto the given lane.
+     */
+    def assetIdOnLane(int lane) {
+        (1..100).collect { "asset" + it }.find { service.getAssetQueueLane(it) == lane }
+    }
+
+    def queue(String assetId, int value) {
+        def queuedEvent = new AssetProcessingService.QueuedAttributeEvent(new AttributeEvent(assetId, "counter", value), null, null, null)
+        service.queueAttributeEvent(queuedEvent)
+        return queuedEvent
+    }
+
+    def "Events of different assets are processed concurrently while events of one asset stay in order"() {
+
+        given: "two assets on different lanes"
+        def asset1 = assetIdOnLane(0)
+        def asset2 = assetIdOnLane(1)
+
+        and: "the first event of the first asset is blocked while it is processed"
+        service.started[asset1 + ":1"] = new CountDownLatch(1)
+        service.gates[asset1 + ":1"] = new CountDownLatch(1)
+
+        when: "events of both assets are queued"
+        def events1 = (1..3).collect { queue(asset1, it) }
+        def events2 = (1..3).collect { queue(asset2, it) }
+
+        then: "the events of the other asset should be processed while the first asset is blocked"
+        service.started[asset1 + ":1"].await(10, TimeUnit.SECONDS)
+        events2.every { it.processed.await(10, TimeUnit.SECONDS) }
+        events1.every { it.processed.count == 1 }
+        service.processed == [asset2 + ":1", asset2 + ":2", asset2 + ":3"]
+
+        when: "the first asset is unblocked"
+        service.gates[asset1 + ":1"].countDown()
+
+        then: "the events of the first asset should be processed in queue order"
+        events1.every { it.processed.await(10, TimeUnit.SECONDS) }
+        service.processed.findAll { it.startsWith(asset1 + ":") } == [asset1 + ":1", asset1 + ":2", asset1 + ":3"]
+    }
+
+    def "Lanes wait while the write barrier is held"() {
+
+        given: "the write barrier is held"
+        def holding = new CountDownLatch(1)
+        def release = new CountDownLatch(1)
+        def holder = Thread.start {
+            withWriteBarrier("test", {
+                holding.countDown()
+                release.await(10, TimeUnit.SECONDS)
+            })
+        }
+        holding.await(10, TimeUnit.SECONDS)
+
+        when: "events are queued"
+        def events = [queue(assetIdOnLane(0), 1), queue(assetIdOnLane(1), 1)]
+
+        then: "they shouldn't be processed"
+        !events.any { it.processed.await(200, TimeUnit.MILLISECONDS) }
+        service.processed.isEmpty()
+
+        when: "the write barrier is released"
+        release.countDown()
+        holder.join()
+
+        then: "the events should be processed"
+        events.every { it.processed.await(10, TimeUnit.SECONDS) }
+        service.processed.size() == 2
+    }
+
+    def "Batch writes return the results of the processed events when others time out"() {
+
+        given: "a short reply timeout"
+        service.assetQueueReplyTimeoutMillis = 500
+
+        and: "two assets on different lanes, the first event of the first asset is blocked while it is processed"
+        def asset1 = assetIdOnLane(0)
+        def asset2 = assetIdOnLane(1)
+        service.gates[asset1 + ":1"] = new CountDownLatch(1)
+
+        and: "an event of the second asset fails"
+        service.failures[asset2 + ":2"] = new AssetProcessingException(ATTRIBUTE_NOT_FOUND)
+
+        when: "events of both assets are written in one batch"
+        def events = [
+            new AttributeEvent(asset1, "counter", 1),
+            new AttributeEvent(asset2, "counter", 1),
+            new AttributeEvent(asset1, "counter", 2),
+            new AttributeEvent(asset2, "counter", 2)
+        ]
+        def results = service.writeAttributeEvents(events, CLIENT, null)
+
+        then: "there should be a result for each event in the given order"
+        results*.ref == events*.attributeRef
+
+        and: "the events of the blocked asset should be unknown and the others should have their outcome"
+        results*.failure == [UNKNOWN, null, UNKNOWN, ATTRIBUTE_NOT_FOUND]
+
+        cleanup: "the blocked asset is unblocked"
+        service.gates[asset1 + ":1"].countDown()
+    }
+
+    def "Only asset changes that link or unlink agent attributes need the write barrier"() {
+
+        given: "an agent service"
+        def agentService = new AgentService()
+
+        expect: "the write barrier to be needed only when linked attributes change"
+        agentService.isAgentLinkChange(event) == linkChange
+
+        where:
+        event                                                                                                   | linkChange
+        new PersistenceEvent<>(CREATE, asset(unlinked(1)), new String[0], null)                                | false
+        new PersistenceEvent<>(CREATE, asset(unlinked(1), linked("agent1", 1)), new String[0], null)           | true
+        new PersistenceEvent<>(DELETE, asset(unlinked(1)), new String[0], null)                                | false
+        new PersistenceEvent<>(DELETE, asset(linked("agent1", 1)), new String[0], null)                        | true
+        update(["name"], [unlinked(1)], [unlinked(1)])                                                         | false
+        update(["attributes"], [unlinked(2), linked("agent1", 1)], [unlinked(1), linked("agent1", 1)])         | false
+        update(["attributes"], [unlinked(1), linked("agent1", 1)], [unlinked(1)])                              | true
+        update(["attributes"], [unlinked(1)], [unlinked(1), linked("agent1", 1)])                              | true
+        update(["attributes"], [linked("agent2", 1)], [linked("agent1", 1)])                                   | true
+    }
+
+    static Attribute<?> unlinked(double value) {
+        new Attribute<>("notes", ValueType.NUMBER, value)
+    }
+
+    static Attribute<?> linked(String agentId, double value) {
+        new Attribute<>("temperature", ValueType.NUMBER, value).addMeta(new MetaItem<>(AGENT_LINK, new DefaultAgentLink(agentId)))
+    }
+
+    static ThingAsset asset(Attribute<?>... attributes) {
+        new ThingAsset("Thing").setId("thing1").setRealm("master").addOrReplaceAttributes(attributes) as ThingAsset
+    }
+
+    static PersistenceEvent<?> update(List<String> propertyNames, List<Attribute<?>> current, List<Attribute<?>> previous) {
+        def currentState = propertyNames.collect { it == "attributes" ? new AttributeMap(current) : "Thing" }
+        def previousState = propertyNames.collect { it == "attributes" ? new AttributeMap(previous) : "Thing" }
+        new PersistenceEvent<>(UPDATE, asset(current as Attribute[]), propertyNames as String[], currentState as Object[], previousState as Object[])
+    }
+}
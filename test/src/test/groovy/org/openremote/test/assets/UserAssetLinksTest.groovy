@@ -0,0 +1,125 @@
+package org.openremote.test.assets
+
+import org.openremote.container.Container
+import org.openremote.manager.asset.UserAssetLinks
+import spock.lang.Specification
+
+import java.util.function.BiConsumer
+import java.util.function.Consumer
+
+class UserAssetLinksTest extends Specification {
+
+    def userAssetLinks = new UserAssetLinks()
+
+    def setupSpec() {
+        // Init logging config
+        Container.LOG.info("Running test...")
+    }
+
+    /**
+     * Checks the index against the expected links in both directions.
+     */
+    boolean matches(List<List<String>> links) {
+        def userIds = (links.collect { it[0] } + ["user1", "user2", "user3"]).unique()
+        def assetIds = (links.collect { it[1] } + ["asset1", "asset2", "asset3"]).unique()
+        userAssetLinks.size() == links.size() &&
+            userIds.every { userId ->
+                assetIds.every { assetId ->
+                    def linked = links.contains([userId, assetId])
+                    userAssetLinks.isLinked(userId, assetId) == linked &&
+                        userAssetLinks.isLinkedToAny([userId], assetId) == linked &&
+                        userAssetLinks.isLinkedToAll(userId, [assetId]) == linked
+                }
+            }
+    }
+
+    def "Links are indexed in both directions"() {
+
+        when: "users are linked to assets"
+        userAssetLinks.link("user1", "asset1")
+        userAssetLinks.link("user1", "asset2")
+        userAssetLinks.link("user2", "asset1")
+
+        then: "the index should contain the links"
+        matches([["user1", "asset1"], ["user1", "asset2"], ["user2", "asset1"]])
+        userAssetLinks.isLinkedToAny(["user3", "user2"], "asset1")
+        !userAssetLinks.isLinkedToAny(["user3", "user2"], "asset2")
+        userAssetLinks.isLinkedToAll("user1", ["asset1", "asset2"])
+        !userAssetLinks.isLinkedToAll("user2", ["asset1", "asset2"])
+        userAssetLinks.isLinkedToAll("user3", [])
+
+        when: "a link is added again"
+        userAssetLinks.link("user1", "asset1")
+
+        then: "the index should be unchanged"
+        matches([["user1", "asset1"], ["user1", "asset2"], ["user2", "asset1"]])
+    }
+
+    def "Unlinking removes links in both directions"() {
+
+        given: "linked users and assets"
+        userAssetLinks.link("user1", "asset1")
+        userAssetLinks.link("user1", "asset2")
+        userAssetLinks.link("user2", "asset1")
+        userAssetLinks.link("user2", "asset2")
+        userAssetLinks.link("user3", "asset3")
+
+        when: "a link is removed"
+        userAssetLinks.unlink("user1", "asset1")
+
+        then: "only that link should be removed"
+        matches([["user1", "asset2"], ["user2", "asset1"], ["user2", "asset2"], ["user3", "asset3"]])
+
+        when: "a link that doesn't exist is removed"
+        userAssetLinks.unlink("user3", "asset1")
+
+        then: "the index should be unchanged"
+        matches([["user1", "asset2"], ["user2", "asset1"], ["user2", "asset2"], ["user3", "asset3"]])
+
+        when: "an asset is unlinked"
+        userAssetLinks.unlinkAsset("asset2")
+
+        then: "all links of the asset should be removed"
+        matches([["user2", "asset1"], ["user3", "asset3"]])
+
+        when: "a user is unlinked"
+        userAssetLinks.unlinkUser("user2")
+
+        then: "all links of the user should be removed"
+        matches([["user3", "asset3"]])
+
+        when: "the last link of a user and asset is removed and linked again"
+        userAssetLinks.unlink("user3", "asset3")
+        userAssetLinks.link("user3", "asset3")
+
+        then: "the link should be indexed"
+        matches([["user3", "asset3"]])
+    }
+
+    def "Reloading replaces all links"() {
+
+        given: "linked users and assets"
+        userAssetLinks.link("user1", "asset1")
+        userAssetLinks.link("user2", "asset2")
+
+        when: "the links are reloaded"
+        userAssetLinks.reload({ BiConsumer<String, String> linkConsumer ->
+            linkConsumer.accept("user2", "asset2")
+            linkConsumer.accept("user3", "asset1")
+            linkConsumer.accept("user3", "asset3")
+        } as Consumer)
+
+        then: "the index should only contain the loaded links"
+        matches([["user2", "asset2"], ["user3", "asset1"], ["user3", "asset3"]])
+
+        when: "a loader fails"
+        userAssetLinks.reload({ BiConsumer<String, String> linkConsumer ->
+            linkConsumer.accept("user1", "asset1")
+            throw new IllegalStateException("Failed to load links")
+        } as Consumer)
+
+        then: "the previous links should be kept"
+        thrown(IllegalStateException)
+        matches([["user2", "asset2"], ["user3", "asset1"], ["user3", "asset3"]])
+    }
+}
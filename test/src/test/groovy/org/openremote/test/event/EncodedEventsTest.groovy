@@ -0,0 +1,79 @@
+package org.openremote.test.event
+
+import com.fasterxml.jackson.core.type.TypeReference
+import org.openremote.container.Container
+import org.openremote.manager.event.EncodedTriggeredEventSubscription
+import org.openremote.manager.event.EventTypeConverters
+import org.openremote.model.asset.AssetEvent
+import org.openremote.model.asset.impl.ThingAsset
+import org.openremote.model.attribute.AttributeEvent
+import org.openremote.model.event.TriggeredEventSubscription
+import org.openremote.model.event.shared.EventEncoding
+import org.openremote.model.event.shared.SharedEvent
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class EncodedEventsTest extends Specification {
+
+    def converters = new EventTypeConverters()
+
+    def setupSpec() {
+        // Init logging config
+        Container.LOG.info("Running test...")
+    }
+
+    static List<SharedEvent> singleEvent() {
+        [new AttributeEvent("asset1", "temperature", 21.5d, 1000L)]
+    }
+
+    static List<SharedEvent> batchOfEvents() {
+        [
+            new AttributeEvent("asset1", "temperature", 21.5d, 1000L),
+            new AttributeEvent("asset1", "notes", "Some notes", 2000L),
+            new AssetEvent(AssetEvent.Cause.UPDATE, new ThingAsset("Thing 1").setId("asset1").setRealm("master"), ["name"] as String[])
+        ]
+    }
+
+    @Unroll
+    def "The shared JSON message of #description equals the default message"() {
+
+        given: "the events are encoded once for all sessions"
+        def encodedEvents = new EncodedTriggeredEventSubscription.EncodedEvents<SharedEvent>(events)
+
+        expect: "the message of each session to equal the default message of the same subscription"
+        ["subscription1", "subscription2", null].every { subscriptionId ->
+            new EncodedTriggeredEventSubscription<>(encodedEvents, subscriptionId).toMessage() ==
+                converters.writeTriggeredEventSubscription(new TriggeredEventSubscription<>(events, subscriptionId), null)
+        }
+
+        and: "the type of each event to be written"
+        new EncodedTriggeredEventSubscription<>(encodedEvents, "subscription1").toMessage().count("\"eventType\":") == events.size()
+
+        where:
+        description  | events
+        "one event"  | singleEvent()
+        "a batch"    | batchOfEvents()
+    }
+
+    @Unroll
+    def "The shared CBOR message of #description decodes to the same subscription"() {
+
+        given: "the events are encoded once for all sessions"
+        def encodedEvents = new EncodedTriggeredEventSubscription.EncodedEvents<SharedEvent>(events)
+
+        expect: "the binary message of each session to decode to the events and subscription ID"
+        ["subscription1", null].every { subscriptionId ->
+            def message = new EncodedTriggeredEventSubscription<>(encodedEvents, subscriptionId, EventEncoding.CBOR)
+            def decoded = EventTypeConverters.CBOR.readValue(message.toBinaryMessage(), new TypeReference<TriggeredEventSubscription<SharedEvent>>() {})
+            decoded.subscriptionId == subscriptionId &&
+                decoded.events*.class == events*.class &&
+                converters.writeTriggeredEventSubscription(decoded, null) ==
+                converters.writeTriggeredEventSubscription(new TriggeredEventSubscription<>(events, subscriptionId), null)
+        }
+
+        where:
+        description  | events
+        "one event"  | singleEvent()
+        "a batch"    | batchOfEvents()
+    }
+}
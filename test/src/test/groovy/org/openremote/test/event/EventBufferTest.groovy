@@ -0,0 +1,168 @@
+package org.openremote.test.event
+
+import org.apache.camel.impl.DefaultCamelContext
+import org.apache.camel.impl.DefaultExchange
+import org.openremote.container.Container
+import org.openremote.container.timer.TimerService
+import org.openremote.manager.event.EventSubscriptions
+import org.openremote.manager.event.EventTypeConverters
+import org.openremote.model.asset.AssetFilter
+import org.openremote.model.attribute.AttributeEvent
+import org.openremote.model.event.TriggeredEventSubscription
+import org.openremote.model.event.shared.CancelEventSubscription
+import org.openremote.model.event.shared.EventSubscription
+import org.openremote.model.util.ValueUtil
+import spock.lang.Specification
+
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit
+import java.util.function.BiConsumer
+
+class EventBufferTest extends Specification {
+
+    static final String SESSION_KEY = "session1"
+    static final String SUBSCRIPTION_ID = "subscription1"
+    static final int BATCH_INTERVAL = 100
+    static final int MAX_BUFFERED_EVENTS = 3
+
+    def camelContext = new DefaultCamelContext()
+    def executorService = Mock(ScheduledExecutorService)
+    def sent = []
+    EventSubscriptions eventSubscriptions
+
+    def setupSpec() {
+        // Init logging config
+        Container.LOG.info("Running test...")
+    }
+
+    def setup() {
+        def timerService = new TimerService()
+        timerService.clock = TimerService.Clock.PSEUDO
+        eventSubscriptions = new EventSubscriptions(
+            timerService,
+            executorService,
+            { sessionKey, message -> sent.add(message) } as BiConsumer,
+            MAX_BUFFERED_EVENTS
+        )
+    }
+
+    def subscribe(boolean coalesce) {
+        def subscription = new EventSubscription<AttributeEvent>(AttributeEvent.class, new AssetFilter<AttributeEvent>("asset1"), SUBSCRIPTION_ID)
+        subscription.batchInterval = BATCH_INTERVAL
+        subscription.coalesce = coalesce
+        eventSubscriptions.createOrUpdate(SESSION_KEY, false, subscription)
+    }
+
+    def publish(String attributeName, Object value) {
+        def exchange = new DefaultExchange(camelContext)
+        exchange.in.body = new AttributeEvent("asset1", attributeName, value)
+        return eventSubscriptions.splitForSubscribers(exchange)
+    }
+
+    def "Events of a batching subscription are buffered and sent together after the interval"() {
+
+        given: "a batching subscription"
+        subscribe(false)
+        Runnable flush = null
+
+        when: "events are published"
+        def messages = [publish("a", 1), publish("b", 2), publish("c", 3)]
+
+        then: "the events should be buffered instead of being sent and one flush should be scheduled"
+        messages.every { it.isEmpty() }
+        sent.isEmpty()
+        1 * executorService.schedule(_ as Runnable, BATCH_INTERVAL, TimeUnit.MILLISECONDS) >> { args -> flush = args[0]; null }
+
+        when: "the interval has passed"
+        flush.run()
+
+        then: "all events should be sent in order in one message"
+        sent.size() == 1
+        sent[0] instanceof TriggeredEventSubscription
+        sent[0].subscriptionId == SUBSCRIPTION_ID
+        sent[0].events.collect { it.attributeName } == ["a", "b", "c"]
+
+        and: "the message should have the default wire format with the type of each event"
+        def message = new EventTypeConverters().writeTriggeredEventSubscription(sent[0], null)
+        message == new EventTypeConverters().writeTriggeredEventSubscription(new TriggeredEventSubscription<>(sent[0].events, SUBSCRIPTION_ID), null)
+        def json = ValueUtil.JSON.readTree(message.substring(TriggeredEventSubscription.MESSAGE_PREFIX.length()))
+        json.get("subscriptionId").asText() == SUBSCRIPTION_ID
+        json.get("events").collect { it.get("eventType").asText() } == ["attribute", "attribute", "attribute"]
+        json.get("events").collect { it.get("attributeState").get("ref").get("name").asText() } == ["a", "b", "c"]
+
+        when: "another event is published"
+        publish("d", 4)
+
+        then: "a new flush should be scheduled"
+        1 * executorService.schedule(_ as Runnable, BATCH_INTERVAL, TimeUnit.MILLISECONDS) >> { args -> flush = args[0]; null }
+
+        when: "the interval has passed again"
+        flush.run()
+
+        then: "only the new event should be sent"
+        sent.size() == 2
+        sent[1].events.collect { it.attributeName } == ["d"]
+
+        when: "a flush runs with an empty buffer"
+        flush.run()
+
+        then: "nothing should be sent"
+        sent.size() == 2
+    }
+
+    def "Events of the same attribute are coalesced only when enabled"() {
+
+        given: "a batching subscription"
+        subscribe(coalesce)
+        Runnable flush = null
+        executorService.schedule(_ as Runnable, BATCH_INTERVAL, TimeUnit.MILLISECONDS) >> { args -> flush = args[0]; null }
+
+        when: "several values of the same attribute are published between other events"
+        publish("a", 1)
+        publish("b", 1)
+        publish("a", 2)
+        publish("a", 3)
+        flush.run()
+
+        then: "the sent events should match"
+        sent.size() == 1
+        sent[0].events.collect { [it.attributeName, it.value.orElse(null)] } == expected
+
+        where:
+        coalesce | expected
+        true     | [["a", 3], ["b", 1]]
+        false    | [["b", 1], ["a", 2], ["a", 3]]
+    }
+
+    def "A full buffer drops the oldest events"() {
+
+        given: "a batching subscription"
+        subscribe(false)
+        Runnable flush = null
+        executorService.schedule(_ as Runnable, BATCH_INTERVAL, TimeUnit.MILLISECONDS) >> { args -> flush = args[0]; null }
+
+        when: "more events than the buffer size are published"
+        (1..5).each { publish("a", it) }
+        flush.run()
+
+        then: "only the newest events should be sent"
+        sent.size() == 1
+        sent[0].events.collect { it.value.orElse(null) } == [3, 4, 5]
+    }
+
+    def "Cancelling a batching subscription discards its buffered events"() {
+
+        given: "a batching subscription"
+        subscribe(false)
+        Runnable flush = null
+        executorService.schedule(_ as Runnable, BATCH_INTERVAL, TimeUnit.MILLISECONDS) >> { args -> flush = args[0]; null }
+
+        when: "an event is buffered and the subscription is cancelled before the interval has passed"
+        publish("a", 1)
+        eventSubscriptions.cancel(SESSION_KEY, new CancelEventSubscription(SUBSCRIPTION_ID))
+        flush.run()
+
+        then: "nothing should be sent"
+        sent.isEmpty()
+    }
+}
@@ -0,0 +1,145 @@
+package org.openremote.test.event
+
+import org.apache.camel.impl.DefaultCamelContext
+import org.apache.camel.impl.DefaultExchange
+import org.openremote.container.Container
+import org.openremote.container.timer.TimerService
+import org.openremote.container.web.ConnectionConstants
+import org.openremote.manager.event.EventSubscriptions
+import org.openremote.model.asset.AssetEvent
+import org.openremote.model.asset.AssetFilter
+import org.openremote.model.asset.impl.ThingAsset
+import org.openremote.model.attribute.AttributeEvent
+import org.openremote.model.event.shared.CancelEventSubscription
+import org.openremote.model.event.shared.EventSubscription
+import org.openremote.model.event.shared.SharedEvent
+import spock.lang.Specification
+
+import java.util.concurrent.ScheduledExecutorService
+import java.util.function.BiConsumer
+
+/**
+ * Checks that the subscriptions an event is sent to through the index are exactly the subscriptions of the event
+ * type whose filter applies to the event.
+ */
+class EventSubscriptionIndexTest extends Specification {
+
+    def camelContext = new DefaultCamelContext()
+    EventSubscriptions eventSubscriptions
+    // Subscription of each session
+    Map<String, EventSubscription<?>> subscriptions = [:]
+
+    def setupSpec() {
+        // Init logging config
+        Container.LOG.info("Running test...")
+    }
+
+    def setup() {
+        def timerService = new TimerService()
+        timerService.clock = TimerService.Clock.PSEUDO
+        eventSubscriptions = new EventSubscriptions(timerService, Mock(ScheduledExecutorService), { sessionKey, message -> } as BiConsumer, 100)
+    }
+
+    static List<AssetFilter<?>> filters() {
+        [
+            null,
+            new AssetFilter(),
+            new AssetFilter("asset1"),
+            new AssetFilter("asset1", "asset2"),
+            new AssetFilter().setRealm("master"),
+            new AssetFilter().setRealm("other"),
+            new AssetFilter("asset2").setRealm("other"),
+            new AssetFilter().setParentIds("parent1"),
+            new AssetFilter().setAttributeNames("temperature"),
+            new AssetFilter().setRealm("master").setAttributeNames("humidity"),
+            new AssetFilter("asset3").setParentIds("parent2")
+        ]
+    }
+
+    static List<SharedEvent> events() {
+        def events = []
+        ["asset1", "asset2", "asset3"].each { assetId ->
+            ["master", "other", null].each { realm ->
+                ["parent1", "parent2"].each { parentId ->
+                    ["temperature", "humidity"].each { attributeName ->
+                        events.add(new AttributeEvent(assetId, attributeName, 1d).setRealm(realm).setParentId(parentId).setPath([assetId, parentId] as String[]))
+                    }
+                    def asset = new ThingAsset("Thing").setId(assetId).setRealm(realm).setParentId(parentId)
+                    events.add(new AssetEvent(AssetEvent.Cause.UPDATE, asset, ["name"] as String[]))
+                }
+            }
+        }
+        return events
+    }
+
+    def subscribe(String sessionKey, Class<? extends SharedEvent> eventClass, AssetFilter<?> filter) {
+        def subscription = new EventSubscription(eventClass, filter, "subscription-" + sessionKey)
+        subscriptions[sessionKey] = subscription
+        eventSubscriptions.createOrUpdate(sessionKey, false, subscription)
+    }
+
+    def subscribeAll() {
+        filters().eachWithIndex { filter, i ->
+            subscribe("attribute" + i, AttributeEvent.class, filter)
+            subscribe("asset" + i, AssetEvent.class, filter)
+        }
+    }
+
+    Set<String> sentTo(SharedEvent event) {
+        def exchange = new DefaultExchange(camelContext)
+        exchange.in.body = event
+        eventSubscriptions.splitForSubscribers(exchange).collect { it.getHeader(ConnectionConstants.SESSION_KEY, String.class) } as Set
+    }
+
+    Set<String> matching(SharedEvent event) {
+        subscriptions.findAll { sessionKey, subscription ->
+            subscription.eventType == event.eventType && (subscription.filter == null || subscription.filter.apply(event))
+        }.keySet()
+    }
+
+    def "Events are sent to the same subscriptions as when all filters are applied"() {
+
+        given: "subscriptions with different filters for both event types"
+        subscribeAll()
+
+        expect: "each event to be sent to the subscriptions whose filter applies"
+        events().every { event -> sentTo(event) == matching(event) }
+
+        and: "some events to match indexed and unindexed subscriptions"
+        events().any { event -> matching(event).size() > 3 }
+    }
+
+    def "Cancelled and replaced subscriptions are removed from the index"() {
+
+        given: "subscriptions with different filters for both event types"
+        subscribeAll()
+
+        when: "some subscriptions are cancelled"
+        ["attribute2", "attribute4", "asset0", "asset6"].each { sessionKey ->
+            eventSubscriptions.cancel(sessionKey, new CancelEventSubscription(subscriptions.remove(sessionKey).subscriptionId))
+        }
+
+        and: "the subscriptions of all sessions of another filter are cancelled"
+        ["attribute3", "asset3"].each { sessionKey ->
+            subscriptions.remove(sessionKey)
+            eventSubscriptions.cancelAll(sessionKey)
+        }
+
+        and: "some subscriptions are replaced with subscriptions that have another filter"
+        subscribe("attribute1", AttributeEvent.class, new AssetFilter("asset3"))
+        subscribe("attribute5", AttributeEvent.class, new AssetFilter().setRealm("master"))
+        subscribe("asset2", AssetEvent.class, null)
+
+        then: "each event should be sent to the remaining subscriptions whose filter applies"
+        events().every { event -> sentTo(event) == matching(event) }
+        !events().any { event -> sentTo(event).any { it in ["attribute2", "attribute3", "attribute4", "asset0", "asset3", "asset6"] } }
+
+        when: "all subscriptions are cancelled"
+        subscriptions.keySet().each { eventSubscriptions.cancelAll(it) }
+        subscriptions.clear()
+
+        then: "no event should be sent"
+        events().every { event -> sentTo(event).isEmpty() }
+        eventSubscriptions.eventTypeSubscriptionsMap.isEmpty()
+    }
+}
@@ -0,0 +1,291 @@
+package org.openremote.test.event
+
+import org.openremote.container.Container
+import org.openremote.manager.event.ClientEventService
+import org.openremote.manager.event.SessionSendQueue
+import org.openremote.manager.mqtt.MqttBrokerService
+import spock.lang.Specification
+
+import java.util.concurrent.Executor
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit
+import java.util.function.Consumer
+import java.util.function.Function
+import java.util.function.LongSupplier
+import java.util.function.Predicate
+
+import static org.openremote.manager.event.SessionSendQueue.OverflowPolicy.*
+
+class SessionSendQueueTest extends Specification {
+
+    // Executed when the test runs them, so writes only start when the test says so
+    def tasks = [] as List<Runnable>
+    // Writes that haven't completed yet, in the order they were started
+    def pendingWrites = [] as List<List>
+    def written = []
+    def clockMillis = 0L
+    def disconnected = false
+
+    def setupSpec() {
+        // Init logging config
+        Container.LOG.info("Running test...")
+    }
+
+    SessionSendQueue createQueue(int capacity, SessionSendQueue.OverflowPolicy overflowPolicy, long maxLagMillis = 0) {
+        new SessionSendQueue(
+            "session1",
+            capacity,
+            overflowPolicy,
+            maxLagMillis,
+            { Runnable task -> tasks.add(task) } as Executor,
+            { clockMillis } as LongSupplier,
+            { message, Consumer<Boolean> onComplete -> pendingWrites.add([message, onComplete]) } as SessionSendQueue.Writer,
+            { message -> message.startsWith("event:") ? message.split("=")[0] : null } as Function<Object, Object>,
+            { message -> message.startsWith("event:") } as Predicate<Object>,
+            { disconnected = true } as Runnable
+        )
+    }
+
+    def runTasks() {
+        while (!tasks.isEmpty()) {
+            tasks.remove(0).run()
+        }
+    }
+
+    /**
+     * Completes all writes, including the writes that the completed writes start.
+     */
+    def completeWrites(boolean sent = true) {
+        runTasks()
+        while (!pendingWrites.isEmpty()) {
+            def write = pendingWrites.remove(0)
+            written.add(write[0])
+            ((Consumer<Boolean>) write[1]).accept(sent)
+            runTasks()
+        }
+    }
+
+    def "Messages are written one at a time in order"() {
+
+        given: "an unbounded queue"
+        def queue = createQueue(0, DROP)
+
+        when: "messages are queued"
+        (1..3).each { queue.offer("event:a" + it) }
+        runTasks()
+
+        then: "only the first message should be written until its write completes"
+        pendingWrites.size() == 1
+        pendingWrites[0][0] == "event:a1"
+        queue.depth == 2
+
+        when: "the first write completes"
+        def write = pendingWrites.remove(0)
+        ((Consumer<Boolean>) write[1]).accept(true)
+        runTasks()
+
+        then: "the next message should be written"
+        pendingWrites.size() == 1
+        pendingWrites[0][0] == "event:a2"
+
+        when: "all writes complete"
+        completeWrites()
+
+        then: "all messages should have been sent"
+        written == ["event:a2", "event:a3"]
+        queue.depth == 0
+        queue.status.get("sent").asLong() == 3
+    }
+
+    def "An unbounded queue never drops messages"() {
+
+        given: "an unbounded queue of a client that doesn't keep up"
+        def queue = createQueue(0, DROP)
+
+        when: "many messages are queued"
+        (1..5000).each { queue.offer("event:a" + it) }
+
+        then: "all messages should be queued"
+        queue.depth == 5000
+        queue.status.get("dropped").asLong() == 0
+        !disconnected
+    }
+
+    def "A full queue drops the oldest events but never other messages"() {
+
+        given: "a full queue of events"
+        def queue = createQueue(2, DROP)
+        queue.offer("event:a1")
+        queue.offer("event:b1")
+
+        when: "replies are queued"
+        queue.offer("subscribed:1")
+        queue.offer("subscribed:2")
+
+        then: "the oldest events should have been dropped"
+        queue.depth == 2
+        queue.status.get("dropped").asLong() == 2
+
+        when: "a reply is queued when there are no events to drop"
+        queue.offer("response:1")
+
+        then: "the reply should be queued anyway"
+        queue.depth == 3
+
+        when: "an event is queued when there are no events to drop"
+        queue.offer("event:c1")
+
+        then: "the event should be dropped"
+        queue.depth == 3
+        queue.status.get("dropped").asLong() == 3
+
+        when: "all messages are written"
+        completeWrites()
+
+        then: "all replies should have been sent in order"
+        written == ["subscribed:1", "subscribed:2", "response:1"]
+        !disconnected
+    }
+
+    def "A full queue replaces a queued event of the same key when coalescing"() {
+
+        given: "a full coalescing queue"
+        def queue = createQueue(2, COALESCE)
+        queue.offer("event:a=1")
+        queue.offer("event:b=1")
+
+        when: "events of a queued key and of a new key are queued"
+        queue.offer("event:a=2")
+        queue.offer("event:c=1")
+
+        then: "the queued event of the same key should be replaced and the oldest event dropped for the new key"
+        queue.depth == 2
+        queue.status.get("coalesced").asLong() == 1
+        queue.status.get("dropped").asLong() == 1
+
+        when: "all messages are written"
+        completeWrites()
+
+        then: "the remaining events should have been sent"
+        written == ["event:b=1", "event:c=1"]
+    }
+
+    def "A full queue disconnects the session when that is the overflow policy"() {
+
+        given: "a full queue"
+        def queue = createQueue(1, DISCONNECT)
+        queue.offer("event:a1")
+
+        when: "another message is queued"
+        queue.offer("event:a2")
+
+        then: "the session should be disconnected and the queue closed"
+        disconnected
+        queue.depth == 0
+
+        when: "more messages are queued"
+        queue.offer("event:a3")
+
+        then: "they should be ignored"
+        queue.depth == 0
+    }
+
+    def "Failed writes are not counted as sent"() {
+
+        given: "a queue with messages"
+        def queue = createQueue(0, DROP)
+        queue.offer("event:a1")
+        queue.offer("event:a2")
+
+        when: "the writes fail"
+        completeWrites(false)
+
+        then: "the writes should be counted as failed"
+        written == ["event:a1", "event:a2"]
+        queue.status.get("sent").asLong() == 0
+        queue.status.get("failed").asLong() == 2
+    }
+
+    def "A lagging session is disconnected even when its write doesn't complete"() {
+
+        given: "a queue with a maximum lag and a write that doesn't complete"
+        def queue = createQueue(0, DROP, 1000)
+        queue.offer("event:a1")
+        runTasks()
+        queue.offer("event:a2")
+
+        when: "less than the maximum lag has passed"
+        clockMillis += 500
+        queue.offer("event:a3")
+
+        then: "the session should still be connected"
+        !disconnected
+        queue.lagMillis == 500
+
+        when: "more than the maximum lag has passed"
+        clockMillis += 1000
+        queue.offer("event:a4")
+
+        then: "the session should be disconnected"
+        disconnected
+        queue.depth == 0
+    }
+
+    def "A lagging session is disconnected when the lagging message is written"() {
+
+        given: "a queue with a maximum lag and messages that are written late"
+        def queue = createQueue(0, DROP, 1000)
+        queue.offer("event:a1")
+        queue.offer("event:a2")
+
+        when: "more than the maximum lag has passed before the writes start"
+        clockMillis += 2000
+        runTasks()
+
+        then: "the session should be disconnected without writing"
+        disconnected
+        pendingWrites.isEmpty()
+    }
+
+    def "An MQTT write completes once the client can take more messages or disconnects it after the max lag"() {
+
+        given: "a client event service with an MQTT client that can't take more messages"
+        def writable = false
+        def scheduled = [] as List<Runnable>
+        def service = new ClientEventService()
+        service.mqttBrokerService = Stub(MqttBrokerService) {
+            isWritable("session1") >> { writable }
+        }
+        service.executorService = Stub(ScheduledExecutorService) {
+            schedule(_ as Runnable, _ as Long, TimeUnit.MILLISECONDS) >> { Runnable task, long delay, TimeUnit unit -> scheduled.add(task); null }
+        }
+        service.sessionMaxLagMillis = 1000
+        service.sessionKeyInfoMap.put("session1", new ClientEventService.SessionInfo(ClientEventService.HEADER_CONNECTION_TYPE_MQTT, { disconnected = true } as Runnable))
+        def completed = []
+
+        when: "a write waits for the client before the deadline"
+        service.completeWhenWritable("session1", { sent -> completed.add(sent) } as Consumer<Boolean>, System.currentTimeMillis() + 60000)
+
+        then: "it should check again later"
+        completed.isEmpty()
+        scheduled.size() == 1
+
+        when: "the client can take more messages"
+        writable = true
+        scheduled.remove(0).run()
+
+        then: "the write should complete"
+        completed == [true]
+        scheduled.isEmpty()
+        !disconnected
+
+        when: "a write waits for the client past the deadline"
+        writable = false
+        service.completeWhenWritable("session1", { sent -> completed.add(sent) } as Consumer<Boolean>, System.currentTimeMillis() - 1)
+
+        then: "the write should fail and the client should be disconnected"
+        completed == [true, false]
+        scheduled.isEmpty()
+        disconnected
+    }
+}
@@ -187,6 +187,21 @@ class AssetModelTest extends Specification implements ManagerContainerTrait {
         clonedAttribute.getValue().orElse(null) == attribute.getValue().orElse(null)
         clonedAttribute.getMeta() == attribute.getMeta()
 
+        when: "an attribute is copied and the copy is given a new value"
+        def copiedAttribute = attribute.copy()
+        copiedAttribute.setValue(new ColourRGB(1, 2, 3), 1000L)
+        copiedAttribute.addOrReplaceMeta(new MetaItem<>(MetaItemType.LABEL, "Copy"))
+
+        then: "the copy should share the existing meta items but not modify the source"
+        copiedAttribute.getName() == attribute.getName()
+        copiedAttribute.getType() == attribute.getType()
+        copiedAttribute.getValue().map{it.getR()}.orElse(null) == 1
+        copiedAttribute.getTimestamp().orElse(null) == 1000L
+        attribute.getValue().map{it.getR()}.orElse(null) == clonedAttribute.getValue().map{it.getR()}.orElse(null)
+        copiedAttribute.getMeta().get(MetaItemType.AGENT_LINK.name).get().is(attribute.getMeta().get(MetaItemType.AGENT_LINK.name).get())
+        copiedAttribute.getMeta().has(MetaItemType.LABEL)
+        !attribute.getMeta().has(MetaItemType.LABEL)
+
         when: "an asset state is serialized"
         def assetState = new AssetState(asset2, attribute, null)
         def assetStateStr = ValueUtil.asJSON(assetState).orElse(null)
@@ -0,0 +1,200 @@
+package org.openremote.test.rules
+
+import org.openremote.container.Container
+import org.openremote.container.timer.TimerService
+import org.openremote.manager.asset.AssetStorageService
+import org.openremote.manager.rules.AssetQueryPredicate
+import org.openremote.manager.rules.AssetStateStore
+import org.openremote.model.asset.Asset
+import org.openremote.model.asset.impl.BuildingAsset
+import org.openremote.model.asset.impl.RoomAsset
+import org.openremote.model.asset.impl.ThingAsset
+import org.openremote.model.attribute.Attribute
+import org.openremote.model.attribute.AttributeRef
+import org.openremote.model.query.AssetQuery
+import org.openremote.model.query.LogicGroup
+import org.openremote.model.query.filter.AttributePredicate
+import org.openremote.model.query.filter.StringPredicate
+import org.openremote.model.query.filter.TenantPredicate
+import org.openremote.model.rules.AssetState
+import org.openremote.model.value.ValueType
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.stream.Collectors
+
+class AssetStateStoreTest extends Specification {
+
+    /**
+     * Counts the asset states the query is tested against, so the candidates selected by the indexes are known.
+     */
+    static class CountingQueryPredicate extends AssetQueryPredicate {
+        AtomicInteger tested = new AtomicInteger()
+
+        CountingQueryPredicate(TimerService timerService, AssetStorageService assetStorageService, AssetQuery query) {
+            super(timerService, assetStorageService, query)
+        }
+
+        @Override
+        boolean test(AssetState<?> assetState) {
+            tested.incrementAndGet()
+            return super.test(assetState)
+        }
+    }
+
+    def timerService = new TimerService()
+    def assetStorageService = new AssetStorageService()
+    def store = new AssetStateStore()
+
+    def building1 = new BuildingAsset("Building 1").setId("building1").setRealm("building")
+    def room1 = new RoomAsset("Room 1").setId("room1").setRealm("building").setParentId("building1")
+    def room2 = new RoomAsset("Room 2").setId("room2").setRealm("building").setParentId("building1")
+    def thing1 = new ThingAsset("Thing 1").setId("thing1").setRealm("building").setParentId("room1")
+    def thing2 = new ThingAsset("Thing 2").setId("thing2").setRealm("master")
+
+    def setupSpec() {
+        // Init logging config
+        Container.LOG.info("Running test...")
+    }
+
+    def setup() {
+        timerService.clock = TimerService.Clock.PSEUDO
+        [building1, room1, room2, thing1, thing2].each { asset ->
+            store.put(assetState(asset, "temperature", 20d))
+            store.put(assetState(asset, "notes", "Some notes"))
+        }
+    }
+
+    static AssetState<?> assetState(Asset<?> asset, String attributeName, Object value) {
+        return value instanceof String
+            ? new AssetState(asset, new Attribute<>(attributeName, ValueType.TEXT, value), null)
+            : new AssetState(asset, new Attribute<>(attributeName, ValueType.NUMBER, value), null)
+    }
+
+    static List<AssetQuery> queries() {
+        return [
+            new AssetQuery(),
+            new AssetQuery().ids("room1"),
+            new AssetQuery().ids("room1", "thing2"),
+            new AssetQuery().ids("missing"),
+            new AssetQuery().parents("room1"),
+            new AssetQuery().parents("building1", "room1"),
+            new AssetQuery().attributeName("notes"),
+            new AssetQuery().attributes(new LogicGroup<AttributePredicate>(LogicGroup.Operator.OR, new AttributePredicate("notes", null), new AttributePredicate("temperature", null))),
+            new AssetQuery().attributes(new AttributePredicate(new StringPredicate(AssetQuery.Match.BEGIN, "temp"), null)),
+            new AssetQuery().types(RoomAsset.class),
+            new AssetQuery().types(ThingAsset.class),
+            new AssetQuery().tenant(new TenantPredicate("master")),
+            new AssetQuery().tenant(new TenantPredicate("building")).attributeName("temperature"),
+            new AssetQuery().ids("room1", "room2", "thing1").types(RoomAsset.class),
+            new AssetQuery().names("Room 1")
+        ]
+    }
+
+    /**
+     * @return The asset states that match the query by using the indexes and by testing all asset states.
+     */
+    def matchAndScan(CountingQueryPredicate predicate) {
+        def matched = store.match(predicate).collect(Collectors.toList())
+        def scanned = store.getAssetStates().stream().filter { new AssetQueryPredicate(timerService, assetStorageService, predicate.query).test(it) }.collect(Collectors.toList())
+        return [matched, scanned]
+    }
+
+    /**
+     * @return <code>true</code> if every index holds exactly the asset states of the store.
+     */
+    def indexesConsistent() {
+        store.indexes.every { index ->
+            def indexed = index.entries.collectMany { key, entries -> entries.values().collect { it.assetState } }
+            indexed.size() == store.size() && indexed.every { store.getAssetStates().contains(it) && store.get(new AttributeRef(it.id, it.name)).is(it) }
+        }
+    }
+
+    @Unroll
+    def "Indexed matching returns the same asset states as a full scan and only tests #tested asset states"() {
+
+        when: "the query is matched"
+        def predicate = new CountingQueryPredicate(timerService, assetStorageService, query)
+        def (matched, scanned) = matchAndScan(predicate)
+
+        then: "the matched asset states should equal the full scan in the same order"
+        matched == scanned
+
+        and: "only the asset states of the smallest indexed candidate set should have been tested"
+        predicate.tested.get() == tested
+
+        where:
+        query << queries()
+        tested << [
+            10, // No restrictions
+            2, // Asset ID
+            4, // Asset IDs
+            0, // Unknown asset ID
+            2, // Parent ID
+            6, // Parent IDs
+            5, // Attribute name
+            10, // Attribute names of an OR group
+            10, // Attribute name that isn't exact
+            4, // Asset type
+            10, // Thing type matches unknown asset types so isn't indexed
+            2, // Realm
+            5, // Attribute name has fewer candidates than realm
+            4, // Asset type has fewer candidates than asset IDs
+            10 // Asset name isn't indexed
+        ]
+    }
+
+    def "Updated and removed asset states are consistent in all indexes"() {
+
+        when: "an asset state is updated with a different parent and realm"
+        def movedThing1 = new ThingAsset("Thing 1").setId("thing1").setRealm("master").setParentId("room2")
+        store.put(assetState(movedThing1, "temperature", 21d))
+
+        then: "the asset state should be replaced in all indexes"
+        store.size() == 10
+        indexesConsistent()
+        store.get(new AttributeRef("thing1", "temperature")).realm == "master"
+        store.match(new CountingQueryPredicate(timerService, assetStorageService, new AssetQuery().parents("room1"))).collect(Collectors.toList())*.name == ["notes"]
+        store.match(new CountingQueryPredicate(timerService, assetStorageService, new AssetQuery().parents("room2"))).collect(Collectors.toList())*.name == ["temperature"]
+
+        and: "the updated asset state should be the most recently updated"
+        store.getAssetStates().last().id == "thing1"
+        store.match(new CountingQueryPredicate(timerService, assetStorageService, new AssetQuery().attributeName("temperature"))).collect(Collectors.toList())*.id == ["building1", "room1", "room2", "thing2", "thing1"]
+
+        when: "asset states are removed"
+        def removed = store.remove(new AttributeRef("room2", "notes"))
+        store.remove(new AttributeRef("thing2", "temperature"))
+        store.remove(new AttributeRef("thing2", "notes"))
+
+        then: "they should be removed from all indexes"
+        removed.id == "room2"
+        store.size() == 7
+        indexesConsistent()
+        store.assetIdIndex.entries["thing2"] == null
+        store.get(new AttributeRef("room2", "notes")) == null
+
+        and: "removing an asset state that doesn't exist should do nothing"
+        store.remove(new AttributeRef("room2", "notes")) == null
+        store.size() == 7
+
+        and: "all queries should still match the same asset states as a full scan"
+        queries().every { query ->
+            def (matched, scanned) = matchAndScan(new CountingQueryPredicate(timerService, assetStorageService, query))
+            matched == scanned
+        }
+
+        when: "an asset state is removed and put again"
+        store.remove(new AttributeRef("room1", "temperature"))
+        store.put(assetState(room1, "temperature", 22d))
+
+        then: "it should be indexed again as the most recently updated"
+        store.size() == 7
+        indexesConsistent()
+        store.match(new CountingQueryPredicate(timerService, assetStorageService, new AssetQuery().ids("room1"))).collect(Collectors.toList())*.name == ["notes", "temperature"]
+        queries().every { query ->
+            def (matched, scanned) = matchAndScan(new CountingQueryPredicate(timerService, assetStorageService, query))
+            matched == scanned
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package org.openremote.test.rules
+
+import org.openremote.container.Container
+import org.openremote.container.timer.TimerService
+import org.openremote.manager.asset.AssetStorageService
+import org.openremote.manager.rules.JsonRulesBuilder
+import org.openremote.manager.rules.RulesEngine
+import org.openremote.manager.rules.RulesFacts
+import org.openremote.manager.rules.facade.AssetsFacade
+import org.openremote.model.PersistenceEvent
+import org.openremote.model.asset.impl.ThingAsset
+import org.openremote.model.attribute.Attribute
+import org.openremote.model.query.AssetQuery
+import org.openremote.model.query.filter.AttributePredicate
+import org.openremote.model.query.filter.NumberPredicate
+import org.openremote.model.rules.AssetState
+import org.openremote.model.rules.json.RuleCondition
+import org.openremote.model.value.ValueType
+import spock.lang.Specification
+
+import static org.openremote.model.PersistenceEvent.Cause.*
+
+/**
+ * Checks that evaluating a JSON rule condition incrementally from asset state changes gives the same result as
+ * evaluating all asset states again after every change.
+ */
+class JsonRulesIncrementalEvaluationTest extends Specification {
+
+    def timerService = new TimerService()
+    RulesFacts rulesFacts
+    def incremental
+    def full
+
+    def setupSpec() {
+        // Init logging config
+        Container.LOG.info("Running test...")
+    }
+
+    def setup() {
+        timerService.clock = TimerService.Clock.PSEUDO
+        rulesFacts = new RulesFacts(timerService, new AssetStorageService(), Mock(AssetsFacade), this, RulesEngine.RULES_LOG)
+
+        // Temperatures above 20 match, the notes of each asset never match
+        (1..4).each {
+            rulesFacts.putAssetState(assetState("asset" + it, "temperature", it * 10d))
+            rulesFacts.putAssetState(assetState("asset" + it, "notes", "Some notes"))
+        }
+
+        incremental = createConditionState()
+        full = createConditionState()
+        incremental.updateUnfilteredAssetStates(rulesFacts, null)
+        full.updateUnfilteredAssetStates(rulesFacts, null)
+        incremental.update([:])
+        full.update([:])
+    }
+
+    def createConditionState() {
+        def ruleCondition = new RuleCondition()
+        ruleCondition.assets = new AssetQuery().attributes(
+            new AttributePredicate("temperature", new NumberPredicate(20d, AssetQuery.Operator.GREATER_THAN))
+        )
+        return new JsonRulesBuilder.RuleConditionState(ruleCondition, true, timerService)
+    }
+
+    static AssetState<?> assetState(String assetId, String attributeName, Object value) {
+        def asset = new ThingAsset(assetId).setId(assetId).setRealm("master")
+        return value instanceof String
+            ? new AssetState(asset, new Attribute<>(attributeName, ValueType.TEXT, value), null)
+            : new AssetState(asset, new Attribute<>(attributeName, ValueType.NUMBER, value), null)
+    }
+
+    /**
+     * Applies the change to the facts, notifies the incremental condition state of the change and the full condition
+     * state of a complete refresh, then evaluates both.
+     */
+    def change(PersistenceEvent.Cause cause, AssetState<?> assetState) {
+        if (cause == DELETE) {
+            rulesFacts.removeAssetState(assetState)
+        } else {
+            rulesFacts.putAssetState(assetState)
+        }
+        incremental.updateUnfilteredAssetStates(rulesFacts, new RulesEngine.AssetStateChangeEvent(cause, assetState))
+        full.updateUnfilteredAssetStates(rulesFacts, null)
+        incremental.update([:])
+        full.update([:])
+    }
+
+    /**
+     * Stores the evaluation result as previous matches, like the rule action does when the rule fires.
+     */
+    static fire(conditionState) {
+        conditionState.lastEvaluationResult.matchedAssetStates.each {
+            conditionState.previouslyMatchedAssetStates.remove(it)
+            conditionState.previouslyMatchedAssetStates.put(it, it)
+        }
+        conditionState.previouslyUnmatchedAssetStates.addAll(conditionState.lastEvaluationResult.unmatchedAssetStates)
+        conditionState.lastEvaluationResult = null
+    }
+
+    static Map<String, Object> values(Collection<AssetState<?>> assetStates) {
+        assetStates.collectEntries { [(it.id + ":" + it.name): it.value.orElse(null)] }
+    }
+
+    static Map<String, Object> result(conditionState) {
+        [
+            matches          : conditionState.lastEvaluationResult.matches,
+            matched          : values(conditionState.lastEvaluationResult.matchedAssetStates),
+            unmatched        : values(conditionState.lastEvaluationResult.unmatchedAssetStates),
+            matchedAssetIds  : conditionState.lastEvaluationResult.matchedAssetIds as Set,
+            unmatchedAssetIds: conditionState.lastEvaluationResult.unmatchedAssetIds as Set,
+            previouslyMatched: values(conditionState.previouslyMatchedAssetStates.values())
+        ]
+    }
+
+    def "Incremental evaluation matches full evaluation when asset states change"() {
+
+        expect: "the initial evaluation to be the same"
+        result(incremental) == result(full)
+        result(incremental).matchedAssetIds == ["asset3", "asset4"] as Set
+        result(incremental).unmatchedAssetIds == ["asset1", "asset2"] as Set
+
+        when: "a matching asset state changes so it no longer matches"
+        change(UPDATE, assetState("asset3", "temperature", 15d))
+
+        then: "the evaluations should be the same"
+        result(incremental) == result(full)
+        result(incremental).matchedAssetIds == ["asset4"] as Set
+
+        when: "an unmatched asset state changes so it matches"
+        change(UPDATE, assetState("asset1", "temperature", 25d))
+
+        then: "the evaluations should be the same with the new value"
+        result(incremental) == result(full)
+        result(incremental).matched["asset1:temperature"] == 25d
+
+        when: "a matching asset state changes but still matches"
+        change(UPDATE, assetState("asset4", "temperature", 45d))
+
+        then: "the evaluations should be the same with the new value"
+        result(incremental) == result(full)
+        result(incremental).matched["asset4:temperature"] == 45d
+
+        when: "an asset state that never matches changes"
+        change(UPDATE, assetState("asset2", "notes", "Other notes"))
+
+        then: "the evaluations should be the same"
+        result(incremental) == result(full)
+
+        when: "a matching asset state is removed"
+        change(DELETE, assetState("asset4", "temperature", 45d))
+
+        then: "the evaluations should be the same without the removed asset state"
+        result(incremental) == result(full)
+        !result(incremental).matched.containsKey("asset4:temperature")
+        result(incremental).matchedAssetIds == ["asset1"] as Set
+
+        when: "an unmatched asset state is removed"
+        change(DELETE, assetState("asset2", "temperature", 20d))
+
+        then: "the evaluations should be the same without the removed asset state"
+        result(incremental) == result(full)
+        !result(incremental).unmatched.containsKey("asset2:temperature")
+
+        when: "a new asset state is created"
+        change(CREATE, assetState("asset5", "temperature", 50d))
+
+        then: "the evaluations should be the same with the new asset state"
+        result(incremental) == result(full)
+        result(incremental).matchedAssetIds == ["asset1", "asset5"] as Set
+
+        when: "all asset states are removed"
+        rulesFacts.getAssetStates().collect().each { change(DELETE, it) }
+
+        then: "neither evaluation should match"
+        result(incremental) == result(full)
+        !result(incremental).matches
+    }
+
+    def "Incremental evaluation resets previous matches like full evaluation"() {
+
+        when: "the rule fires"
+        fire(incremental)
+        fire(full)
+        incremental.update([:])
+        full.update([:])
+
+        then: "the previous matches and unmatches shouldn't match again"
+        result(incremental) == result(full)
+        !result(incremental).matches
+        result(incremental).previouslyMatched.keySet() == ["asset3:temperature", "asset4:temperature"] as Set
+
+        when: "a previously matched asset state changes so it no longer matches"
+        change(UPDATE, assetState("asset3", "temperature", 15d))
+
+        then: "the previous match should be reset in both evaluations"
+        result(incremental) == result(full)
+        result(incremental).previouslyMatched.keySet() == ["asset4:temperature"] as Set
+
+        when: "the asset state changes so it matches again"
+        change(UPDATE, assetState("asset3", "temperature", 35d))
+
+        then: "it should match again in both evaluations"
+        result(incremental) == result(full)
+        result(incremental).matchedAssetIds == ["asset3"] as Set
+
+        when: "the rule fires and a previously matched asset state is removed"
+        fire(incremental)
+        fire(full)
+        change(DELETE, assetState("asset4", "temperature", 40d))
+
+        then: "the previous match should be reset in both evaluations"
+        result(incremental) == result(full)
+        result(incremental).previouslyMatched.keySet() == ["asset3:temperature"] as Set
+
+        when: "the removed asset state is created again"
+        change(CREATE, assetState("asset4", "temperature", 40d))
+
+        then: "it should match again in both evaluations"
+        result(incremental) == result(full)
+        result(incremental).matchedAssetIds == ["asset4"] as Set
+
+        when: "a previously unmatched asset state changes so it matches"
+        change(UPDATE, assetState("asset1", "temperature", 25d))
+
+        then: "it should match in both evaluations"
+        result(incremental) == result(full)
+        result(incremental).matchedAssetIds == ["asset1", "asset4"] as Set
+    }
+}
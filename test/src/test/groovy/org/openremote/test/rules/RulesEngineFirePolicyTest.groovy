@@ -0,0 +1,224 @@
+package org.openremote.test.rules
+
+import org.openremote.container.Container
+import org.openremote.container.timer.TimerService
+import org.openremote.manager.asset.AssetProcessingService
+import org.openremote.manager.asset.AssetStorageService
+import org.openremote.manager.datapoint.AssetDatapointService
+import org.openremote.manager.datapoint.AssetPredictedDatapointService
+import org.openremote.manager.event.ClientEventService
+import org.openremote.manager.notification.NotificationService
+import org.openremote.manager.rules.AssetLocationPredicateProcessor
+import org.openremote.manager.rules.RulesEngine
+import org.openremote.manager.rules.RulesEngineId
+import org.openremote.manager.rules.RulesetDeployment
+import org.openremote.manager.security.ManagerIdentityService
+import org.openremote.model.rules.GlobalRuleset
+import org.openremote.model.rules.Ruleset
+import org.openremote.model.rules.TemporaryFact
+import spock.lang.Specification
+
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
+
+class RulesEngineFirePolicyTest extends Specification {
+
+    /**
+     * Records the firings instead of firing the deployments and is timed by the test.
+     */
+    static class TestRulesEngine extends RulesEngine<GlobalRuleset> {
+        long clockMillis = 10000
+        List<Long> firings = []
+
+        TestRulesEngine(TimerService timerService,
+                        ManagerIdentityService identityService,
+                        ScheduledExecutorService executorService,
+                        AssetStorageService assetStorageService,
+                        AssetProcessingService assetProcessingService,
+                        NotificationService notificationService,
+                        ClientEventService clientEventService,
+                        AssetDatapointService assetDatapointService,
+                        AssetPredictedDatapointService assetPredictedDatapointService,
+                        AssetLocationPredicateProcessor assetLocationPredicatesConsumer) {
+            super(timerService, identityService, executorService, assetStorageService, assetProcessingService,
+                notificationService, clientEventService, assetDatapointService, assetPredictedDatapointService,
+                new RulesEngineId<GlobalRuleset>(), assetLocationPredicatesConsumer)
+        }
+
+        @Override
+        protected long getFireClockMillis() {
+            return clockMillis
+        }
+
+        @Override
+        protected void fireAllDeployments() {
+            firings.add(clockMillis)
+        }
+    }
+
+    def timerService = new TimerService()
+    def executorService = Mock(ScheduledExecutorService)
+    // Timers scheduled by the engine that haven't run yet
+    def timers = [] as List<Map>
+    TestRulesEngine engine
+
+    def setupSpec() {
+        // Init logging config
+        Container.LOG.info("Running test...")
+    }
+
+    def setup() {
+        timerService.clock = TimerService.Clock.PSEUDO
+        executorService.schedule(_ as Runnable, _ as Long, TimeUnit.MILLISECONDS) >> { Runnable task, long delay, TimeUnit unit ->
+            def timer = [runAt: engine.clockMillis + delay, task: task, cancelled: false]
+            timers.add(timer)
+            return [cancel: { boolean mayInterrupt -> timer.cancelled = true; true }] as ScheduledFuture
+        }
+
+        engine = new TestRulesEngine(
+            timerService,
+            Mock(ManagerIdentityService),
+            executorService,
+            Mock(AssetStorageService),
+            Mock(AssetProcessingService),
+            Mock(NotificationService),
+            Mock(ClientEventService),
+            Mock(AssetDatapointService),
+            Mock(AssetPredictedDatapointService),
+            Mock(AssetLocationPredicateProcessor)
+        )
+        engine.running = true
+        engine.disableTemporaryFactExpiration = true
+    }
+
+    def deploy(long id, Integer debounceMillis, Integer maxLatencyMillis, Integer minIntervalMillis) {
+        def ruleset = new GlobalRuleset("Test " + id, Ruleset.Lang.JSON, "{}")
+        ruleset.setId(id)
+        if (debounceMillis != null) {
+            ruleset.setFireDebounceMillis(debounceMillis)
+        }
+        if (maxLatencyMillis != null) {
+            ruleset.setFireMaxLatencyMillis(maxLatencyMillis)
+        }
+        if (minIntervalMillis != null) {
+            ruleset.setFireMinIntervalMillis(minIntervalMillis)
+        }
+        engine.deployments.put(id, new RulesetDeployment(ruleset, timerService, null, executorService, null, null, null, null, null, null))
+        engine.updateFirePolicy()
+    }
+
+    /**
+     * Advances the clock by the given time, running the timers that are due in order.
+     */
+    def advance(long millis) {
+        long until = engine.clockMillis + millis
+        while (true) {
+            def timer = timers.findAll { !it.cancelled && it.runAt <= until }.min { it.runAt }
+            if (timer == null) {
+                break
+            }
+            timers.remove(timer)
+            engine.clockMillis = Math.max(engine.clockMillis, timer.runAt)
+            timer.task.run()
+        }
+        engine.clockMillis = until
+    }
+
+    def "The fire policy combines the policies of the rulesets that set one"() {
+
+        when: "rulesets are deployed"
+        rulesets.eachWithIndex { policy, i -> deploy(i + 1, policy[0], policy[1], policy[2]) }
+
+        then: "the engine should use the combined policy"
+        engine.fireDebounceMillis == debounce
+        engine.fireMaxLatencyMillis == maxLatency
+        engine.fireMinIntervalMillis == minInterval
+
+        where:
+        rulesets                                                          | debounce | maxLatency | minInterval
+        [[null, null, null]]                                              | -1       | -1         | 0
+        [[100, 2000, null], [null, null, null]]                           | 100      | 2000       | 0
+        [[100, 2000, null], [500, null, 200], [null, null, 1000]]         | 100      | 2000       | 1000
+        [[0, 0, 0], [null, null, null]]                                   | 0        | 0          | 0
+    }
+
+    def "Rulesets without a policy fire after the default delay"() {
+
+        given: "a ruleset without a policy"
+        deploy(1, null, null, null)
+
+        when: "facts change"
+        engine.scheduleFire()
+        advance(TemporaryFact.GUARANTEED_MIN_EXPIRATION_MILLIS - 1)
+
+        then: "the engine shouldn't have fired yet"
+        engine.firings.isEmpty()
+
+        when: "the default delay has passed"
+        advance(1)
+
+        then: "the engine should have fired"
+        engine.firings == [10000L + TemporaryFact.GUARANTEED_MIN_EXPIRATION_MILLIS]
+    }
+
+    def "Changes of facts are debounced"() {
+
+        given: "a ruleset with a debounce"
+        deploy(1, 100, 1000, null)
+
+        when: "facts change again within the debounce period"
+        engine.scheduleFire()
+        advance(50)
+        engine.scheduleFire()
+        advance(70)
+
+        then: "the engine shouldn't have fired yet"
+        engine.firings.isEmpty()
+
+        when: "the debounce period has passed after the last change"
+        advance(30)
+
+        then: "the engine should have fired once"
+        engine.firings == [10150L]
+    }
+
+    def "Facts that keep changing fire within the maximum latency"() {
+
+        given: "a ruleset with a debounce and a maximum latency"
+        deploy(1, 100, 300, null)
+
+        when: "facts keep changing within the debounce period"
+        (0..10).each {
+            engine.scheduleFire()
+            advance(50)
+        }
+        advance(1000)
+
+        then: "the engine should have fired at the maximum latency after the first unprocessed change"
+        engine.firings == [10300L, 10600L]
+    }
+
+    def "Firings are at least the minimum interval apart"() {
+
+        given: "a ruleset without a debounce and with a minimum interval"
+        deploy(1, 0, 1000, 500)
+
+        when: "facts change"
+        engine.scheduleFire()
+        advance(0)
+
+        then: "the engine should have fired immediately"
+        engine.firings == [10000L]
+
+        when: "facts change again shortly after"
+        advance(100)
+        engine.scheduleFire()
+        advance(100)
+        engine.scheduleFire()
+        advance(1000)
+
+        then: "the engine should have fired again after the minimum interval"
+        engine.firings == [10000L, 10500L]
+    }
+}
@@ -0,0 +1,193 @@
+package org.openremote.test.rules
+
+import org.openremote.container.Container
+import org.openremote.container.timer.TimerService
+import org.openremote.manager.asset.AssetProcessingService
+import org.openremote.manager.asset.AssetStorageService
+import org.openremote.manager.datapoint.AssetDatapointService
+import org.openremote.manager.datapoint.AssetPredictedDatapointService
+import org.openremote.manager.event.ClientEventService
+import org.openremote.manager.notification.NotificationService
+import org.openremote.manager.rules.AssetLocationPredicateProcessor
+import org.openremote.manager.rules.RulesEngine
+import org.openremote.manager.rules.RulesEngineId
+import org.openremote.manager.security.ManagerIdentityService
+import org.openremote.model.rules.GlobalRuleset
+import spock.lang.Specification
+
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class RulesEngineMailboxTest extends Specification {
+
+    def executorService = Mock(ScheduledExecutorService)
+    // Drain tasks submitted by the engine that haven't run yet
+    List<Runnable> drains = []
+    List<String> executed = new CopyOnWriteArrayList<>()
+    RulesEngine<GlobalRuleset> engine
+
+    def setupSpec() {
+        // Init logging config
+        Container.LOG.info("Running test...")
+    }
+
+    def setup() {
+        executorService.execute(_ as Runnable) >> { Runnable task -> drains.add(task) }
+        engine = createEngine(executorService)
+    }
+
+    RulesEngine<GlobalRuleset> createEngine(ScheduledExecutorService executorService) {
+        new RulesEngine<GlobalRuleset>(
+            new TimerService(),
+            Stub(ManagerIdentityService),
+            executorService,
+            Stub(AssetStorageService),
+            Stub(AssetProcessingService),
+            Stub(NotificationService),
+            Stub(ClientEventService),
+            Stub(AssetDatapointService),
+            Stub(AssetPredictedDatapointService),
+            new RulesEngineId<GlobalRuleset>(),
+            Stub(AssetLocationPredicateProcessor)
+        )
+    }
+
+    /**
+     * Holds the engine lock on another thread, like a deployment change, until the returned release latch is counted down.
+     */
+    def holdEngineLock() {
+        def holding = new CountDownLatch(1)
+        def release = new CountDownLatch(1)
+        def holder = Thread.start {
+            engine.withEngineLock {
+                holding.countDown()
+                release.await(10, TimeUnit.SECONDS)
+            }
+        }
+        assert holding.await(10, TimeUnit.SECONDS)
+        return [release: release, holder: holder]
+    }
+
+    def "A message runs immediately on the calling thread when the engine is idle"() {
+
+        when: "a message is executed"
+        Thread thread = null
+        engine.execute { thread = Thread.currentThread(); executed.add("message1") }
+
+        then: "it should have run on the calling thread without draining"
+        executed == ["message1"]
+        thread == Thread.currentThread()
+        drains.isEmpty()
+    }
+
+    def "Messages are queued while the engine is busy and run in order"() {
+
+        given: "the engine is busy"
+        def busy = holdEngineLock()
+
+        when: "messages are executed"
+        engine.execute { executed.add("message1") }
+        engine.execute { executed.add("message2") }
+
+        then: "they should have been queued without blocking and one drain should have been scheduled"
+        executed.isEmpty()
+        drains.size() == 1
+
+        when: "the engine is no longer busy"
+        busy.release.countDown()
+        busy.holder.join()
+
+        and: "another message is executed before the queued messages have been drained"
+        engine.execute { executed.add("message3") }
+
+        then: "it shouldn't overtake the queued messages"
+        executed.isEmpty()
+        drains.size() == 1
+
+        when: "the mailbox is drained"
+        drains.remove(0).run()
+
+        then: "the messages should have run in the order they were executed"
+        executed == ["message1", "message2", "message3"]
+
+        when: "another message is executed"
+        engine.execute { executed.add("message4") }
+
+        then: "it should run immediately again"
+        executed == ["message1", "message2", "message3", "message4"]
+        drains.isEmpty()
+    }
+
+    def "A failing message doesn't stop the mailbox"() {
+
+        given: "messages are queued while the engine is busy, the first one fails"
+        def busy = holdEngineLock()
+        engine.execute { throw new IllegalStateException("Message failed") }
+        engine.execute { executed.add("message2") }
+        busy.release.countDown()
+        busy.holder.join()
+
+        when: "the mailbox is drained"
+        drains.remove(0).run()
+
+        then: "the other message should have run"
+        executed == ["message2"]
+
+        when: "another message is executed"
+        engine.execute { executed.add("message3") }
+
+        then: "it should run immediately"
+        executed == ["message2", "message3"]
+        drains.isEmpty()
+    }
+
+    def "Messages of concurrent producers run one at a time and in order per producer"() {
+
+        given: "an engine with a real executor"
+        def realExecutor = Executors.newScheduledThreadPool(2)
+        def engine = createEngine(realExecutor)
+        def running = new AtomicInteger()
+        def maxRunning = new AtomicInteger()
+        // Only modified by messages, so it needs no synchronization if messages never run concurrently
+        List<String> order = []
+
+        when: "several threads execute messages concurrently"
+        def start = new CountDownLatch(1)
+        def producers = (1..4).collect { producer ->
+            Thread.start {
+                start.await()
+                (1..500).each { seq ->
+                    engine.execute {
+                        maxRunning.accumulateAndGet(running.incrementAndGet(), { a, b -> Math.max(a, b) })
+                        order.add(producer + ":" + seq)
+                        running.decrementAndGet()
+                    }
+                }
+            }
+        }
+        start.countDown()
+        producers*.join()
+
+        and: "the mailbox has been drained"
+        def drained = new CountDownLatch(1)
+        engine.execute { drained.countDown() }
+        drained.await(10, TimeUnit.SECONDS)
+
+        then: "every message should have run exactly once and never concurrently"
+        order.size() == 2000
+        order.toSet().size() == 2000
+        maxRunning.get() == 1
+
+        and: "the messages of each producer should have run in the order they were executed"
+        (1..4).every { producer ->
+            order.findAll { it.startsWith(producer + ":") } == (1..500).collect { producer + ":" + it }
+        }
+
+        cleanup:
+        realExecutor?.shutdownNow()
+    }
+}
@@ -0,0 +1,136 @@
+package org.openremote.test.users
+
+import com.google.common.cache.CacheBuilder
+import org.openremote.container.Container
+import org.openremote.manager.security.ManagerKeycloakIdentityProvider
+import org.openremote.model.security.Tenant
+import spock.lang.Specification
+
+class TenantCacheTest extends Specification {
+
+    /**
+     * Loads tenants from a map instead of Keycloak and counts the loads.
+     */
+    static class TestIdentityProvider extends ManagerKeycloakIdentityProvider {
+        Map<String, Tenant> tenants = [:]
+        int loads
+        Closure onLoad
+
+        @Override
+        protected Tenant loadTenant(String realm) {
+            loads++
+            def tenant = tenants[realm]
+            def loaded = tenant != null ? new Tenant(tenant.id, tenant.realm, tenant.displayName, tenant.enabled) : null
+            onLoad?.call(realm)
+            return loaded
+        }
+    }
+
+    def identityProvider = new TestIdentityProvider()
+
+    def setupSpec() {
+        // Init logging config
+        Container.LOG.info("Running test...")
+    }
+
+    def setup() {
+        identityProvider.tenants["building"] = new Tenant("1", "building", "Building", true)
+        identityProvider.tenantCache = CacheBuilder.newBuilder().recordStats().build()
+    }
+
+    def "Tenants are loaded once and handed out as copies"() {
+
+        when: "a tenant is requested twice"
+        def tenant1 = identityProvider.getTenant("building")
+        def tenant2 = identityProvider.getTenant("building")
+
+        then: "it should have been loaded once"
+        identityProvider.loads == 1
+        tenant1.displayName == "Building"
+        tenant2.displayName == "Building"
+
+        and: "each caller should get its own copy"
+        !tenant1.is(tenant2)
+
+        when: "a caller modifies its copy"
+        tenant1.setDisplayName("Modified")
+
+        then: "the cached tenant should be unchanged"
+        identityProvider.getTenant("building").displayName == "Building"
+        identityProvider.loads == 1
+
+        and: "the cache status should count the hits and misses"
+        def status = identityProvider.tenantCacheStatus.get()
+        status.get("size").asLong() == 1
+        status.get("hits").asLong() == 2
+        status.get("misses").asLong() == 1
+    }
+
+    def "Unknown tenants aren't cached"() {
+
+        when: "an unknown tenant is requested twice"
+        def tenant1 = identityProvider.getTenant("missing")
+        def tenant2 = identityProvider.getTenant("missing")
+
+        then: "it should have been loaded every time"
+        tenant1 == null
+        tenant2 == null
+        identityProvider.loads == 2
+    }
+
+    def "Modifying a tenant invalidates the cache"() {
+
+        given: "a cached tenant"
+        identityProvider.getTenant("building")
+
+        when: "the tenant is modified and the cache invalidated"
+        identityProvider.tenants["building"].setDisplayName("Modified")
+        identityProvider.invalidateTenantCache()
+
+        then: "the modified tenant should be loaded again"
+        identityProvider.getTenant("building").displayName == "Modified"
+        identityProvider.loads == 2
+        identityProvider.tenantCacheStatus.get().get("invalidations").asLong() == 1
+    }
+
+    def "A tenant loaded while the cache is invalidated isn't cached"() {
+
+        given: "the tenant is modified while it is loaded"
+        identityProvider.onLoad = { realm ->
+            identityProvider.onLoad = null
+            identityProvider.tenants["building"].setDisplayName("Modified")
+            identityProvider.invalidateTenantCache()
+        }
+
+        when: "the tenant is requested"
+        def tenant = identityProvider.getTenant("building")
+
+        then: "the caller should get what was loaded"
+        tenant.displayName == "Building"
+
+        and: "it shouldn't have been cached"
+        identityProvider.tenantCache.size() == 0
+
+        when: "the tenant is requested again"
+        tenant = identityProvider.getTenant("building")
+
+        then: "the modified tenant should be loaded and cached"
+        tenant.displayName == "Modified"
+        identityProvider.loads == 2
+        identityProvider.tenantCache.size() == 1
+    }
+
+    def "Tenants are loaded every time when the cache is disabled"() {
+
+        given: "the cache is disabled"
+        identityProvider.tenantCache = null
+
+        when: "a tenant is requested twice"
+        identityProvider.getTenant("building")
+        identityProvider.getTenant("building")
+
+        then: "it should have been loaded every time"
+        identityProvider.loads == 2
+        !identityProvider.tenantCacheStatus.present
+    }
+}
@@ -0,0 +1,107 @@
+package org.openremote.test.web
+
+import org.openremote.container.Container
+import org.openremote.manager.web.ConcurrencyLimiter
+import org.openremote.manager.web.ManagerWebService
+import spock.lang.Specification
+
+import javax.ws.rs.ServiceUnavailableException
+import javax.ws.rs.core.HttpHeaders
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.function.Supplier
+
+import static org.openremote.manager.web.ManagerWebService.REQUEST_CONCURRENCY_MAX
+
+class ConcurrencyLimiterTest extends Specification {
+
+    def managerWebService = new ManagerWebService()
+    def config = [(REQUEST_CONCURRENCY_MAX): "2", "QUERY_CONCURRENCY_MAX": "1"]
+    // Releases the requests that hold their permits
+    def release = new CountDownLatch(1)
+    List<Thread> holders = []
+
+    def setupSpec() {
+        // Init logging config
+        Container.LOG.info("Running test...")
+    }
+
+    def cleanup() {
+        release.countDown()
+        holders*.join()
+    }
+
+    /**
+     * Starts a request that holds its permits until released, returns once the request is being handled.
+     */
+    def hold(ConcurrencyLimiter limiter) {
+        def handling = new CountDownLatch(1)
+        holders.add(Thread.start {
+            limiter.call({
+                handling.countDown()
+                release.await(10, TimeUnit.SECONDS)
+            } as Supplier)
+        })
+        assert handling.await(10, TimeUnit.SECONDS)
+    }
+
+    def "Requests are rejected with 503 and Retry-After once the shared budget is exhausted"() {
+
+        given: "two endpoints sharing the budget, one of them has its own maximum"
+        def writeLimiter = managerWebService.createConcurrencyLimiter(config, "write", "WRITE_CONCURRENCY_MAX")
+        def queryLimiter = managerWebService.createConcurrencyLimiter(config, "query", "QUERY_CONCURRENCY_MAX")
+
+        when: "the budget is exhausted by requests of the endpoint without its own maximum"
+        2.times { hold(writeLimiter) }
+        queryLimiter.call({ "result" } as Supplier)
+
+        then: "a request of the other endpoint should be rejected although it has permits left"
+        ServiceUnavailableException ex = thrown()
+        ex.response.status == 503
+        ex.response.getHeaderString(HttpHeaders.RETRY_AFTER) == String.valueOf(ConcurrencyLimiter.RETRY_AFTER_SECONDS)
+
+        when: "the budget is released"
+        release.countDown()
+        holders*.join()
+
+        then: "the rejected request shouldn't have kept the permit of its endpoint"
+        queryLimiter.call({ "result" } as Supplier) == "result"
+        writeLimiter.call({ "result" } as Supplier) == "result"
+    }
+
+    def "Requests are rejected with 503 and Retry-After once the endpoint maximum is reached"() {
+
+        given: "an endpoint with its own maximum"
+        def queryLimiter = managerWebService.createConcurrencyLimiter(config, "query", "QUERY_CONCURRENCY_MAX")
+        def writeLimiter = managerWebService.createConcurrencyLimiter(config, "write", "WRITE_CONCURRENCY_MAX")
+
+        when: "the endpoint maximum is reached"
+        hold(queryLimiter)
+        queryLimiter.call({ "result" } as Supplier)
+
+        then: "another request of the endpoint should be rejected"
+        ServiceUnavailableException ex = thrown()
+        ex.response.status == 503
+        ex.response.getHeaderString(HttpHeaders.RETRY_AFTER) == String.valueOf(ConcurrencyLimiter.RETRY_AFTER_SECONDS)
+
+        and: "requests of other endpoints should still be handled with the rest of the budget"
+        writeLimiter.call({ "result" } as Supplier) == "result"
+    }
+
+    def "A request waits for a permit that becomes available in time"() {
+
+        given: "an exhausted budget"
+        def writeLimiter = managerWebService.createConcurrencyLimiter(config, "write", "WRITE_CONCURRENCY_MAX")
+        2.times { hold(writeLimiter) }
+
+        when: "a permit is released while another request waits"
+        Thread.start {
+            Thread.sleep(ConcurrencyLimiter.WAIT_MILLIS.intdiv(4))
+            release.countDown()
+        }
+        def result = writeLimiter.call({ "result" } as Supplier)
+
+        then: "the waiting request should have been handled"
+        result == "result"
+    }
+}
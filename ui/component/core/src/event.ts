@@ -1,5 +1,6 @@
 import manager from "./index";
 import {arrayRemove, Deferred} from "./util";
+import {decode as decodeCbor} from "cbor-x";
 import {
     Asset,
     AssetEvent,
@@ -9,6 +10,7 @@ import {
     AttributeEvent,
     AttributeRef,
     CancelEventSubscription,
+    EventEncoding,
     EventRequestResponseWrapper,
     EventSubscription,
     ReadAssetsEvent,
@@ -51,6 +53,11 @@ export interface EventProvider {
 
     sendEvent<T extends SharedEvent>(event: T): void;
 
+    /**
+     * Send the events as one batch, the {@link AttributeEvent}s of the batch are queued for processing at once.
+     */
+    sendEvents<T extends SharedEvent>(events: T[]): void;
+
     sendEventWithReply<T extends SharedEvent, U extends SharedEvent>(event: EventRequestResponseWrapper<T>): Promise<U>;
 }
 
@@ -260,6 +267,13 @@ abstract class EventProviderImpl implements EventProvider {
         }
     }
 
+    public sendEvents<T extends SharedEvent>(events: T[]): void {
+
+        if (this._status === EventProviderStatus.CONNECTED && events.length > 0) {
+            this._doSend(events);
+        }
+    }
+
     public sendEventWithReply<T extends SharedEvent, U extends SharedEvent>(event: EventRequestResponseWrapper<T>): Promise<U> {
         if (this._status !== EventProviderStatus.CONNECTED) {
             return Promise.reject("Not connected");
@@ -556,7 +570,7 @@ abstract class EventProviderImpl implements EventProvider {
         }
     }
 
-    protected abstract _doSend<T extends SharedEvent>(event: T): void;
+    protected abstract _doSend<T extends SharedEvent>(event: T | T[]): void;
 
     protected abstract _doSendWithReply<T extends SharedEvent, U extends SharedEvent>(event: EventRequestResponseWrapper<T>): Promise<U>;
 
@@ -578,14 +592,16 @@ export class WebSocketEventProvider extends EventProviderImpl {
     protected _connectDeferred: Deferred<boolean> | null = null;
     protected _subscribeDeferred: Deferred<string> | null = null;
     protected _repliesDeferred: Map<string, Deferred<SharedEvent>> = new Map<string, Deferred<SharedEvent>>();
+    protected _encoding?: EventEncoding;
 
     get endpointUrl(): string {
         return this._endpointUrl;
     }
 
-    constructor(managerUrl: string) {
+    constructor(managerUrl: string, encoding?: EventEncoding) {
         super();
 
+        this._encoding = encoding;
         this._endpointUrl = (managerUrl.startsWith("https:") ? "wss" : "ws") + "://" + managerUrl.substr(managerUrl.indexOf("://") + 3) + "/websocket/events";
 
         // Close socket on unload/refresh of page
@@ -602,6 +618,7 @@ export class WebSocketEventProvider extends EventProviderImpl {
         }
 
         this._webSocket = new WebSocket(authorisedUrl);
+        this._webSocket.binaryType = "arraybuffer";
         this._connectDeferred = new Deferred();
 
         this._webSocket!.onopen = () => {
@@ -637,6 +654,12 @@ export class WebSocketEventProvider extends EventProviderImpl {
         };
 
         this._webSocket!.onmessage = (e) => {
+            if (e.data instanceof ArrayBuffer) {
+                // Binary messages are CBOR encoded triggered event subscriptions
+                this._onTriggered(decodeCbor(new Uint8Array(e.data)) as TriggeredEventSubscription<SharedEvent>);
+                return;
+            }
+
             const msg = e.data as string;
 
             if (msg && msg.startsWith(SUBSCRIBED_MESSAGE_PREFIX)) {
@@ -658,12 +681,7 @@ export class WebSocketEventProvider extends EventProviderImpl {
                 }
             } else if (msg.startsWith(TRIGGERED_MESSAGE_PREFIX)) {
                 const str = msg.substring(TRIGGERED_MESSAGE_PREFIX.length);
-                const triggered = JSON.parse(str) as TriggeredEventSubscription<SharedEvent>;
-                if (triggered.events) {
-                    triggered.events.forEach((event) => {
-                        this._onMessageReceived(triggered.subscriptionId!, event);
-                    });
-                }
+                this._onTriggered(JSON.parse(str) as TriggeredEventSubscription<SharedEvent>);
             } else if (msg.startsWith(EVENT_REQUEST_RESPONSE_MESSAGE_PREFIX)) {
                 const str = msg.substring(EVENT_REQUEST_RESPONSE_MESSAGE_PREFIX.length);
                 const event = JSON.parse(str) as EventRequestResponseWrapper<SharedEvent>;
@@ -680,6 +698,14 @@ export class WebSocketEventProvider extends EventProviderImpl {
         return this._connectDeferred.promise;
     }
 
+    protected _onTriggered(triggered: TriggeredEventSubscription<SharedEvent>) {
+        if (triggered.events) {
+            triggered.events.forEach((event) => {
+                this._onMessageReceived(triggered.subscriptionId!, event);
+            });
+        }
+    }
+
     protected _beforeDisconnect(): void {
         this._onDisconnect();
     }
@@ -703,6 +729,9 @@ export class WebSocketEventProvider extends EventProviderImpl {
         if (!subscription.subscriptionId) {
             subscription.subscriptionId = WebSocketEventProvider._subscriptionCounter++ + "";
         }
+        if (this._encoding && !subscription.encoding) {
+            subscription.encoding = this._encoding;
+        }
         this._webSocket.send(SUBSCRIBE_MESSAGE_PREFIX + JSON.stringify(subscription));
         return this._subscribeDeferred.promise;
     }
@@ -717,7 +746,7 @@ export class WebSocketEventProvider extends EventProviderImpl {
         this._webSocket.send(UNSUBSCRIBE_MESSAGE_PREFIX + JSON.stringify(cancelSubscription));
     }
 
-    protected _doSend<T extends SharedEvent>(event: T): void {
+    protected _doSend<T extends SharedEvent>(event: T | T[]): void {
         const message = EVENT_MESSAGE_PREFIX + JSON.stringify(event);
         this._webSocket!.send(message);
     }
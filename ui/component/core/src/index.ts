@@ -13,6 +13,7 @@ import {
     Attribute,
     AttributeDescriptor,
     ConsoleAppConfig,
+    EventEncoding,
     MetaItemDescriptor,
     Role,
     User,
@@ -120,6 +121,7 @@ export interface ManagerConfig {
     credentials?: Credentials;
     consoleAutoEnable?: boolean;
     eventProviderType?: EventProviderType;
+    eventEncoding?: EventEncoding;
     pollingIntervalMillis?: number;
     loadIcons?: boolean;
     loadDescriptors?: boolean;
@@ -866,7 +868,7 @@ export class Manager implements EventProviderFactory {
 
         switch (this._config.eventProviderType) {
             case EventProviderType.WEBSOCKET:
-                this._events = new WebSocketEventProvider(this._config.managerUrl!);
+                this._events = new WebSocketEventProvider(this._config.managerUrl!, this._config.eventEncoding);
                 this._events.subscribeStatusChange((status: EventProviderStatus) => this._onEventProviderStatusChanged(status));
                 connected = await this._events.connect();
                 break;